@@ -0,0 +1,96 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.netbeans.lib.profiler.heap.Heap;
+import org.netbeans.lib.profiler.heap.HeapFactory2;
+import org.netbeans.lib.profiler.heap.Instance;
+import org.netbeans.lib.profiler.heap.SyntheticDump;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole heap passes typical for CLI commands.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HeapScanBenchmark {
+
+    Heap fastHeap;
+    Heap indexedHeap;
+
+    @Setup
+    public void open(SyntheticDump dump) throws IOException {
+        fastHeap = HeapFactory2.createFastHeap(dump.dump);
+        fastHeap.getAllClasses();
+        // histogram tracks instance numbers, which require indexed heap
+        indexedHeap = HeapFactory2.createHeap(dump.dump, null);
+        indexedHeap.getAllClasses();
+    }
+
+    @Benchmark
+    public long iterateInstances() {
+        long size = 0;
+        for(Instance i: fastHeap.getAllInstances()) {
+            size += i.getSize();
+        }
+        return size;
+    }
+
+    @Benchmark
+    public HeapHistogram histogram() {
+        HeapHistogram histo = new HeapHistogram();
+        for(Instance i: indexedHeap.getAllInstances()) {
+            histo.accumulate(i);
+        }
+        return histo;
+    }
+
+    @Benchmark
+    public ClassHistogram classHistogram() {
+        ClassHistogram histo = new ClassHistogram(fastHeap);
+        for(Instance i: fastHeap.getAllInstances()) {
+            histo.accumulate(i);
+        }
+        return histo;
+    }
+
+    @Benchmark
+    public int walkPath() {
+        int n = 0;
+        for(Instance i: HeapWalker.walk(fastHeap, "(**.DummyB).map.table[*].value")) {
+            if (i != null) {
+                ++n;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.netbeans.lib.profiler.heap.HeapFactory2;
+import org.netbeans.lib.profiler.heap.SyntheticDump;
+import org.netbeans.modules.profiler.oql.engine.api.OQLEngine;
+import org.netbeans.modules.profiler.oql.engine.api.OQLEngine.ObjectVisitor;
+import org.netbeans.modules.profiler.oql.engine.api.OQLException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end OQL query latency.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OqlBenchmark {
+
+    @Param({
+        "select b.seqNo from org.netbeans.lib.profiler.heap.DummyB b",
+        "select b from org.netbeans.lib.profiler.heap.DummyB b where b.list.size > 2",
+    })
+    public String query;
+
+    OQLEngine engine;
+
+    @Setup
+    public void open(SyntheticDump dump) throws IOException {
+        engine = new OQLEngine(HeapFactory2.createFastHeap(dump.dump));
+    }
+
+    @Benchmark
+    public int execute() throws OQLException {
+        final int[] count = new int[1];
+        engine.executeQuery(query, new ObjectVisitor() {
+            @Override
+            public boolean visit(Object o) {
+                ++count[0];
+                return false;
+            }
+        });
+        return count[0];
+    }
+}
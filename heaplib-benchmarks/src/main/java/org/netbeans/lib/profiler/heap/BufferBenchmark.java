@@ -0,0 +1,132 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.gridkit.jvmtool.heapdump.io.ByteBufferPageManager;
+import org.gridkit.jvmtool.heapdump.io.PagedFileHprofByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link HprofByteBuffer} strategies. Page pool for paged and
+ * compressed buffers is limited, so scans are dominated by page faults.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class BufferBenchmark {
+
+    private static final int SAMPLE = 1 << 12;
+
+    @Param({"mapped", "paged", "gzip", "block"})
+    public String buffer;
+
+    /**
+     * Page pool size in MiB, gzip buffer inflates 16 MiB at once,
+     * so smaller pools would thrash.
+     */
+    @Param({"64"})
+    public int poolSize;
+
+    Heap heap;
+    long[] ids;
+
+    @Setup(Level.Trial)
+    public void sample(SyntheticDump dump) throws IOException {
+        Heap mapped = HeapFactory2.createFastHeap(dump.dump);
+        List<Long> all = new ArrayList<Long>();
+        for(Instance i: mapped.getAllInstances()) {
+            all.add(i.getInstanceId());
+        }
+        ((HprofHeap) mapped).close();
+        Collections.shuffle(all, new Random(1));
+        ids = new long[Math.min(SAMPLE, all.size())];
+        for(int i = 0; i != ids.length; ++i) {
+            ids[i] = all.get(i);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void open(SyntheticDump dump) throws IOException {
+        long bufferSize = ((long)poolSize) << 20;
+        if ("mapped".equals(buffer)) {
+            heap = HeapFactory2.createFastHeap(dump.dump);
+        }
+        else if ("paged".equals(buffer)) {
+            PagedFileHprofByteBuffer pb = new PagedFileHprofByteBuffer(new RandomAccessFile(dump.dump, "r"), new ByteBufferPageManager(512 << 10, bufferSize));
+            heap = new FastHprofHeap(pb, 0);
+        }
+        else if ("gzip".equals(buffer)) {
+            heap = HeapFactory2.createFastHeap(dump.gzipDump, bufferSize);
+        }
+        else if ("block".equals(buffer)) {
+            heap = HeapFactory2.createFastHeap(dump.blockDump, bufferSize);
+        }
+        else {
+            throw new IllegalArgumentException("Unknown buffer type: " + buffer);
+        }
+        // class parsing is not a part of measurement
+        heap.getAllClasses();
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        ((HprofHeap) heap).close();
+        heap = null;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long sequentialScan() {
+        long size = 0;
+        for(Instance i: heap.getAllInstances()) {
+            size += i.getSize();
+        }
+        return size;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long randomAccess() {
+        long size = 0;
+        for(long id: ids) {
+            size += heap.getInstanceByID(id).getSize();
+        }
+        return size;
+    }
+}
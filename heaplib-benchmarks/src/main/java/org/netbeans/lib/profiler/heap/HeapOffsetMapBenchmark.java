@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Instance ID to dump offset resolution used by {@link FastHprofHeap}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HeapOffsetMapBenchmark {
+
+    private static final int SAMPLE = 1 << 16;
+
+    FastHprofHeap heap;
+    HeapOffsetMap offsetMap;
+    long[] ids;
+    int n;
+
+    @Setup
+    public void open(SyntheticDump dump) throws IOException {
+        heap = (FastHprofHeap) HeapFactory2.createFastHeap(dump.dump);
+        List<Long> all = new ArrayList<Long>();
+        for(Instance i: heap.getAllInstances()) {
+            all.add(i.getInstanceId());
+        }
+        Collections.shuffle(all, new Random(1));
+        ids = new long[SAMPLE];
+        for(int i = 0; i != ids.length; ++i) {
+            ids[i] = all.get(i % all.size());
+        }
+        offsetMap = new HeapOffsetMap(heap);
+        offsetMap.completeScan();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long offset() {
+        return offsetMap.offset(ids[(n++) & (SAMPLE - 1)]);
+    }
+
+    /**
+     * Building offset map for whole dump.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public HeapOffsetMap scan() {
+        HeapOffsetMap map = new HeapOffsetMap(heap);
+        map.completeScan();
+        return map;
+    }
+}
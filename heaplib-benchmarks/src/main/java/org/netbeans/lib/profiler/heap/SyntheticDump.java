@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.gridkit.jvmtool.heapdump.io.BlockCompressedHprofWriter;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Heap dump of benchmark JVM populated with synthetic object graph.
+ * Dumps are cached under <code>target/bench</code> between runs.
+ */
+@State(Scope.Benchmark)
+public class SyntheticDump {
+
+    private static Object payload;
+
+    /** Number of synthetic {@link DummyB} records, each has a few strings, a list and a map */
+    @Param({"100000"})
+    public int records;
+
+    public File dump;
+    public File gzipDump;
+    public File blockDump;
+
+    @Setup
+    public void generate() throws IOException {
+        File dir = new File("target/bench");
+        dir.mkdirs();
+        dump = new File(dir, "synthetic-" + records + ".hprof");
+        gzipDump = new File(dir, "synthetic-" + records + ".hprof.gz");
+        blockDump = new File(dir, "synthetic-" + records + ".hpz");
+
+        if (!dump.exists()) {
+            System.out.println("Generating heap dump: " + dump.getPath());
+            payload = populate(records);
+            HeapDumpProcuder.holder.initTestHeap();
+            System.out.println(HeapDumpProcuder.dumpLive(dump.getPath(), 300000));
+            payload = null;
+        }
+        if (!gzipDump.exists()) {
+            InputStream is = new FileInputStream(dump);
+            copy(is, new GZIPOutputStream(new FileOutputStream(gzipDump), 64 << 10));
+            is.close();
+        }
+        if (!blockDump.exists()) {
+            new BlockCompressedHprofWriter().convert(dump, blockDump);
+        }
+    }
+
+    private static Object populate(int records) {
+        List<DummyB> data = new ArrayList<DummyB>(records);
+        for(int i = 0; i != records; ++i) {
+            DummyB b = new DummyB();
+            b.seqNo = String.valueOf(i);
+            for(int j = 0; j != i % 4; ++j) {
+                b.list.add("item" + j);
+                b.map.put("k" + j, "v" + i + "." + j);
+            }
+            data.add(b);
+        }
+        return data;
+    }
+
+    private static void copy(InputStream is, OutputStream os) throws IOException {
+        byte[] buf = new byte[64 << 10];
+        int n;
+        while((n = is.read(buf)) >= 0) {
+            os.write(buf, 0, n);
+        }
+        os.close();
+    }
+}
@@ -8,6 +8,7 @@ import com.googlecode.lanterna.screen.TerminalScreen;
 import com.googlecode.lanterna.terminal.DefaultTerminalFactory;
 import org.gridkit.jvmtool.cli.CommandLauncher;
 import org.gridkit.jvmtool.cli.CommandLauncher.CmdRef;
+import org.netbeans.lib.profiler.heap.DominatorIndex;
 import org.netbeans.lib.profiler.heap.Heap;
 import org.netbeans.lib.profiler.heap.Instance;
 import org.perfkit.heaplib.cli.ui.TreeViewBox;
@@ -31,6 +32,8 @@ public class AnalyzeCmd implements CmdRef {
     @Parameters(commandDescription = "HProf analyze")
     public static class AnalyzeRunner implements Runnable {
 
+        private static final int MAX_ROOTS = 1000;
+
         @ParametersDelegate
         private final CommandLauncher host;
 
@@ -45,7 +48,7 @@ public class AnalyzeCmd implements CmdRef {
         public void run() {
             try {
                 Heap heap = heapProvider.openHeap(host);
-                List<Instance> dominators = new ArrayList<>(getDominatorRoots(heap));
+                List<Instance> dominators = getDominatorRoots(heap);
                 tui(dominators);
             } catch (Exception e) {
                 System.out.println(e.getMessage());
@@ -55,33 +58,13 @@ public class AnalyzeCmd implements CmdRef {
 
         }
 
-        private Set<Instance> getDominatorRoots(Heap heap) {
-            List<Instance> searchInstances = heap.getBiggestObjectsByRetainedSize(1000);
-            Set<Instance> dominators = new HashSet(searchInstances);
-            Set<Instance> removed = new HashSet();
-
-            for (Instance instance : searchInstances) {
-                if (dominators.contains(instance)) {
-                    Instance dom = instance;
-                    long retainedSize = instance.getRetainedSize();
-
-                    while (!instance.isGCRoot()) {
-                        instance = instance.getNearestGCRootPointer();
-                        if (dominators.contains(instance) && instance.getRetainedSize() >= retainedSize) {
-                            dominators.remove(dom);
-                            removed.add(dom);
-                            dom = instance;
-                            retainedSize = instance.getRetainedSize();
-                        }
-                        if (removed.contains(instance)) {
-                            dominators.remove(dom);
-                            removed.add(dom);
-                            break;
-                        }
-                    }
-                }
-            }
-            return dominators;
+        /**
+         * @return top level dominators, biggest retained size first
+         */
+        private List<Instance> getDominatorRoots(Heap heap) {
+            DominatorIndex.enable(heap);
+            DominatorIndex index = DominatorIndex.of(heap);
+            return index.toInstances(index.getTopLevelDominators(), MAX_ROOTS);
         }
 
         private void tui(List<Instance> roots) {
@@ -0,0 +1,71 @@
+package org.perfkit.heaplib.cli.cmd;
+
+import java.io.File;
+import java.util.zip.Deflater;
+
+import org.gridkit.jvmtool.cli.CommandLauncher;
+import org.gridkit.jvmtool.cli.CommandLauncher.CmdRef;
+import org.gridkit.jvmtool.heapdump.io.BlockCompressedHprofWriter;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.beust.jcommander.ParametersDelegate;
+
+public class ConvertCmd implements CmdRef {
+
+    @Override
+    public String getCommandName() {
+        return "convert";
+    }
+
+    @Override
+    public Runnable newCommand(CommandLauncher host) {
+        return new ConvertRunner(host);
+    }
+
+    @Parameters(commandDescription = "Convert heap dump (plain or gzip) into seekable block compressed format")
+    public static class ConvertRunner implements Runnable {
+
+        @ParametersDelegate
+        private final CommandLauncher host;
+
+        @Parameter(names = { "-d" }, required = true, description = "Path to source heap dump file")
+        private String source;
+
+        @Parameter(names = { "-o" }, required = true, description = "Path to output file")
+        private String target;
+
+        @Parameter(names = { "--block-size" }, required = false, description = "Size of independently compressed block in KiB")
+        private int blockSize = BlockCompressedHprofWriter.DEFAULT_BLOCK_SIZE >> 10;
+
+        @Parameter(names = { "--level" }, required = false, description = "Compression level 1-9")
+        private int level = Deflater.DEFAULT_COMPRESSION;
+
+        public ConvertRunner(CommandLauncher host) {
+            this.host = host;
+        }
+
+        @Override
+        public void run() {
+            File src = new File(source);
+            File dst = new File(target);
+            if (!src.isFile()) {
+                throw host.fail("No such file '" + source + "'");
+            }
+            if (src.getAbsoluteFile().equals(dst.getAbsoluteFile())) {
+                throw host.fail("Source and target should be different files");
+            }
+            if (blockSize < 1 || blockSize > (Integer.MAX_VALUE >> 10)) {
+                throw host.fail("Block size should be between 1 and " + (Integer.MAX_VALUE >> 10) + " KiB, but was " + blockSize);
+            }
+            try {
+                long start = System.nanoTime();
+                new BlockCompressedHprofWriter(blockSize << 10, level).convert(src, dst);
+                long time = (System.nanoTime() - start) / 1000000;
+                System.out.println("Converted " + src.length() + " -> " + dst.length() + " bytes in " + time + "ms");
+            } catch (Exception e) {
+                throw host.fail("Failed to convert heap dump " + e.toString(), e);
+            }
+        }
+    }
+}
@@ -7,6 +7,8 @@ import java.util.List;
 import org.gridkit.jvmtool.cli.CommandLauncher;
 import org.gridkit.jvmtool.cli.CommandLauncher.CmdRef;
 import org.gridkit.jvmtool.heapdump.HeapWalker;
+import org.gridkit.jvmtool.heapdump.InstanceCallback;
+import org.gridkit.jvmtool.heapdump.MultiPathWalker;
 import org.netbeans.lib.profiler.heap.Heap;
 import org.netbeans.lib.profiler.heap.Instance;
 
@@ -52,16 +54,20 @@ public class GrepCmd implements CmdRef {
                     sl.add(Selector.parse(selector));
                 }
 
-                // TODO single pass for all selectors
-                for(Selector s: sl) {
-
-                    for(Instance i: HeapWalker.walk(heap, s.getHeapPath())) {
-                        String txt = stringify(HeapWalker.valueOf(i));
-                        if (s.getRegEx() == null || s.getRegEx().matcher(txt).matches()) {
-                            System.out.println("#" + i.getInstanceId() + " '" + txt + "'");
+                // all selectors are evaluated during single pass over heap
+                MultiPathWalker walker = new MultiPathWalker(heap);
+                for(final Selector s: sl) {
+                    walker.addPath(s.getHeapPath(), new InstanceCallback() {
+                        @Override
+                        public void feed(Instance i) {
+                            String txt = stringify(HeapWalker.valueOf(i));
+                            if (s.getRegEx() == null || s.getRegEx().matcher(txt).matches()) {
+                                System.out.println("#" + i.getInstanceId() + " '" + txt + "'");
+                            }
                         }
-                    }
+                    });
                 }
+                walker.walk();
             } catch (Exception e) {
                 throw host.fail("Error during heap processing " + e.toString(), e);
             }
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 
 import org.gridkit.jvmtool.cli.CommandLauncher;
+import org.netbeans.lib.profiler.heap.FastHprofHeap;
 import org.netbeans.lib.profiler.heap.Heap;
 import org.netbeans.lib.profiler.heap.HeapFactory2;
 
@@ -25,6 +26,14 @@ public class HeapProvider {
             "--buffer-size" }, required = false, description = "Size of data buffer in MiB, required if file cannot be memory mapped")
     private long bufferSize = -1;
 
+    @Parameter(names = {
+            "--offset-index" }, required = false, description = "Path to persistent offset index file for FastHeap mode, created if missing or outdated")
+    private String offsetIndex;
+
+    @Parameter(names = {
+            "--instance-index" }, required = false, description = "Build per class instance lists in FastHeap mode, stored in offset index file if used")
+    private boolean instanceIndex = false;
+
     private boolean writeable = false;
 
     public void openWriteable(boolean writeable) {
@@ -47,18 +56,35 @@ public class HeapProvider {
                 if (bufferSize > 0) {
                     throw host.fail("--buffer-size required is not allowed for writeable mode");
                 }
+                if (offsetIndex != null) {
+                    throw host.fail("--offset-index is not allowed for writeable mode");
+                }
+                if (instanceIndex) {
+                    throw host.fail("--instance-index is not allowed for writeable mode");
+                }
                 return HeapFactory2.createWriteableHeap(dump);
             } else {
-                if (bufferSize > 0) {
-                    return HeapFactory2.createFastHeap(dump, bufferSize << 20);
+                if (bufferSize <= 0 && !HeapFactory2.canBeMemMapped(dump)) {
+                    throw host.fail("File cannot be mapped to memmory, --buffer-size is required");
+                }
+                long buffer = bufferSize > 0 ? bufferSize << 20 : HeapFactory2.DEFAULT_BUFFER;
+                if (offsetIndex != null) {
+                    return HeapFactory2.createFastHeap(dump, buffer, new File(offsetIndex), instanceIndex);
                 } else {
-                    if (!HeapFactory2.canBeMemMapped(dump)) {
-                        throw host.fail("File cannot be mapped to memmory, --buffer-size is required");
+                    Heap heap = HeapFactory2.createFastHeap(dump, buffer);
+                    if (instanceIndex) {
+                        ((FastHprofHeap) heap).enableInstanceIndex();
                     }
-                    return HeapFactory2.createFastHeap(dump);
+                    return heap;
                 }
             }
         } else {
+            if (offsetIndex != null) {
+                throw host.fail("--offset-index requires --noindex");
+            }
+            if (instanceIndex) {
+                throw host.fail("--instance-index requires --noindex");
+            }
             if (writeable) {
                 throw host.fail("--noindex is required for patching heap dump");
             }
@@ -2,10 +2,11 @@ package org.perfkit.heaplib.cli.cmd;
 
 import org.gridkit.jvmtool.cli.CommandLauncher;
 import org.gridkit.jvmtool.cli.CommandLauncher.CmdRef;
-import org.gridkit.jvmtool.heapdump.HeapHistogram;
+import org.gridkit.jvmtool.heapdump.ClassHistogram;
 import org.netbeans.lib.profiler.heap.Heap;
-import org.netbeans.lib.profiler.heap.Instance;
+import org.netbeans.lib.profiler.heap.ParallelHeapScanner;
 
+import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.beust.jcommander.ParametersDelegate;
 
@@ -21,6 +22,15 @@ public class HistoCmd implements CmdRef {
         return new HistoRunner(host);
     }
 
+    static ParallelHeapScanner.CallbackFactory<ClassHistogram> histogramFactory(final Heap heap) {
+        return new ParallelHeapScanner.CallbackFactory<ClassHistogram>() {
+            @Override
+            public ClassHistogram newCallback() {
+                return new ClassHistogram(heap);
+            }
+        };
+    }
+
     @Parameters(commandDescription = "Class histogram")
     public static class HistoRunner implements Runnable {
 
@@ -30,6 +40,9 @@ public class HistoCmd implements CmdRef {
         @ParametersDelegate
         private HeapProvider heapProvider = new HeapProvider();
 
+        @Parameter(names = { "--threads" }, required = false, description = "Number of threads used to scan heap")
+        private int threads = Runtime.getRuntime().availableProcessors();
+
         public HistoRunner(CommandLauncher host) {
             this.host = host;
         }
@@ -38,10 +51,11 @@ public class HistoCmd implements CmdRef {
         public void run() {
             try {
                 Heap heap = heapProvider.openHeap(host);
-                HeapHistogram histogram = new HeapHistogram();
+                ClassHistogram histogram = new ClassHistogram(heap);
 
-                for (Instance i : heap.getAllInstances()) {
-                    histogram.accumulate(i);
+                ParallelHeapScanner scanner = new ParallelHeapScanner(heap, threads);
+                for (ClassHistogram h : scanner.scan(histogramFactory(heap))) {
+                    histogram.merge(h);
                 }
 
                 System.out.println(histogram.formatTop(Integer.MAX_VALUE));
@@ -1,13 +1,15 @@
 package org.perfkit.heaplib.cli.cmd;
 
+import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import com.beust.jcommander.ParametersDelegate;
 import org.gridkit.jvmtool.cli.CommandLauncher;
 import org.gridkit.jvmtool.cli.CommandLauncher.CmdRef;
+import org.gridkit.jvmtool.heapdump.ClassHistogram;
 import org.gridkit.jvmtool.heapdump.HeapHistogram;
 import org.netbeans.lib.profiler.heap.Heap;
 import org.netbeans.lib.profiler.heap.HeapSummary;
-import org.netbeans.lib.profiler.heap.Instance;
+import org.netbeans.lib.profiler.heap.ParallelHeapScanner;
 
 public class SummaryCmd implements CmdRef {
     @Override
@@ -29,6 +31,9 @@ public class SummaryCmd implements CmdRef {
         @ParametersDelegate
         private HeapProvider heapProvider = new HeapProvider();
 
+        @Parameter(names = { "--threads" }, required = false, description = "Number of threads used to scan heap")
+        private int threads = Runtime.getRuntime().availableProcessors();
+
         public SummaryRunner(CommandLauncher host) {
             this.host = host;
         }
@@ -45,7 +50,7 @@ public class SummaryCmd implements CmdRef {
                 printField("Instances:", Long.toString(summary.getTotalLiveInstances()));
                 printField("classes:", Long.toString(summary.getClassCount()));
 
-                HeapHistogram histogram = accumulateHistogram(heap);
+                ClassHistogram histogram = accumulateHistogram(heap);
                 printHeader("按实例总大小排序的 Classes");
                 printHistogramBySize(histogram, 10);
                 printHeader("按实例数排序的 Classes");
@@ -58,11 +63,12 @@ public class SummaryCmd implements CmdRef {
             }
         }
 
-        private HeapHistogram accumulateHistogram(Heap heap) {
-            HeapHistogram histogram = new HeapHistogram();
+        private ClassHistogram accumulateHistogram(Heap heap) {
+            ClassHistogram histogram = new ClassHistogram(heap);
 
-            for (Instance i : heap.getAllInstances()) {
-                histogram.accumulate(i);
+            ParallelHeapScanner scanner = new ParallelHeapScanner(heap, threads);
+            for (ClassHistogram h : scanner.scan(HistoCmd.histogramFactory(heap))) {
+                histogram.merge(h);
             }
 
             return histogram;
@@ -76,7 +82,7 @@ public class SummaryCmd implements CmdRef {
             System.out.format("%-10s%10s%n", key, value);
         }
 
-        private void printHistogramBySize(HeapHistogram histogram, int top) {
+        private void printHistogramBySize(ClassHistogram histogram, int top) {
             System.out.format("%10s%10s%10s%n", "Size", "Count", "Class");
             int n = 0;
             for(HeapHistogram.ClassRecord cr: histogram.getHistoBySize()) {
@@ -88,7 +94,7 @@ public class SummaryCmd implements CmdRef {
             }
         }
 
-        private void printHistogramByCount(HeapHistogram histogram, int top) {
+        private void printHistogramByCount(ClassHistogram histogram, int top) {
             System.out.format("%10s%10s%10s%n", "Count", "Size", "Class");
             int n = 0;
             for(HeapHistogram.ClassRecord cr: histogram.getHistoByCount()) {
@@ -100,7 +106,7 @@ public class SummaryCmd implements CmdRef {
             }
         }
 
-        private void printHistogramByInstanceCount(HeapHistogram histogram, int top) {
+        private void printHistogramByInstanceCount(ClassHistogram histogram, int top) {
             System.out.format("%10s%10s%n", "Size", "Instance");
             int n = 0;
             for(HeapHistogram.ClassRecord cr: histogram.getTopInstances()) {
@@ -0,0 +1,326 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gridkit.jvmtool.heapdump.HeapHistogram.ClassRecord;
+import org.gridkit.jvmtool.util.LongIntHashTable;
+import org.netbeans.lib.profiler.heap.Heap;
+import org.netbeans.lib.profiler.heap.Instance;
+import org.netbeans.lib.profiler.heap.InstanceCursor;
+import org.netbeans.lib.profiler.heap.JavaClass;
+
+/**
+ * Class histogram indexed by position of class in {@link Heap#getAllClasses()}.
+ * <br/>
+ * Unlike {@link HeapHistogram}, counters are kept in primitive arrays and
+ * largest instances are tracked in fixed size heap, so accumulation does
+ * not produce garbage. {@link ClassRecord}s are created only for reporting.
+ * <br/>
+ * Histograms created for same {@link Heap} could be merged.
+ * <br/>
+ * Histogram could also be fed by {@link InstanceCursor}, avoiding
+ * creation of {@link Instance} objects during scan.
+ */
+public class ClassHistogram implements CursorCallback {
+
+    private static final int TOP_INSTANCES = 15;
+
+    private final Heap heap;
+    private final List<JavaClass> classes;
+
+    // class ID -> class index
+    private final LongIntHashTable classTable;
+
+    // per class index
+    private final long[] counts;
+    private final long[] sizes;
+    private final int[] fixedSizes; // -1 for arrays
+
+    private long totalCount;
+    private long totalSize;
+
+    // min heap of largest instances
+    private final long[] topSizes = new long[TOP_INSTANCES];
+    private final long[] topIds = new long[TOP_INSTANCES];
+    private final int[] topClasses = new int[TOP_INSTANCES];
+    private int topCount;
+
+    private RefSet known = null;
+
+    private JavaClass lastClass;
+    private int lastIndex;
+
+    public ClassHistogram(Heap heap) {
+        this.heap = heap;
+        this.classes = heap.getAllClasses();
+        int n = classes.size();
+        classTable = new LongIntHashTable(n);
+        counts = new long[n];
+        sizes = new long[n];
+        fixedSizes = new int[n];
+        for(int i = 0; i != n; ++i) {
+            JavaClass jc = classes.get(i);
+            // JavaClass.isArray() is not reliable until instances are counted
+            fixedSizes[i] = jc.getName().endsWith("[]") ? -1 : jc.getInstanceSize();
+            classTable.put(jc.getJavaClassId(), i);
+        }
+    }
+
+    public void enableInstanceTracking() {
+        if (known == null) {
+            known = new RefSet();
+        }
+    }
+
+    @Override
+    public void feed(Instance instance) {
+        accumulate(instance);
+    }
+
+    @Override
+    public void feed(InstanceCursor cursor) {
+        accumulate(cursor);
+    }
+
+    public void accumulate(Instance i) {
+        if (known != null) {
+            if (known.getAndSet(i.getInstanceId(), true)) {
+                // already accumulated
+                return;
+            }
+        }
+        int ci = classIndex(i.getJavaClass());
+        int fs = fixedSizes[ci];
+        long size = fs >= 0 ? fs : i.getSize();
+        count(ci, size);
+
+        if (topCount < TOP_INSTANCES || size > topSizes[0]) {
+            pushTop(size, i.getInstanceId(), ci);
+        }
+    }
+
+    public void accumulate(InstanceCursor cursor) {
+        if (known != null) {
+            if (known.getAndSet(cursor.getInstanceId(), true)) {
+                // already accumulated
+                return;
+            }
+        }
+        int ci = classIndex(cursor.getJavaClass());
+        int fs = fixedSizes[ci];
+        long size = fs >= 0 ? fs : cursor.getSize();
+        count(ci, size);
+
+        if (topCount < TOP_INSTANCES || size > topSizes[0]) {
+            pushTop(size, cursor.getInstanceId(), ci);
+        }
+    }
+
+    private void count(int ci, long size) {
+        ++totalCount;
+        totalSize += size;
+        ++counts[ci];
+        sizes[ci] += size;
+    }
+
+    /**
+     * Adds data collected by other histogram (e.g. by another scan worker).
+     */
+    public void merge(ClassHistogram that) {
+        if (that.classes.size() != classes.size()) {
+            throw new IllegalArgumentException("Histogram is built for another heap");
+        }
+        if (known != null && that.known != null) {
+            known.add(that.known);
+        }
+        totalCount += that.totalCount;
+        totalSize += that.totalSize;
+        for(int i = 0; i != counts.length; ++i) {
+            counts[i] += that.counts[i];
+            sizes[i] += that.sizes[i];
+        }
+        for(int i = 0; i != that.topCount; ++i) {
+            if (topCount < TOP_INSTANCES || that.topSizes[i] > topSizes[0]) {
+                pushTop(that.topSizes[i], that.topIds[i], that.topClasses[i]);
+            }
+        }
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public ClassRecord getClassInfo(String type) {
+        ClassRecord cr = null;
+        for(int i = 0; i != counts.length; ++i) {
+            if (counts[i] > 0 && type.equals(classes.get(i).getName())) {
+                if (cr == null) {
+                    cr = new ClassRecord(type);
+                }
+                cr.instanceCount += counts[i];
+                cr.totalSize += sizes[i];
+            }
+        }
+        return cr;
+    }
+
+    public Collection<ClassRecord> getHisto() {
+        return records();
+    }
+
+    public Collection<ClassRecord> getHistoByName() {
+        List<ClassRecord> histo = records();
+        Collections.sort(histo, HeapHistogram.BY_NAME);
+        return histo;
+    }
+
+    public Collection<ClassRecord> getHistoBySize() {
+        List<ClassRecord> histo = records();
+        Collections.sort(histo, HeapHistogram.BY_SIZE);
+        return histo;
+    }
+
+    public Collection<ClassRecord> getHistoByCount() {
+        List<ClassRecord> histo = records();
+        Collections.sort(histo, HeapHistogram.BY_COUNT);
+        return histo;
+    }
+
+    /**
+     * @return largest instances, biggest first
+     */
+    public Collection<ClassRecord> getTopInstances() {
+        List<ClassRecord> result = new ArrayList<ClassRecord>(topCount);
+        for(int i = 0; i != topCount; ++i) {
+            ClassRecord lr = new ClassRecord(classes.get(topClasses[i]).getName() + "#" + instanceRef(topIds[i]));
+            lr.totalSize = topSizes[i];
+            result.add(lr);
+        }
+        Collections.sort(result, HeapHistogram.BY_SIZE);
+        return result;
+    }
+
+    public String formatTop(int top) {
+        TextTable table = new TextTable();
+        table.addRow("", "Size", " Count", " Type");
+        int n = 0;
+        for(ClassRecord cr: getHistoBySize()) {
+            ++n;
+            table.addRow("" + n, " " + cr.getTotalSize(), " " + cr.getInstanceCount(), " " + cr.getClassName());
+            if (n == top) {
+                break;
+            }
+        }
+        table.addRow("TOTAL", " " + totalSize, " " + totalCount, "");
+        return table.formatTextTableUnbordered(180);
+    }
+
+    /**
+     * Classes with same name (loaded by different class loaders)
+     * are reported as single record, same as {@link HeapHistogram}.
+     */
+    private List<ClassRecord> records() {
+        Map<String, ClassRecord> histo = new HashMap<String, ClassRecord>();
+        for(int i = 0; i != counts.length; ++i) {
+            if (counts[i] > 0) {
+                String cn = classes.get(i).getName();
+                ClassRecord cr = histo.get(cn);
+                if (cr == null) {
+                    cr = new ClassRecord(cn);
+                    histo.put(cn, cr);
+                }
+                cr.instanceCount += counts[i];
+                cr.totalSize += sizes[i];
+            }
+        }
+        return new ArrayList<ClassRecord>(histo.values());
+    }
+
+    private String instanceRef(long id) {
+        try {
+            return String.valueOf(heap.getInstanceByID(id).getInstanceNumber());
+        }
+        catch(UnsupportedOperationException e) {
+            // instance numbers are not available without index
+            return "0x" + Long.toHexString(id);
+        }
+    }
+
+    private int classIndex(JavaClass jc) {
+        if (jc == lastClass) {
+            return lastIndex;
+        }
+        int n = classTable.get(jc.getJavaClassId());
+        if (n < 0) {
+            throw new IllegalArgumentException("Unknown class " + jc.getName());
+        }
+        lastClass = jc;
+        lastIndex = n;
+        return n;
+    }
+
+    private void pushTop(long size, long id, int ci) {
+        int n;
+        if (topCount < TOP_INSTANCES) {
+            n = topCount++;
+            // sift up
+            while(n > 0) {
+                int p = (n - 1) >> 1;
+                if (topSizes[p] <= size) {
+                    break;
+                }
+                setTop(n, topSizes[p], topIds[p], topClasses[p]);
+                n = p;
+            }
+        }
+        else {
+            // replace root and sift down
+            n = 0;
+            while(true) {
+                int c = 2 * n + 1;
+                if (c >= topCount) {
+                    break;
+                }
+                if (c + 1 < topCount && topSizes[c + 1] < topSizes[c]) {
+                    ++c;
+                }
+                if (topSizes[c] >= size) {
+                    break;
+                }
+                setTop(n, topSizes[c], topIds[c], topClasses[c]);
+                n = c;
+            }
+        }
+        setTop(n, size, id, ci);
+    }
+
+    private void setTop(int n, long size, long id, int ci) {
+        topSizes[n] = size;
+        topIds[n] = id;
+        topClasses[n] = ci;
+    }
+}
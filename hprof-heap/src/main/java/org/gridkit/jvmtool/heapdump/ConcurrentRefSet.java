@@ -0,0 +1,41 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+/**
+ * {@link RefSet} which could be shared between threads,
+ * e.g. as mark set for parallel graph traversal.
+ * <br/>
+ * {@link #set(long, boolean)} and {@link #getAndSet(long, boolean)}
+ * are atomic, so exactly one thread would observe <code>false</code>
+ * from <code>getAndSet(id, true)</code> for any given ID. Storage pages
+ * are allocated lazily without locking.
+ * <br/>
+ * Bulk operations ({@link #add(org.gridkit.jvmtool.util.PagedBitMap) add},
+ * {@link #sub(org.gridkit.jvmtool.util.PagedBitMap) sub}, {@link #clear()} etc)
+ * are not atomic and should not run concurrently with modifications.
+ * <br/>
+ * Set could be scanned in parallel, using {@link #splitRanges(int)}
+ * and {@link #seekOne(long, long)} on each range.
+ * <br/>
+ * IDs should be below 2^47.
+ */
+public class ConcurrentRefSet extends RefSet {
+
+    public ConcurrentRefSet() {
+        super(false, false, true);
+    }
+}
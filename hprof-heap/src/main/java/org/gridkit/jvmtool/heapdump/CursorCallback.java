@@ -0,0 +1,32 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import org.netbeans.lib.profiler.heap.InstanceCursor;
+
+/**
+ * Callback which could consume heap records without materializing
+ * {@link org.netbeans.lib.profiler.heap.Instance}s.
+ * <br/>
+ * Scanners supporting cursors (e.g. {@link org.netbeans.lib.profiler.heap.ParallelHeapScanner})
+ * would call {@link #feed(InstanceCursor)} instead of {@link #feed(org.netbeans.lib.profiler.heap.Instance)}.
+ * Cursor is valid only during the call.
+ */
+public interface CursorCallback extends InstanceCallback {
+
+    public void feed(InstanceCursor cursor);
+
+}
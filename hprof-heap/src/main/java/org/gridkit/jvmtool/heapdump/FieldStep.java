@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import org.netbeans.lib.profiler.heap.FieldLayout;
 import org.netbeans.lib.profiler.heap.FieldValue;
 import org.netbeans.lib.profiler.heap.Instance;
 import org.netbeans.lib.profiler.heap.ObjectFieldValue;
@@ -38,6 +39,15 @@ class FieldStep extends PathStep {
     @Override
     public Iterator<Instance> walk(Instance instance) {
         List<Instance> result = new ArrayList<Instance>();
+        FieldLayout layout = FieldLayout.of(instance);
+        if (layout != null) {
+            for(int n: fieldIndexes(layout)) {
+                if (layout.isObjectField(n)) {
+                    result.add(layout.getInstance(instance, n));
+                }
+            }
+            return result.iterator();
+        }
         for(FieldValue fv: instance.getFieldValues()) {
             if (fieldName == null || fieldName.equals(fv.getField().getName())) {
                 if (fv instanceof ObjectFieldValue) {
@@ -52,6 +62,15 @@ class FieldStep extends PathStep {
     @Override
     public Iterator<Move> track(Instance instance) {
         List<Move> result = new ArrayList<Move>();
+        FieldLayout layout = FieldLayout.of(instance);
+        if (layout != null) {
+            for(int n: fieldIndexes(layout)) {
+                if (layout.isObjectField(n)) {
+                    result.add(new Move("." + layout.getFieldName(n), layout.getInstance(instance, n)));
+                }
+            }
+            return result.iterator();
+        }
         for(FieldValue fv: instance.getFieldValues()) {
             if (fieldName == null || fieldName.equals(fv.getField().getName())) {
                 if (fv instanceof ObjectFieldValue) {
@@ -63,6 +82,10 @@ class FieldStep extends PathStep {
         return result.iterator();
     }
 
+    private int[] fieldIndexes(FieldLayout layout) {
+        return fieldName == null ? layout.getObjectFields() : layout.indexesOf(fieldName);
+    }
+
     @Override
     public String toString() {
         return fieldName == null ? "*" :  fieldName;
@@ -15,11 +15,14 @@
  */
 package org.gridkit.jvmtool.heapdump;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.function.LongConsumer;
 
 import org.gridkit.jvmtool.heapdump.PathStep.Move;
 import org.netbeans.lib.profiler.heap.Field;
@@ -29,6 +32,7 @@ import org.netbeans.lib.profiler.heap.IllegalInstanceIDException;
 import org.netbeans.lib.profiler.heap.Instance;
 import org.netbeans.lib.profiler.heap.JavaClass;
 import org.netbeans.lib.profiler.heap.ObjectArrayInstance;
+import org.netbeans.lib.profiler.heap.ObjectArrays;
 import org.netbeans.lib.profiler.heap.ObjectFieldValue;
 
 public class HeapClusterAnalyzer {
@@ -52,9 +56,13 @@ public class HeapClusterAnalyzer {
 
     protected PathListener sharedPathListener = null;
 
-    protected RefSet ignoreRefs = new RefSet();
-    protected RefSet knownRefs = new RefSet();
-    protected RefSet sharedRefs = new RefSet();
+    protected RefSet ignoreRefs = new RefSet(true, true);
+    protected RefSet knownRefs = new RefSet(true, true);
+    protected RefSet sharedRefs = new RefSet(true, true);
+
+    /** Directory for memory mapped reference sets, <code>null</code> if sets are kept in Java heap */
+    protected File scratchDir;
+    private RefSet walkQueue;
 
     protected List<Cluster> clusters = new ArrayList<Cluster>();
     protected Cluster last;
@@ -62,6 +70,12 @@ public class HeapClusterAnalyzer {
     protected HeapHistogram sharedSummary = new HeapHistogram();
     protected long sharedErrorMargin = 0;
 
+    /** Object arrays are read in chunks to avoid boxing of element IDs */
+    private static final int ID_CHUNK = 1024;
+    private final long[] idBuffer = new long[ID_CHUNK];
+    /** Buffers of recursive {@link #walk}, one per depth */
+    private long[][] walkBuffers = new long[0][];
+
     public HeapClusterAnalyzer(Heap heap) {
         this.heap = heap;
     }
@@ -106,29 +120,72 @@ public class HeapClusterAnalyzer {
         keepClusterMembership = enable;
     }
 
+    /**
+     * Moves ignored, known and shared reference sets (and breadth search queue)
+     * to memory mapped scratch files, so they occupy OS page cache instead
+     * of Java heap. Content already marked is preserved.
+     * <br/>
+     * Call {@link #dispose()} to release scratch files after analysis.
+     *
+     * @param scratchDir directory for scratch files, default temporary directory if <code>null</code>
+     */
+    public void useScratchStorage(File scratchDir) {
+        this.scratchDir = scratchDir == null ? new File(System.getProperty("java.io.tmpdir")) : scratchDir;
+        ignoreRefs = toScratch(ignoreRefs);
+        knownRefs = toScratch(knownRefs);
+        sharedRefs = toScratch(sharedRefs);
+        disposeQueue();
+    }
+
+    /**
+     * Releases scratch files of reference sets, analyzer should not be used afterwards.
+     */
+    public void dispose() {
+        ignoreRefs.dispose();
+        knownRefs.dispose();
+        sharedRefs.dispose();
+        disposeQueue();
+    }
+
+    private void disposeQueue() {
+        if (walkQueue != null) {
+            walkQueue.dispose();
+            walkQueue = null;
+        }
+    }
+
+    private RefSet toScratch(RefSet refs) {
+        RefSet mapped = newRefSet();
+        mapped.add(refs);
+        refs.dispose();
+        return mapped;
+    }
+
+    private RefSet newRefSet() {
+        return scratchDir == null ? new RefSet(true, true) : new RefSet(scratchDir);
+    }
+
     /**
      * Process entry point and blacklist configuration
      */
     public void prepare() {
-        for(JavaClass jc: heap.getAllClasses()) {
-            for(TypeFilterStep it: interestingTypes) {
-                if (it.evaluate(jc)) {
-                    rootClasses.add(jc.getName());
-                }
+        for(TypeFilterStep it: interestingTypes) {
+            for(JavaClass jc: it.filter(heap)) {
+                rootClasses.add(jc.getName());
             }
-            for(TypeFilterStep bt: blacklistedTypes) {
-                if (bt.evaluate(jc)) {
-                    blacklist.add(jc.getName());
-                }
+        }
+        for(TypeFilterStep bt: blacklistedTypes) {
+            for(JavaClass jc: bt.filter(heap)) {
+                blacklist.add(jc.getName());
             }
-            for(PathStep[] bp: blacklistedMethods) {
-                TypeFilterStep ts = (TypeFilterStep) bp[0];
-                String fn = ((FieldStep) bp[1]).getFieldName();
-                if (ts.evaluate(jc)) {
-                    for(Field f: jc.getFields()) {
-                        if (fn == null || fn.equals(f.getName())) {
-                            blacklist.add(jc.getName() + "#" + f.getName());
-                        }
+        }
+        for(PathStep[] bp: blacklistedMethods) {
+            TypeFilterStep ts = (TypeFilterStep) bp[0];
+            String fn = ((FieldStep) bp[1]).getFieldName();
+            for(JavaClass jc: ts.filter(heap)) {
+                for(Field f: jc.getFields()) {
+                    if (fn == null || fn.equals(f.getName())) {
+                        blacklist.add(jc.getName() + "#" + f.getName());
                     }
                 }
             }
@@ -206,7 +263,7 @@ public class HeapClusterAnalyzer {
         if (rootClasses.contains(type)) {
             Cluster cluster = new Cluster();
             cluster.root = i;
-            cluster.objects = new RefSet();
+            cluster.objects = new RefSet(true, true);
             cluster.summary = new HeapHistogram();
 
             analyze(cluster);
@@ -224,21 +281,24 @@ public class HeapClusterAnalyzer {
 
     protected void updateKnownMap(Cluster cluster) {
         RefSet marked = cluster.objects;
-        for(Long id: marked.ones()) {
-            if (knownRefs.getAndSet(id, true)) {
-                try {
-                    Instance i = heap.getInstanceByID(id);
-                    sharedErrorMargin += i.getSize();
-                    if (!sharedRefs.getAndSet(id, true)) {
+        marked.forEachOne(new LongConsumer() {
+            @Override
+            public void accept(long id) {
+                if (knownRefs.getAndSet(id, true)) {
+                    try {
+                        Instance i = heap.getInstanceByID(id);
                         sharedErrorMargin += i.getSize();
-                        sharedSummary.accumulate(i);
+                        if (!sharedRefs.getAndSet(id, true)) {
+                            sharedErrorMargin += i.getSize();
+                            sharedSummary.accumulate(i);
+                        }
+                    }
+                    catch(IllegalInstanceIDException e) {
+                        System.err.println("Object missing in dump: " + id);
                     }
-                }
-                catch(IllegalInstanceIDException e) {
-                    System.err.println("Object missing in dump: " + id);
                 }
             }
-        }
+        });
     }
 
     protected void analyze(Cluster details) {
@@ -255,7 +315,7 @@ public class HeapClusterAnalyzer {
         }
         else {
             for(EntryPoint ep: entryPoints) {
-                for(Instance i: HeapWalker.collect(details.root, ep.locator)) {
+                for(Instance i: ep.compiled.collect(details.root)) {
                     widthWalk(details, i, false);
                 }
             }
@@ -269,7 +329,7 @@ public class HeapClusterAnalyzer {
         for(EntryPoint ep: entryPoints) {
             path.setLength(0);
             path.append(ep.path);
-            for(Instance i: HeapWalker.collect(details.root, ep.locator)) {
+            for(Instance i: ep.compiled.collect(details.root)) {
                 walk(details, i, path, 0, true, false);
             }
         }
@@ -281,7 +341,7 @@ public class HeapClusterAnalyzer {
         for(EntryPoint ep: entryPoints) {
             path.setLength(0);
             path.append(ep.path);
-            for(Instance i: HeapWalker.collect(details.root, ep.locator)) {
+            for(Instance i: ep.compiled.collect(details.root)) {
                 walk(details, i, path, 0, false, true);
             }
         }
@@ -327,27 +387,32 @@ public class HeapClusterAnalyzer {
             if (i instanceof ObjectArrayInstance) {
                 ObjectArrayInstance array = (ObjectArrayInstance) i;
                 if (!isBlackListedArray(array.getJavaClass())) {
-                    int n = 0;
-                    for(Long ref: array.getValueIDs()) {
-                        if (ref != 0) {
-                            // early check to avoid needless instantiation
-                            if (!ignoreRefs.get(ref) && !details.objects.get(ref)) {
-                                path.setLength(len);
-                                path.append('[').append(n).append(']');
-                                Instance inst = null;
-                                try {
-                    inst = heap.getInstanceByID(ref);
-                                }
-                                catch(IllegalInstanceIDException e) {
-                    System.err.println("Missing instance #" + ref);
-                    ignoreRefs.set(ref, true);
-                                }
-                                if (inst != null) {
-                    walk(details, inst, path, depth + 1, reportShared, accountShared);
+                    int length = array.getLength();
+                    long[] ids = walkBuffer(depth);
+                    for(int base = 0; base < length; base += ids.length) {
+                        int chunk = Math.min(ids.length, length - base);
+                        ObjectArrays.getValueIDs(array, base, ids, 0, chunk);
+                        for(int n = base; n != base + chunk; ++n) {
+                            long ref = ids[n - base];
+                            if (ref != 0) {
+                                // early check to avoid needless instantiation
+                                if (!ignoreRefs.get(ref) && !details.objects.get(ref)) {
+                                    path.setLength(len);
+                                    path.append('[').append(n).append(']');
+                                    Instance inst = null;
+                                    try {
+                                        inst = heap.getInstanceByID(ref);
+                                    }
+                                    catch(IllegalInstanceIDException e) {
+                                        System.err.println("Missing instance #" + ref);
+                                        ignoreRefs.set(ref, true);
+                                    }
+                                    if (inst != null) {
+                                        walk(details, inst, path, depth + 1, reportShared, accountShared);
+                                    }
                                 }
                             }
                         }
-                        ++n;
                     }
                 }
             }
@@ -385,8 +450,30 @@ public class HeapClusterAnalyzer {
         }
     }
 
+    private long[] walkBuffer(int depth) {
+        if (depth >= walkBuffers.length) {
+            walkBuffers = Arrays.copyOf(walkBuffers, depth + 1);
+        }
+        if (walkBuffers[depth] == null) {
+            walkBuffers[depth] = new long[ID_CHUNK];
+        }
+        return walkBuffers[depth];
+    }
+
     protected void widthWalk(Cluster details, Instance root, boolean accountShared) {
-        RefSet queue = new RefSet();
+        if (walkQueue == null) {
+            walkQueue = newRefSet();
+        }
+        try {
+            widthWalk(details, root, accountShared, walkQueue);
+        }
+        finally {
+            // queue is reused by next walk
+            walkQueue.clear();
+        }
+    }
+
+    private void widthWalk(Cluster details, Instance root, boolean accountShared, RefSet queue) {
         queue.set(root.getInstanceId(), true);
         @SuppressWarnings("unused")
         long count = 0;
@@ -437,11 +524,17 @@ public class HeapClusterAnalyzer {
                     if (i instanceof ObjectArrayInstance) {
                         ObjectArrayInstance array = (ObjectArrayInstance) i;
                         if (!isBlackListedArray(array.getJavaClass())) {
-                            for(Long ref: array.getValueIDs()) {
-                                if (ref != 0) {
-                                    // early check to avoid needless instantiation
-                                    if (!ignoreRefs.get(ref) && !details.objects.get(ref)) {
-                                        queue.set(ref, true);
+                            int length = array.getLength();
+                            for(int base = 0; base < length; base += idBuffer.length) {
+                                int chunk = Math.min(idBuffer.length, length - base);
+                                ObjectArrays.getValueIDs(array, base, idBuffer, 0, chunk);
+                                for(int j = 0; j != chunk; ++j) {
+                                    long ref = idBuffer[j];
+                                    if (ref != 0) {
+                                        // early check to avoid needless instantiation
+                                        if (!ignoreRefs.get(ref) && !details.objects.get(ref)) {
+                                            queue.set(ref, true);
+                                        }
                                     }
                                 }
                             }
@@ -565,10 +658,12 @@ public class HeapClusterAnalyzer {
     protected static class EntryPoint {
         String path;
         PathStep[] locator;
+        HeapPath compiled;
 
         public EntryPoint(String path, PathStep[] locator) {
             this.path = path;
             this.locator = locator;
+            this.compiled = HeapPath.compile(locator);
         }
     }
 }
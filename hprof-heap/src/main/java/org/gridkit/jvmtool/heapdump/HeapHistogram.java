@@ -111,6 +111,32 @@ public class HeapHistogram implements InstanceCallback {
         }
     }
 
+    /**
+     * Adds data collected by other histogram (e.g. by another scan worker).
+     */
+    public void merge(HeapHistogram that) {
+        if (known != null && that.known != null) {
+            known.add(that.known);
+        }
+        total.instanceCount += that.total.instanceCount;
+        total.totalSize += that.total.totalSize;
+        for(ClassRecord tr: that.classes.values()) {
+            ClassRecord cr = classes.get(tr.className);
+            if (cr == null) {
+                cr = new ClassRecord(tr.className);
+                classes.put(tr.className, cr);
+            }
+            cr.instanceCount += tr.instanceCount;
+            cr.totalSize += tr.totalSize;
+        }
+        for(ClassRecord lr: that.topInstance) {
+            topInstance.add(lr);
+            if (topInstance.size() > 15) {
+                topInstance.poll();
+            }
+        }
+    }
+
     public Collection<ClassRecord> getTopInstances() {
         List<ClassRecord> result = new ArrayList<>(topInstance.size());
         while (!topInstance.isEmpty()) {
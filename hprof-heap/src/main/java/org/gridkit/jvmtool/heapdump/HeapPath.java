@@ -0,0 +1,390 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.netbeans.lib.profiler.heap.FieldLayout;
+import org.netbeans.lib.profiler.heap.Instance;
+import org.netbeans.lib.profiler.heap.JavaClass;
+
+/**
+ * Compiled heap path.
+ * <br/>
+ * Steps of path are specialized per concrete class of instance
+ * they are applied to. Type filters are evaluated and field names
+ * are resolved to {@link FieldLayout} indexes once per class,
+ * predicate constants are parsed once per field type.
+ * Plans are kept for life time of {@link HeapPath} object,
+ * so same object should be reused for all instances of a scan.
+ * <br/>
+ * Result of {@link #collect(Instance)} is same as {@link HeapWalker#walk(Instance, String)}.
+ * <br/>
+ * Instances are not thread safe.
+ */
+public class HeapPath {
+
+    public static HeapPath compile(String path) {
+        return new HeapPath(path, HeapPathParser.parsePath(path, true));
+    }
+
+    static HeapPath compile(PathStep[] steps) {
+        return new HeapPath(null, steps);
+    }
+
+    private final String spec;
+    private final PathStep[] steps;
+    private final CompiledPredicate[] predicates;
+    private final boolean tailingFunction;
+
+    private final Map<JavaClass, ClassPlan> plans = new IdentityHashMap<JavaClass, ClassPlan>();
+    private JavaClass lastClass;
+    private ClassPlan lastPlan;
+
+    private HeapPath(String spec, PathStep[] steps) {
+        this.spec = spec;
+        this.steps = steps;
+        this.predicates = new CompiledPredicate[steps.length];
+        for(int i = 0; i != steps.length; ++i) {
+            if (steps[i] instanceof PredicateStep) {
+                predicates[i] = new CompiledPredicate((PredicateStep) steps[i]);
+            }
+        }
+        this.tailingFunction = steps.length > 0 && steps[steps.length - 1] instanceof FunctionStep;
+    }
+
+    /**
+     * @return set of instances reachable from root by this path
+     */
+    public Set<Instance> collect(Instance root) {
+
+        if (tailingFunction) {
+            throw new IllegalArgumentException("Instance function is not allowed. Path: " + this);
+        }
+
+        Set<Instance> active = new HashSet<Instance>();
+        Set<Instance> next = new HashSet<Instance>();
+        active.add(root);
+
+        for(int k = 0; k != steps.length; ++k) {
+            PathStep step = steps[k];
+            for(Instance i: active) {
+                if (step instanceof TypeFilterStep) {
+                    if (plan(i.getJavaClass()).typeMatch[k]) {
+                        next.add(i);
+                    }
+                }
+                else if (step instanceof FieldStep && FieldLayout.of(i) != null) {
+                    FieldLayout layout = FieldLayout.of(i);
+                    for(int n: plan(i.getJavaClass()).fields[k]) {
+                        Instance sub = layout.getInstance(i, n);
+                        if (sub != null) {
+                            next.add(sub);
+                        }
+                    }
+                }
+                else if (predicates[k] != null) {
+                    if (predicates[k].evaluate(i)) {
+                        next.add(i);
+                    }
+                }
+                else {
+                    Iterator<Instance> it = step.walk(i);
+                    while(it.hasNext()) {
+                        Instance sub = it.next();
+                        if (sub != null) {
+                            next.add(sub);
+                        }
+                    }
+                }
+            }
+            // swap buffers
+            active.clear();
+            Set<Instance> s = active;
+            active = next;
+            next = s;
+            if (active.isEmpty()) {
+                return active;
+            }
+        }
+
+        return active;
+    }
+
+    /**
+     * @return any instance reachable by path or <code>null</code>
+     */
+    public Instance first(Instance root) {
+        Iterator<Instance> it = collect(root).iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    private ClassPlan plan(JavaClass jc) {
+        if (jc == lastClass) {
+            return lastPlan;
+        }
+        ClassPlan plan = plans.get(jc);
+        if (plan == null) {
+            plan = new ClassPlan(jc, steps);
+            plans.put(jc, plan);
+        }
+        lastClass = jc;
+        lastPlan = plan;
+        return plan;
+    }
+
+    @Override
+    public String toString() {
+        if (spec != null) {
+            return spec;
+        }
+        StringBuilder sb = new StringBuilder();
+        for(PathStep step: steps) {
+            sb.append(step);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return indexes of reference fields matching {@link FieldStep}
+     */
+    static int[] objectFields(FieldLayout layout, String fieldName) {
+        if (fieldName == null) {
+            return layout.getObjectFields();
+        }
+        int[] idx = layout.indexesOf(fieldName);
+        int n = 0;
+        for(int i: idx) {
+            if (layout.isObjectField(i)) {
+                ++n;
+            }
+        }
+        if (n == idx.length) {
+            return idx;
+        }
+        int[] result = new int[n];
+        n = 0;
+        for(int i: idx) {
+            if (layout.isObjectField(i)) {
+                result[n++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Steps specialized for a single class.
+     */
+    private static class ClassPlan {
+
+        final boolean[] typeMatch;
+        final int[][] fields;
+
+        ClassPlan(JavaClass jc, PathStep[] steps) {
+            typeMatch = new boolean[steps.length];
+            fields = new int[steps.length][];
+            FieldLayout layout = FieldLayout.of(jc);
+            for(int k = 0; k != steps.length; ++k) {
+                if (steps[k] instanceof TypeFilterStep) {
+                    typeMatch[k] = ((TypeFilterStep) steps[k]).evaluate(jc);
+                }
+                else if (steps[k] instanceof FieldStep && layout != null) {
+                    fields[k] = objectFields(layout, ((FieldStep) steps[k]).getFieldName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Predicate with path compiled and matcher parsed per field type.
+     */
+    private static class CompiledPredicate {
+
+        final PredicateStep step;
+        final HeapPath path;
+        /** Field name, if field value could be read from {@link FieldLayout} */
+        final String fieldName;
+        final String matcher;
+
+        final Map<FieldLayout, FieldMatch> matches = new IdentityHashMap<FieldLayout, FieldMatch>();
+
+        CompiledPredicate(PredicateStep step) {
+            this.step = step;
+            this.path = HeapPath.compile(step.getPath());
+            this.matcher = step.getMatcher();
+            String fn = null;
+            if (step.getLastStep() instanceof FieldStep && step.getFunction() == ValueOfFunc.INSTANCE) {
+                fn = ((FieldStep) step.getLastStep()).getFieldName();
+            }
+            this.fieldName = fn;
+        }
+
+        boolean evaluate(Instance instance) {
+            boolean inverted = step.isInverted();
+            for(Instance i: path.collect(instance)) {
+                FieldLayout layout = fieldName == null ? null : FieldLayout.of(i);
+                if (layout != null) {
+                    if (match(layout, i)) {
+                        return !inverted;
+                    }
+                }
+                else if (step.evaluateTail(i)) {
+                    return !inverted;
+                }
+            }
+            return inverted;
+        }
+
+        private boolean match(FieldLayout layout, Instance i) {
+            FieldMatch fm = matches.get(layout);
+            if (fm == null) {
+                fm = new FieldMatch(layout, fieldName, matcher);
+                matches.put(layout, fm);
+            }
+            for(int n: fm.objectFields) {
+                Object obj = HeapWalker.valueOf(layout.getInstance(i, n));
+                if (!(obj instanceof Instance) && String.valueOf(obj).equals(matcher)) {
+                    return true;
+                }
+            }
+            return fm.primitiveField >= 0 && fm.value.matches(layout, i, fm.primitiveField);
+        }
+    }
+
+    private static class FieldMatch {
+
+        final int[] objectFields;
+        /** Primitive fields are read by name, so if name is shadowed last field is used */
+        final int primitiveField;
+        final ValueMatcher value;
+
+        FieldMatch(FieldLayout layout, String fieldName, String matcher) {
+            objectFields = objectFields(layout, fieldName);
+            int last = layout.indexOf(fieldName);
+            if (last >= 0 && !layout.isObjectField(last)) {
+                primitiveField = last;
+                value = ValueMatcher.create(layout.getField(last).getType().getName(), matcher);
+            }
+            else {
+                primitiveField = -1;
+                value = null;
+            }
+        }
+    }
+
+    /**
+     * Same as comparing {@link String#valueOf(Object)} of boxed field value
+     * with matcher text, but without boxing and formatting.
+     * Text is parsed once, if it is not a canonical string
+     * representation of a value of the type, nothing would match.
+     */
+    private static abstract class ValueMatcher {
+
+        static final ValueMatcher NONE = new ValueMatcher() {
+            @Override
+            boolean matches(FieldLayout layout, Instance i, int field) {
+                return false;
+            }
+        };
+
+        abstract boolean matches(FieldLayout layout, Instance i, int field);
+
+        static ValueMatcher create(String type, String text) {
+            try {
+                if ("boolean".equals(type)) {
+                    if (!"true".equals(text) && !"false".equals(text)) {
+                        return NONE;
+                    }
+                    final boolean v = Boolean.parseBoolean(text);
+                    return new ValueMatcher() {
+                        @Override
+                        boolean matches(FieldLayout layout, Instance i, int field) {
+                            return layout.getBoolean(i, field) == v;
+                        }
+                    };
+                } else if ("char".equals(type)) {
+                    if (text.length() != 1) {
+                        return NONE;
+                    }
+                    final char v = text.charAt(0);
+                    return new ValueMatcher() {
+                        @Override
+                        boolean matches(FieldLayout layout, Instance i, int field) {
+                            return layout.getChar(i, field) == v;
+                        }
+                    };
+                } else if ("byte".equals(type)) {
+                    final byte v = Byte.parseByte(text);
+                    return !String.valueOf(v).equals(text) ? NONE : new ValueMatcher() {
+                        @Override
+                        boolean matches(FieldLayout layout, Instance i, int field) {
+                            return layout.getByte(i, field) == v;
+                        }
+                    };
+                } else if ("short".equals(type)) {
+                    final short v = Short.parseShort(text);
+                    return !String.valueOf(v).equals(text) ? NONE : new ValueMatcher() {
+                        @Override
+                        boolean matches(FieldLayout layout, Instance i, int field) {
+                            return layout.getShort(i, field) == v;
+                        }
+                    };
+                } else if ("int".equals(type)) {
+                    final int v = Integer.parseInt(text);
+                    return !String.valueOf(v).equals(text) ? NONE : new ValueMatcher() {
+                        @Override
+                        boolean matches(FieldLayout layout, Instance i, int field) {
+                            return layout.getInt(i, field) == v;
+                        }
+                    };
+                } else if ("long".equals(type)) {
+                    final long v = Long.parseLong(text);
+                    return !String.valueOf(v).equals(text) ? NONE : new ValueMatcher() {
+                        @Override
+                        boolean matches(FieldLayout layout, Instance i, int field) {
+                            return layout.getLong(i, field) == v;
+                        }
+                    };
+                } else if ("float".equals(type)) {
+                    final float v = Float.parseFloat(text);
+                    return !String.valueOf(v).equals(text) ? NONE : new ValueMatcher() {
+                        @Override
+                        boolean matches(FieldLayout layout, Instance i, int field) {
+                            return Float.compare(layout.getFloat(i, field), v) == 0;
+                        }
+                    };
+                } else if ("double".equals(type)) {
+                    final double v = Double.parseDouble(text);
+                    return !String.valueOf(v).equals(text) ? NONE : new ValueMatcher() {
+                        @Override
+                        boolean matches(FieldLayout layout, Instance i, int field) {
+                            return Double.compare(layout.getDouble(i, field), v) == 0;
+                        }
+                    };
+                } else {
+                    throw new IllegalArgumentException("Unknown field type " + type);
+                }
+            }
+            catch(NumberFormatException e) {
+                return NONE;
+            }
+        }
+    }
+}
@@ -16,11 +16,37 @@
 package org.gridkit.jvmtool.heapdump;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 class HeapPathParser {
 
+    private static final int CACHE_SIZE = 256;
+
+    /** Parsed paths, steps are immutable and do not refer to heap */
+    private static final Map<String, PathStep[]> CACHE = Collections.synchronizedMap(new LinkedHashMap<String, PathStep[]>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 20141010L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PathStep[]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
     static PathStep[] parsePath(String path, boolean strictPath) {
+        String key = (strictPath ? "!" : "?") + path;
+        PathStep[] steps = CACHE.get(key);
+        if (steps == null) {
+            steps = doParsePath(path, strictPath);
+            CACHE.put(key, steps);
+        }
+        return steps.clone();
+    }
+
+    private static PathStep[] doParsePath(String path, boolean strictPath) {
 
         List<PathStep> result = new ArrayList<PathStep>();
 
@@ -16,6 +16,7 @@
 package org.gridkit.jvmtool.heapdump;
 
 import java.lang.reflect.Array;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,11 +33,15 @@ import org.netbeans.lib.profiler.heap.FieldValue;
 import org.netbeans.lib.profiler.heap.Heap;
 import org.netbeans.lib.profiler.heap.Instance;
 import org.netbeans.lib.profiler.heap.JavaClass;
+import org.netbeans.lib.profiler.heap.JavaClasses;
 import org.netbeans.lib.profiler.heap.ObjectFieldValue;
 import org.netbeans.lib.profiler.heap.PrimitiveArrayInstance;
+import org.netbeans.lib.profiler.heap.PrimitiveArrays;
 
 public class HeapWalker {
 
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
     private static final Set<String> BOX_TYPES = new HashSet<String>();
 
     static {
@@ -277,6 +282,19 @@ public class HeapWalker {
         byte UTF16 = 1;
         byte coder = COMPACT_STRINGS ? (Byte) obj.getValueOfField("coder") : UTF16;
         int len = chars.getLength() >> coder;
+
+        byte[] bytes = (byte[]) PrimitiveArrays.toArray(chars);
+        if (bytes != null) {
+            if (coder != UTF16) {
+                return new String(bytes, LATIN1);
+            }
+            char[] text = new char[len];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = (char) (((bytes[i * 2 + 1] & 0xFF) << 8) | (bytes[i * 2] & 0xFF));
+            }
+            return new String(text);
+        }
+
         char[] text = new char[len];
 
         @SuppressWarnings({ "unchecked", "rawtypes" }) // generic recast
@@ -288,7 +306,7 @@ public class HeapWalker {
             }
         else
             for (int i = 0; i < text.length; i++)
-                text[i] = (char) Integer.parseInt(values.get(i));
+                text[i] = (char) (Integer.parseInt(values.get(i)) & 0xFF);
 
         return new String(text);
     }
@@ -308,9 +326,12 @@ public class HeapWalker {
             Field ff = f.getField();
             if ("value".equals(ff.getName())) {
                 PrimitiveArrayInstance chars = (PrimitiveArrayInstance) ((ObjectFieldValue) f).getInstance();
-                text = new char[chars.getLength()];
-                for (int i = 0; i != text.length; ++i) {
-                    text[i] = ((String) chars.getValues().get(i)).charAt(0);
+                text = (char[]) PrimitiveArrays.toArray(chars);
+                if (text == null) {
+                    text = new char[chars.getLength()];
+                    for (int i = 0; i != text.length; ++i) {
+                        text[i] = ((String) chars.getValues().get(i)).charAt(0);
+                    }
                 }
             }
             // fields below were removed in Java 7
@@ -349,6 +370,10 @@ public class HeapWalker {
         }
         if (obj instanceof PrimitiveArrayInstance) {
             PrimitiveArrayInstance pa = (PrimitiveArrayInstance) obj;
+            Object data = PrimitiveArrays.toArray(pa);
+            if (data != null) {
+                return (T) data;
+            }
             String type = pa.getJavaClass().getName();
             PrimitiveParser parser;
             Object array;
@@ -555,6 +580,53 @@ public class HeapWalker {
         return active;
     }
 
+    /**
+     * @return classes which instances could be a starting point for path
+     *         or <code>null</code> if every instance should be tried
+     */
+    static Set<JavaClass> classFilter(Heap heap, PathStep[] steps) {
+        if (steps[0] instanceof TypeFilterStep) {
+            TypeFilterStep filterStep = (TypeFilterStep) steps[0];
+            return new HashSet<JavaClass>(filterStep.filter(heap));
+        } else if (steps[0] instanceof ArrayIndexStep) {
+            Set<JavaClass> arrays = new HashSet<JavaClass>();
+            for (JavaClass jc : heap.getAllClasses()) {
+                if (jc.isArray()) {
+                    arrays.add(jc);
+                }
+            }
+            return arrays;
+        } else if (steps[0] instanceof FieldStep) {
+            FieldStep fieldStep = (FieldStep) steps[0];
+            if (fieldStep.getFieldName() != null) {
+                Set<JavaClass> types = new HashSet<JavaClass>();
+                for (JavaClass jc : heap.getAllClasses()) {
+                    if (hasField(jc, fieldStep.getFieldName())) {
+                        types.add(jc);
+                    }
+                }
+                return types;
+            } else {
+                // no idea
+                return null;
+            }
+        } else {
+            return null;
+        }
+    }
+
+    private static boolean hasField(JavaClass jc, String fieldName) {
+        for (Field f : jc.getFields()) {
+            if (fieldName.equals(f.getName())) {
+                return true;
+            }
+        }
+        if (jc.getSuperClass() != null) {
+            return hasField(jc.getSuperClass(), fieldName);
+        }
+        return false;
+    }
+
     private interface InstanceConverter {
 
         public Object convert(Instance instance);
@@ -570,6 +642,7 @@ public class HeapWalker {
         private final RefSet visited;
         private final Set<JavaClass> classFilter;
         private final PathStep[] steps;
+        private final HeapPath compiled;
         private final Iterator<Instance> walker;
         private Iterator<Instance> pathWalker;
         private Instance next;
@@ -578,35 +651,9 @@ public class HeapWalker {
             this.visited = strict ? new RefSet() : null;
 
             steps = HeapPathParser.parsePath(path, false);
-            if (steps[0] instanceof TypeFilterStep) {
-                TypeFilterStep filterStep = (TypeFilterStep) steps[0];
-                classFilter = new HashSet<JavaClass>(filterStep.filter(heap.getAllClasses()));
-            } else if (steps[0] instanceof ArrayIndexStep) {
-                Set<JavaClass> arrays = new HashSet<JavaClass>();
-                for (JavaClass jc : heap.getAllClasses()) {
-                    if (jc.isArray()) {
-                        arrays.add(jc);
-                    }
-                }
-                classFilter = arrays;
-            } else if (steps[0] instanceof FieldStep) {
-                FieldStep fieldStep = (FieldStep) steps[0];
-                if (fieldStep.getFieldName() != null) {
-                    Set<JavaClass> types = new HashSet<JavaClass>();
-                    for (JavaClass jc : heap.getAllClasses()) {
-                        if (hasField(jc, fieldStep.getFieldName())) {
-                            types.add(jc);
-                        }
-                    }
-                    classFilter = types;
-                } else {
-                    // no idea
-                    classFilter = null;
-                }
-            } else {
-                classFilter = null;
-            }
-            walker = heap.getAllInstancesIterator();
+            compiled = HeapPath.compile(steps);
+            classFilter = classFilter(heap, steps);
+            walker = classFilter == null ? heap.getAllInstancesIterator() : JavaClasses.getInstancesIterator(heap, classFilter);
         }
 
         @Override
@@ -629,7 +676,7 @@ public class HeapWalker {
                         if (classFilter != null && !classFilter.contains(n.getJavaClass())) {
                             continue;
                         } else {
-                            pathWalker = collect(n, steps).iterator();
+                            pathWalker = compiled.collect(n).iterator();
                         }
                     } else {
                         break;
@@ -649,17 +696,5 @@ public class HeapWalker {
             next = null;
             return result;
         }
-
-        private boolean hasField(JavaClass jc, String fieldName) {
-            for (Field f : jc.getFields()) {
-                if (fieldName.equals(f.getName())) {
-                    return true;
-                }
-            }
-            if (jc.getSuperClass() != null) {
-                return hasField(jc.getSuperClass(), fieldName);
-            }
-            return false;
-        }
     }
 }
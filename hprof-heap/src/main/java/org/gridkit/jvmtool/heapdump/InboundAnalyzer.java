@@ -7,6 +7,7 @@ import org.netbeans.lib.profiler.heap.IllegalInstanceIDException;
 import org.netbeans.lib.profiler.heap.Instance;
 import org.netbeans.lib.profiler.heap.JavaClass;
 import org.netbeans.lib.profiler.heap.ObjectArrayInstance;
+import org.netbeans.lib.profiler.heap.ObjectArrays;
 import org.netbeans.lib.profiler.heap.ObjectFieldValue;
 
 public class InboundAnalyzer {
@@ -18,6 +19,8 @@ public class InboundAnalyzer {
 	private RefSet target = new RefSet();
 	private RefSet inbound = new RefSet();
 	
+	private long[] idBuffer = new long[1024];
+	
 	public InboundAnalyzer(Heap heap) {
 		this.heap = heap;
 	}
@@ -51,20 +54,60 @@ public class InboundAnalyzer {
 	
 	public void report() {
 		for(Instance i: heap.getAllInstances()) {
-			if (marked.get(i.getInstanceId())) {
-				continue;
+			check(i);
+		}
+		nextLevel();
+	}
+
+	/**
+	 * Same as calling {@link #report()} until analyzer is exhausted,
+	 * but each level is processed as a pass of {@link ScanScheduler}.
+	 */
+	public ScanParticipant asScanParticipant(final int maxDepth) {
+		return new ScanParticipant() {
+
+			@Override
+			public boolean beginPass(int pass) {
+				return pass < maxDepth && !isExhausted();
+			}
+
+			@Override
+			public void feed(Instance i) {
+				check(i);
+			}
+
+			@Override
+			public boolean endPass(int pass) {
+				if (pass < maxDepth && !isExhausted()) {
+					nextLevel();
+				}
+				return pass + 1 < maxDepth && !isExhausted();
 			}
-			
-			if (i instanceof ObjectArrayInstance) {
-				ObjectArrayInstance oai = (ObjectArrayInstance) i;
-				for(Long n: oai.getValueIDs()) {
+		};
+	}
+
+	private void check(Instance i) {
+		if (marked.get(i.getInstanceId())) {
+			return;
+		}
+		
+		if (i instanceof ObjectArrayInstance) {
+			ObjectArrayInstance oai = (ObjectArrayInstance) i;
+			int length = oai.getLength();
+			for(int base = 0; base < length; base += idBuffer.length) {
+				int chunk = Math.min(idBuffer.length, length - base);
+				ObjectArrays.getValueIDs(oai, base, idBuffer, 0, chunk);
+				for(int j = 0; j != chunk; ++j) {
+					long n = idBuffer[j];
+					// check target before instantiation
+					if (n == 0 || !target.get(n)) {
+						continue;
+					}
 					try {
 						Instance ii = heap.getInstanceByID(n);
 						if (ii != null && ii.getInstanceId() != 0) {
-							if (target.get(ii.getInstanceId())) {
-								report(i, "[]",  ii.getInstanceId());
-								break;
-							}
+							report(i, "[]",  ii.getInstanceId());
+							return;
 						}
 					}
 					catch(Exception e) {
@@ -72,18 +115,21 @@ public class InboundAnalyzer {
 					}
 				}
 			}
-			else {
-				for(FieldValue fv: i.getFieldValues()) {
-					if (fv instanceof ObjectFieldValue) {
-						ObjectFieldValue ofv = (ObjectFieldValue) fv;
-						if (target.get(ofv.getInstanceId())) {
-							report(i, "." + fv.getField().getName(), ofv.getInstanceId());
-							break;
-						}
+		}
+		else {
+			for(FieldValue fv: i.getFieldValues()) {
+				if (fv instanceof ObjectFieldValue) {
+					ObjectFieldValue ofv = (ObjectFieldValue) fv;
+					if (target.get(ofv.getInstanceId())) {
+						report(i, "." + fv.getField().getName(), ofv.getInstanceId());
+						break;
 					}
 				}
 			}
 		}
+	}
+
+	private void nextLevel() {
 		target = inbound;
 		inbound = new RefSet();
 	}
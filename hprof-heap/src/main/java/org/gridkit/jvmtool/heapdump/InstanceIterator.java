@@ -2,6 +2,8 @@ package org.gridkit.jvmtool.heapdump;
 
 import java.util.Iterator;
 
+import org.gridkit.jvmtool.util.LongIterator;
+
 import org.netbeans.lib.profiler.heap.Heap;
 import org.netbeans.lib.profiler.heap.Instance;
 
@@ -9,9 +11,24 @@ public class InstanceIterator implements Iterator<Instance> {
 
     private final Heap heap;
 
-    private final Iterator<Long> it;
+    private final LongIterator it;
+
+    public InstanceIterator(Heap heap, final Iterator<Long> it) {
+        this(heap, new LongIterator() {
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public long next() {
+                return it.next();
+            }
+        });
+    }
 
-    public InstanceIterator(Heap heap, Iterator<Long> it) {
+    public InstanceIterator(Heap heap, LongIterator it) {
         this.heap = heap;
         this.it = it;
     }
@@ -19,6 +19,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import org.netbeans.lib.profiler.heap.FieldLayout;
 import org.netbeans.lib.profiler.heap.FieldValue;
 import org.netbeans.lib.profiler.heap.Instance;
 import org.netbeans.lib.profiler.heap.ObjectArrayInstance;
@@ -54,6 +55,15 @@ class MapEntrySetStep extends PathStep {
     }
 
     private static Instance getField(Instance i, String field) {
+        FieldLayout layout = FieldLayout.of(i);
+        if (layout != null) {
+            for(int n: layout.indexesOf(field)) {
+                if (layout.isObjectField(n)) {
+                    return layout.getInstance(i, n);
+                }
+            }
+            return null;
+        }
         for(FieldValue fv: i.getFieldValues()) {
             if (fv instanceof ObjectFieldValue && field.equals(fv.getField().getName())) {
                 return ((ObjectFieldValue)fv).getInstance();
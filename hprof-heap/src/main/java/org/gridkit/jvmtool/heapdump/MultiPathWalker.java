@@ -0,0 +1,182 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.netbeans.lib.profiler.heap.Heap;
+import org.netbeans.lib.profiler.heap.Instance;
+import org.netbeans.lib.profiler.heap.JavaClass;
+import org.netbeans.lib.profiler.heap.JavaClasses;
+
+/**
+ * Evaluates several heap paths during single pass over heap.
+ * <br/>
+ * Leading steps of all paths are compiled into single table,
+ * mapping class to paths which could start at its instance,
+ * so each instance is dispatched only to relevant paths.
+ * <br/>
+ * Results are same as {@link HeapWalker#walk(Heap, String)} for each path
+ * (each instance is reported once per path), but matches are interleaved
+ * in order of heap scan.
+ */
+public class MultiPathWalker implements InstanceCallback {
+
+    private static final int[] NO_PATHS = new int[0];
+
+    private final Heap heap;
+    private final List<PathEntry> paths = new ArrayList<PathEntry>();
+
+    private Map<JavaClass, int[]> dispatch;
+    private int[] unfiltered;
+
+    private JavaClass lastClass;
+    private int[] lastPaths;
+
+    public MultiPathWalker(Heap heap) {
+        this.heap = heap;
+    }
+
+    /**
+     * Adds path to be evaluated, matching instances are passed to callback.
+     * Paths cannot be added once walk has started.
+     */
+    public void addPath(String path, InstanceCallback callback) {
+        if (dispatch != null) {
+            throw new IllegalStateException("Walk has been already started");
+        }
+        PathEntry pe = new PathEntry();
+        pe.path = path;
+        pe.steps = HeapPathParser.parsePath(path, false);
+        if (pe.steps.length > 0 && pe.steps[pe.steps.length - 1] instanceof FunctionStep) {
+            throw new IllegalArgumentException("Instance function is not allowed. Path: " + path);
+        }
+        pe.compiled = HeapPath.compile(pe.steps);
+        pe.callback = callback;
+        paths.add(pe);
+    }
+
+    /**
+     * Scans heap instances, if heap has per class instance lists
+     * and all paths start with type filter, only instances of
+     * matching classes are visited.
+     */
+    public void walk() {
+        if (dispatch == null) {
+            compile();
+        }
+        Iterator<Instance> it;
+        if (unfiltered.length == 0) {
+            // only instances of classes in dispatch table are relevant
+            List<JavaClass> types = new ArrayList<JavaClass>();
+            for(JavaClass jc: heap.getAllClasses()) {
+                if (dispatch.get(jc).length > 0) {
+                    types.add(jc);
+                }
+            }
+            it = JavaClasses.getInstancesIterator(heap, types);
+        }
+        else {
+            it = heap.getAllInstances().iterator();
+        }
+        while(it.hasNext()) {
+            feed(it.next());
+        }
+    }
+
+    /**
+     * Evaluates all paths for single instance, could be used to combine
+     * path evaluation with other heap scans.
+     */
+    @Override
+    public void feed(Instance instance) {
+        if (dispatch == null) {
+            compile();
+        }
+        int[] pl = paths(instance.getJavaClass());
+        for(int n: pl) {
+            PathEntry pe = paths.get(n);
+            for(Instance i: pe.compiled.collect(instance)) {
+                if (!pe.visited.getAndSet(i.getInstanceId(), true)) {
+                    pe.callback.feed(i);
+                }
+            }
+        }
+    }
+
+    private int[] paths(JavaClass jc) {
+        if (jc != lastClass) {
+            int[] pl = dispatch.get(jc);
+            lastPaths = pl == null ? unfiltered : pl;
+            lastClass = jc;
+        }
+        return lastPaths;
+    }
+
+    private void compile() {
+        List<Set<JavaClass>> filters = new ArrayList<Set<JavaClass>>();
+        List<Integer> any = new ArrayList<Integer>();
+        for(int n = 0; n != paths.size(); ++n) {
+            Set<JavaClass> filter = HeapWalker.classFilter(heap, paths.get(n).steps);
+            filters.add(filter);
+            if (filter == null) {
+                any.add(n);
+            }
+        }
+        unfiltered = toArray(any);
+
+        Map<JavaClass, int[]> table = new HashMap<JavaClass, int[]>();
+        List<Integer> pl = new ArrayList<Integer>();
+        for(JavaClass jc: heap.getAllClasses()) {
+            pl.clear();
+            for(int n = 0; n != paths.size(); ++n) {
+                Set<JavaClass> filter = filters.get(n);
+                if (filter == null || filter.contains(jc)) {
+                    pl.add(n);
+                }
+            }
+            table.put(jc, pl.isEmpty() ? NO_PATHS : toArray(pl));
+        }
+        dispatch = table;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for(int i = 0; i != result.length; ++i) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    private static class PathEntry {
+
+        String path;
+        PathStep[] steps;
+        HeapPath compiled;
+        InstanceCallback callback;
+        RefSet visited = new RefSet();
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+}
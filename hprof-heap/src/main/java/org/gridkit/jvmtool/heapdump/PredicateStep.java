@@ -48,6 +48,26 @@ public class PredicateStep extends PathStep {
         this.inverted = inverted;
     }
 
+    PathStep[] getPath() {
+        return path;
+    }
+
+    InstanceFunction getFunction() {
+        return func;
+    }
+
+    PathStep getLastStep() {
+        return lastStep;
+    }
+
+    String getMatcher() {
+        return matcher;
+    }
+
+    boolean isInverted() {
+        return inverted;
+    }
+
     private boolean isTailingFunction(PathStep[] path) {
         return path.length > 0 && path[path.length - 1] instanceof FunctionStep;
     }
@@ -78,61 +98,72 @@ public class PredicateStep extends PathStep {
 
     protected boolean evaluate(Instance instance) {
         for(Instance i: HeapWalker.collect(instance, path)) {
-            if (lastStep instanceof FieldStep) {
-                String fname = ((FieldStep) lastStep).getFieldName();
-                for(FieldValue fv: i.getFieldValues()) {
-                    if ((fname == null && fv.getField().isStatic())
-                            || (fname.equals(fv.getField().getName()))) {
-
-                        Object obj = func.applyToField(i, fv);
+            if (evaluateTail(i)) {
+                return !inverted;
+            }
+        }
+        return inverted;
+    }
 
-                        if (evaluate(obj)) {
-                            return !inverted;
-                        }
+    /**
+     * Checks value produced by last step (and function) for single instance
+     * selected by predicate path.
+     */
+    boolean evaluateTail(Instance i) {
+        if (lastStep instanceof FieldStep) {
+            String fname = ((FieldStep) lastStep).getFieldName();
+            for(FieldValue fv: i.getFieldValues()) {
+                if ((fname == null && fv.getField().isStatic())
+                        || (fname.equals(fv.getField().getName()))) {
+
+                    Object obj = func.applyToField(i, fv);
+
+                    if (evaluate(obj)) {
+                        return true;
                     }
                 }
             }
-            else if (lastStep instanceof ArrayIndexStep) {
-                if (i instanceof PrimitiveArrayInstance) {
-                    PrimitiveArrayInstance array = (PrimitiveArrayInstance) i;
-                    int n = ((ArrayIndexStep) lastStep).getIndex();
-                    if (n < 0) {
-                        for (int j = 0; j != array.getLength(); ++j) {
-                            Object obj = func.applyToArray(array, j);
-
-                            if (evaluate(obj)) {
-                                return !inverted;
-                            }
-                        }
-                    } else {
-                        Object obj = func.applyToArray(array, n);
+        }
+        else if (lastStep instanceof ArrayIndexStep) {
+            if (i instanceof PrimitiveArrayInstance) {
+                PrimitiveArrayInstance array = (PrimitiveArrayInstance) i;
+                int n = ((ArrayIndexStep) lastStep).getIndex();
+                if (n < 0) {
+                    for (int j = 0; j != array.getLength(); ++j) {
+                        Object obj = func.applyToArray(array, j);
 
                         if (evaluate(obj)) {
-                            return !inverted;
+                            return true;
                         }
                     }
                 } else {
-                    Iterator<Instance> it = lastStep.walk(i);
-                    while(it.hasNext()) {
+                    Object obj = func.applyToArray(array, n);
 
-                        Instance ii = it.next();
-                        Object obj = func.apply(ii);
+                    if (evaluate(obj)) {
+                        return true;
+                    }
+                }
+            } else {
+                Iterator<Instance> it = lastStep.walk(i);
+                while(it.hasNext()) {
 
-                        if (evaluate(obj)) {
-                            return !inverted;
-                        }
+                    Instance ii = it.next();
+                    Object obj = func.apply(ii);
+
+                    if (evaluate(obj)) {
+                        return true;
                     }
                 }
             }
-            else {
+        }
+        else {
 
-                Object obj = func.apply(i);
-                if (evaluate(obj)) {
-                    return !inverted;
-                }
+            Object obj = func.apply(i);
+            if (evaluate(obj)) {
+                return true;
             }
         }
-        return inverted;
+        return false;
     }
 
     private boolean evaluate(Object value) {
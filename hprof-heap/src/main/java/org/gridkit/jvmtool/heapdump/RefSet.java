@@ -15,7 +15,11 @@
  */
 package org.gridkit.jvmtool.heapdump;
 
+import java.io.File;
 import java.util.Iterator;
+import java.util.function.LongConsumer;
+
+import org.gridkit.jvmtool.util.LongIterator;
 
 import org.gridkit.jvmtool.util.PagedBitMap;
 import org.netbeans.lib.profiler.heap.Heap;
@@ -37,6 +41,33 @@ public class RefSet extends PagedBitMap {
         super(sparse);
     }
 
+    /**
+     * @see PagedBitMap#PagedBitMap(boolean, boolean)
+     */
+    public RefSet(boolean sparse, boolean compressed) {
+        super(sparse, compressed);
+    }
+
+    /**
+     * Call {@link #dispose()} to release scratch file once set is not needed.
+     *
+     * @see PagedBitMap#PagedBitMap(File)
+     */
+    public RefSet(File scratchDir) {
+        super(scratchDir);
+    }
+
+    /**
+     * @see PagedBitMap#PagedBitMap(File, boolean)
+     */
+    public RefSet(File scratchDir, boolean sparse) {
+        super(scratchDir, sparse);
+    }
+
+    protected RefSet(boolean sparse, boolean compressed, boolean concurrent) {
+        super(sparse, compressed, concurrent);
+    }
+
     @Override
     public boolean get(long index) {
         if (index % 8 != 0) {
@@ -57,6 +88,62 @@ public class RefSet extends PagedBitMap {
         }
     }
 
+    @Override
+    public long seekOne(long start, long end) {
+        long result = super.seekOne(align(start), align(end));
+        if (result == -1) {
+            return -1;
+        }
+        else {
+            return 8 * result;
+        }
+    }
+
+    @Override
+    public long[] splitRanges(int parts) {
+        long[] bounds = super.splitRanges(parts);
+        for(int i = 0; i != bounds.length; ++i) {
+            if (bounds[i] != Long.MAX_VALUE) {
+                bounds[i] = 8 * bounds[i];
+            }
+        }
+        return bounds;
+    }
+
+    @Override
+    public void forEachOne(long start, long end, final LongConsumer action) {
+        super.forEachOne(align(start), align(end), new LongConsumer() {
+            @Override
+            public void accept(long value) {
+                action.accept(8 * value);
+            }
+        });
+    }
+
+    @Override
+    public LongIterator onesIterator(long start, long end) {
+        final LongIterator it = super.onesIterator(align(start), align(end));
+        return new LongIterator() {
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public long next() {
+                return 8 * it.next();
+            }
+        };
+    }
+
+    /**
+     * Aligns ID range boundary to 8 byte boundary and converts it to bit index.
+     */
+    private static long align(long index) {
+        return index == Long.MAX_VALUE ? Long.MAX_VALUE : (index + 7) >>> 3;
+    }
+
     @Override
     public boolean getAndSet(long index, boolean value) {
         if (index % 8 != 0) {
@@ -83,7 +170,7 @@ public class RefSet extends PagedBitMap {
 
             @Override
             public Iterator<Instance> iterator() {
-                return new InstanceIterator(heap, ones().iterator());
+                return new InstanceIterator(heap, onesIterator());
             }
         };
     }
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import org.netbeans.lib.profiler.heap.Instance;
+
+/**
+ * Heap analysis step which could share heap scans with others,
+ * see {@link ScanScheduler}.
+ * <br/>
+ * Passes are numbered from zero. Participant is asked before each pass
+ * if it needs instances, and after each pass if it needs more passes.
+ */
+public interface ScanParticipant extends InstanceCallback {
+
+    /**
+     * Called before pass starts.
+     *
+     * @return <code>true</code> if instances of this pass should be fed to participant
+     */
+    public boolean beginPass(int pass);
+
+    /**
+     * Called for every instance during passes participant has accepted.
+     */
+    @Override
+    public void feed(Instance instance);
+
+    /**
+     * Called after pass is complete (even if participant has skipped it).
+     *
+     * @return <code>true</code> if participant requires more passes
+     */
+    public boolean endPass(int pass);
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.netbeans.lib.profiler.heap.Heap;
+import org.netbeans.lib.profiler.heap.Instance;
+
+/**
+ * Runs multiple heap analyzers, sharing heap scans between them.
+ * <br/>
+ * All participants accepting pass N are fed during single iteration
+ * over {@link Heap#getAllInstances()}. Passes no one is interested in
+ * are not executed at all.
+ * <br/>
+ * Participants are fed from single thread in order of registration.
+ */
+public class ScanScheduler {
+
+    private final Heap heap;
+    private final List<ScanParticipant> participants = new ArrayList<ScanParticipant>();
+
+    private int passCount;
+    private int scanCount;
+
+    public ScanScheduler(Heap heap) {
+        this.heap = heap;
+    }
+
+    public void addParticipant(ScanParticipant participant) {
+        participants.add(participant);
+    }
+
+    /**
+     * Registers callback which should receive all instances during given pass.
+     */
+    public void addCallback(final int pass, final InstanceCallback callback) {
+        addParticipant(new ScanParticipant() {
+
+            @Override
+            public boolean beginPass(int n) {
+                return n == pass;
+            }
+
+            @Override
+            public void feed(Instance instance) {
+                callback.feed(instance);
+            }
+
+            @Override
+            public boolean endPass(int n) {
+                return n < pass;
+            }
+        });
+    }
+
+    /**
+     * Runs passes until all participants are satisfied.
+     * Registered participants are discarded afterwards,
+     * so scheduler could be reused.
+     */
+    public void run() {
+        List<ScanParticipant> active = new ArrayList<ScanParticipant>(participants);
+        participants.clear();
+        passCount = 0;
+        scanCount = 0;
+        List<ScanParticipant> pass = new ArrayList<ScanParticipant>();
+        while(!active.isEmpty()) {
+            int n = passCount++;
+            pass.clear();
+            for(ScanParticipant sp: active) {
+                if (sp.beginPass(n)) {
+                    pass.add(sp);
+                }
+            }
+            if (!pass.isEmpty()) {
+                ++scanCount;
+                scan(pass.toArray(new ScanParticipant[pass.size()]));
+            }
+            Iterator<ScanParticipant> it = active.iterator();
+            while(it.hasNext()) {
+                if (!it.next().endPass(n)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of logical passes executed by last run
+     */
+    public int getPassCount() {
+        return passCount;
+    }
+
+    /**
+     * @return number of physical heap scans performed by last run
+     */
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    private void scan(ScanParticipant[] pass) {
+        if (pass.length == 1) {
+            ScanParticipant sp = pass[0];
+            for(Instance i: heap.getAllInstances()) {
+                sp.feed(i);
+            }
+        }
+        else {
+            for(Instance i: heap.getAllInstances()) {
+                for(ScanParticipant sp: pass) {
+                    sp.feed(i);
+                }
+            }
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.gridkit.jvmtool.heapdump;
 
+import java.util.function.LongConsumer;
+
 import org.gridkit.jvmtool.heapdump.HeapHistogram.ClassRecord;
 import org.netbeans.lib.profiler.heap.FieldValue;
 import org.netbeans.lib.profiler.heap.Heap;
@@ -38,37 +40,71 @@ public class StringCollector {
     }
 
     public void collect(Heap heap, InstanceCallback callback) {
-        JavaClass string = heap.getJavaClassByName("java.lang.String");
-        for(Instance i : heap.getAllInstances()) {
-            if (i.getJavaClass() == string) {
-                strings.set(i.getInstanceId(), true);
-                for(FieldValue fv: i.getFieldValues()) {
-                    if ("value".equals(fv.getField().getName())) {
-                        arrays.set(((ObjectFieldValue)fv).getInstanceId(), true);
-                    }
+        ScanScheduler scheduler = new ScanScheduler(heap);
+        scheduler.addParticipant(asScanParticipant(heap));
+        if (callback != null) {
+            scheduler.addCallback(0, callback);
+        }
+        scheduler.run();
+    }
+
+    /**
+     * @return participant collecting strings during first pass of {@link ScanScheduler}
+     */
+    public ScanParticipant asScanParticipant(final Heap heap) {
+        final JavaClass string = heap.getJavaClassByName("java.lang.String");
+        return new ScanParticipant() {
+
+            @Override
+            public boolean beginPass(int pass) {
+                return pass == 0;
+            }
+
+            @Override
+            public void feed(Instance i) {
+                if (i.getJavaClass() == string) {
+                    addString(i);
                 }
-                ++count;
-                totalSize += i.getSize();
             }
-            if (callback != null) {
-                callback.feed(i);
+
+            @Override
+            public boolean endPass(int pass) {
+                addArrays(heap);
+                return false;
+            }
+        };
+    }
+
+    private void addString(Instance i) {
+        strings.set(i.getInstanceId(), true);
+        for(FieldValue fv: i.getFieldValues()) {
+            if ("value".equals(fv.getField().getName())) {
+                arrays.set(((ObjectFieldValue)fv).getInstanceId(), true);
             }
         }
+        ++count;
+        totalSize += i.getSize();
+    }
+
+    private void addArrays(final Heap heap) {
         arrays.set(0, false); // skip null reference
-        for(Long id: arrays.ones()) {
-            try {
-                Instance s = heap.getInstanceByID(id);
-                if (s != null) {
-			totalSize += s.getSize();
+        arrays.forEachOne(new LongConsumer() {
+            @Override
+            public void accept(long id) {
+                try {
+                    Instance s = heap.getInstanceByID(id);
+                    if (s != null) {
+                        totalSize += s.getSize();
+                    }
+                    else {
+                        System.err.println("Missing instance #" + id);
+                    }
                 }
-                else {
-			System.err.println("Missing instance #" + id);
+                catch(IllegalInstanceIDException e) {
+                    // ignore
                 }
             }
-            catch(IllegalInstanceIDException e) {
-                // ignore
-            }
-        }
+        });
     }
 
     public long getInstanceCount() {
@@ -19,12 +19,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.netbeans.lib.profiler.heap.Heap;
 import org.netbeans.lib.profiler.heap.Instance;
 import org.netbeans.lib.profiler.heap.JavaClass;
+import org.netbeans.lib.profiler.heap.JavaClasses;
 
 class TypeFilterStep extends PathStep {
 
@@ -50,6 +54,27 @@ class TypeFilterStep extends PathStep {
         return result;
     }
 
+    /**
+     * Same as filtering {@link Heap#getAllClasses()}, but uses class name index
+     * to check only classes with matching package prefix or simple name.
+     */
+    public Collection<JavaClass> filter(Heap heap) {
+        Set<JavaClass> candidates = new LinkedHashSet<JavaClass>();
+        for(MatchOption m: matchers) {
+            if (m.hierarchy) {
+                // subclasses could be anywhere
+                return filter(heap.getAllClasses());
+            }
+            if (m.simpleName != null) {
+                candidates.addAll(JavaClasses.getClassesBySimpleName(heap, m.simpleName));
+            }
+            else {
+                candidates.addAll(JavaClasses.getClassesByPrefix(heap, m.prefix));
+            }
+        }
+        return filter(candidates);
+    }
+
     @Override
     public Iterator<Instance> walk(Instance instance) {
         if (instance != null && match(instance.getJavaClass())) {
@@ -107,10 +132,33 @@ class TypeFilterStep extends PathStep {
                 part = part.substring(1);
             }
             opt.pattern = translate(part, ".");
+            opt.prefix = literalPrefix(part);
+            opt.simpleName = literalSimpleName(part);
             matchers.add(opt);
         }
     }
 
+    private static String literalPrefix(String pattern) {
+        for(int i = 0; i != pattern.length(); ++i) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?') {
+                return pattern.substring(0, i);
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * @return last segment of pattern if it has no wild cards, <code>null</code> otherwise
+     */
+    private static String literalSimpleName(String pattern) {
+        String name = pattern.substring(pattern.lastIndexOf('.') + 1);
+        if (name.indexOf('*') >= 0 || name.indexOf('?') >= 0 || pattern.indexOf('/') >= 0) {
+            return null;
+        }
+        return name;
+    }
+
     /**
      * GLOB pattern supports *, ** and ? wild cards.
      * Leading and trailing ** have special meaning, consecutive separator become optional.
@@ -191,6 +239,8 @@ class TypeFilterStep extends PathStep {
 
         boolean hierarchy;
         Pattern pattern;
+        String prefix;
+        String simpleName;
 
     }
 }
@@ -0,0 +1,165 @@
+package org.gridkit.jvmtool.heapdump.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.netbeans.lib.profiler.heap.AbstractPagedHprofByteBuffer;
+
+/**
+ * Reads heap dump in seekable block compressed format (see {@link BlockCompressedHprofWriter}).
+ * Unlike gzip, any block could be inflated directly using frame index stored
+ * in the file, so random access does not require a checkpoint scan of whole file.
+ */
+public class BlockCompressedHprofByteBuffer extends AbstractPagedHprofByteBuffer {
+
+    public static boolean isBlockCompressed(File file) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                return raf.length() >= BlockCompressedHprofWriter.HEADER_SIZE + BlockCompressedHprofWriter.TRAILER_SIZE
+                    && raf.readInt() == BlockCompressedHprofWriter.MAGIC;
+            }
+            finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public BlockCompressedHprofByteBuffer(RandomAccessFile file, PagePool pool) throws IOException {
+        super(new BlockMemory(file, pool));
+        setLength(((BlockMemory)pagedMemory).length);
+        init();
+    }
+
+    private static class BlockMemory extends BulkFetchPagedVirtualMemory {
+
+        private final FileChannel channel;
+        private final int blockSize;
+        private final long length;
+        private final long[] frames;
+        private final Inflater inflater = new Inflater();
+
+        private byte[] frameBuffer = new byte[0];
+        private final byte[] blockBuffer;
+        private long cachedBlock = -1;
+        private int cachedLength;
+
+        public BlockMemory(RandomAccessFile file, PagePool pagePool) throws IOException {
+            this(file, pagePool, readHeader(file));
+        }
+
+        private BlockMemory(RandomAccessFile file, PagePool pagePool, int blockSize) throws IOException {
+            // fetch all pages of a block at once, so each block is inflated only once
+            super(pagePool, Math.max(1, blockSize / pagePool.getPageSize()));
+            this.channel = file.getChannel();
+            this.blockSize = blockSize;
+
+            ByteBuffer trailer = readFully(file.length() - BlockCompressedHprofWriter.TRAILER_SIZE, BlockCompressedHprofWriter.TRAILER_SIZE);
+            this.length = trailer.getLong();
+            long indexOffset = trailer.getLong();
+            int blockCount = trailer.getInt();
+            if (trailer.getInt() != BlockCompressedHprofWriter.MAGIC) {
+                throw new IOException("Block compressed dump is truncated");
+            }
+            ByteBuffer index = readFully(indexOffset, 8 * (blockCount + 1));
+            this.frames = new long[blockCount + 1];
+            for(int i = 0; i != frames.length; ++i) {
+                frames[i] = index.getLong();
+            }
+            this.blockBuffer = new byte[blockSize];
+            this.setLimit(length);
+        }
+
+        private static int readHeader(RandomAccessFile file) throws IOException {
+            file.seek(0);
+            if (file.readInt() != BlockCompressedHprofWriter.MAGIC) {
+                throw new IOException("Not a block compressed dump");
+            }
+            int version = file.readInt();
+            if (version != BlockCompressedHprofWriter.VERSION) {
+                throw new IOException("Unsupported block compressed dump version " + version);
+            }
+            return file.readInt();
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+
+        private ByteBuffer readFully(long offset, int len) throws IOException {
+            ByteBuffer bb = ByteBuffer.allocate(len);
+            while(bb.hasRemaining()) {
+                if (channel.read(bb, offset + bb.position()) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            bb.flip();
+            return bb;
+        }
+
+        @Override
+        protected int readPage(long offset, ByteBuffer page) {
+            try {
+                int pos = 0;
+                while(page.hasRemaining() && offset + pos < length) {
+                    long block = (offset + pos) / blockSize;
+                    inflateBlock(block);
+                    int inBlock = (int) (offset + pos - block * blockSize);
+                    int n = Math.min(page.remaining(), cachedLength - inBlock);
+                    page.put(blockBuffer, inBlock, n);
+                    pos += n;
+                }
+                return pos;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void inflateBlock(long block) throws IOException {
+            if (cachedBlock == block) {
+                return;
+            }
+            cachedBlock = -1;
+            int i = (int) block;
+            int frameLen = (int) (frames[i + 1] - frames[i]);
+            if (frameBuffer.length < frameLen) {
+                frameBuffer = new byte[frameLen];
+            }
+            ByteBuffer bb = ByteBuffer.wrap(frameBuffer, 0, frameLen);
+            while(bb.hasRemaining()) {
+                if (channel.read(bb, frames[i] + bb.position()) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            int expected = (int) Math.min(blockSize, length - block * blockSize);
+            inflater.reset();
+            inflater.setInput(frameBuffer, 0, frameLen);
+            int pos = 0;
+            try {
+                while(pos < expected && !inflater.finished()) {
+                    int n = inflater.inflate(blockBuffer, pos, expected - pos);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    pos += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted block " + block, e);
+            }
+            if (pos != expected) {
+                throw new IOException("Corrupted block " + block + ", expected " + expected + " bytes, inflated " + pos);
+            }
+            cachedBlock = block;
+            cachedLength = pos;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.gridkit.jvmtool.heapdump.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Converts heap dump into seekable block compressed format
+ * read by {@link BlockCompressedHprofByteBuffer}.
+ * <p>
+ * Layout of file
+ * <pre>
+ * header:  int MAGIC, int VERSION, int blockSize
+ * frames:  zlib stream per block, each frame is compressed independently
+ * index:   long[blockCount + 1] frame offsets, last one is index offset
+ * trailer: long dumpLength, long indexOffset, int blockCount, int MAGIC
+ * </pre>
+ */
+public class BlockCompressedHprofWriter {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    static final int MAGIC = 0x48505A42; // HPZB
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int TRAILER_SIZE = 24;
+
+    private final int blockSize;
+    private final int level;
+
+    public BlockCompressedHprofWriter() {
+        this(DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public BlockCompressedHprofWriter(int blockSize, int level) {
+        if (blockSize < 1024) {
+            throw new IllegalArgumentException("Block size is too small: " + blockSize);
+        }
+        this.blockSize = blockSize;
+        this.level = level;
+    }
+
+    /**
+     * Converts plain or gzip compressed dump.
+     */
+    public void convert(File source, File target) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(source), 64 << 10);
+        try {
+            is.mark(2);
+            int b1 = is.read();
+            int b2 = is.read();
+            is.reset();
+            if (b1 == 0x1f && b2 == 0x8b) {
+                is = new GZIPInputStream(is, 64 << 10);
+            }
+            write(is, target);
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    public void write(InputStream source, File target) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), 64 << 10));
+        Deflater deflater = new Deflater(level);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(blockSize);
+
+            byte[] block = new byte[blockSize];
+            byte[] frame = new byte[64 << 10];
+            long[] offsets = new long[16];
+            int blockCount = 0;
+            long position = HEADER_SIZE;
+            long length = 0;
+            while(true) {
+                int n = readBlock(source, block);
+                if (n == 0) {
+                    break;
+                }
+                if (blockCount + 1 >= offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+                }
+                offsets[blockCount++] = position;
+                length += n;
+
+                deflater.reset();
+                deflater.setInput(block, 0, n);
+                deflater.finish();
+                while(!deflater.finished()) {
+                    int m = deflater.deflate(frame);
+                    out.write(frame, 0, m);
+                    position += m;
+                }
+                if (n < blockSize) {
+                    break;
+                }
+            }
+            offsets[blockCount] = position;
+
+            for(int i = 0; i <= blockCount; ++i) {
+                out.writeLong(offsets[i]);
+            }
+            out.writeLong(length);
+            out.writeLong(position);
+            out.writeInt(blockCount);
+            out.writeInt(MAGIC);
+        }
+        finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private static int readBlock(InputStream is, byte[] block) throws IOException {
+        int pos = 0;
+        while(pos < block.length) {
+            int n = is.read(block, pos, block.length - pos);
+            if (n < 0) {
+                break;
+            }
+            pos += n;
+        }
+        return pos;
+    }
+}
@@ -12,47 +12,82 @@ import org.netbeans.lib.profiler.heap.AbstractPagedHprofByteBuffer;
 public class CompressdHprofByteBuffer extends AbstractPagedHprofByteBuffer {
 
     private static final int COMPRESSED_PAGE = 16 << 20;
-    
+
+    /**
+     * Size of block inflated ahead of reader, read ahead memory
+     * is not taken from page pool.
+     */
+    public static final int READ_AHEAD_BLOCK_SIZE = COMPRESSED_PAGE;
+
     public CompressdHprofByteBuffer(RandomAccessFile file, PagePool pool) throws IOException {
-        super(new CompressedMemory(new RandomAccessGZipFile(new RandomAccessFileInputStream(file), COMPRESSED_PAGE), pool, COMPRESSED_PAGE / pool.getPageSize()));
+        this(file, pool, 1, 0);
+    }
+
+    /**
+     * @param inflateThreads max number of background threads inflating blocks ahead of reader,
+     *        value of 1 disables read ahead
+     * @param readAheadBudget memory for read ahead blocks (see {@link #READ_AHEAD_BLOCK_SIZE}),
+     *        read ahead is disabled if budget is less than two blocks
+     */
+    public CompressdHprofByteBuffer(RandomAccessFile file, PagePool pool, int inflateThreads, long readAheadBudget) throws IOException {
+        super(new CompressedMemory(file, pool, COMPRESSED_PAGE / pool.getPageSize(), inflateThreads, readAheadBudget));
         setLength(((CompressedMemory)pagedMemory).index.length());
         init();
     }
 
     private static class CompressedMemory extends BulkFetchPagedVirtualMemory {
-        
+
         private final RandomAccessInputStream index;
+        private final ReadAheadInflater readAhead;
         private final byte[] readBuffer;
 
-        public CompressedMemory(RandomAccessInputStream index, PagePool pagePool, int prefetch) throws IOException {
+        public CompressedMemory(RandomAccessFile file, PagePool pagePool, int prefetch, int inflateThreads, long readAheadBudget) throws IOException {
             super(pagePool, prefetch);
-            this.index = index;
+            RandomAccessGZipFile gzip = new RandomAccessGZipFile(new RandomAccessFileInputStream(file), COMPRESSED_PAGE);
+            this.index = gzip;
+            boolean useReadAhead = inflateThreads > 1 && readAheadBudget >= 2l * COMPRESSED_PAGE;
+            this.readAhead = useReadAhead ? ReadAheadInflater.create(file.getChannel(), gzip, COMPRESSED_PAGE, inflateThreads, readAheadBudget) : null;
             this.readBuffer = new byte[pagePool.getPageSize()];
             this.setLimit(index.length());
         }
 
+        @Override
+        public void close() throws IOException {
+            if (readAhead != null) {
+                // primary reader is owned by read ahead
+                readAhead.close();
+            }
+            else {
+                index.close();
+            }
+        }
+
         @Override
         protected int readPage(long offset, ByteBuffer page) {
 //            System.out.println("Load page: " + Long.toHexString(offset));
             try {
-                index.seek(offset);
+                if (readAhead == null) {
+                    index.seek(offset);
+                }
                 int pos = 0;
                 int rem = page.remaining();
                 while(rem > 0) {
-                    int n = index.read(readBuffer, pos, rem);
+                    int n = readAhead == null
+                            ? index.read(readBuffer, pos, rem)
+                            : readAhead.read(offset + pos, readBuffer, pos, rem);
                     if (n < 0) {
                         break;
                     }
                     rem -= n;
                     pos += n;
                 }
-                
+
                 page.put(readBuffer, 0, pos);
                 return pos;
-                
+
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
-    }    
+    }
 }
@@ -35,7 +35,11 @@ public class PagedFileHprofByteBuffer extends AbstractPagedHprofByteBuffer {
                 throw new RuntimeException(e);
             }
         }
-        
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
     }
     
     @Override
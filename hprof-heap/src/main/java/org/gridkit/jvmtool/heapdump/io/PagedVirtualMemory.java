@@ -1,5 +1,6 @@
 package org.gridkit.jvmtool.heapdump.io;
 
+import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -59,6 +60,14 @@ public abstract class PagedVirtualMemory {
         pageBits = Long.bitCount(pageMask);
     }
 
+    /**
+     * Releases source of pages (e.g. file), memory is not read afterwards.
+     * Pages themselves are left to page pool.
+     */
+    public void close() throws IOException {
+        // nothing to release by default
+    }
+
     public void setLimit(long vsize) {
         eof = vsize;
         int n = (int) (vsize >> pageBits);
@@ -163,9 +172,103 @@ public abstract class PagedVirtualMemory {
             buf.get(chars);
             buf.position(0);
         } catch (IndexOutOfBoundsException e) {
-            readSafe(position, chars, chars.length);
+            readBytes(position, chars, 0, chars.length);
         } catch (BufferUnderflowException e) {
-            readSafe(position, chars, chars.length);
+            readBytes(position, chars, 0, chars.length);
+        }
+    }
+
+    /**
+     * Copies data page by page, so ranges crossing page boundary
+     * do not fall back to byte by byte reads.
+     */
+    public void readBytes(long position, byte[] buffer, int offset, int len) {
+        while(len > 0) {
+            ByteBuffer buf = ensureBuffer(position);
+            int pageOffset = (int)(position & pageMask);
+            int n = Math.min(len, buf.limit() - pageOffset);
+            if (n <= 0) {
+                throw new RuntimeException("Read beyond end of file: " + position);
+            }
+            buf.position(pageOffset);
+            buf.get(buffer, offset, n);
+            buf.position(0);
+            position += n;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Bulk read of chars, values are read directly from pages.
+     */
+    public void readChars(long position, char[] buffer, int offset, int len) {
+        while(len > 0) {
+            ByteBuffer buf = ensureBuffer(position);
+            int pageOffset = (int)(position & pageMask);
+            int n = Math.min(len, (buf.limit() - pageOffset) >> 1);
+            if (n <= 0) {
+                // value crosses page boundary
+                buffer[offset] = readChar(position);
+                n = 1;
+            }
+            else {
+                for(int i = 0; i != n; ++i) {
+                    buffer[offset + i] = buf.getChar(pageOffset + 2 * i);
+                }
+            }
+            position += 2 * n;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Bulk read of longs, values are read directly from pages.
+     */
+    public void readLongs(long position, long[] buffer, int offset, int len) {
+        while(len > 0) {
+            ByteBuffer buf = ensureBuffer(position);
+            int pageOffset = (int)(position & pageMask);
+            int n = Math.min(len, (buf.limit() - pageOffset) >> 3);
+            if (n <= 0) {
+                // value crosses page boundary
+                buffer[offset] = readLong(position);
+                n = 1;
+            }
+            else {
+                for(int i = 0; i != n; ++i) {
+                    buffer[offset + i] = buf.getLong(pageOffset + 8 * i);
+                }
+            }
+            position += 8 * n;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Bulk read of 4 byte values zero extended to longs,
+     * values are read directly from pages.
+     */
+    public void readUnsignedInts(long position, long[] buffer, int offset, int len) {
+        while(len > 0) {
+            ByteBuffer buf = ensureBuffer(position);
+            int pageOffset = (int)(position & pageMask);
+            int n = Math.min(len, (buf.limit() - pageOffset) >> 2);
+            if (n <= 0) {
+                // value crosses page boundary
+                buffer[offset] = readInt(position) & 0xFFFFFFFFl;
+                n = 1;
+            }
+            else {
+                for(int i = 0; i != n; ++i) {
+                    buffer[offset + i] = buf.getInt(pageOffset + 4 * i) & 0xFFFFFFFFl;
+                }
+            }
+            position += 4 * n;
+            offset += n;
+            len -= n;
         }
     }
 
@@ -0,0 +1,281 @@
+package org.gridkit.jvmtool.heapdump.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.gridkit.gzrand.RandomAccessGZipFile;
+import org.gridkit.gzrand.RandomAccessInputStream;
+
+/**
+ * <p>
+ * Inflates fixed size blocks of gzip file on background threads.
+ * While one block is consumed, following blocks are inflated
+ * ahead of time if access pattern is sequential.
+ * </p>
+ * <p>
+ * Each worker needs own {@link RandomAccessGZipFile}. gzrand does not offer
+ * public way to share checkpoint index between readers, so each additional
+ * reader builds own index (one more pass over compressed file per worker,
+ * done concurrently at creation). Primary reader is used as one of workers.
+ * </p>
+ * <p>
+ * Number of inflated blocks held in memory is derived from memory budget,
+ * number of workers does not exceed number of read ahead blocks.
+ * </p>
+ * <p>
+ * Instance is not thread safe, it is expected to be used under {@link PagedVirtualMemory}.
+ * </p>
+ */
+class ReadAheadInflater {
+
+    /**
+     * @param primary reader with checkpoint index built, it should not be used by caller afterwards
+     * @param threads max number of inflating threads
+     * @param memoryBudget memory for inflated blocks, at least 2 blocks are required
+     */
+    public static ReadAheadInflater create(final FileChannel channel, RandomAccessGZipFile primary, final int blockSize, int threads, long memoryBudget) throws IOException {
+        // one block is being consumed, rest are read ahead
+        long blocks = memoryBudget / blockSize;
+        if (blocks < 2) {
+            throw new IllegalArgumentException("Memory budget " + memoryBudget + " is less than two blocks of " + blockSize);
+        }
+        int readAhead = (int) Math.min(Integer.MAX_VALUE, blocks - 1);
+        threads = Math.max(1, Math.min(threads, readAhead));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+
+        List<Future<RandomAccessGZipFile>> readers = new ArrayList<Future<RandomAccessGZipFile>>();
+        for(int i = 1; i < threads; ++i) {
+            readers.add(executor.submit(new Callable<RandomAccessGZipFile>() {
+                @Override
+                public RandomAccessGZipFile call() throws IOException {
+                    return new RandomAccessGZipFile(new ChannelInputStream(channel), blockSize);
+                }
+            }));
+        }
+        RandomAccessGZipFile[] inflaters = new RandomAccessGZipFile[threads];
+        inflaters[0] = primary;
+        try {
+            for(int i = 1; i < threads; ++i) {
+                inflaters[i] = readers.get(i - 1).get();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return new ReadAheadInflater(inflaters, executor, primary.length(), blockSize, readAhead);
+    }
+
+    private final BlockingQueue<RandomAccessGZipFile> inflaters;
+    private final long length;
+    private final int blockSize;
+    private final int readAhead;
+    private final ThreadPoolExecutor executor;
+    private final Map<Long, Future<byte[]>> blocks = new HashMap<Long, Future<byte[]>>();
+    private long lastBlock = -1;
+
+    private ReadAheadInflater(RandomAccessGZipFile[] inflaters, ThreadPoolExecutor executor, long length, int blockSize, int readAhead) {
+        this.inflaters = new ArrayBlockingQueue<RandomAccessGZipFile>(inflaters.length, false, Arrays.asList(inflaters));
+        this.executor = executor;
+        this.length = length;
+        this.blockSize = blockSize;
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Stops inflating threads and closes readers.
+     */
+    public void close() throws IOException {
+        for(Future<byte[]> f: blocks.values()) {
+            f.cancel(false);
+        }
+        blocks.clear();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for(RandomAccessGZipFile inflater: inflaters) {
+            inflater.close();
+        }
+    }
+
+    /**
+     * Reads data from single block. Number of bytes read may be less than requested.
+     *
+     * @return number of bytes read or -1 if offset is past end of file
+     */
+    public int read(long offset, byte[] buffer, int off, int len) throws IOException {
+        if (offset >= length) {
+            return -1;
+        }
+        long block = offset / blockSize;
+        byte[] data = getBlock(block);
+        int pos = (int) (offset - block * blockSize);
+        int n = Math.min(len, data.length - pos);
+        if (n <= 0) {
+            return -1;
+        }
+        System.arraycopy(data, pos, buffer, off, n);
+        return n;
+    }
+
+    private byte[] getBlock(long block) throws IOException {
+        boolean sequential = block == lastBlock || block == lastBlock + 1;
+        lastBlock = block;
+
+        Iterator<Long> it = blocks.keySet().iterator();
+        while(it.hasNext()) {
+            long b = it.next();
+            if (b < block || b > block + (sequential ? readAhead : 0)) {
+                blocks.get(b).cancel(false);
+                it.remove();
+            }
+        }
+
+        Future<byte[]> f = schedule(block);
+        if (sequential) {
+            for(int i = 1; i <= readAhead; ++i) {
+                if ((block + i) * blockSize < length) {
+                    schedule(block + i);
+                }
+            }
+        }
+
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            blocks.remove(block);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private Future<byte[]> schedule(long block) {
+        Future<byte[]> f = blocks.get(block);
+        if (f == null) {
+            f = executor.submit(new InflateTask(block));
+            blocks.put(block, f);
+        }
+        return f;
+    }
+
+    private class InflateTask implements Callable<byte[]> {
+
+        private final long block;
+
+        public InflateTask(long block) {
+            this.block = block;
+        }
+
+        @Override
+        public byte[] call() throws Exception {
+            RandomAccessGZipFile inflater = inflaters.take();
+            try {
+                long offset = block * blockSize;
+                byte[] data = new byte[(int) Math.min(blockSize, length - offset)];
+                inflater.seek(offset);
+                int pos = 0;
+                while(pos < data.length) {
+                    int n = inflater.read(data, pos, data.length - pos);
+                    if (n < 0) {
+                        break;
+                    }
+                    pos += n;
+                }
+                return pos == data.length ? data : Arrays.copyOf(data, pos);
+            }
+            finally {
+                inflaters.put(inflater);
+            }
+        }
+    }
+
+    /**
+     * Uses positional reads, so multiple streams can share a channel.
+     */
+    private static class ChannelInputStream extends RandomAccessInputStream {
+
+        private final FileChannel channel;
+        private long position;
+
+        public ChannelInputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            position = pos;
+        }
+
+        @Override
+        public long length() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public long getFilePointer() throws IOException {
+            return position;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            int n = channel.read(buffer, position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n <= 0 ? -1 : (0xFF & b[0]);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HprofInflater");
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
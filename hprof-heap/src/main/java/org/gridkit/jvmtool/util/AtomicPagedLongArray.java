@@ -0,0 +1,138 @@
+package org.gridkit.jvmtool.util;
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Paged long array safe for concurrent use.
+ * <br/>
+ * Pages are kept in fixed two level directory, missing directories and
+ * pages are installed with CAS, so no locks are involved. Single bit
+ * updates are atomic.
+ * <br/>
+ * Word indexes are limited to 2^38.
+ */
+class AtomicPagedLongArray implements LongArray {
+
+    private final static int PAGE_BITS = 10;
+    private final static int PAGE_MASK = ~(-1 << PAGE_BITS);
+    private final static int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final static int DIR_BITS = 14;
+    private final static int DIR_MASK = ~(-1 << DIR_BITS);
+    private final static int DIR_SIZE = 1 << DIR_BITS;
+
+    private final static long LIMIT = 1l << (PAGE_BITS + 2 * DIR_BITS);
+
+    private final AtomicReferenceArray<AtomicReferenceArray<AtomicLongArray>> root = new AtomicReferenceArray<AtomicReferenceArray<AtomicLongArray>>(DIR_SIZE);
+
+    @Override
+    public long get(long n) {
+        AtomicLongArray page = page(n, false);
+        return page == null ? 0 : page.get((int) (n & PAGE_MASK));
+    }
+
+    @Override
+    public long seekNext(long start) {
+        long n = Math.max(0, start);
+        while(n < LIMIT) {
+            AtomicReferenceArray<AtomicLongArray> dir = root.get((int) (n >>> (PAGE_BITS + DIR_BITS)));
+            if (dir == null) {
+                n = ((n >>> (PAGE_BITS + DIR_BITS)) + 1) << (PAGE_BITS + DIR_BITS);
+                continue;
+            }
+            AtomicLongArray page = dir.get((int) (n >>> PAGE_BITS) & DIR_MASK);
+            if (page != null) {
+                for(int i = (int) (n & PAGE_MASK); i != PAGE_SIZE; ++i) {
+                    if (page.get(i) != 0) {
+                        return (n & ~PAGE_MASK) + i;
+                    }
+                }
+            }
+            n = ((n >>> PAGE_BITS) + 1) << PAGE_BITS;
+        }
+        return -1;
+    }
+
+    @Override
+    public void set(long n, long value) {
+        AtomicLongArray page = page(n, value != 0);
+        if (page != null) {
+            page.set((int) (n & PAGE_MASK), value);
+        }
+    }
+
+    /**
+     * Atomically updates single bit.
+     *
+     * @return previous value of bit
+     */
+    public boolean getAndSetBit(long index, boolean value) {
+        long bit = 1l << index;
+        AtomicLongArray page = page(index >>> 6, value);
+        if (page == null) {
+            return false;
+        }
+        int i = (int) ((index >>> 6) & PAGE_MASK);
+        while(true) {
+            long ov = page.get(i);
+            long nv = value ? (ov | bit) : (ov & ~bit);
+            if (ov == nv || page.compareAndSet(i, ov, nv)) {
+                return (ov & bit) != 0;
+            }
+        }
+    }
+
+    /**
+     * Not atomic, should not be called concurrently with modifications.
+     */
+    @Override
+    public void clear() {
+        for(int i = 0; i != DIR_SIZE; ++i) {
+            root.set(i, null);
+        }
+    }
+
+    private AtomicLongArray page(long n, boolean create) {
+        if (n < 0 || n >= LIMIT) {
+            if (create) {
+                throw new ArrayIndexOutOfBoundsException("" + n);
+            }
+            return null;
+        }
+        int ri = (int) (n >>> (PAGE_BITS + DIR_BITS));
+        AtomicReferenceArray<AtomicLongArray> dir = root.get(ri);
+        if (dir == null) {
+            if (!create) {
+                return null;
+            }
+            root.compareAndSet(ri, null, new AtomicReferenceArray<AtomicLongArray>(DIR_SIZE));
+            dir = root.get(ri);
+        }
+        int di = (int) (n >>> PAGE_BITS) & DIR_MASK;
+        AtomicLongArray page = dir.get(di);
+        if (page == null) {
+            if (!create) {
+                return null;
+            }
+            dir.compareAndSet(di, null, new AtomicLongArray(PAGE_SIZE));
+            page = dir.get(di);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,851 @@
+package org.gridkit.jvmtool.util;
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Compressed bit storage in spirit of Roaring bitmaps.
+ * <br/>
+ * Bit index space is split into 64K chunks, each touched chunk
+ * is kept in one of containers
+ * <ul>
+ * <li>array - sorted list of set bits, used for up to {@link #ARRAY_LIMIT} bits</li>
+ * <li>bitmap - plain 8KiB bitmap, used for dense chunks</li>
+ * <li>run - list of ranges, produced by {@link #runOptimize()}</li>
+ * </ul>
+ * Besides bit level operations, {@link LongArray} contract is implemented
+ * on top of containers (word index is bit index / 64), so storage could
+ * be used by generic {@link PagedBitMap} code too.
+ * <br/>
+ * Chunks emptied by bit operations are dropped. Class is not thread
+ * safe, even for reads, as lookups cache last accessed chunk.
+ */
+class CompressedLongArray implements LongArray {
+
+    static final int CHUNK_BITS = 16;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    static final int CHUNK_WORDS = CHUNK_SIZE / 64;
+    static final int WORD_MASK = CHUNK_WORDS - 1;
+    static final int WORD_CHUNK_BITS = CHUNK_BITS - 6;
+
+    /** Array container is converted to bitmap beyond this cardinality */
+    static final int ARRAY_LIMIT = 4096;
+
+    // chunk key -> slot
+    private LongIntHashTable table;
+
+    // dense by slot
+    private long[] keys;
+    private Container[] containers;
+    private int size;
+
+    private long lastKey;
+    private int lastSlot;
+
+    public CompressedLongArray() {
+        clear();
+    }
+
+    public boolean getBit(long index) {
+        int slot = slotOf(index >>> CHUNK_BITS);
+        return slot >= 0 && containers[slot].contains((int) (index & CHUNK_MASK));
+    }
+
+    /**
+     * @return previous value of bit
+     */
+    public boolean setBit(long index, boolean value) {
+        long key = index >>> CHUNK_BITS;
+        int low = (int) (index & CHUNK_MASK);
+        int slot = value ? slotForWrite(key) : slotOf(key);
+        if (slot < 0) {
+            return false;
+        }
+        Container c = containers[slot];
+        if (c.contains(low) == value) {
+            return value;
+        }
+        if (value) {
+            containers[slot] = c.add(low);
+        }
+        else {
+            removeIfEmpty(slot, c.remove(low));
+        }
+        return !value;
+    }
+
+    /**
+     * @return index of first set bit starting from <code>index</code> or -1
+     */
+    public long nextSetBit(long index) {
+        long key = index >>> CHUNK_BITS;
+        int i = table.ceilingIndex(key);
+        int from = i < size && table.keyAt(i) == key ? (int) (index & CHUNK_MASK) : 0;
+        for(; i < size; ++i) {
+            long k = table.keyAt(i);
+            int r = containers[table.get(k)].nextSetBit(from);
+            if (r >= 0) {
+                return (k << CHUNK_BITS) | r;
+            }
+            from = 0;
+        }
+        return -1;
+    }
+
+    public long cardinality() {
+        long n = 0;
+        for(int i = 0; i != size; ++i) {
+            n += containers[i].cardinality();
+        }
+        return n;
+    }
+
+    /**
+     * <code>this = this | that</code>
+     */
+    public void or(CompressedLongArray that) {
+        for(int i = 0; i != that.size; ++i) {
+            Container tc = that.containers[i];
+            if (tc.cardinality() != 0) {
+                orChunk(that.keys[i], tc);
+            }
+        }
+    }
+
+    /**
+     * <code>overflow = overflow | (this & that)</code>
+     * <br/>
+     * <code>this = this | that</code>
+     */
+    public void orWithOverflow(CompressedLongArray that, CompressedLongArray overflow) {
+        for(int i = 0; i != that.size; ++i) {
+            long key = that.keys[i];
+            Container tc = that.containers[i];
+            if (tc.cardinality() == 0) {
+                continue;
+            }
+            int slot = slotOf(key);
+            if (slot < 0) {
+                append(key, tc.copy());
+            }
+            else {
+                Container c = containers[slot];
+                Container o = c.and(tc);
+                if (o.cardinality() != 0) {
+                    overflow.orChunk(key, o);
+                }
+                containers[slot] = c.or(tc);
+            }
+        }
+    }
+
+    /**
+     * <code>this = this & ~that</code>
+     */
+    public void andNot(CompressedLongArray that) {
+        // backwards, removal moves last slot in place
+        for(int i = size - 1; i >= 0; --i) {
+            int ts = that.slotOf(keys[i]);
+            if (ts >= 0) {
+                removeIfEmpty(i, containers[i].andNot(that.containers[ts]));
+            }
+        }
+    }
+
+    /**
+     * <code>this = this & that</code>
+     */
+    public void and(CompressedLongArray that) {
+        // backwards, removal moves last slot in place
+        for(int i = size - 1; i >= 0; --i) {
+            int ts = that.slotOf(keys[i]);
+            removeIfEmpty(i, ts < 0 ? new ArrayContainer() : containers[i].and(that.containers[ts]));
+        }
+    }
+
+    /**
+     * Converts containers to most compact representation
+     * (run containers for long ranges of ones).
+     */
+    public void runOptimize() {
+        for(int i = 0; i != size; ++i) {
+            containers[i] = containers[i].runOptimize();
+        }
+    }
+
+    @Override
+    public long get(long n) {
+        int slot = slotOf(n >>> WORD_CHUNK_BITS);
+        return slot < 0 ? 0 : containers[slot].word((int) (n & WORD_MASK));
+    }
+
+    @Override
+    public long seekNext(long start) {
+        long bit = nextSetBit(start << 6);
+        return bit < 0 ? -1 : bit >>> 6;
+    }
+
+    @Override
+    public void set(long n, long value) {
+        long key = n >>> WORD_CHUNK_BITS;
+        int slot = value == 0 ? slotOf(key) : slotForWrite(key);
+        if (slot >= 0) {
+            removeIfEmpty(slot, containers[slot].setWord((int) (n & WORD_MASK), value));
+        }
+    }
+
+    @Override
+    public void clear() {
+        table = new LongIntHashTable();
+        keys = new long[8];
+        containers = new Container[8];
+        size = 0;
+        lastKey = -1;
+    }
+
+    private void orChunk(long key, Container c) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            append(key, c.copy());
+        }
+        else {
+            containers[slot] = containers[slot].or(c);
+        }
+    }
+
+    private int slotOf(long key) {
+        if (key == lastKey) {
+            return lastSlot;
+        }
+        int slot = table.get(key);
+        if (slot >= 0) {
+            lastKey = key;
+            lastSlot = slot;
+        }
+        return slot;
+    }
+
+    private int slotForWrite(long key) {
+        int slot = slotOf(key);
+        return slot >= 0 ? slot : append(key, new ArrayContainer());
+    }
+
+    private int append(long key, Container c) {
+        if (size == keys.length) {
+            int nl = 2 * size;
+            keys = Arrays.copyOf(keys, nl);
+            containers = Arrays.copyOf(containers, nl);
+        }
+        int slot = size++;
+        keys[slot] = key;
+        containers[slot] = c;
+        table.put(key, slot);
+        return slot;
+    }
+
+    /**
+     * Stores container in slot or drops chunk if container is empty,
+     * last slot is moved to place of dropped one.
+     */
+    private void removeIfEmpty(int slot, Container c) {
+        if (c.cardinality() != 0) {
+            containers[slot] = c;
+            return;
+        }
+        table.remove(keys[slot]);
+        int last = --size;
+        if (slot != last) {
+            keys[slot] = keys[last];
+            containers[slot] = containers[last];
+            table.put(keys[slot], slot);
+        }
+        containers[last] = null;
+        lastKey = -1;
+    }
+
+    static Container fromWords(long[] words) {
+        int card = 0;
+        for(long w: words) {
+            card += Long.bitCount(w);
+        }
+        if (card <= ARRAY_LIMIT) {
+            return ArrayContainer.fromWords(words, card);
+        }
+        else {
+            return new BitmapContainer(words, card);
+        }
+    }
+
+    static int nextSet(long[] words, int from) {
+        if (from >= CHUNK_SIZE) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word = words[w] & (-1l << from);
+        while(word == 0) {
+            if (++w == CHUNK_WORDS) {
+                return -1;
+            }
+            word = words[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    static int nextClear(long[] words, int from) {
+        int w = from >>> 6;
+        long word = ~words[w] & (-1l << from);
+        while(word == 0) {
+            if (++w == CHUNK_WORDS) {
+                return CHUNK_SIZE;
+            }
+            word = ~words[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Sets bits from <code>s</code> to <code>e</code> inclusive.
+     */
+    static void setRange(long[] words, int s, int e) {
+        int ws = s >>> 6;
+        int we = e >>> 6;
+        long first = -1l << s;
+        long last = -1l >>> (63 - (e & 63));
+        if (ws == we) {
+            words[ws] |= first & last;
+        }
+        else {
+            words[ws] |= first;
+            for(int w = ws + 1; w < we; ++w) {
+                words[w] = -1l;
+            }
+            words[we] |= last;
+        }
+    }
+
+    static abstract class Container {
+
+        abstract int cardinality();
+
+        abstract boolean contains(int low);
+
+        /** May modify this container */
+        abstract Container add(int low);
+
+        /** May modify this container */
+        abstract Container remove(int low);
+
+        /** @return first set bit at or after <code>from</code> or -1 */
+        abstract int nextSetBit(int from);
+
+        abstract long word(int w);
+
+        abstract Container copy();
+
+        abstract void orInto(long[] words);
+
+        long[] toWords() {
+            long[] words = new long[CHUNK_WORDS];
+            orInto(words);
+            return words;
+        }
+
+        /** May modify this container */
+        Container setWord(int w, long value) {
+            Container c = this;
+            long diff = word(w) ^ value;
+            while(diff != 0) {
+                int b = Long.numberOfTrailingZeros(diff);
+                diff &= diff - 1;
+                int low = (w << 6) | b;
+                c = (value & (1l << b)) != 0 ? c.add(low) : c.remove(low);
+            }
+            return c;
+        }
+
+        /** May modify this container, but not argument */
+        Container or(Container that) {
+            long[] words = toWords();
+            that.orInto(words);
+            return fromWords(words);
+        }
+
+        /** Modifies neither this container nor argument */
+        Container and(Container that) {
+            long[] words = toWords();
+            long[] tw = that.toWords();
+            for(int i = 0; i != CHUNK_WORDS; ++i) {
+                words[i] &= tw[i];
+            }
+            return fromWords(words);
+        }
+
+        /** May modify this container, but not argument */
+        Container andNot(Container that) {
+            long[] words = toWords();
+            long[] tw = that.toWords();
+            for(int i = 0; i != CHUNK_WORDS; ++i) {
+                words[i] &= ~tw[i];
+            }
+            return fromWords(words);
+        }
+
+        Container runOptimize() {
+            long[] words = toWords();
+            int runs = 0;
+            long carry = 0;
+            for(long w: words) {
+                runs += Long.bitCount(w & ~((w << 1) | carry));
+                carry = w >>> 63;
+            }
+            if (4 * runs < byteSize()) {
+                return RunContainer.fromWords(words, runs);
+            }
+            else {
+                return this;
+            }
+        }
+
+        abstract int byteSize();
+    }
+
+    static final class ArrayContainer extends Container {
+
+        private char[] values;
+        private int card;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int card) {
+            this.values = values;
+            this.card = card;
+        }
+
+        static ArrayContainer fromWords(long[] words, int card) {
+            char[] values = new char[Math.max(4, card)];
+            int n = 0;
+            for(int w = 0; w != CHUNK_WORDS; ++w) {
+                long word = words[w];
+                while(word != 0) {
+                    values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return Arrays.binarySearch(values, 0, card, (char) low) >= 0;
+        }
+
+        @Override
+        Container add(int low) {
+            int i = Arrays.binarySearch(values, 0, card, (char) low);
+            if (i >= 0) {
+                return this;
+            }
+            if (card >= ARRAY_LIMIT) {
+                return toBitmap().add(low);
+            }
+            i = -i - 1;
+            if (card == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, 2 * card)));
+            }
+            System.arraycopy(values, i, values, i + 1, card - i);
+            values[i] = (char) low;
+            ++card;
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            int i = Arrays.binarySearch(values, 0, card, (char) low);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, card - i - 1);
+                --card;
+            }
+            return this;
+        }
+
+        @Override
+        int nextSetBit(int from) {
+            int i = lowerBound(from);
+            return i < card ? values[i] : -1;
+        }
+
+        @Override
+        long word(int w) {
+            int lo = w << 6;
+            long word = 0;
+            for(int i = lowerBound(lo); i < card && values[i] < lo + 64; ++i) {
+                word |= 1l << values[i];
+            }
+            return word;
+        }
+
+        private int lowerBound(int from) {
+            if (from >= CHUNK_SIZE) {
+                return card;
+            }
+            int i = Arrays.binarySearch(values, 0, card, (char) from);
+            return i < 0 ? -i - 1 : i;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(4, card)), card);
+        }
+
+        @Override
+        void orInto(long[] words) {
+            for(int i = 0; i != card; ++i) {
+                words[values[i] >>> 6] |= 1l << values[i];
+            }
+        }
+
+        @Override
+        Container or(Container that) {
+            if (that instanceof ArrayContainer) {
+                ArrayContainer ta = (ArrayContainer) that;
+                if (card + ta.card > ARRAY_LIMIT) {
+                    return super.or(that);
+                }
+                char[] r = new char[Math.max(4, card + ta.card)];
+                int n = 0;
+                int i = 0;
+                int j = 0;
+                while(i < card && j < ta.card) {
+                    char a = values[i];
+                    char b = ta.values[j];
+                    if (a < b) {
+                        r[n++] = a;
+                        ++i;
+                    }
+                    else if (a > b) {
+                        r[n++] = b;
+                        ++j;
+                    }
+                    else {
+                        r[n++] = a;
+                        ++i;
+                        ++j;
+                    }
+                }
+                while(i < card) {
+                    r[n++] = values[i++];
+                }
+                while(j < ta.card) {
+                    r[n++] = ta.values[j++];
+                }
+                return new ArrayContainer(r, n);
+            }
+            else if (that instanceof BitmapContainer) {
+                return that.copy().or(this);
+            }
+            else {
+                return super.or(that);
+            }
+        }
+
+        @Override
+        Container and(Container that) {
+            char[] r = new char[Math.max(4, card)];
+            int n = 0;
+            for(int i = 0; i != card; ++i) {
+                if (that.contains(values[i])) {
+                    r[n++] = values[i];
+                }
+            }
+            return new ArrayContainer(r, n);
+        }
+
+        @Override
+        Container andNot(Container that) {
+            char[] r = new char[Math.max(4, card)];
+            int n = 0;
+            for(int i = 0; i != card; ++i) {
+                if (!that.contains(values[i])) {
+                    r[n++] = values[i];
+                }
+            }
+            return new ArrayContainer(r, n);
+        }
+
+        BitmapContainer toBitmap() {
+            return new BitmapContainer(toWords(), card);
+        }
+
+        @Override
+        int byteSize() {
+            return 2 * card;
+        }
+    }
+
+    static final class BitmapContainer extends Container {
+
+        private final long[] bits;
+        private int card;
+
+        BitmapContainer(long[] bits, int card) {
+            this.bits = bits;
+            this.card = card;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (bits[low >>> 6] & (1l << low)) != 0;
+        }
+
+        @Override
+        Container add(int low) {
+            long bit = 1l << low;
+            if ((bits[low >>> 6] & bit) == 0) {
+                bits[low >>> 6] |= bit;
+                ++card;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            long bit = 1l << low;
+            if ((bits[low >>> 6] & bit) != 0) {
+                bits[low >>> 6] &= ~bit;
+                --card;
+                if (card <= ARRAY_LIMIT) {
+                    return ArrayContainer.fromWords(bits, card);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        int nextSetBit(int from) {
+            return nextSet(bits, from);
+        }
+
+        @Override
+        long word(int w) {
+            return bits[w];
+        }
+
+        @Override
+        Container setWord(int w, long value) {
+            card += Long.bitCount(value) - Long.bitCount(bits[w]);
+            bits[w] = value;
+            return card <= ARRAY_LIMIT ? ArrayContainer.fromWords(bits, card) : this;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(bits.clone(), card);
+        }
+
+        @Override
+        void orInto(long[] words) {
+            for(int i = 0; i != CHUNK_WORDS; ++i) {
+                words[i] |= bits[i];
+            }
+        }
+
+        @Override
+        Container or(Container that) {
+            that.orInto(bits);
+            recount();
+            return this;
+        }
+
+        @Override
+        Container and(Container that) {
+            if (that instanceof ArrayContainer) {
+                return that.and(this);
+            }
+            else {
+                return super.and(that);
+            }
+        }
+
+        @Override
+        Container andNot(Container that) {
+            if (that instanceof BitmapContainer) {
+                long[] tw = ((BitmapContainer) that).bits;
+                for(int i = 0; i != CHUNK_WORDS; ++i) {
+                    bits[i] &= ~tw[i];
+                }
+            }
+            else {
+                long[] tw = that.toWords();
+                for(int i = 0; i != CHUNK_WORDS; ++i) {
+                    bits[i] &= ~tw[i];
+                }
+            }
+            recount();
+            return card <= ARRAY_LIMIT ? ArrayContainer.fromWords(bits, card) : this;
+        }
+
+        private void recount() {
+            int n = 0;
+            for(long w: bits) {
+                n += Long.bitCount(w);
+            }
+            card = n;
+        }
+
+        @Override
+        int byteSize() {
+            return 8 * CHUNK_WORDS;
+        }
+    }
+
+    /**
+     * Immutable, any modification produces array or bitmap container.
+     */
+    static final class RunContainer extends Container {
+
+        // pairs of (start, length - 1)
+        private final char[] runs;
+        private final int count;
+        private final int card;
+
+        RunContainer(char[] runs, int count, int card) {
+            this.runs = runs;
+            this.count = count;
+            this.card = card;
+        }
+
+        static RunContainer fromWords(long[] words, int count) {
+            char[] runs = new char[2 * count];
+            int n = 0;
+            int card = 0;
+            int s = nextSet(words, 0);
+            while(s >= 0) {
+                int e = nextClear(words, s);
+                runs[2 * n] = (char) s;
+                runs[2 * n + 1] = (char) (e - s - 1);
+                ++n;
+                card += e - s;
+                s = nextSet(words, e);
+            }
+            return new RunContainer(runs, n, card);
+        }
+
+        private int start(int i) {
+            return runs[2 * i];
+        }
+
+        private int end(int i) {
+            return runs[2 * i] + runs[2 * i + 1];
+        }
+
+        /** @return index of first run ending at or after <code>low</code> */
+        private int runFor(int low) {
+            int lo = 0;
+            int hi = count;
+            while(lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (end(mid) < low) {
+                    lo = mid + 1;
+                }
+                else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(int low) {
+            int i = runFor(low);
+            return i < count && start(i) <= low;
+        }
+
+        @Override
+        Container add(int low) {
+            return contains(low) ? this : CompressedLongArray.fromWords(toWords()).add(low);
+        }
+
+        @Override
+        Container remove(int low) {
+            return contains(low) ? CompressedLongArray.fromWords(toWords()).remove(low) : this;
+        }
+
+        @Override
+        Container setWord(int w, long value) {
+            return word(w) == value ? this : CompressedLongArray.fromWords(toWords()).setWord(w, value);
+        }
+
+        @Override
+        int nextSetBit(int from) {
+            int i = runFor(from);
+            return i < count ? Math.max(from, start(i)) : -1;
+        }
+
+        @Override
+        long word(int w) {
+            int lo = w << 6;
+            int hi = lo + 63;
+            long word = 0;
+            for(int i = runFor(lo); i < count && start(i) <= hi; ++i) {
+                int s = Math.max(lo, start(i)) - lo;
+                int e = Math.min(hi, end(i)) - lo;
+                word |= (-1l << s) & (-1l >>> (63 - e));
+            }
+            return word;
+        }
+
+        @Override
+        Container copy() {
+            return this;
+        }
+
+        @Override
+        void orInto(long[] words) {
+            for(int i = 0; i != count; ++i) {
+                setRange(words, start(i), end(i));
+            }
+        }
+
+        @Override
+        Container runOptimize() {
+            return this;
+        }
+
+        @Override
+        int byteSize() {
+            return 4 * count;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.gridkit.jvmtool.util;
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table of long keys to non negative int values.
+ * <br/>
+ * Keys could be also accessed in ascending order. Sorted view is maintained
+ * incrementally, keys added since last ordered access are sorted and merged
+ * into it, so interleaved inserts and ordered reads do not trigger full sort.
+ * <br/>
+ * Lookups are safe for concurrent readers as long as table is not modified,
+ * ordered access updates sorted view and is not thread safe.
+ */
+public class LongIntHashTable {
+
+    private long[] hashKeys;
+    // value + 1, 0 - empty slot
+    private int[] hashValues;
+    private int hashMask;
+    private int size;
+
+    // keys, [0, sortedCount) are ordered, [sortedCount, size) are pending
+    private long[] sortedKeys;
+    private int sortedCount;
+
+    public LongIntHashTable() {
+        this(8);
+    }
+
+    public LongIntHashTable(int expectedSize) {
+        int cap = Integer.highestOneBit(Math.max(8, 2 * expectedSize)) << 1;
+        hashKeys = new long[cap];
+        hashValues = new int[cap];
+        hashMask = cap - 1;
+        sortedKeys = new long[Math.max(8, expectedSize)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return value for key or -1 if key is absent
+     */
+    public int get(long key) {
+        int h = hash(key);
+        while(true) {
+            int v = hashValues[h];
+            if (v == 0) {
+                return -1;
+            }
+            if (hashKeys[h] == key) {
+                return v - 1;
+            }
+            h = (h + 1) & hashMask;
+        }
+    }
+
+    /**
+     * @param value non negative value
+     * @return previous value for key or -1
+     */
+    public int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        int h = hash(key);
+        while(true) {
+            int v = hashValues[h];
+            if (v == 0) {
+                break;
+            }
+            if (hashKeys[h] == key) {
+                hashValues[h] = value + 1;
+                return v - 1;
+            }
+            h = (h + 1) & hashMask;
+        }
+        hashKeys[h] = key;
+        hashValues[h] = value + 1;
+        if (size == sortedKeys.length) {
+            sortedKeys = Arrays.copyOf(sortedKeys, 2 * size);
+        }
+        sortedKeys[size++] = key;
+        if (sortedCount == size - 1 && (sortedCount == 0 || sortedKeys[sortedCount - 1] < key)) {
+            // appended in order
+            sortedCount = size;
+        }
+        if (2 * size > hashKeys.length) {
+            rehash(2 * hashKeys.length);
+        }
+        return -1;
+    }
+
+    /**
+     * @return removed value or -1 if key is absent
+     */
+    public int remove(long key) {
+        int h = hash(key);
+        while(true) {
+            int v = hashValues[h];
+            if (v == 0) {
+                return -1;
+            }
+            if (hashKeys[h] == key) {
+                deleteSlot(h);
+                removeSorted(key);
+                return v - 1;
+            }
+            h = (h + 1) & hashMask;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(hashValues, 0);
+        size = 0;
+        sortedCount = 0;
+    }
+
+    /**
+     * @return n-th key in ascending order
+     */
+    public long keyAt(int n) {
+        if (n >= size) {
+            throw new IndexOutOfBoundsException(n + " >= " + size);
+        }
+        ensureOrder();
+        return sortedKeys[n];
+    }
+
+    /**
+     * @return position of least key greater or equal to <code>key</code>
+     *         in ascending order, {@link #size()} if there is no such key
+     */
+    public int ceilingIndex(long key) {
+        ensureOrder();
+        int n = Arrays.binarySearch(sortedKeys, 0, size, key);
+        return n < 0 ? -n - 1 : n;
+    }
+
+    private void ensureOrder() {
+        int pending = size - sortedCount;
+        if (pending == 0) {
+            return;
+        }
+        if (pending == 1) {
+            long key = sortedKeys[sortedCount];
+            int n = -Arrays.binarySearch(sortedKeys, 0, sortedCount, key) - 1;
+            System.arraycopy(sortedKeys, n, sortedKeys, n + 1, sortedCount - n);
+            sortedKeys[n] = key;
+        }
+        else {
+            Arrays.sort(sortedKeys, sortedCount, size);
+            if (sortedCount > 0 && sortedKeys[sortedCount - 1] > sortedKeys[sortedCount]) {
+                // merge from the end, only keys greater than smallest pending key are moved
+                long[] tail = Arrays.copyOfRange(sortedKeys, sortedCount, size);
+                int i = sortedCount - 1;
+                int j = tail.length - 1;
+                int k = size - 1;
+                while(j >= 0) {
+                    if (i >= 0 && sortedKeys[i] > tail[j]) {
+                        sortedKeys[k--] = sortedKeys[i--];
+                    }
+                    else {
+                        sortedKeys[k--] = tail[j--];
+                    }
+                }
+            }
+        }
+        sortedCount = size;
+    }
+
+    private void removeSorted(long key) {
+        int n = Arrays.binarySearch(sortedKeys, 0, sortedCount, key);
+        if (n >= 0) {
+            System.arraycopy(sortedKeys, n + 1, sortedKeys, n, size - n - 1);
+            --sortedCount;
+        }
+        else {
+            n = sortedCount;
+            while(sortedKeys[n] != key) {
+                ++n;
+            }
+            sortedKeys[n] = sortedKeys[size - 1];
+        }
+        --size;
+    }
+
+    /**
+     * Backward shift deletion, keeps probe sequences of other keys intact.
+     */
+    private void deleteSlot(int free) {
+        int h = (free + 1) & hashMask;
+        while(hashValues[h] != 0) {
+            int home = hash(hashKeys[h]);
+            if (((h - home) & hashMask) >= ((h - free) & hashMask)) {
+                hashKeys[free] = hashKeys[h];
+                hashValues[free] = hashValues[h];
+                free = h;
+            }
+            h = (h + 1) & hashMask;
+        }
+        hashValues[free] = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] ok = hashKeys;
+        int[] ov = hashValues;
+        hashKeys = new long[capacity];
+        hashValues = new int[capacity];
+        hashMask = capacity - 1;
+        for(int i = 0; i != ok.length; ++i) {
+            if (ov[i] != 0) {
+                int h = hash(ok[i]);
+                while(hashValues[h] != 0) {
+                    h = (h + 1) & hashMask;
+                }
+                hashKeys[h] = ok[i];
+                hashValues[h] = ov[i];
+            }
+        }
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15l;
+        return (int) (h >>> 32) & hashMask;
+    }
+}
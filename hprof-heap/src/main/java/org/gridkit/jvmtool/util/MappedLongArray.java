@@ -0,0 +1,249 @@
+package org.gridkit.jvmtool.util;
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Paged long array with pages stored in memory mapped scratch file.
+ * <br/>
+ * Only page directory is kept in Java heap, page content is left
+ * to OS page cache. Scratch file is created on first write and removed
+ * right away (or on JVM exit if OS does not allow removal of open file).
+ * <br/>
+ * Page directory is either dense, indexed by page number like
+ * {@link PagedLongArray}, or sparse, hashed by page number like
+ * {@link SparsePagedLongArray}.
+ * <br/>
+ * {@link #close()} closes scratch file, mapped segments are unmapped
+ * once collected by GC and disk space is reclaimed by OS at that point.
+ */
+class MappedLongArray implements LongArray, Closeable {
+
+    private final static int PAGE_BITS = 10;
+    private final static int PAGE_MASK = ~(-1 << PAGE_BITS);
+    private final static int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // 64 MiB per mapped segment
+    private final static int SEGMENT_PAGE_BITS = 13;
+    private final static int SEGMENT_PAGE_MASK = ~(-1 << SEGMENT_PAGE_BITS);
+    private final static long SEGMENT_BYTES = 8l << (PAGE_BITS + SEGMENT_PAGE_BITS);
+
+    public final static long NULL_VALUE = 0;
+
+    private final File scratchDir;
+    private final boolean sparse;
+    private RandomAccessFile file;
+    private LongBuffer[] segments = new LongBuffer[0];
+
+    // dense directory: page index -> slot + 1
+    private int[] directory;
+    // sparse directory: page index -> slot
+    private LongIntHashTable table;
+
+    private int pageCount;
+    // pages below this slot may contain stale data after clear()
+    private int dirtySlots;
+
+    private long lastPage;
+    private int lastSlot;
+
+    public MappedLongArray(File scratchDir, boolean sparse) {
+        this.scratchDir = scratchDir;
+        this.sparse = sparse;
+        reset();
+    }
+
+    @Override
+    public long get(long n) {
+        int slot = slotOf(n >>> PAGE_BITS);
+        if (slot < 0) {
+            return NULL_VALUE;
+        }
+        return segment(slot).get(offset(slot, (int) (n & PAGE_MASK)));
+    }
+
+    @Override
+    public long seekNext(long start) {
+        long pi = start >>> PAGE_BITS;
+        int from = (int) (start & PAGE_MASK);
+        if (sparse) {
+            for(int i = table.ceilingIndex(pi); i < pageCount; ++i) {
+                long key = table.keyAt(i);
+                long r = seekInPage(key, table.get(key), key == pi ? from : 0);
+                if (r >= 0) {
+                    return r;
+                }
+            }
+        }
+        else {
+            for(long p = pi; p < directory.length; ++p) {
+                int slot = directory[(int) p] - 1;
+                if (slot >= 0) {
+                    long r = seekInPage(p, slot, p == pi ? from : 0);
+                    if (r >= 0) {
+                        return r;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private long seekInPage(long pi, int slot, int from) {
+        LongBuffer segment = segment(slot);
+        int base = offset(slot, 0);
+        for(int j = from; j != PAGE_SIZE; ++j) {
+            if (segment.get(base + j) != NULL_VALUE) {
+                return (pi << PAGE_BITS) + j;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void set(long n, long value) {
+        long pi = n >>> PAGE_BITS;
+        int slot = slotOf(pi);
+        if (slot < 0) {
+            if (value == NULL_VALUE) {
+                return;
+            }
+            slot = allocate(pi);
+        }
+        segment(slot).put(offset(slot, (int) (n & PAGE_MASK)), value);
+    }
+
+    /**
+     * Scratch file is retained, its pages are reused.
+     */
+    @Override
+    public void clear() {
+        dirtySlots = Math.max(dirtySlots, pageCount);
+        reset();
+    }
+
+    /**
+     * Releases scratch file, array is empty after close and could be reused
+     * (new scratch file would be created).
+     * <br/>
+     * File is not truncated, mapped segments may still be reachable
+     * from other threads and truncation would fault their accesses.
+     */
+    @Override
+    public void close() throws IOException {
+        segments = new LongBuffer[0];
+        dirtySlots = 0;
+        reset();
+        if (file != null) {
+            RandomAccessFile f = file;
+            file = null;
+            f.close();
+        }
+    }
+
+    private void reset() {
+        if (sparse) {
+            table = new LongIntHashTable();
+        }
+        else {
+            directory = new int[16];
+        }
+        pageCount = 0;
+        lastPage = -1;
+    }
+
+    private LongBuffer segment(int slot) {
+        return segments[slot >>> SEGMENT_PAGE_BITS];
+    }
+
+    private int offset(int slot, int index) {
+        return ((slot & SEGMENT_PAGE_MASK) << PAGE_BITS) + index;
+    }
+
+    private int slotOf(long pi) {
+        if (pi == lastPage) {
+            return lastSlot;
+        }
+        int slot;
+        if (sparse) {
+            slot = table.get(pi);
+        }
+        else {
+            slot = pi < directory.length ? directory[(int) pi] - 1 : -1;
+        }
+        if (slot >= 0) {
+            lastPage = pi;
+            lastSlot = slot;
+        }
+        return slot;
+    }
+
+    private int allocate(long pi) {
+        if (!sparse && pi >= Integer.MAX_VALUE) {
+            throw new ArrayIndexOutOfBoundsException("" + pi);
+        }
+        int slot = pageCount;
+        int seg = slot >>> SEGMENT_PAGE_BITS;
+        if (seg >= segments.length) {
+            mapSegment(seg);
+        }
+        if (slot < dirtySlots) {
+            LongBuffer segment = segment(slot);
+            int base = offset(slot, 0);
+            for(int i = 0; i != PAGE_SIZE; ++i) {
+                segment.put(base + i, NULL_VALUE);
+            }
+        }
+        if (sparse) {
+            table.put(pi, slot);
+        }
+        else {
+            if (pi >= directory.length) {
+                directory = Arrays.copyOf(directory, (int) Math.min(Integer.MAX_VALUE, Math.max(pi + 1, 2l * directory.length)));
+            }
+            directory[(int) pi] = slot + 1;
+        }
+        ++pageCount;
+        return slot;
+    }
+
+    private void mapSegment(int seg) {
+        try {
+            if (file == null) {
+                File f = File.createTempFile("heaplib", ".pages", scratchDir);
+                file = new RandomAccessFile(f, "rw");
+                if (!f.delete()) {
+                    f.deleteOnExit();
+                }
+            }
+            FileChannel channel = file.getChannel();
+            LongBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, seg * SEGMENT_BYTES, SEGMENT_BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+            segments = Arrays.copyOf(segments, seg + 1);
+            segments[seg] = buffer;
+        }
+        catch(IOException e) {
+            throw new RuntimeException("Failed to map page file", e);
+        }
+    }
+}
@@ -16,26 +16,92 @@ package org.gridkit.jvmtool.util;
  */
 
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
 
 /**
  * Simple bit map using paged long array for storage.
  * Untouched pages are not allocated, so it is reasonably efficient
  * for bitmaps with large gaps.
+ * <br/>
+ * Alternatively, bitmap could use compressed storage (array, bitmap and run
+ * containers per 64K bit chunk, similar to Roaring bitmaps). Compressed storage
+ * is much smaller for clustered or sparse bits and set algebra between
+ * two compressed bitmaps is done container by container.
+ * <br/>
+ * Pages could also be kept in memory mapped scratch file, outside of Java heap.
  *
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
 public class PagedBitMap {
 
     private LongArray array;
+    // same as array if storage is compressed
+    private CompressedLongArray compressed;
+    // same as array if storage is thread safe
+    private AtomicPagedLongArray atomic;
 
     public PagedBitMap() {
         this(false);
     }
 
     public PagedBitMap(boolean sparse) {
-        if (sparse) {
+        this(sparse, false);
+    }
+
+    /**
+     * @param sparse use sparse page index, ignored for compressed storage
+     * @param compressed use compressed container storage instead of pages
+     */
+    public PagedBitMap(boolean sparse, boolean compressed) {
+        this(sparse, compressed, false);
+    }
+
+    /**
+     * Bitmap with pages stored in memory mapped scratch file, so large
+     * bitmap occupies OS page cache instead of Java heap. Page index is sparse.
+     *
+     * Call {@link #dispose()} to release scratch file once bitmap is not needed.
+     *
+     * @param scratchDir directory for scratch file, default temporary directory if <code>null</code>
+     */
+    public PagedBitMap(File scratchDir) {
+        this(scratchDir, true);
+    }
+
+    /**
+     * @param scratchDir directory for scratch file, default temporary directory if <code>null</code>
+     * @param sparse use sparse page index
+     * @see #PagedBitMap(File)
+     */
+    public PagedBitMap(File scratchDir, boolean sparse) {
+        array = new MappedLongArray(scratchDir, sparse);
+    }
+
+    /**
+     * Concurrent storage supports atomic single bit operations
+     * ({@link #set(long, boolean)}, {@link #getAndSet(long, boolean)})
+     * from multiple threads, pages are allocated without locking.
+     * Bulk operations are not atomic.
+     */
+    protected PagedBitMap(boolean sparse, boolean compressed, boolean concurrent) {
+        if (concurrent) {
+            if (compressed) {
+                throw new IllegalArgumentException("Compressed storage is not thread safe");
+            }
+            atomic = new AtomicPagedLongArray();
+            array = atomic;
+        }
+        else if (compressed) {
+            this.compressed = new CompressedLongArray();
+            array = this.compressed;
+        }
+        else if (sparse) {
             array = new SparsePagedLongArray();
         }
         else {
@@ -43,38 +109,91 @@ public class PagedBitMap {
         }
     }
 
+    public boolean isCompressed() {
+        return compressed != null;
+    }
+
+    public boolean isConcurrent() {
+        return atomic != null;
+    }
+
     public boolean get(long index) {
+        if (compressed != null) {
+            return compressed.getBit(index);
+        }
         long lindex = index / 64;
         long bit = 1l << (index % 64);
         return (0 != (bit & array.get(lindex))); // Long.toBinaryString(array.get(lindex))
     }
 
     public long seekOne(long start) {
-        long n = start;
-        while(true) {
-            long lindex = n / 64;
-            long bit = 1l << (n % 64);
+        return seek(start);
+    }
 
-            long word = array.get(lindex);
-            if (word == 0) {
-                long nn = array.seekNext(lindex);
-                if (nn < 0) {
-                    return -1;
-                }
-                n = 64 * nn;
-                continue;
+    private long seek(long start) {
+        if (compressed != null) {
+            return compressed.nextSetBit(start);
+        }
+        long lindex = start / 64;
+        long word = array.get(lindex) & (-1l << (start % 64));
+        while(word == 0) {
+            lindex = array.seekNext(lindex + 1);
+            if (lindex < 0) {
+                return -1;
             }
-            while(bit != 0) {
-                if (0 != (bit & word)) {
-                    return n;
-                }
-                ++n;
-                bit <<= 1;
+            word = array.get(lindex);
+        }
+        return 64 * lindex + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * @return first one in <code>[start, end)</code> range or -1
+     */
+    public long seekOne(long start, long end) {
+        long n = seek(start);
+        return n >= end ? -1 : n;
+    }
+
+    /**
+     * Splits index space into <code>parts</code> ranges with roughly
+     * equal number of ones, e.g. to scan bitmap by several threads
+     * using {@link #seekOne(long, long)}. Some ranges may be empty.
+     *
+     * @return <code>parts + 1</code> boundaries, range <code>i</code> is <code>[r[i], r[i + 1])</code>
+     */
+    public long[] splitRanges(int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("Number of parts should be positive");
+        }
+        long total = countOnes();
+        long[] bounds = new long[parts + 1];
+        Arrays.fill(bounds, 1, parts + 1, Long.MAX_VALUE);
+        int k = 1;
+        long acc = 0;
+        long n = 0;
+        while(k < parts) {
+            n = array.seekNext(n);
+            if (n < 0) {
+                break;
+            }
+            acc += Long.bitCount(array.get(n));
+            ++n;
+            while(k < parts && acc >= (total * k) / parts) {
+                bounds[k++] = 64 * n;
             }
         }
+        return bounds;
     }
 
     public void set(long index, boolean value) {
+        if (compressed != null) {
+            compressed.setBit(index, value);
+            return;
+        }
+        if (atomic != null) {
+            atomic.getAndSetBit(index, value);
+            return;
+        }
         long lindex = index / 64;
         long bit = 1l << (index % 64);
         if (value) {
@@ -86,6 +205,12 @@ public class PagedBitMap {
     }
 
     public boolean getAndSet(long index, boolean value) {
+        if (compressed != null) {
+            return compressed.setBit(index, value);
+        }
+        if (atomic != null) {
+            return atomic.getAndSetBit(index, value);
+        }
         long lindex = index / 64;
         long bit = 1l << (index % 64);
         long ov = array.get(lindex);
@@ -103,6 +228,10 @@ public class PagedBitMap {
      * <code>this = this | that</code>
      */
     public void add(PagedBitMap that) {
+        if (compressed != null && that.compressed != null) {
+            compressed.or(that.compressed);
+            return;
+        }
         LongArray ta = that.array;
         long n = 0;
         while(true) {
@@ -123,6 +252,10 @@ public class PagedBitMap {
      * <code>this = this | that</code>
      */
     public void addWithOverflow(PagedBitMap that, PagedBitMap overflow) {
+        if (compressed != null && that.compressed != null && overflow.compressed != null) {
+            compressed.orWithOverflow(that.compressed, overflow.compressed);
+            return;
+        }
         LongArray ta = that.array;
         LongArray of = overflow.array;
         long n = 0;
@@ -147,6 +280,10 @@ public class PagedBitMap {
      * <code>this = this & (~that)</code>
      */
     public void sub(PagedBitMap that) {
+        if (compressed != null && that.compressed != null) {
+            compressed.andNot(that.compressed);
+            return;
+        }
         LongArray ta = that.array;
         long n = 0;
         while(true) {
@@ -165,10 +302,15 @@ public class PagedBitMap {
      * <code>this = this & that</code>
      */
     public void mult(PagedBitMap that) {
+        if (compressed != null && that.compressed != null) {
+            compressed.and(that.compressed);
+            return;
+        }
         LongArray ta = that.array;
         long n = 0;
         while(true) {
-            n = ta.seekNext(n);
+            // words missing in that should be cleared too
+            n = array.seekNext(n);
             if (n < 0) {
                 break;
             }
@@ -178,6 +320,56 @@ public class PagedBitMap {
         }
     }
 
+    /**
+     * Calls <code>action</code> for each one, in ascending order.
+     * Bitmap is read word by word, empty pages are skipped.
+     */
+    public void forEachOne(LongConsumer action) {
+        forEachOne(0, Long.MAX_VALUE, action);
+    }
+
+    /**
+     * Calls <code>action</code> for each one in <code>[start, end)</code> range, in ascending order.
+     * <br/>
+     * Bits modified by <code>action</code> may be or may be not visited.
+     */
+    public void forEachOne(long start, long end, LongConsumer action) {
+        if (start >= end) {
+            return;
+        }
+        long lindex = start / 64;
+        long word = array.get(lindex) & (-1l << (start % 64));
+        while(true) {
+            while(word != 0) {
+                long n = 64 * lindex + Long.numberOfTrailingZeros(word);
+                if (n >= end) {
+                    return;
+                }
+                action.accept(n);
+                word &= word - 1;
+            }
+            lindex = array.seekNext(lindex + 1);
+            if (lindex < 0 || lindex > (end - 1) / 64) {
+                return;
+            }
+            word = array.get(lindex);
+        }
+    }
+
+    /**
+     * @return iterator over ones, which does not box values
+     */
+    public LongIterator onesIterator() {
+        return onesIterator(0, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return iterator over ones in <code>[start, end)</code> range
+     */
+    public LongIterator onesIterator(long start, long end) {
+        return new OnesIterator(array, start, end);
+    }
+
     public Iterable<Long> ones() {
         return new Iterable<Long>() {
             @Override
@@ -187,19 +379,106 @@ public class PagedBitMap {
         };
     }
 
-    @SuppressWarnings("unused")
     public long countOnes() {
+        if (compressed != null) {
+            return compressed.cardinality();
+        }
         long n = 0;
-        for(Long l: ones()) {
-            ++n;
+        long i = 0;
+        while(true) {
+            i = array.seekNext(i);
+            if (i < 0) {
+                break;
+            }
+            n += Long.bitCount(array.get(i));
+            ++i;
         }
         return n;
     }
 
+    /**
+     * Converts compressed storage into most compact form, long ranges of
+     * ones are stored as runs. Bitmap remains mutable.
+     * <br/>
+     * Has no effect for paged storage.
+     */
+    public void optimize() {
+        if (compressed != null) {
+            compressed.runOptimize();
+        }
+    }
+
     public void clear() {
         array.clear();
     }
 
+    /**
+     * Releases resources held by storage outside of Java heap
+     * (scratch file of {@link #PagedBitMap(File) mapped} bitmap).
+     * Bitmap is empty after this call.
+     */
+    public void dispose() {
+        if (array instanceof Closeable) {
+            try {
+                ((Closeable) array).close();
+            }
+            catch(IOException e) {
+                throw new RuntimeException("Failed to release page file", e);
+            }
+        }
+        else {
+            array.clear();
+        }
+    }
+
+    private static class OnesIterator implements LongIterator {
+
+        private final LongArray array;
+        private final long end;
+        private long lindex;
+        // bits of current word not visited yet
+        private long word;
+
+        public OnesIterator(LongArray array, long start, long end) {
+            this.array = array;
+            this.end = end;
+            if (start < end) {
+                lindex = start / 64;
+                word = array.get(lindex) & (-1l << (start % 64));
+                seek();
+            }
+        }
+
+        private void seek() {
+            while(word == 0) {
+                lindex = array.seekNext(lindex + 1);
+                if (lindex < 0 || lindex > (end - 1) / 64) {
+                    return;
+                }
+                word = array.get(lindex);
+            }
+            if (64 * lindex + Long.numberOfTrailingZeros(word) >= end) {
+                word = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return word != 0;
+        }
+
+        @Override
+        public long next() {
+            if (word == 0) {
+                throw new NoSuchElementException();
+            }
+            long n = 64 * lindex + Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+            seek();
+            return n;
+        }
+    }
+
     protected static class SeekerIterator implements Iterator<Long> {
 
         private PagedBitMap bitmap;
@@ -39,6 +39,11 @@ public abstract class AbstractPagedHprofByteBuffer extends HprofByteBuffer {
         readHeader();
     }
     
+    @Override
+    void close() throws IOException {
+        pagedMemory.close();
+    }
+
     protected void setLength(long len) {
         length = len;
         pagedMemory.setLimit(len);
@@ -80,7 +85,27 @@ public abstract class AbstractPagedHprofByteBuffer extends HprofByteBuffer {
     }
 
     @Override
-    void get(long position, byte[] chars) {
-        pagedMemory.readBytes(position, chars);
+    void get(long position, byte[] buffer, int off, int len) {
+        pagedMemory.readBytes(position, buffer, off, len);
+    }
+
+    @Override
+    void getChars(long position, char[] buffer, int off, int len) {
+        pagedMemory.readChars(position, buffer, off, len);
+    }
+
+    @Override
+    void getLongs(long position, long[] buffer, int off, int len) {
+        pagedMemory.readLongs(position, buffer, off, len);
+    }
+
+    @Override
+    void getIDs(long position, long[] buffer, int off, int len) {
+        if (getIDSize() == 8) {
+            pagedMemory.readLongs(position, buffer, off, len);
+        }
+        else {
+            pagedMemory.readUnsignedInts(position, buffer, off, len);
+        }
     }
 }
@@ -57,6 +57,7 @@ class ClassDump extends HprofObject implements JavaClass {
     private long firstInstanceOffset;
     private long loadClassOffset;
     private long retainedSizeByClass;
+    private volatile FieldLayout fieldLayout;
 
     //~ Constructors -------------------------------------------------------------------------------------------------------------
 
@@ -120,11 +121,20 @@ class ClassDump extends HprofObject implements JavaClass {
     }
 
     public long getRetainedSizeByClass() {
+        DominatorIndex index = getHprof().getDominatorIndex(false);
+        if (index != null) {
+            return index.getRetainedSizeByClass(this);
+        }
         getHprof().computeRetainedSizeByClass();
         return retainedSizeByClass;
     }
 
     public List<Instance> getInstances() {
+        ClassInstanceIndex index = getHprof().getInstanceIndex();
+        if (index != null) {
+            return index.getInstances(this);
+        }
+
         int instancesCount = getInstancesCount();
 
         if (instancesCount == 0 && getHprof().eagerInstanceCounting()) {
@@ -189,6 +199,11 @@ class ClassDump extends HprofObject implements JavaClass {
     }
 
     public Iterator<Instance> getInstancesIterator() {
+        ClassInstanceIndex index = getHprof().getInstanceIndex();
+        if (index != null) {
+            return index.getInstancesIterator(this);
+        }
+
         int instancesCount = getInstancesCount();
         if (instancesCount == 0) {
             return Collections.<Instance>emptyList().iterator();
@@ -198,6 +213,10 @@ class ClassDump extends HprofObject implements JavaClass {
 
     public int getInstancesCount() {
         if (instances == 0) {
+            ClassInstanceIndex index = getHprof().getInstanceIndex();
+            if (index != null) {
+                return index.getInstancesCount(this);
+            }
             getHprof().computeInstances();
         }
 
@@ -321,6 +340,15 @@ class ClassDump extends HprofObject implements JavaClass {
         return fields;
     }
 
+    FieldLayout getFieldLayout() {
+        FieldLayout layout = fieldLayout;
+        if (layout == null) {
+            // benign race, layout is immutable
+            layout = fieldLayout = new FieldLayout(this);
+        }
+        return layout;
+    }
+
     void setClassLoadOffset(long offset) {
         loadClassOffset = offset;
     }
@@ -60,7 +60,9 @@ class ClassDumpSegment extends TagBounds {
     ClassDump java_lang_Class;
     Map<JavaClass,List<Field>> fieldsCache;
     private List<JavaClass> classes;
+    private volatile List<JavaClass> publishedClasses;
     private Map<Integer,JavaClass> primitiveArrayMap;
+    private volatile ClassNameIndex nameIndex;
     boolean newSize;
 
     //~ Constructors -------------------------------------------------------------------------------------------------------------
@@ -119,21 +121,12 @@ class ClassDumpSegment extends TagBounds {
     }
 
     JavaClass getJavaClassByName(String fqn) {
-        Iterator<JavaClass> classIt = createClassCollection().iterator();
-
-        while (classIt.hasNext()) {
-            ClassDump cls = (ClassDump) classIt.next();
-
-            if (fqn.equals(cls.getName())) {
-                return cls;
-            }
-        }
-
-        return null;
+        return getNameIndex().getClassByName(fqn);
     }
 
     Collection<JavaClass> getJavaClassesByRegExp(String regexp) {
-        Iterator<JavaClass> classIt = createClassCollection().iterator();
+        Collection<JavaClass> candidates = getNameIndex().getClassesByPrefix(ClassNameIndex.regExpPrefix(regexp));
+        Iterator<JavaClass> classIt = candidates.iterator();
         Collection<JavaClass> result = new ArrayList<JavaClass>(256);
         Pattern pattern = Pattern.compile(regexp);
         
@@ -147,6 +140,20 @@ class ClassDumpSegment extends TagBounds {
         return result;
     }
 
+    ClassNameIndex getNameIndex() {
+        ClassNameIndex index = nameIndex;
+        if (index != null) {
+            return index;
+        }
+        List<JavaClass> allClasses = createClassCollection();
+        synchronized (this) {
+            if (nameIndex == null) {
+                nameIndex = new ClassNameIndex(allClasses);
+            }
+            return nameIndex;
+        }
+    }
+
     int getMinimumInstanceSize() {
         return minimumInstanceSize;
     }
@@ -200,8 +207,18 @@ class ClassDumpSegment extends TagBounds {
         }
     }
 
-    synchronized List<JavaClass> createClassCollection() {
+    List<JavaClass> createClassCollection() {
+        // lock free path, class collection is accessed for every instance during heap scan
+        List<JavaClass> cls = publishedClasses;
+        if (cls != null) {
+            return cls;
+        }
+        return initClassCollection();
+    }
+
+    private synchronized List<JavaClass> initClassCollection() {
         if (classes != null) {
+            publishedClasses = classes;
             return classes;
         }
 
@@ -221,10 +238,36 @@ class ClassDumpSegment extends TagBounds {
             }
         }
 
+        return publishClassCollection(cls);
+    }
+
+    /**
+     * Initializes class collection using known class dump offsets,
+     * class dump segment is not scanned.
+     */
+    synchronized void restoreClassCollection(long[] classOffsets) {
+        if (classes != null) {
+            return;
+        }
+
+        List<JavaClass> cls = new ArrayList<JavaClass>(classOffsets.length);
+
+        for (long start: classOffsets) {
+            ClassDump classDump = new ClassDump(this, start);
+            long classId = classDump.getJavaClassId();
+            cls.add(classDump);
+            hprofHeap.addClassEntry(classId, start, cls.size());
+        }
+
+        publishClassCollection(cls);
+    }
+
+    private List<JavaClass> publishClassCollection(List<JavaClass> cls) {
         classes = Collections.unmodifiableList(cls);
         hprofHeap.getLoadClassSegment().setLoadClassOffsets();
         arrayMap = new HashMap<JavaClass, Long>(classes.size() / 15);
         extractSpecialClasses();
+        publishedClasses = classes;
 
         return classes;
     }
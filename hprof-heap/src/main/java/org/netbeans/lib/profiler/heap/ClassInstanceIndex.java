@@ -0,0 +1,245 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.gridkit.jvmtool.util.LongIntHashTable;
+
+/**
+ * Per class lists of instance offsets (posting lists).
+ * <br/>
+ * Offsets of each class are stored in dump order as variable length
+ * deltas, typically taking 2-3 bytes per instance. Index is built by single
+ * scan of dump, after that instances of a class could be enumerated without
+ * touching records of other classes.
+ */
+class ClassInstanceIndex {
+
+    private final HprofHeap heap;
+    private final List<JavaClass> classes;
+    private final ClassTable classTable;
+    private final int[] counts;
+    private final byte[][] postings;
+
+    private ClassInstanceIndex(HprofHeap heap, int[] counts, byte[][] postings) {
+        this.heap = heap;
+        this.classes = heap.getClassDumpSegment().createClassCollection();
+        this.classTable = new ClassTable(classes);
+        this.counts = counts;
+        this.postings = postings;
+    }
+
+    static ClassInstanceIndex build(HprofHeap heap) {
+        List<JavaClass> classes = heap.getClassDumpSegment().createClassCollection();
+        ClassTable table = new ClassTable(classes);
+        int[] counts = new int[classes.size()];
+        long[] last = new long[classes.size()];
+        byte[][] postings = new byte[classes.size()][];
+        int[] lengths = new int[classes.size()];
+
+        HprofByteBuffer dumpBuffer = heap.dumpBuffer;
+        ClassDumpSegment classSegment = heap.getClassDumpSegment();
+        int idSize = dumpBuffer.getIDSize();
+        long[] pointer = new long[] { heap.getAllInstanceDumpBounds().startOffset };
+        long endOffset = heap.getAllInstanceDumpBounds().endOffset;
+        byte[] vbuf = new byte[10];
+        while(pointer[0] < endOffset) {
+            long start = pointer[0];
+            int tag = heap.readDumpTag(pointer);
+            long classId;
+            if (tag == HprofHeap.INSTANCE_DUMP) {
+                classId = dumpBuffer.getID(start + 1 + idSize + 4);
+            } else if (tag == HprofHeap.OBJECT_ARRAY_DUMP) {
+                classId = dumpBuffer.getID(start + 1 + idSize + 4 + 4);
+            } else if (tag == HprofHeap.PRIMITIVE_ARRAY_DUMP) {
+                byte type = dumpBuffer.get(start + 1 + idSize + 4 + 4);
+                classId = classSegment.getPrimitiveArrayClass(type).getJavaClassId();
+            } else {
+                continue;
+            }
+            int ci = table.indexOf(classId);
+            if (ci < 0) {
+                // broken instance, skipped by instance iterator too
+                continue;
+            }
+            int n = writeVarLong(vbuf, start - last[ci]);
+            last[ci] = start;
+            byte[] buf = postings[ci];
+            if (buf == null) {
+                buf = postings[ci] = new byte[16];
+            }
+            else if (lengths[ci] + n > buf.length) {
+                buf = postings[ci] = Arrays.copyOf(buf, 2 * buf.length);
+            }
+            System.arraycopy(vbuf, 0, buf, lengths[ci], n);
+            lengths[ci] += n;
+            ++counts[ci];
+        }
+        for(int i = 0; i != postings.length; ++i) {
+            if (postings[i] != null && postings[i].length != lengths[i]) {
+                postings[i] = Arrays.copyOf(postings[i], lengths[i]);
+            }
+        }
+        return new ClassInstanceIndex(heap, counts, postings);
+    }
+
+    int getInstancesCount(ClassDump cls) {
+        int ci = classTable.indexOf(cls.getJavaClassId());
+        return ci < 0 ? 0 : counts[ci];
+    }
+
+    Iterator<Instance> getInstancesIterator(final ClassDump cls) {
+        final int ci = classTable.indexOf(cls.getJavaClassId());
+        if (ci < 0 || counts[ci] == 0) {
+            return Collections.<Instance>emptyList().iterator();
+        }
+        return new Iterator<Instance>() {
+
+            final byte[] buf = postings[ci];
+            final long classId = cls.getJavaClassId();
+            final int[] pos = new int[1];
+            long offset;
+
+            @Override
+            public boolean hasNext() {
+                return pos[0] < buf.length;
+            }
+
+            @Override
+            public Instance next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                offset += readVarLong(buf, pos);
+                return heap.getInstanceByOffset(new long[] { offset }, cls, classId);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    List<Instance> getInstances(final ClassDump cls) {
+        final long[] offsets = new long[getInstancesCount(cls)];
+        final long classId = cls.getJavaClassId();
+        if (offsets.length == 0) {
+            return Collections.<Instance>emptyList();
+        }
+        byte[] buf = postings[classTable.indexOf(classId)];
+        int[] pos = new int[1];
+        long offset = 0;
+        for(int i = 0; i != offsets.length; ++i) {
+            offset += readVarLong(buf, pos);
+            offsets[i] = offset;
+        }
+        return new AbstractList<Instance>() {
+
+            @Override
+            public Instance get(int index) {
+                return heap.getInstanceByOffset(new long[] { offsets[index] }, cls, classId);
+            }
+
+            @Override
+            public int size() {
+                return offsets.length;
+            }
+        };
+    }
+
+    private static int writeVarLong(byte[] buf, long value) {
+        int n = 0;
+        while((value & ~0x7FL) != 0) {
+            buf[n++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[n++] = (byte) value;
+        return n;
+    }
+
+    private static long readVarLong(byte[] buf, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        while(true) {
+            byte b = buf[pos[0]++];
+            value |= ((long) (b & 0x7F)) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    //---- Serialization support
+    void writeToStream(DataOutputStream out) throws IOException {
+        out.writeInt(counts.length);
+        for(int i = 0; i != counts.length; ++i) {
+            out.writeInt(counts[i]);
+            byte[] buf = postings[i];
+            out.writeInt(buf == null ? 0 : buf.length);
+            if (buf != null) {
+                out.write(buf);
+            }
+        }
+    }
+
+    static ClassInstanceIndex readFromBuffer(HprofHeap heap, ByteBuffer buffer) throws IOException {
+        int size = buffer.getInt();
+        if (size != heap.getClassDumpSegment().createClassCollection().size()) {
+            throw new IOException("Instance index does not match class collection");
+        }
+        int[] counts = new int[size];
+        byte[][] postings = new byte[size][];
+        for(int i = 0; i != size; ++i) {
+            counts[i] = buffer.getInt();
+            int len = buffer.getInt();
+            if (len > 0) {
+                postings[i] = new byte[len];
+                buffer.get(postings[i]);
+            }
+        }
+        return new ClassInstanceIndex(heap, counts, postings);
+    }
+
+    /**
+     * Class ID -> position in class collection.
+     */
+    static class ClassTable {
+
+        private final LongIntHashTable table;
+
+        ClassTable(List<JavaClass> classes) {
+            table = new LongIntHashTable(classes.size());
+            for(int i = 0; i != classes.size(); ++i) {
+                table.put(classes.get(i).getJavaClassId(), i);
+            }
+        }
+
+        int indexOf(long id) {
+            return table.get(id);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Name index for class collection of heap dump.
+ * <br/>
+ * Exact and simple names are resolved via open addressing tables,
+ * classes are also arranged into package trie (one node per package segment),
+ * so name patterns could be checked only against relevant subset of classes.
+ * <br/>
+ * Tables keep only name hashes (names are verified against class dump on lookup),
+ * so index does not retain a string per class.
+ * Index is immutable, lookups preserve order of class collection.
+ *
+ * @see JavaClasses
+ */
+class ClassNameIndex {
+
+    private final List<JavaClass> classes;
+    private final HashTable byName;
+    private final HashTable bySimpleName;
+    private final PackageNode root = new PackageNode();
+
+    ClassNameIndex(List<JavaClass> classes) {
+        this.classes = classes;
+        byName = new HashTable(classes.size());
+        bySimpleName = new HashTable(classes.size());
+        for(int i = 0; i != classes.size(); ++i) {
+            String name = classes.get(i).getName();
+            byName.add(name.hashCode(), i);
+            bySimpleName.add(simpleName(name).hashCode(), i);
+            PackageNode node = root;
+            int c = packageEnd(name);
+            int s = 0;
+            while(s <= c) {
+                int e = name.indexOf('.', s);
+                node = node.child(name.substring(s, e));
+                s = e + 1;
+            }
+            node.classes.add(i);
+        }
+    }
+
+    /**
+     * @return first class with given name or <code>null</code>
+     */
+    JavaClass getClassByName(String name) {
+        int hash = name.hashCode();
+        for(int slot = byName.first(hash); slot >= 0; slot = byName.next(hash, slot)) {
+            JavaClass jc = classes.get(byName.index(slot));
+            if (name.equals(jc.getName())) {
+                return jc;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return classes with given name after last dot (e.g. <code>String</code> or <code>Map$Entry[]</code>)
+     */
+    Collection<JavaClass> getClassesBySimpleName(String simpleName) {
+        int hash = simpleName.hashCode();
+        List<JavaClass> result = new ArrayList<JavaClass>();
+        for(int slot = bySimpleName.first(hash); slot >= 0; slot = bySimpleName.next(hash, slot)) {
+            JavaClass jc = classes.get(bySimpleName.index(slot));
+            if (simpleName.equals(simpleName(jc.getName()))) {
+                result.add(jc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return all classes which name starts with prefix
+     */
+    Collection<JavaClass> getClassesByPrefix(String prefix) {
+        if (prefix.length() == 0) {
+            return classes;
+        }
+        IntList result = new IntList();
+        PackageNode node = root;
+        int limit = nameEnd(prefix);
+        int s = 0;
+        while(true) {
+            int e = prefix.indexOf('.', s);
+            if (e < 0 || e >= limit) {
+                break;
+            }
+            node = node.children == null ? null : node.children.get(prefix.substring(s, e));
+            if (node == null) {
+                return Collections.emptyList();
+            }
+            s = e + 1;
+        }
+        String partial = prefix.substring(s);
+        if (partial.length() == 0) {
+            node.collectAll(result);
+        }
+        else {
+            for(int i = 0; i != node.classes.size; ++i) {
+                int n = node.classes.values[i];
+                if (classes.get(n).getName().startsWith(prefix)) {
+                    result.add(n);
+                }
+            }
+            if (node.children != null) {
+                for(String segment: node.children.keySet()) {
+                    if (segment.startsWith(partial)) {
+                        node.children.get(segment).collectAll(result);
+                    }
+                }
+            }
+        }
+        int[] idx = result.values;
+        Arrays.sort(idx, 0, result.size);
+        return toClasses(idx, result.size);
+    }
+
+    /**
+     * @return literal prefix all strings matching regular expression should start with
+     */
+    static String regExpPrefix(String regexp) {
+        if (regexp.indexOf('|') >= 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i != regexp.length(); ++i) {
+            char c = regexp.charAt(i);
+            if (c == '\\' && i + 1 < regexp.length() && isEscapedLiteral(regexp.charAt(i + 1))) {
+                sb.append(regexp.charAt(++i));
+            }
+            else if (c == '?' || c == '*' || c == '{') {
+                // previous character is optional
+                if (sb.length() > 0) {
+                    sb.setLength(sb.length() - 1);
+                }
+                break;
+            }
+            else if ("\\.[]()^$+".indexOf(c) >= 0) {
+                break;
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isEscapedLiteral(char c) {
+        return ".$[]()".indexOf(c) >= 0;
+    }
+
+    private List<JavaClass> toClasses(int[] idx, int len) {
+        List<JavaClass> result = new ArrayList<JavaClass>(len);
+        for(int i = 0; i != len; ++i) {
+            result.add(classes.get(idx[i]));
+        }
+        return result;
+    }
+
+    private static String simpleName(String name) {
+        return name.substring(packageEnd(name) + 1);
+    }
+
+    /**
+     * Package ends at last dot before array suffix or hidden class
+     * suffix (e.g. <code>a.B$$Lambda$1/0x0000000800c0b040</code>).
+     */
+    private static int packageEnd(String name) {
+        return name.lastIndexOf('.', nameEnd(name) - 1);
+    }
+
+    private static int nameEnd(String name) {
+        int end = name.length();
+        int slash = name.indexOf('/');
+        if (slash >= 0) {
+            end = slash;
+        }
+        int bracket = name.indexOf('[');
+        if (bracket >= 0 && bracket < end) {
+            end = bracket;
+        }
+        return end;
+    }
+
+    private static class PackageNode {
+
+        Map<String, PackageNode> children;
+        IntList classes = new IntList();
+
+        PackageNode child(String segment) {
+            if (children == null) {
+                children = new HashMap<String, PackageNode>();
+            }
+            PackageNode node = children.get(segment);
+            if (node == null) {
+                node = new PackageNode();
+                children.put(segment, node);
+            }
+            return node;
+        }
+
+        void collectAll(IntList result) {
+            result.addAll(classes);
+            if (children != null) {
+                for(PackageNode node: children.values()) {
+                    node.collectAll(result);
+                }
+            }
+        }
+    }
+
+    /**
+     * Linear probing table of class indexes keyed by name hash.
+     * Indexes with same hash are chained in insertion order.
+     */
+    private static class HashTable {
+
+        final int[] hashes;
+        final int[] indexes; // class index + 1, 0 - empty slot
+        final int mask;
+
+        HashTable(int size) {
+            int cap = Integer.highestOneBit(Math.max(4, 2 * size)) << 1;
+            hashes = new int[cap];
+            indexes = new int[cap];
+            mask = cap - 1;
+        }
+
+        void add(int hash, int index) {
+            int slot = slot(hash);
+            while(indexes[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            indexes[slot] = index + 1;
+        }
+
+        int first(int hash) {
+            return find(hash, slot(hash));
+        }
+
+        int next(int hash, int slot) {
+            return find(hash, (slot + 1) & mask);
+        }
+
+        int index(int slot) {
+            return indexes[slot] - 1;
+        }
+
+        private int find(int hash, int slot) {
+            while(indexes[slot] != 0) {
+                if (hashes[slot] == hash) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int slot(int hash) {
+            int h = hash * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+
+    private static class IntList {
+
+        int[] values = new int[2];
+        int size;
+
+        void add(int n) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = n;
+        }
+
+        void addAll(IntList list) {
+            for(int i = 0; i != list.size; ++i) {
+                add(list.values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,563 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dominator tree of {@link HeapGraph}, computed by Semi-NCA algorithm.
+ * <br/>
+ * All GC roots are children of single virtual root, so node is top level
+ * dominator if it could be reached from more than one GC root or from GC
+ * root directly. Unlike {@link DominatorTree}, computation is not iterative,
+ * it takes a single depth first traversal and a couple of linear passes
+ * over int arrays, regardless of graph shape.
+ * <br/>
+ * Graph should be built with weak referents excluded, so retained sizes
+ * agree with paths reported by {@link Instance#getNearestGCRootPointer()}.
+ * Retained size of node reachable from GC roots is sum of shallow sizes of
+ * nodes it dominates, including itself. Retained size of unreachable node
+ * is its shallow size.
+ * <br/>
+ * Dominator tree could be navigated from top level nodes down, children of
+ * each node are sorted by retained size. Tree is built from immediate
+ * dominators on first request, so it is available for loaded index too.
+ * <br/>
+ * Index keeps node table of graph, but not its edges.
+ * Index could be saved and loaded without graph using {@link DominatorIndexFile}.
+ */
+public class DominatorIndex {
+
+    /** Immediate dominator of top level nodes */
+    public static final int ROOT = -1;
+
+    /** Immediate dominator of nodes unreachable from GC roots */
+    public static final int UNREACHABLE = -2;
+
+    private final HeapNodes nodes;
+    // only during computation, edges are not retained
+    private HeapGraph graph;
+
+    // by ordinal
+    private IntTable idom;
+    private LongTable retainedSizes;
+
+    private int reachableCount;
+
+    // dominator tree, slot nodeCount keeps top level nodes
+    private int[] childStart;
+    private int[] children;
+    private long[] classRetainedSizes;
+
+    public DominatorIndex(Heap heap) {
+        this(new HeapGraph(heap, Runtime.getRuntime().availableProcessors(), true), heap.getGCRoots());
+    }
+
+    public DominatorIndex(HeapGraph graph, Iterable<GCRoot> roots) {
+        this(graph, graph.getRootOrdinals(roots));
+    }
+
+    /**
+     * @param roots ordinals of GC roots, duplicates are allowed
+     */
+    public DominatorIndex(HeapGraph graph, int[] roots) {
+        this(graph, roots, graph.getNodeTable());
+    }
+
+    /**
+     * @param nodes node table of graph, could be shared with other indexes
+     */
+    DominatorIndex(HeapGraph graph, int[] roots, HeapNodes nodes) {
+        this.nodes = nodes;
+        this.graph = graph;
+        compute(roots);
+        this.graph = null;
+    }
+
+    DominatorIndex(HeapNodes nodes, IntTable idom, LongTable retainedSizes, int reachableCount) {
+        this.nodes = nodes;
+        this.idom = idom;
+        this.retainedSizes = retainedSizes;
+        this.reachableCount = reachableCount;
+    }
+
+    /**
+     * Enables dominator index as engine for retained sizes of heap,
+     * e.g. {@link Instance#getRetainedSize()} and {@link Heap#getBiggestObjectsByRetainedSize(int)}.
+     * Index is computed on first request. Works for both regular and fast heap.
+     */
+    public static void enable(Heap heap) {
+        hprof(heap).enableDominatorIndex();
+    }
+
+    /**
+     * @return dominator index of heap, it is computed if not yet available
+     */
+    public static DominatorIndex of(Heap heap) {
+        return hprof(heap).getDominatorIndex(true);
+    }
+
+    private static HprofHeap hprof(Heap heap) {
+        if (!(heap instanceof HprofHeap)) {
+            throw new IllegalArgumentException("Unsupported heap implementation: " + heap.getClass().getName());
+        }
+        return (HprofHeap) heap;
+    }
+
+    public HeapNodes getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return number of nodes reachable from GC roots
+     */
+    public int getReachableCount() {
+        return reachableCount;
+    }
+
+    public boolean isReachable(int ordinal) {
+        return idom.get(ordinal) != UNREACHABLE;
+    }
+
+    /**
+     * @return ordinal of immediate dominator, {@link #ROOT} for
+     *         top level nodes or {@link #UNREACHABLE}
+     */
+    public int getIdom(int ordinal) {
+        return idom.get(ordinal);
+    }
+
+    public long getRetainedSize(int ordinal) {
+        return retainedSizes.get(ordinal);
+    }
+
+    /**
+     * @return retained size of instance or class with given ID, 0 if there is no such object in dump
+     */
+    public long getRetainedSizeById(long id) {
+        int ordinal = nodes.ordinalOf(id);
+        return ordinal < 0 ? 0 : retainedSizes.get(ordinal);
+    }
+
+    /**
+     * @return ordinals of instances with largest retained size, biggest first
+     */
+    public int[] getBiggestByRetainedSize(int number) {
+        int count = Math.min(number, nodes.getInstanceCount());
+        if (count <= 0) {
+            return new int[0];
+        }
+        // min heap of ordinals
+        int[] top = new int[count];
+        int size = 0;
+        for(int i = 0; i != nodes.getInstanceCount(); ++i) {
+            long rs = retainedSizes.get(i);
+            if (size < count) {
+                int n = size++;
+                while(n > 0) {
+                    int p = (n - 1) >> 1;
+                    if (retainedSizes.get(top[p]) <= rs) {
+                        break;
+                    }
+                    top[n] = top[p];
+                    n = p;
+                }
+                top[n] = i;
+            }
+            else if (rs > retainedSizes.get(top[0])) {
+                siftDown(top, size, 0, i);
+            }
+        }
+        // pop heap in place, smallest go to the end
+        for(int n = size - 1; n > 0; --n) {
+            int last = top[n];
+            top[n] = top[0];
+            siftDown(top, n, 0, last);
+        }
+        return top;
+    }
+
+    /**
+     * @return ordinals of top level dominators, biggest retained size first
+     */
+    public int[] getTopLevelDominators() {
+        return getChildren(ROOT);
+    }
+
+    /**
+     * @param ordinal node ordinal or {@link #ROOT}
+     * @return ordinals of nodes immediately dominated by node, biggest retained size first
+     */
+    public int[] getChildren(int ordinal) {
+        buildTree();
+        int n = ordinal == ROOT ? nodes.getNodeCount() : ordinal;
+        return Arrays.copyOfRange(children, childStart[n], childStart[n + 1]);
+    }
+
+    /**
+     * @param ordinal node ordinal or {@link #ROOT}
+     */
+    public int getChildCount(int ordinal) {
+        buildTree();
+        int n = ordinal == ROOT ? nodes.getNodeCount() : ordinal;
+        return childStart[n + 1] - childStart[n];
+    }
+
+    /**
+     * @return instances for first <code>limit</code> ordinals
+     */
+    public List<Instance> toInstances(int[] ordinals, int limit) {
+        int count = Math.min(limit, ordinals.length);
+        List<Instance> result = new ArrayList<Instance>(count);
+        for(int i = 0; i != count; ++i) {
+            result.add(nodes.getInstance(ordinals[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Retained size of all instances of class, indexed same as {@link Heap#getAllClasses()}.
+     * <br/>
+     * Same as {@link JavaClass#getRetainedSizeByClass()}, sizes of instances
+     * having another instance of same class among their dominators are not
+     * added. Sizes are collected by single traversal of dominator tree,
+     * tracking classes of dominators on current path.
+     *
+     * @return array, which should not be modified
+     */
+    public synchronized long[] getRetainedSizeByClass() {
+        if (classRetainedSizes != null) {
+            return classRetainedSizes;
+        }
+        buildTree();
+        int nodeCount = nodes.getNodeCount();
+        long[] totals = new long[nodeCount - nodes.getInstanceCount()];
+        // number of nodes of class on current path
+        int[] active = new int[totals.length];
+
+        int[] stackNode = new int[nodeCount + 1];
+        int[] stackChild = new int[nodeCount + 1];
+        int[] stackClass = new int[nodeCount + 1];
+        int sp = 0;
+        stackNode[0] = nodeCount;
+        stackChild[0] = childStart[nodeCount];
+        stackClass[0] = -1;
+        while(sp >= 0) {
+            int v = stackNode[sp];
+            int c = stackChild[sp];
+            if (c == childStart[v + 1]) {
+                if (stackClass[sp] >= 0) {
+                    --active[stackClass[sp]];
+                }
+                --sp;
+                continue;
+            }
+            stackChild[sp] = c + 1;
+            int u = children[c];
+            int ci = nodes.getClassIndex(u);
+            if (ci >= 0) {
+                if (active[ci] == 0) {
+                    totals[ci] += retainedSizes.get(u);
+                }
+                ++active[ci];
+            }
+            ++sp;
+            stackNode[sp] = u;
+            stackChild[sp] = childStart[u];
+            stackClass[sp] = ci;
+        }
+        classRetainedSizes = totals;
+        return totals;
+    }
+
+    /**
+     * @return retained size of all instances of class, see {@link #getRetainedSizeByClass()}
+     */
+    public long getRetainedSizeByClass(JavaClass cls) {
+        int ordinal = nodes.ordinalOf(cls.getJavaClassId());
+        if (ordinal < 0 || !nodes.isClass(ordinal)) {
+            return 0;
+        }
+        // class nodes follow instances in order of Heap#getAllClasses()
+        return getRetainedSizeByClass()[ordinal - nodes.getInstanceCount()];
+    }
+
+    private synchronized void buildTree() {
+        if (childStart != null) {
+            return;
+        }
+        int nodeCount = nodes.getNodeCount();
+        int[] start = new int[nodeCount + 2];
+        for(int i = 0; i != nodeCount; ++i) {
+            int d = idom.get(i);
+            if (d != UNREACHABLE) {
+                ++start[(d == ROOT ? nodeCount : d) + 1];
+            }
+        }
+        for(int i = 0; i <= nodeCount; ++i) {
+            start[i + 1] += start[i];
+        }
+        int[] pos = Arrays.copyOf(start, nodeCount + 1);
+        int[] tree = new int[start[nodeCount + 1]];
+        for(int i = 0; i != nodeCount; ++i) {
+            int d = idom.get(i);
+            if (d != UNREACHABLE) {
+                tree[pos[d == ROOT ? nodeCount : d]++] = i;
+            }
+        }
+        for(int i = 0; i <= nodeCount; ++i) {
+            if (start[i + 1] - start[i] > 1) {
+                sortByRetainedSize(tree, start[i], start[i + 1]);
+            }
+        }
+        children = tree;
+        childStart = start;
+    }
+
+    /**
+     * Heap sort, bigger retained size first, ties are ordered by ordinal.
+     */
+    private void sortByRetainedSize(int[] a, int from, int to) {
+        int n = to - from;
+        for(int i = n / 2 - 1; i >= 0; --i) {
+            siftDownSorted(a, from, n, i);
+        }
+        for(int i = n - 1; i > 0; --i) {
+            int t = a[from];
+            a[from] = a[from + i];
+            a[from + i] = t;
+            siftDownSorted(a, from, i, 0);
+        }
+    }
+
+    // max heap by sort order, so nodes with smallest retained size are moved to the end first
+    private void siftDownSorted(int[] a, int from, int size, int n) {
+        int v = a[from + n];
+        while(true) {
+            int c = 2 * n + 1;
+            if (c >= size) {
+                break;
+            }
+            if (c + 1 < size && after(a[from + c + 1], a[from + c])) {
+                ++c;
+            }
+            if (!after(a[from + c], v)) {
+                break;
+            }
+            a[from + n] = a[from + c];
+            n = c;
+        }
+        a[from + n] = v;
+    }
+
+    /**
+     * @return <code>true</code> if <code>a</code> goes after <code>b</code> in sort order
+     */
+    private boolean after(int a, int b) {
+        long ra = retainedSizes.get(a);
+        long rb = retainedSizes.get(b);
+        return ra != rb ? ra < rb : a > b;
+    }
+
+    public List<Instance> getBiggestObjectsByRetainedSize(int number) {
+        int[] top = getBiggestByRetainedSize(number);
+        List<Instance> result = new ArrayList<Instance>(top.length);
+        for(int ordinal: top) {
+            result.add(nodes.getInstance(ordinal));
+        }
+        return result;
+    }
+
+    private void siftDown(int[] top, int size, int n, int ordinal) {
+        long rs = retainedSizes.get(ordinal);
+        while(true) {
+            int c = 2 * n + 1;
+            if (c >= size) {
+                break;
+            }
+            if (c + 1 < size && retainedSizes.get(top[c + 1]) < retainedSizes.get(top[c])) {
+                ++c;
+            }
+            if (retainedSizes.get(top[c]) >= rs) {
+                break;
+            }
+            top[n] = top[c];
+            n = c;
+        }
+        top[n] = ordinal;
+    }
+
+    /**
+     * Semi-NCA, nodes are addressed by preorder number, number 0 is virtual root.
+     */
+    private void compute(int[] roots) {
+        int nodeCount = graph.getNodeCount();
+
+        // preorder number by ordinal, 0 - not visited
+        int[] pre = new int[nodeCount];
+        // ordinal by preorder number
+        int[] vertex = new int[nodeCount + 1];
+        // preorder number of DFS parent
+        int[] parent = new int[nodeCount + 1];
+        boolean[] rootFlags = new boolean[nodeCount + 1];
+
+        int n = dfs(roots, pre, vertex, parent, rootFlags);
+        reachableCount = n - 1;
+
+        int[] semi = new int[n];
+        int[] label = new int[n];
+        int[] ancestor = new int[n];
+        int[] stack = new int[n];
+        for(int i = 0; i != n; ++i) {
+            semi[i] = i;
+            label[i] = i;
+            ancestor[i] = -1;
+        }
+
+        for(int w = n - 1; w > 0; --w) {
+            if (rootFlags[w]) {
+                // referenced by virtual root
+                semi[w] = 0;
+            }
+            int v = vertex[w];
+            int end = graph.getInStart(v + 1);
+            for(int e = graph.getInStart(v); e != end; ++e) {
+                int u = pre[graph.getInEdge(e)];
+                if (u == 0) {
+                    // unreachable predecessor
+                    continue;
+                }
+                int s = semi[eval(u, ancestor, label, semi, stack)];
+                if (s < semi[w]) {
+                    semi[w] = s;
+                }
+            }
+            ancestor[w] = parent[w];
+        }
+        label = null;
+        ancestor = null;
+        stack = null;
+
+        // nearest common ancestor step, dominators are stored in semi
+        int[] dom = parent;
+        dom[0] = 0;
+        for(int w = 1; w < n; ++w) {
+            int d = dom[w];
+            while(d > semi[w]) {
+                d = dom[d];
+            }
+            dom[w] = d;
+        }
+        semi = null;
+
+        // retained sizes, children have greater preorder number than their dominator
+        long[] rs = new long[n];
+        for(int w = 1; w < n; ++w) {
+            rs[w] = graph.getSize(vertex[w]);
+        }
+        for(int w = n - 1; w > 0; --w) {
+            rs[dom[w]] += rs[w];
+        }
+
+        int[] idomByOrdinal = new int[nodeCount];
+        long[] sizeByOrdinal = new long[nodeCount];
+        for(int i = 0; i != nodeCount; ++i) {
+            int w = pre[i];
+            if (w == 0) {
+                idomByOrdinal[i] = UNREACHABLE;
+                sizeByOrdinal[i] = graph.getSize(i);
+            }
+            else {
+                idomByOrdinal[i] = dom[w] == 0 ? ROOT : vertex[dom[w]];
+                sizeByOrdinal[i] = rs[w];
+            }
+        }
+        idom = IntTable.wrap(idomByOrdinal);
+        retainedSizes = LongTable.wrap(sizeByOrdinal);
+    }
+
+    /**
+     * Iterative depth first traversal from virtual root.
+     *
+     * @return number of visited nodes, including virtual root
+     */
+    private int dfs(int[] roots, int[] pre, int[] vertex, int[] parent, boolean[] rootFlags) {
+        int[] stackNode = new int[graph.getNodeCount() + 1];
+        int[] stackEdge = new int[graph.getNodeCount() + 1];
+        int n = 1;
+        for(int root: roots) {
+            if (pre[root] != 0) {
+                rootFlags[pre[root]] = true;
+                continue;
+            }
+            pre[root] = n;
+            vertex[n] = root;
+            parent[n] = 0;
+            rootFlags[n] = true;
+            ++n;
+            int sp = 0;
+            stackNode[0] = root;
+            stackEdge[0] = graph.getOutStart(root);
+            while(sp >= 0) {
+                int v = stackNode[sp];
+                int e = stackEdge[sp];
+                if (e == graph.getOutStart(v + 1)) {
+                    --sp;
+                    continue;
+                }
+                stackEdge[sp] = e + 1;
+                int u = graph.getOutEdge(e);
+                if (pre[u] == 0) {
+                    pre[u] = n;
+                    vertex[n] = u;
+                    parent[n] = pre[v];
+                    ++n;
+                    ++sp;
+                    stackNode[sp] = u;
+                    stackEdge[sp] = graph.getOutStart(u);
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return node with minimal semidominator on forest path from <code>v</code>
+     */
+    private static int eval(int v, int[] ancestor, int[] label, int[] semi, int[] stack) {
+        if (ancestor[v] < 0) {
+            return v;
+        }
+        // path compression, iterative
+        int sp = 0;
+        int x = v;
+        while(ancestor[ancestor[x]] >= 0) {
+            stack[sp++] = x;
+            x = ancestor[x];
+        }
+        while(sp > 0) {
+            x = stack[--sp];
+            int a = ancestor[x];
+            if (semi[label[a]] < semi[label[x]]) {
+                label[x] = label[a];
+            }
+            ancestor[x] = ancestor[a];
+        }
+        return label[v];
+    }
+}
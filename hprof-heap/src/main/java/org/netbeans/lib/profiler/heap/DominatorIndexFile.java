@@ -0,0 +1,206 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Versioned file with results of {@link DominatorIndex} and {@link NearestGCRootIndex}.
+ * <br/>
+ * File keeps immediate dominators, retained sizes and nearest GC root
+ * pointers by node ordinal, together with ordinal to dump offset table
+ * and ID index. Loaded file is mapped to memory and serves retained sizes
+ * and GC root paths for both regular and fast heap, reference graph is
+ * not rebuilt.
+ * <br/>
+ * File is bound to dump by its length, ID size and instance dump bounds.
+ * Unlike {@link FastHeapIndex} modification time is not checked, so
+ * file computed on one host could be used with copy of dump on another.
+ * All values are big endian.
+ * <br/>
+ * Tables are mapped in segments (see {@link LongTable}), so node count
+ * is limited only by int ordinals.
+ * <br/>
+ * File is written aside and moved in place atomically, so existing
+ * index is never lost if save fails.
+ */
+public class DominatorIndexFile {
+
+    private static final int MAGIC = 0x484C4449; // HLDI
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 56;
+
+    /**
+     * Saves dominator and nearest GC root indexes of heap,
+     * indexes are computed if not yet available.
+     */
+    public static void save(Heap heap, File indexFile) throws IOException {
+        HprofHeap hprof = hprof(heap);
+        hprof.computeGraphIndexes(true, true);
+        DominatorIndex dominators = hprof.getDominatorIndex(true);
+        NearestGCRootIndex pointers = hprof.getNearestGCRootIndex(true);
+        if (!(dominators.getNodes() instanceof HeapNodeTable) || dominators.getNodes().getNodeCount() != pointers.getNodes().getNodeCount()) {
+            throw new IllegalStateException("Indexes do not share node table");
+        }
+        HeapNodeTable nodes = (HeapNodeTable) dominators.getNodes();
+        int n = nodes.getNodeCount();
+
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 << 10));
+        try {
+            TagBounds bounds = hprof.getAllInstanceDumpBounds();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(hprof.dumpBuffer.capacity());
+            out.writeInt(hprof.dumpBuffer.getIDSize());
+            out.writeLong(bounds.startOffset);
+            out.writeLong(bounds.endOffset);
+            out.writeInt(n);
+            out.writeInt(nodes.getInstanceCount());
+            out.writeInt(dominators.getReachableCount());
+            out.writeInt(pointers.getReachableCount());
+            out.writeInt(pointers.getLevelCount());
+
+            for(int i = 0; i != n; ++i) {
+                out.writeLong(nodes.getOffset(i));
+            }
+            for(int i = 0; i != n; ++i) {
+                out.writeLong(nodes.getSortedId(i));
+            }
+            for(int i = 0; i != n; ++i) {
+                out.writeInt(nodes.getSortedOrdinal(i));
+            }
+            pad(out, n);
+            for(int i = 0; i != n; ++i) {
+                out.writeInt(dominators.getIdom(i));
+            }
+            pad(out, n);
+            for(int i = 0; i != n; ++i) {
+                out.writeInt(pointers.getNearestGCRootPointer(i));
+            }
+            pad(out, n);
+            for(int i = 0; i != n; ++i) {
+                out.writeLong(dominators.getRetainedSize(i));
+            }
+        }
+        finally {
+            out.close();
+        }
+        try {
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(IOException e) {
+            tmpFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads indexes from file and enables them for heap, same as
+     * {@link DominatorIndex#enable(Heap)} and {@link NearestGCRootIndex#enable(Heap)}.
+     *
+     * @return <code>true</code> if file has been loaded, <code>false</code> if file is missing or does not match dump
+     */
+    public static boolean load(Heap heap, File indexFile) throws IOException {
+        HprofHeap hprof = hprof(heap);
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Index file is truncated: " + indexFile.getPath());
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return false;
+            }
+            TagBounds bounds = hprof.getAllInstanceDumpBounds();
+            if (       header.getLong() != hprof.dumpBuffer.capacity()
+                    || header.getInt() != hprof.dumpBuffer.getIDSize()
+                    || header.getLong() != bounds.startOffset
+                    || header.getLong() != bounds.endOffset) {
+                return false;
+            }
+            int n = header.getInt();
+            if (n < 0) {
+                throw new IOException("Index file is corrupted: " + indexFile.getPath());
+            }
+            int instanceCount = header.getInt();
+            int domReachable = header.getInt();
+            int bfsReachable = header.getInt();
+            int levelCount = header.getInt();
+
+            long pos = HEADER_SIZE;
+            long longTable = 8l * n;
+            long intTable = 4l * (n + (n & 1));
+            if (channel.size() != pos + 3 * longTable + 3 * intTable) {
+                throw new IOException("Index file is truncated: " + indexFile.getPath());
+            }
+            LongTable offsets = LongTable.map(channel, pos, n);
+            pos += longTable;
+            LongTable sortedIds = LongTable.map(channel, pos, n);
+            pos += longTable;
+            IntTable sortedOrdinals = IntTable.map(channel, pos, n);
+            pos += intTable;
+            IntTable idom = IntTable.map(channel, pos, n);
+            pos += intTable;
+            IntTable pointers = IntTable.map(channel, pos, n);
+            pos += intTable;
+            LongTable retainedSizes = LongTable.map(channel, pos, n);
+
+            // class metadata is required to resolve instances by offset
+            hprof.getAllClasses();
+            HeapNodeTable nodes = new HeapNodeTable(hprof, instanceCount, offsets, sortedIds, sortedOrdinals);
+            hprof.setDominatorIndex(new DominatorIndex(nodes, idom, retainedSizes, domReachable));
+            hprof.setNearestGCRootIndex(new NearestGCRootIndex(nodes, pointers, bfsReachable, levelCount));
+            return true;
+        }
+        catch(BufferUnderflowException e) {
+            throw new IOException("Index file is truncated: " + indexFile.getPath());
+        }
+        finally {
+            // mapped buffers stay valid after channel is closed
+            raf.close();
+        }
+    }
+
+    private static HprofHeap hprof(Heap heap) {
+        if (!(heap instanceof HprofHeap)) {
+            throw new IllegalArgumentException("Unsupported heap implementation: " + heap.getClass().getName());
+        }
+        return (HprofHeap) heap;
+    }
+
+    private static void pad(DataOutputStream out, int n) throws IOException {
+        // keep tables 8 byte aligned
+        if ((n & 1) != 0) {
+            out.writeInt(0);
+        }
+    }
+}
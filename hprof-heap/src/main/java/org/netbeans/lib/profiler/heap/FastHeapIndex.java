@@ -0,0 +1,148 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Sidecar index file for {@link FastHprofHeap}.
+ * <p>
+ * Index keeps class dump offsets, {@link HeapOffsetMap} page table
+ * and optionally {@link ClassInstanceIndex}, so reopening a dump does not require rescanning it.
+ * Index is bound to dump by file size and modification time,
+ * file ends with CRC32 of preceding content.
+ * <p>
+ * Page table is not loaded to Java heap, it is served from mapped index file.
+ */
+class FastHeapIndex {
+
+    private static final int MAGIC = 0x484C4958; // HLIX
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 8 + 8;
+    private static final int CRC_SIZE = 8;
+
+    /**
+     * @return <code>true</code> if index has been loaded, <code>false</code> if index is missing or stale
+     */
+    static boolean load(FastHprofHeap heap, File dumpFile, File indexFile) throws IOException {
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE + CRC_SIZE) {
+                return false;
+            }
+            ByteBuffer buffer = read(channel, 0, HEADER_SIZE);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return false;
+            }
+            TagBounds bounds = heap.getAllInstanceDumpBounds();
+            if (       buffer.getLong() != dumpFile.length()
+                    || buffer.getLong() != dumpFile.lastModified()
+                    || buffer.getInt() != heap.dumpBuffer.getIDSize()
+                    || buffer.getLong() != bounds.startOffset
+                    || buffer.getLong() != bounds.endOffset) {
+                return false;
+            }
+            long limit = size - CRC_SIZE;
+            if (read(channel, limit, CRC_SIZE).getLong() != checksum(channel, limit)) {
+                throw new IOException("Index file is corrupted: " + indexFile.getPath());
+            }
+            // mapped regions remain valid after channel is closed
+            heap.readOffsetIndex(channel, HEADER_SIZE, limit);
+            return true;
+        }
+        catch(BufferUnderflowException e) {
+            throw new IOException("Index file is truncated: " + indexFile.getPath());
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    static void save(FastHprofHeap heap, File dumpFile, File indexFile) throws IOException {
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 << 10), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        try {
+            TagBounds bounds = heap.getAllInstanceDumpBounds();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(dumpFile.length());
+            out.writeLong(dumpFile.lastModified());
+            out.writeInt(heap.dumpBuffer.getIDSize());
+            out.writeLong(bounds.startOffset);
+            out.writeLong(bounds.endOffset);
+            heap.writeOffsetIndex(out);
+            out.writeLong(checked.getChecksum().getValue());
+        }
+        finally {
+            out.close();
+        }
+        if (indexFile.exists() && !indexFile.delete()) {
+            tmpFile.delete();
+            throw new IOException("Cannot replace index file: " + indexFile.getPath());
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            throw new IOException("Cannot create index file: " + indexFile.getPath());
+        }
+    }
+
+    /**
+     * Reads region of file to heap buffer.
+     */
+    static ByteBuffer read(FileChannel channel, long position, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+        while(buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long checksum(FileChannel channel, long limit) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        long position = 0;
+        while(position < limit) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), limit - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            crc.update(buffer.array(), 0, n);
+            position += n;
+        }
+        return crc.getValue();
+    }
+}
@@ -15,9 +15,12 @@
  */
 package org.netbeans.lib.profiler.heap;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +40,8 @@ public class FastHprofHeap extends HprofHeap {
     private Map<Long, ClassEntry> classes;
     private HeapOffsetMap offsetMap;
     private boolean missingStubsEnabled;
+    private boolean instanceIndexEnabled;
+    private volatile ClassInstanceIndex instanceIndex;
 
     /**
      * Please use {@link HeapFactory2}
@@ -67,6 +72,46 @@ public class FastHprofHeap extends HprofHeap {
     	this.missingStubsEnabled = enabled;
     }
 
+    /**
+     * Enables per class instance lists. Lists are built by single dump scan
+     * on first request for instances of any class, after that
+     * {@link JavaClass#getInstances()} does not need to scan whole dump.
+     */
+    public void enableInstanceIndex() {
+        instanceIndexEnabled = true;
+    }
+
+    /**
+     * Enables retained sizes, they are computed by {@link DominatorIndex}
+     * on first request.
+     */
+    public void enableDominatorIndex() {
+        super.enableDominatorIndex();
+    }
+
+    /**
+     * Enables {@link Instance#getNearestGCRootPointer()}, pointers are
+     * computed by {@link NearestGCRootIndex} on first request.
+     */
+    public void enableNearestGCRootIndex() {
+        super.enableNearestGCRootIndex();
+    }
+
+    @Override
+    ClassInstanceIndex getInstanceIndex() {
+        ClassInstanceIndex index = instanceIndex;
+        if (index != null || !instanceIndexEnabled) {
+            return index;
+        }
+        synchronized (this) {
+            if (instanceIndex == null) {
+                getAllClasses();
+                instanceIndex = ClassInstanceIndex.build(this);
+            }
+            return instanceIndex;
+        }
+    }
+
     @Override
     protected LongMap initIdMap() throws FileNotFoundException, IOException {
         return null;
@@ -183,11 +228,19 @@ public class FastHprofHeap extends HprofHeap {
 
     @Override
     public List<Instance> getBiggestObjectsByRetainedSize(int number) {
+        DominatorIndex index = getDominatorIndex(false);
+        if (index != null) {
+            return index.getBiggestObjectsByRetainedSize(number);
+        }
         throw new HeapOperationUnsupportedException();
     }
 
     @Override
     long getRetainedSize(Instance instance) {
+        DominatorIndex index = getDominatorIndex(false);
+        if (index != null) {
+            return index.getRetainedSizeById(instance.getInstanceId());
+        }
         throw new HeapOperationUnsupportedException();
     }
 
@@ -213,9 +266,83 @@ public class FastHprofHeap extends HprofHeap {
 
 	@Override
 	Instance getNearestGCRootPointer(Instance instance) {
+		NearestGCRootIndex index = getNearestGCRootIndex(false);
+		if (index != null) {
+		    return getNearestGCRootPointer(index, instance);
+		}
 		throw new HeapOperationUnsupportedException();
 	}
 
+    /**
+     * Resolves class metadata and scans dump to populate offset map completely
+     * (and instance index if enabled).
+     */
+    void buildOffsetIndex() {
+        getAllClasses();
+        offsetMap.completeScan();
+        if (instanceIndexEnabled) {
+            getInstanceIndex();
+        }
+    }
+
+    //---- Offset index serialization support
+    void writeOffsetIndex(DataOutputStream out) throws IOException {
+        List<JavaClass> jc = getClassDumpSegment().createClassCollection();
+        out.writeInt(jc.size());
+        for(JavaClass c: jc) {
+            ClassDump cd = (ClassDump) c;
+            out.writeLong(cd.getJavaClassId());
+            out.writeLong(cd.fileOffset);
+        }
+        offsetMap.writeToStream(out);
+        ClassInstanceIndex index = instanceIndex;
+        out.writeBoolean(index != null);
+        if (index != null) {
+            index.writeToStream(out);
+        }
+    }
+
+    /**
+     * @param position start of offset index in file
+     * @param limit end of offset index in file
+     */
+    void readOffsetIndex(FileChannel channel, long position, long limit) throws IOException {
+        int classCount = FastHeapIndex.read(channel, position, 4).getInt();
+        if (classCount < 0 || position + 4 + 16l * classCount > limit) {
+            throw new IOException("Class table is truncated");
+        }
+        ByteBuffer buffer = FastHeapIndex.read(channel, position + 4, 16 * classCount);
+        position += 4 + 16l * classCount;
+        long[] classIds = new long[classCount];
+        long[] classOffsets = new long[classIds.length];
+        for(int i = 0; i != classIds.length; ++i) {
+            classIds[i] = buffer.getLong();
+            classOffsets[i] = buffer.getLong();
+            if (classOffsets[i] < getClassDumpSegment().startOffset || classOffsets[i] >= getClassDumpSegment().endOffset) {
+                throw new IOException("Class dump offset is out of bounds: " + classOffsets[i]);
+            }
+            if (classIds[i] != dumpBuffer.getID(classOffsets[i] + 1)) {
+                throw new IOException("Class dump mismatch at offset " + classOffsets[i]);
+            }
+        }
+        HeapOffsetMap map = new HeapOffsetMap(this);
+        position = map.readFromChannel(channel, position);
+        if (position >= limit) {
+            throw new IOException("Instance index flag is missing");
+        }
+        getClassDumpSegment().restoreClassCollection(classOffsets);
+        offsetMap = map;
+        if (FastHeapIndex.read(channel, position, 1).get() != 0) {
+            ++position;
+            instanceIndex = ClassInstanceIndex.readFromBuffer(this, channel.map(FileChannel.MapMode.READ_ONLY, position, limit - position));
+            instanceIndexEnabled = true;
+        }
+    }
+
+    boolean hasInstanceIndex() {
+        return instanceIndex != null;
+    }
+
 	private static class ClassEntry {
         long offset;
         int index;
@@ -0,0 +1,245 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed layout of instance fields of class, including
+ * inherited fields, in same order as {@link Instance#getFieldValues()}.
+ * <br/>
+ * Layout is computed once per class and cached. Fields are addressed
+ * by index, accessors read value from dump record directly, so no
+ * {@link FieldValue} objects or name comparisons are involved.
+ */
+public class FieldLayout {
+
+    private static final int[] NO_FIELDS = new int[0];
+
+    /**
+     * @return layout of instance's class or <code>null</code> if instance
+     *         is not an object instance backed by heap dump (e.g. array)
+     */
+    public static FieldLayout of(Instance instance) {
+        if (instance instanceof InstanceDump && !(instance instanceof ArrayDump)) {
+            return ((InstanceDump) instance).dumpClass.getFieldLayout();
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * @return layout of class or <code>null</code> if class is not backed by heap dump
+     */
+    public static FieldLayout of(JavaClass cls) {
+        if (cls instanceof ClassDump) {
+            return ((ClassDump) cls).getFieldLayout();
+        }
+        else {
+            return null;
+        }
+    }
+
+    private final ClassDump cls;
+    private final HprofByteBuffer dumpBuffer;
+    private final HprofField[] fields;
+    private final String[] names;
+    /** Offsets of values within instance record */
+    private final int[] offsets;
+    private final byte[] types;
+    private final Map<String, int[]> byName;
+    private final int[] objectFields;
+
+    FieldLayout(ClassDump cls) {
+        this.cls = cls;
+        this.dumpBuffer = cls.getHprofBuffer();
+        List<Field> fieldList = cls.getAllInstanceFields();
+        int n = fieldList.size();
+        int idSize = dumpBuffer.getIDSize();
+        fields = new HprofField[n];
+        names = new String[n];
+        offsets = new int[n];
+        types = new byte[n];
+        byName = new HashMap<String, int[]>();
+        int[] objs = new int[n];
+        int objCount = 0;
+        int offset = 1 + idSize + 4 + idSize + 4;
+        for(int i = 0; i != n; ++i) {
+            HprofField field = (HprofField) fieldList.get(i);
+            fields[i] = field;
+            offsets[i] = offset;
+            types[i] = field.getValueType();
+            offset += field.getValueSize();
+            if (types[i] == HprofHeap.OBJECT) {
+                objs[objCount++] = i;
+            }
+            String name = names[i] = field.getName();
+            int[] idx = byName.get(name);
+            if (idx == null) {
+                byName.put(name, new int[] {i});
+            }
+            else {
+                int[] nidx = new int[idx.length + 1];
+                System.arraycopy(idx, 0, nidx, 0, idx.length);
+                nidx[idx.length] = i;
+                byName.put(name, nidx);
+            }
+        }
+        objectFields = new int[objCount];
+        System.arraycopy(objs, 0, objectFields, 0, objCount);
+    }
+
+    public JavaClass getJavaClass() {
+        return cls;
+    }
+
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    public Field getField(int index) {
+        return fields[index];
+    }
+
+    public String getFieldName(int index) {
+        return names[index];
+    }
+
+    /**
+     * If field name is shadowed, superclass field is chosen, same
+     * as {@link Instance#getValueOfField(String)}.
+     *
+     * @return field index or -1 if class has no such field
+     */
+    public int indexOf(String name) {
+        int[] idx = byName.get(name);
+        return idx == null ? -1 : idx[idx.length - 1];
+    }
+
+    /**
+     * @return indexes of all fields with given name (more than one
+     *         if field is shadowed), array should not be modified
+     */
+    public int[] indexesOf(String name) {
+        int[] idx = byName.get(name);
+        return idx == null ? NO_FIELDS : idx;
+    }
+
+    /**
+     * @return indexes of reference fields, array should not be modified
+     */
+    public int[] getObjectFields() {
+        return objectFields;
+    }
+
+    public boolean isObjectField(int index) {
+        return types[index] == HprofHeap.OBJECT;
+    }
+
+    /**
+     * @return offset of field value within instance record
+     */
+    int getOffset(int index) {
+        return offsets[index];
+    }
+
+    byte getValueType(int index) {
+        return types[index];
+    }
+
+    /**
+     * Reads field value, same as {@link Instance#getValueOfField(String)}.
+     *
+     * @return referenced {@link Instance} or boxed primitive value
+     */
+    public Object getValue(Instance instance, int index) {
+        long offset = position(instance, index);
+        if (types[index] == HprofHeap.OBJECT) {
+            return cls.getHprof().getInstanceByID(dumpBuffer.getID(offset));
+        }
+        else {
+            return HprofInstanceValue.getTypeValue(dumpBuffer, offset, types[index]);
+        }
+    }
+
+    /**
+     * @return referenced {@link Instance} or <code>null</code>
+     */
+    public Instance getInstance(Instance instance, int index) {
+        return cls.getHprof().getInstanceByID(getObjectId(instance, index));
+    }
+
+    /**
+     * @return ID of referenced object, 0 for <code>null</code>
+     */
+    public long getObjectId(Instance instance, int index) {
+        return dumpBuffer.getID(position(instance, index, HprofHeap.OBJECT));
+    }
+
+    public boolean getBoolean(Instance instance, int index) {
+        return dumpBuffer.get(position(instance, index, HprofHeap.BOOLEAN)) != 0;
+    }
+
+    public byte getByte(Instance instance, int index) {
+        return dumpBuffer.get(position(instance, index, HprofHeap.BYTE));
+    }
+
+    public char getChar(Instance instance, int index) {
+        return dumpBuffer.getChar(position(instance, index, HprofHeap.CHAR));
+    }
+
+    public short getShort(Instance instance, int index) {
+        return dumpBuffer.getShort(position(instance, index, HprofHeap.SHORT));
+    }
+
+    public int getInt(Instance instance, int index) {
+        return dumpBuffer.getInt(position(instance, index, HprofHeap.INT));
+    }
+
+    public long getLong(Instance instance, int index) {
+        return dumpBuffer.getLong(position(instance, index, HprofHeap.LONG));
+    }
+
+    public float getFloat(Instance instance, int index) {
+        return dumpBuffer.getFloat(position(instance, index, HprofHeap.FLOAT));
+    }
+
+    public double getDouble(Instance instance, int index) {
+        return dumpBuffer.getDouble(position(instance, index, HprofHeap.DOUBLE));
+    }
+
+    private long position(Instance instance, int index, int type) {
+        long offset = position(instance, index);
+        checkType(index, type);
+        return offset;
+    }
+
+    void checkType(int index, int type) {
+        if (types[index] != type) {
+            throw new IllegalArgumentException("Field " + names[index] + " of " + cls.getName() + " is " + fields[index].getType().getName());
+        }
+    }
+
+    private long position(Instance instance, int index) {
+        if (!(instance instanceof InstanceDump) || instance instanceof ArrayDump || ((InstanceDump) instance).dumpClass != cls) {
+            throw new IllegalArgumentException("Instance is not of class " + cls.getName());
+        }
+        return ((InstanceDump) instance).fileOffset + offsets[index];
+    }
+}
@@ -102,7 +102,7 @@ public interface Heap {
     /**
      * computes {@link JavaClass} for fully qualified name.
      * <br>
-     * Speed: slow
+     * Speed: fast
      * @param fqn fully qualified name of the java class.
      * @return return <CODE>null</CODE> if there no class with fqn name, otherwise corresponding {@link JavaClass}
      * is returned so that <CODE>heap.getJavaClassByName(fqn).getName().equals(fqn)</CODE>
@@ -111,8 +111,9 @@ public interface Heap {
 
     /**
      * computes collection of {@link JavaClass} filtered by regular expression.
+     * Regexp is checked only against classes sharing its literal prefix (e.g. <CODE>java\.util\..*Map</CODE>).
      * <br>
-     * Speed: slow
+     * Speed: slow, fast for regexp with literal package prefix
      * @param regexp regular expression for java class name.
      * @return return collection of {@link JavaClass} instances, which names satisfy the regexp expression. This
      * collection is empty if no class matches the regular expression
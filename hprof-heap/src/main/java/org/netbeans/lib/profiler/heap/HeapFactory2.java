@@ -34,6 +34,7 @@ import java.nio.channels.FileChannel;
 import java.util.zip.GZIPInputStream;
 
 import org.gridkit.jvmtool.heapdump.io.ByteBufferPageManager;
+import org.gridkit.jvmtool.heapdump.io.BlockCompressedHprofByteBuffer;
 import org.gridkit.jvmtool.heapdump.io.CompressdHprofByteBuffer;
 import org.gridkit.jvmtool.heapdump.io.PagedFileHprofByteBuffer;
 
@@ -61,6 +62,67 @@ public class HeapFactory2 {
         return new FastHprofHeap(createBuffer(heapDump, bufferSize), 0);
     }
 
+    /**
+     * Fast {@link Heap} implementation with persistent ID-to-offset index.
+     * If index file matches dump it is used instead of scanning dump,
+     * otherwise dump is scanned once and index file is (re)created.
+     *
+     * @param bufferSize
+     *            if file can be mapped to memory no buffer would be used, otherwise
+     *            limits memory used for buffering
+     * @param indexFile
+     *            sidecar file for offset index
+     */
+    public static Heap createFastHeap(File heapDump, long bufferSize, File indexFile) throws FileNotFoundException, IOException {
+        return createFastHeap(heapDump, bufferSize, indexFile, false);
+    }
+
+    /**
+     * Fast {@link Heap} implementation with persistent ID-to-offset index.
+     * If index file matches dump it is used instead of scanning dump,
+     * otherwise dump is scanned once and index file is (re)created.
+     *
+     * @param bufferSize
+     *            if file can be mapped to memory no buffer would be used, otherwise
+     *            limits memory used for buffering
+     * @param indexFile
+     *            sidecar file for offset index
+     * @param instanceIndex
+     *            if <code>true</code> per class instance lists are kept in index file too,
+     *            see {@link FastHprofHeap#enableInstanceIndex()}
+     */
+    public static Heap createFastHeap(File heapDump, long bufferSize, File indexFile, boolean instanceIndex) throws FileNotFoundException, IOException {
+        FastHprofHeap heap = new FastHprofHeap(createBuffer(heapDump, bufferSize), 0);
+        boolean loaded = false;
+        try {
+            loaded = FastHeapIndex.load(heap, heapDump, indexFile);
+        } catch (IOException ex) {
+            System.err.println("Loading offset index " + indexFile + " failed.");
+            ex.printStackTrace(System.err);
+            heap = new FastHprofHeap(createBuffer(heapDump, bufferSize), 0);
+        }
+        if (loaded && (!instanceIndex || heap.hasInstanceIndex())) {
+            return heap;
+        }
+        if (instanceIndex) {
+            heap.enableInstanceIndex();
+        }
+        if (loaded) {
+            // offset index is valid, only instance lists are built
+            heap.getInstanceIndex();
+        }
+        else {
+            heap.buildOffsetIndex();
+        }
+        try {
+            FastHeapIndex.save(heap, heapDump, indexFile);
+        } catch (IOException ex) {
+            System.err.println("Saving offset index " + indexFile + " failed.");
+            ex.printStackTrace(System.err);
+        }
+        return heap;
+    }
+
     /**
      * Open {@link FastHprofHeap} implementation in writeable mode. This mode allows
      * to modify heap content on disk. See {@link PatchableCharArray} for details.
@@ -70,11 +132,15 @@ public class HeapFactory2 {
     }
 
     public static boolean isCompressed(File heapDump) {
-        return isGZIP(heapDump);
+        return BlockCompressedHprofByteBuffer.isBlockCompressed(heapDump) || isGZIP(heapDump);
     }
 
     public static boolean canBeMemMapped(File heapDump) {
 
+        if (BlockCompressedHprofByteBuffer.isBlockCompressed(heapDump)) {
+            return false;
+        }
+
         try {
             if (isGZIP(heapDump)) {
                 return false;
@@ -157,6 +223,10 @@ public class HeapFactory2 {
     }
 
     private static HprofByteBuffer createBuffer(File heapDump, long bufferSize) throws IOException {
+        if (BlockCompressedHprofByteBuffer.isBlockCompressed(heapDump)) {
+            return new BlockCompressedHprofByteBuffer(new RandomAccessFile(heapDump, "r"),
+                    new ByteBufferPageManager(512 << 10, bufferSize));
+        }
         try {
             if (isGZIP(heapDump)) {
                 return createCompressedHprofBuffer(heapDump, bufferSize);
@@ -172,8 +242,21 @@ public class HeapFactory2 {
 
     private static HprofByteBuffer createCompressedHprofBuffer(File heapDump, long bufferSize)
             throws IOException, FileNotFoundException {
+        // inflate blocks ahead of reader using spare cores,
+        // read ahead blocks are taken from buffer budget, up to quarter of it
+        long block = CompressdHprofByteBuffer.READ_AHEAD_BLOCK_SIZE;
+        int inflateThreads = Math.min(4, Runtime.getRuntime().availableProcessors() - 1);
+        long readAheadBudget = bufferSize / 4 / block * block;
+        long pageBudget = bufferSize;
+        if (inflateThreads > 1 && readAheadBudget >= 2 * block) {
+            pageBudget -= readAheadBudget;
+        }
+        else {
+            inflateThreads = 1;
+            readAheadBudget = 0;
+        }
         return new CompressdHprofByteBuffer(new RandomAccessFile(heapDump, "r"),
-                new ByteBufferPageManager(512 << 10, bufferSize));
+                new ByteBufferPageManager(512 << 10, pageBudget), inflateThreads, readAheadBudget);
     }
 
     private static boolean isGZIP(File headDump) {
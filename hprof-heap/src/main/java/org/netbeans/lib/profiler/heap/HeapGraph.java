@@ -0,0 +1,654 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compact reference graph of heap dump.
+ * <br/>
+ * Every instance and class is assigned a dense int ordinal: instances in
+ * dump order, followed by classes in order of {@link Heap#getAllClasses()}.
+ * Outbound and inbound references are stored as compressed sparse rows,
+ * e.g. outbound references of node <code>n</code> are
+ * {@link #getOutEdge(int) getOutEdge(i)} for <code>i</code> in
+ * <code>[{@link #getOutStart(int) getOutStart(n)}, getOutStart(n + 1))</code>.
+ * <br/>
+ * Edges are same as recorded by {@link HprofHeap#computeReferences()}:
+ * instance fields, object array elements and static fields. Null references
+ * and references to objects missing in dump are dropped, duplicated edges
+ * (e.g. two fields referring same object) are kept.
+ * <br/>
+ * Graph of strong references could be requested, then referents of
+ * soft, weak, final and phantom references are not recorded as edges,
+ * same as they are skipped by {@link Instance#getNearestGCRootPointer()}.
+ * <br/>
+ * Graph is built from dump records alone, without ID index, so it works
+ * for both regular and fast heap. Edges are counted in one pass and
+ * filled in another, both passes are parallel if dump buffer could be
+ * read concurrently.
+ */
+public class HeapGraph implements HeapNodes {
+
+    private static final int ID_CHUNK = 1024;
+
+    private static final String[] REF_CLASSES = {
+        "java.lang.ref.WeakReference",    // NOI18N
+        "java.lang.ref.SoftReference",    // NOI18N
+        "java.lang.ref.FinalReference",   // NOI18N
+        "java.lang.ref.PhantomReference"  // NOI18N
+    };
+    private static final String JAVA_LANG_REF_REFERENCE = "java.lang.ref.Reference";   // NOI18N
+    private static final String REFERENT_FIELD_NAME = "referent"; // NOI18N
+    private static final String SVM_REFERENCE = "com.oracle.svm.core.heap.heapImpl.DiscoverableReference";    // NOI18N
+    private static final String SVM_REFERENT_FIELD_NAME = "rawReferent"; // NOI18N
+
+    private final HprofHeap heap;
+    private final HprofByteBuffer dumpBuffer;
+    private final int idSize;
+    private final int parallelism;
+
+    private final List<JavaClass> classes;
+    private final ClassInstanceIndex.ClassTable classTable;
+    // offsets of object fields within instance record, by class index
+    private final int[][] refOffsets;
+
+    private int instanceCount;
+    private int nodeCount;
+
+    // dump record offset by ordinal
+    private long[] offsets;
+    // ID -> ordinal index
+    private long[] sortedIds;
+    private int[] sortedOrdinals;
+
+    private int[] outStart;
+    private int[] outEdges;
+    private int[] inStart;
+    private int[] inEdges;
+
+    public HeapGraph(Heap heap) {
+        this(heap, Runtime.getRuntime().availableProcessors());
+    }
+
+    public HeapGraph(Heap heap, int parallelism) {
+        this(heap, parallelism, false);
+    }
+
+    /**
+     * @param strongOnly if <code>true</code>, referents of soft, weak, final
+     *        and phantom references are not treated as edges
+     */
+    public HeapGraph(Heap heap, int parallelism, boolean strongOnly) {
+        if (!(heap instanceof HprofHeap)) {
+            throw new IllegalArgumentException("Unsupported heap implementation: " + heap.getClass().getName());
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism should be positive: " + parallelism);
+        }
+        this.heap = (HprofHeap) heap;
+        this.dumpBuffer = this.heap.dumpBuffer;
+        this.idSize = dumpBuffer.getIDSize();
+        this.parallelism = dumpBuffer.isConcurrentReadSafe() ? parallelism : 1;
+        this.classes = this.heap.getClassDumpSegment().createClassCollection();
+        this.classTable = new ClassInstanceIndex.ClassTable(classes);
+        this.refOffsets = new int[classes.size()][];
+        for(int i = 0; i != classes.size(); ++i) {
+            FieldLayout layout = ((ClassDump) classes.get(i)).getFieldLayout();
+            int[] fields = layout.getObjectFields();
+            int skip = strongOnly ? referentField(layout) : -1;
+            refOffsets[i] = new int[skip < 0 ? fields.length : fields.length - 1];
+            int n = 0;
+            for(int j = 0; j != fields.length; ++j) {
+                if (fields[j] != skip) {
+                    refOffsets[i][n++] = layout.getOffset(fields[j]);
+                }
+            }
+        }
+
+        collectNodes();
+        indexIds();
+        buildOutEdges();
+        buildInEdges();
+    }
+
+    /**
+     * @return ordinals of GC roots present in graph, may contain duplicates
+     */
+    public int[] getRootOrdinals(Iterable<GCRoot> roots) {
+        int[] result = new int[16];
+        int n = 0;
+        for(GCRoot root: roots) {
+            long id = root instanceof HprofGCRoot ? ((HprofGCRoot) root).getInstanceId() : root.getInstance().getInstanceId();
+            int ordinal = ordinalOf(id);
+            if (ordinal >= 0) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, 2 * n);
+                }
+                result[n++] = ordinal;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return number of instance nodes, class nodes follow them
+     */
+    @Override
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    public int getEdgeCount() {
+        return outEdges.length;
+    }
+
+    /**
+     * @return ordinal of instance or class with given ID, or -1 if there is no such object in dump
+     */
+    @Override
+    public int ordinalOf(long id) {
+        int n = Arrays.binarySearch(sortedIds, id);
+        return n < 0 ? -1 : sortedOrdinals[n];
+    }
+
+    @Override
+    public long getId(int ordinal) {
+        if (ordinal >= instanceCount) {
+            return classes.get(ordinal - instanceCount).getJavaClassId();
+        }
+        return dumpBuffer.getID(offsets[ordinal] + 1);
+    }
+
+    @Override
+    public boolean isClass(int ordinal) {
+        return ordinal >= instanceCount;
+    }
+
+    @Override
+    public int getClassIndex(int ordinal) {
+        if (ordinal >= instanceCount) {
+            return -1;
+        }
+        return classIndex(heap, classTable, offsets[ordinal]);
+    }
+
+    /**
+     * @return index of class of instance or array record in class table
+     */
+    static int classIndex(HprofHeap heap, ClassInstanceIndex.ClassTable classTable, long offset) {
+        HprofByteBuffer buffer = heap.dumpBuffer;
+        int idSize = buffer.getIDSize();
+        int tag = buffer.get(offset) & 0xFF;
+        long classId;
+        if (tag == HprofHeap.INSTANCE_DUMP) {
+            classId = buffer.getID(offset + 1 + idSize + 4);
+        }
+        else if (tag == HprofHeap.OBJECT_ARRAY_DUMP) {
+            classId = buffer.getID(offset + 1 + idSize + 4 + 4);
+        }
+        else {
+            byte type = buffer.get(offset + 1 + idSize + 4 + 4);
+            classId = heap.getClassDumpSegment().getPrimitiveArrayClass(type).getJavaClassId();
+        }
+        return classTable.indexOf(classId);
+    }
+
+    /**
+     * @return instance for ordinal, classes are represented by same
+     *         kind of instance as {@link Heap#getInstanceByID(long)} returns
+     */
+    @Override
+    public Instance getInstance(int ordinal) {
+        return heap.getInstanceByOffset(new long[] { offsets[ordinal] });
+    }
+
+    /**
+     * @return shallow size of instance, same as {@link Instance#getSize()}, 0 for class nodes
+     */
+    @Override
+    public long getSize(int ordinal) {
+        if (ordinal >= instanceCount) {
+            return 0;
+        }
+        return instanceSize(heap, classTable, classes, offsets[ordinal]);
+    }
+
+    /**
+     * @return shallow size of instance or array record
+     */
+    static long instanceSize(HprofHeap heap, ClassInstanceIndex.ClassTable classTable, List<JavaClass> classes, long offset) {
+        HprofByteBuffer buffer = heap.dumpBuffer;
+        int idSize = buffer.getIDSize();
+        int tag = buffer.get(offset) & 0xFF;
+        if (tag == HprofHeap.INSTANCE_DUMP) {
+            int ci = classTable.indexOf(buffer.getID(offset + 1 + idSize + 4));
+            return classes.get(ci).getInstanceSize();
+        }
+        int length = buffer.getInt(offset + 1 + idSize + 4);
+        long elementSize;
+        if (tag == HprofHeap.OBJECT_ARRAY_DUMP) {
+            elementSize = idSize;
+        }
+        else {
+            elementSize = heap.getValueSize(buffer.get(offset + 1 + idSize + 4 + 4));
+        }
+        return heap.getClassDumpSegment().getMinimumInstanceSize() + ArrayDump.HPROF_ARRAY_OVERHEAD + elementSize * length;
+    }
+
+    /**
+     * Node tables of graph without edges, indexes computed from graph
+     * retain node table only, so edges could be garbage collected.
+     */
+    HeapNodeTable getNodeTable() {
+        return new HeapNodeTable(heap, instanceCount, LongTable.wrap(offsets), LongTable.wrap(sortedIds), IntTable.wrap(sortedOrdinals), classes);
+    }
+
+    /**
+     * @return start of outbound edges of node in {@link #getOutEdge(int)} index space,
+     *         <code>getOutStart(nodeCount)</code> is total number of edges
+     */
+    public int getOutStart(int ordinal) {
+        return outStart[ordinal];
+    }
+
+    public int getOutEdge(int index) {
+        return outEdges[index];
+    }
+
+    public int getOutDegree(int ordinal) {
+        return outStart[ordinal + 1] - outStart[ordinal];
+    }
+
+    /**
+     * @return start of inbound edges of node in {@link #getInEdge(int)} index space
+     */
+    public int getInStart(int ordinal) {
+        return inStart[ordinal];
+    }
+
+    public int getInEdge(int index) {
+        return inEdges[index];
+    }
+
+    public int getInDegree(int ordinal) {
+        return inStart[ordinal + 1] - inStart[ordinal];
+    }
+
+    /**
+     * @return index of referent field if class is a soft, weak, final or
+     *         phantom reference, -1 otherwise
+     */
+    private static int referentField(FieldLayout layout) {
+        for(JavaClass jc = layout.getJavaClass(); jc != null; jc = jc.getSuperClass()) {
+            if (jc.getName().equals(SVM_REFERENCE)) {
+                return declaredField(layout, SVM_REFERENCE, SVM_REFERENT_FIELD_NAME);
+            }
+            for(String rc: REF_CLASSES) {
+                if (jc.getName().equals(rc)) {
+                    return declaredField(layout, JAVA_LANG_REF_REFERENCE, REFERENT_FIELD_NAME);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int declaredField(FieldLayout layout, String className, String fieldName) {
+        for(int n: layout.indexesOf(fieldName)) {
+            if (layout.getField(n).getDeclaringClass().getName().equals(className)) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    private void collectNodes() {
+        final long[] chunks = ParallelHeapScanner.splitInstanceDumps(heap, ParallelHeapScanner.DEFAULT_CHUNK_SIZE);
+        final long[][] parts = new long[chunks.length - 1][];
+        final int[] partSizes = new int[parts.length];
+        runParallel(parallelism, parts.length, new Task() {
+            @Override
+            public void run(int n) {
+                long[] part = new long[1024];
+                int size = 0;
+                InstanceCursor cursor = new InstanceCursor(heap, chunks[n], chunks[n + 1]);
+                while(cursor.next()) {
+                    if (size == part.length) {
+                        part = Arrays.copyOf(part, 2 * size);
+                    }
+                    part[size++] = cursor.getOffset();
+                }
+                parts[n] = part;
+                partSizes[n] = size;
+            }
+        });
+
+        long total = 0;
+        for(int size: partSizes) {
+            total += size;
+        }
+        if (total + classes.size() > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many objects in heap: " + total);
+        }
+        instanceCount = (int) total;
+        nodeCount = instanceCount + classes.size();
+        offsets = new long[nodeCount];
+        int pos = 0;
+        for(int i = 0; i != parts.length; ++i) {
+            System.arraycopy(parts[i], 0, offsets, pos, partSizes[i]);
+            pos += partSizes[i];
+            parts[i] = null;
+        }
+        for(JavaClass jc: classes) {
+            offsets[pos++] = ((ClassDump) jc).fileOffset;
+        }
+    }
+
+    private void indexIds() {
+        sortedIds = new long[nodeCount];
+        sortedOrdinals = new int[nodeCount];
+        boolean sorted = true;
+        for(int i = 0; i != nodeCount; ++i) {
+            sortedIds[i] = getId(i);
+            sortedOrdinals[i] = i;
+            if (i > 0 && sortedIds[i] < sortedIds[i - 1]) {
+                sorted = false;
+            }
+        }
+        if (!sorted) {
+            sort(sortedIds, sortedOrdinals, 0, nodeCount);
+        }
+    }
+
+    private void buildOutEdges() {
+        final int[] start = new int[nodeCount + 1];
+        final int ranges = Math.min(instanceCount, 8 * parallelism);
+        // pass 1: count
+        runParallel(parallelism, ranges, new Task() {
+            @Override
+            public void run(int n) {
+                long[] buffer = new long[ID_CHUNK];
+                int to = rangeEnd(n, ranges);
+                for(int i = rangeEnd(n - 1, ranges); i < to; ++i) {
+                    start[i + 1] = instanceRefs(i, buffer, null, 0);
+                }
+            }
+        });
+        for(int i = 0; i != classes.size(); ++i) {
+            start[instanceCount + i + 1] = staticRefs(i, null, 0);
+        }
+        long total = 0;
+        for(int i = 0; i != nodeCount; ++i) {
+            total += start[i + 1];
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many references in heap");
+            }
+            start[i + 1] = (int) total;
+        }
+
+        // pass 2: fill
+        final int[] edges = new int[(int) total];
+        runParallel(parallelism, ranges, new Task() {
+            @Override
+            public void run(int n) {
+                long[] buffer = new long[ID_CHUNK];
+                int to = rangeEnd(n, ranges);
+                for(int i = rangeEnd(n - 1, ranges); i < to; ++i) {
+                    instanceRefs(i, buffer, edges, start[i]);
+                }
+            }
+        });
+        for(int i = 0; i != classes.size(); ++i) {
+            staticRefs(i, edges, start[instanceCount + i]);
+        }
+        outStart = start;
+        outEdges = edges;
+    }
+
+    private void buildInEdges() {
+        int[] start = new int[nodeCount + 1];
+        for(int e: outEdges) {
+            ++start[e + 1];
+        }
+        for(int i = 0; i != nodeCount; ++i) {
+            start[i + 1] += start[i];
+        }
+        int[] pos = Arrays.copyOf(start, nodeCount);
+        int[] edges = new int[outEdges.length];
+        for(int i = 0; i != nodeCount; ++i) {
+            for(int j = outStart[i]; j != outStart[i + 1]; ++j) {
+                edges[pos[outEdges[j]]++] = i;
+            }
+        }
+        inStart = start;
+        inEdges = edges;
+    }
+
+    private int rangeEnd(int n, int ranges) {
+        return n < 0 ? 0 : (int) ((((long) n) + 1) * instanceCount / ranges);
+    }
+
+    /**
+     * Resolves references of instance node, if <code>target</code> is
+     * <code>null</code> references are only counted.
+     *
+     * @return number of resolved references
+     */
+    private int instanceRefs(int ordinal, long[] buffer, int[] target, int pos) {
+        long offset = offsets[ordinal];
+        int tag = dumpBuffer.get(offset) & 0xFF;
+        int n = 0;
+        if (tag == HprofHeap.INSTANCE_DUMP) {
+            int ci = classTable.indexOf(dumpBuffer.getID(offset + 1 + idSize + 4));
+            for(int fo: refOffsets[ci]) {
+                n += resolve(dumpBuffer.getID(offset + fo), target, pos + n);
+            }
+        }
+        else if (tag == HprofHeap.OBJECT_ARRAY_DUMP) {
+            int length = dumpBuffer.getInt(offset + 1 + idSize + 4);
+            long position = offset + 1 + idSize + 4 + 4 + idSize;
+            for(int i = 0; i < length; i += ID_CHUNK) {
+                int len = Math.min(ID_CHUNK, length - i);
+                dumpBuffer.getIDs(position + ((long) i) * idSize, buffer, 0, len);
+                for(int j = 0; j != len; ++j) {
+                    n += resolve(buffer[j], target, pos + n);
+                }
+            }
+        }
+        return n;
+    }
+
+    private int staticRefs(int classIndex, int[] target, int pos) {
+        int n = 0;
+        for(FieldValue fv: classes.get(classIndex).getStaticFieldValues()) {
+            if (fv instanceof HprofFieldObjectValue) {
+                n += resolve(((HprofFieldObjectValue) fv).getInstanceId(), target, pos + n);
+            }
+        }
+        return n;
+    }
+
+    private int resolve(long id, int[] target, int pos) {
+        if (id == 0) {
+            return 0;
+        }
+        int ordinal = ordinalOf(id);
+        if (ordinal < 0) {
+            return 0;
+        }
+        if (target != null) {
+            target[pos] = ordinal;
+        }
+        return 1;
+    }
+
+    /** Pool shared by parallel heap processing, its threads are daemons and retire when idle */
+    private static ForkJoinPool sharedPool;
+
+    /**
+     * @return shared pool with at least <code>parallelism</code> threads
+     */
+    static synchronized ForkJoinPool getSharedPool(int parallelism) {
+        if (sharedPool == null || sharedPool.getParallelism() < parallelism) {
+            if (sharedPool != null) {
+                // tasks already submitted would complete
+                sharedPool.shutdown();
+            }
+            sharedPool = new ForkJoinPool(parallelism);
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Runs tasks on shared pool, no more than <code>parallelism</code> tasks run at once.
+     */
+    static void runParallel(int parallelism, final int tasks, final Task task) {
+        if (parallelism == 1 || tasks < 2) {
+            for(int i = 0; i != tasks; ++i) {
+                task.run(i);
+            }
+            return;
+        }
+        int workers = Math.min(parallelism, tasks);
+        ForkJoinPool pool = getSharedPool(workers);
+        final AtomicInteger nextTask = new AtomicInteger();
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+            for(int i = 0; i != workers; ++i) {
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        while(true) {
+                            int n = nextTask.getAndIncrement();
+                            if (n < 0 || n >= tasks) {
+                                break;
+                            }
+                            try {
+                                task.run(n);
+                            }
+                            catch(RuntimeException e) {
+                                // let other workers stop early
+                                nextTask.set(Integer.MAX_VALUE);
+                                throw e;
+                            }
+                        }
+                    }
+                }));
+            }
+            for(Future<?> f: futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Graph processing interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            else {
+                throw new RuntimeException(cause);
+            }
+        }
+        finally {
+            // stop remaining workers if processing has failed
+            nextTask.set(Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Sorts keys in range, moving values along.
+     */
+    static void sort(long[] keys, int[] values, int from, int to) {
+        while(to - from > 16) {
+            int mid = (from + to) >>> 1;
+            // median of three
+            if (keys[mid] < keys[from]) {
+                swap(keys, values, mid, from);
+            }
+            if (keys[to - 1] < keys[from]) {
+                swap(keys, values, to - 1, from);
+            }
+            if (keys[to - 1] < keys[mid]) {
+                swap(keys, values, to - 1, mid);
+            }
+            long pivot = keys[mid];
+            int i = from;
+            int j = to - 1;
+            while(i <= j) {
+                while(keys[i] < pivot) {
+                    ++i;
+                }
+                while(keys[j] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    swap(keys, values, i++, j--);
+                }
+            }
+            // recurse into smaller part
+            if (j - from < to - i) {
+                sort(keys, values, from, j + 1);
+                from = i;
+            }
+            else {
+                sort(keys, values, i, to);
+                to = j + 1;
+            }
+        }
+        for(int i = from + 1; i < to; ++i) {
+            long k = keys[i];
+            int v = values[i];
+            int j = i - 1;
+            while(j >= from && keys[j] > k) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                --j;
+            }
+            keys[j + 1] = k;
+            values[j + 1] = v;
+        }
+    }
+
+    private static void swap(long[] keys, int[] values, int a, int b) {
+        long k = keys[a];
+        keys[a] = keys[b];
+        keys[b] = k;
+        int v = values[a];
+        values[a] = values[b];
+        values[b] = v;
+    }
+
+    interface Task {
+
+        public void run(int n);
+
+    }
+}
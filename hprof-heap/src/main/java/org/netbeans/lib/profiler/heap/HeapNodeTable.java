@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.util.List;
+
+/**
+ * Node tables of {@link HeapGraph} without edges: dump offset by ordinal
+ * and ID to ordinal index. Indexes retain node table once they are computed,
+ * so reference graph could be garbage collected.
+ * <br/>
+ * Tables are either arrays of graph or mapped {@link DominatorIndexFile}.
+ */
+class HeapNodeTable implements HeapNodes {
+
+    private final HprofHeap heap;
+    private final int instanceCount;
+    // dump record offset by ordinal
+    private final LongTable offsets;
+    // ID -> ordinal index
+    private final LongTable sortedIds;
+    private final IntTable sortedOrdinals;
+    private final List<JavaClass> classes;
+    private final ClassInstanceIndex.ClassTable classTable;
+
+    HeapNodeTable(HprofHeap heap, int instanceCount, LongTable offsets, LongTable sortedIds, IntTable sortedOrdinals) {
+        this(heap, instanceCount, offsets, sortedIds, sortedOrdinals, heap.getClassDumpSegment().createClassCollection());
+    }
+
+    HeapNodeTable(HprofHeap heap, int instanceCount, LongTable offsets, LongTable sortedIds, IntTable sortedOrdinals, List<JavaClass> classes) {
+        this.heap = heap;
+        this.instanceCount = instanceCount;
+        this.offsets = offsets;
+        this.sortedIds = sortedIds;
+        this.sortedOrdinals = sortedOrdinals;
+        this.classes = classes;
+        this.classTable = new ClassInstanceIndex.ClassTable(classes);
+    }
+
+    @Override
+    public int getNodeCount() {
+        return offsets.size();
+    }
+
+    @Override
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    @Override
+    public int ordinalOf(long id) {
+        int lo = 0;
+        int hi = sortedIds.size() - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long v = sortedIds.get(mid);
+            if (v < id) {
+                lo = mid + 1;
+            }
+            else if (v > id) {
+                hi = mid - 1;
+            }
+            else {
+                return sortedOrdinals.get(mid);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public long getId(int ordinal) {
+        // instance and class dump records both start with ID
+        return heap.dumpBuffer.getID(offsets.get(ordinal) + 1);
+    }
+
+    @Override
+    public boolean isClass(int ordinal) {
+        return ordinal >= instanceCount;
+    }
+
+    @Override
+    public int getClassIndex(int ordinal) {
+        return ordinal >= instanceCount ? -1 : HeapGraph.classIndex(heap, classTable, offsets.get(ordinal));
+    }
+
+    @Override
+    public Instance getInstance(int ordinal) {
+        return heap.getInstanceByOffset(new long[] { offsets.get(ordinal) });
+    }
+
+    @Override
+    public long getSize(int ordinal) {
+        return ordinal >= instanceCount ? 0 : HeapGraph.instanceSize(heap, classTable, classes, offsets.get(ordinal));
+    }
+
+    /**
+     * @return offset of instance or class record in dump
+     */
+    long getOffset(int ordinal) {
+        return offsets.get(ordinal);
+    }
+
+    /**
+     * @return n-th ID in ascending order, used to store ID index
+     */
+    long getSortedId(int n) {
+        return sortedIds.get(n);
+    }
+
+    int getSortedOrdinal(int n) {
+        return sortedOrdinals.get(n);
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+/**
+ * Dense int ordinals of instances and classes of heap dump,
+ * see {@link HeapGraph} for ordinal assignment.
+ * <br/>
+ * Nodes are provided either by {@link HeapGraph} or by index
+ * file loaded with {@link DominatorIndexFile}.
+ */
+public interface HeapNodes {
+
+    public int getNodeCount();
+
+    /**
+     * @return number of instance nodes, class nodes follow them
+     */
+    public int getInstanceCount();
+
+    /**
+     * @return ordinal of instance or class with given ID, or -1 if there is no such object in dump
+     */
+    public int ordinalOf(long id);
+
+    public long getId(int ordinal);
+
+    public boolean isClass(int ordinal);
+
+    /**
+     * @return index of instance's class in {@link Heap#getAllClasses()}, -1 for class nodes
+     */
+    public int getClassIndex(int ordinal);
+
+    public Instance getInstance(int ordinal);
+
+    /**
+     * @return shallow size of instance, same as {@link Instance#getSize()}, 0 for class nodes
+     */
+    public long getSize(int ordinal);
+
+}
@@ -18,10 +18,19 @@
  */
 package org.netbeans.lib.profiler.heap;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Resolves offset by instance ID.
+ * <p>
+ * Map is safe for concurrent use. Lookups within already scanned
+ * part of dump are lock free (optimistic read of page table and
+ * immutable cached pages), scanning of new pages is done under write lock.
  *
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
@@ -38,12 +47,14 @@ class HeapOffsetMap {
     private final int pageAddessSpan = pageSize * allignment;
 
     private long cidOffset; // compressed "heap offset" - minimal address on heap
-    private long[] offsetMap; // maps IDs to offsets
-    private final int[] cachePageId;
-    private final int[][] cachePageData;
+    private long[] offsetMap; // maps IDs to offsets, null if loaded table is used
+    private LongTable loadedMap; // page table mapped from index file, copied on first scan
+    private final CachedPage[] pageCache;
     private final HprofHeap heap;
     private final HprofByteBuffer dumpBuffer;
-    /** used for dump buffer access */
+    /** guards page table (cidOffset, offsetMap, loadedMap, maxPage) */
+    private final StampedLock lock = new StampedLock();
+    /** used for dump buffer access during scan, guarded by write lock */
     private final long[] pointer = new long[1];
     private int maxPage = 0; // last scanned ID
     private boolean nestedScan = false;
@@ -66,9 +77,7 @@ class HeapOffsetMap {
         offsetMap = new long[(int)((span) / (pageAddessSpan)) + 1];
         offsetMap[0] = bounds.startOffset;
 
-        cachePageId = new int[DEFAULT_CACHE_SIZE];
-        cachePageData = new int[cachePageId.length][pageSize];
-        Arrays.fill(cachePageId, -1);
+        pageCache = new CachedPage[DEFAULT_CACHE_SIZE];
     }
 
     public long offset(long origId) {
@@ -86,6 +95,45 @@ class HeapOffsetMap {
     }
 
     long offsetForCompressed(long cid) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            long base = cidOffset;
+            int scannedPages = maxPage;
+            long[] map = offsetMap;
+            LongTable loaded = loadedMap;
+            // both could be seen null while table is being copied, stamp validation would fail then
+            int mapSize = map != null ? map.length : loaded != null ? loaded.size() : 0;
+            long ref = cid - base;
+            if (ref >= 0 && ref / pageSize < Math.min(scannedPages, mapSize)) {
+                int page = (int) (ref / pageSize);
+                long baseOffs = map != null ? map[page] : loaded.get(page);
+                if (lock.validate(stamp)) {
+                    return resolve(cid, base + ((long) page) * pageSize, base, baseOffs);
+                }
+            }
+        }
+        stamp = lock.writeLock();
+        try {
+            return scanForCompressed(cid);
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private long resolve(long cid, long pageBase, long floor, long baseOffs) {
+        if (baseOffs < 0) {
+            throw new IllegalInstanceIDException("ID is not valid: " + cid);
+        }
+        int[] shiftMap = getPage(pageBase, floor, baseOffs);
+        int shift = shiftMap[(int) (cid - pageBase)];
+        if (shift < 0) {
+            throw new IllegalInstanceIDException("Compressed ID is not valid: " + cid);
+        }
+        return baseOffs + shift;
+    }
+
+    private long scanForCompressed(long cid) {
         if (cid < cidOffset ) {
             // this map happen if sub regions of heap are not orderer
             // by physical memory addresses
@@ -116,29 +164,43 @@ class HeapOffsetMap {
                 page = (int) (ref / pageSize);
             }
         }
-        int[] shiftMap = getPage(page);
-        long baseOffs = offsetMap[page];
-        if (baseOffs < 0) {
-            throw new IllegalInstanceIDException("ID is not valid: " + cid);
-        }
-        int shift = shiftMap[(int) (ref % pageSize)];
-        if (shift < 0) {
-            throw new IllegalInstanceIDException("Compressed ID is not valid: " + cid);
+        return resolve(cid, cidOffset + ((long) page) * pageSize, cidOffset, pageOffset(page));
+    }
+
+    private long pageOffset(int page) {
+        return offsetMap != null ? offsetMap[page] : loadedMap.get(page);
+    }
+
+    private int pageCount() {
+        return offsetMap != null ? offsetMap.length : loadedMap.size();
+    }
+
+    /**
+     * Loaded page table is read only, it is copied to heap before it is extended by scan.
+     */
+    private void ensureWritable() {
+        if (offsetMap == null) {
+            long[] map = new long[loadedMap.size()];
+            for(int i = 0; i != map.length; ++i) {
+                map[i] = loadedMap.get(i);
+            }
+            offsetMap = map;
+            loadedMap = null;
         }
-        long offs = baseOffs + shift;
-        return offs;
     }
 
     private int scanPage(int page) {
+        ensureWritable();
         int n = maxPage;
         while(n <= page) {
             if (offsetMap.length <= n) {
                 offsetMap = Arrays.copyOf(offsetMap, page + 1);
             }
-            int cslot = n % cachePageId.length;
-            cachePageId[cslot] = n;
             try {
-                readPage(((long)n) * pageSize, offsetMap[n], cachePageData[cslot]);
+                long pageBase = cidOffset + ((long) n) * pageSize;
+                int[] shiftMap = new int[pageSize];
+                readPage(pointer, pageBase, cidOffset, offsetMap[n], shiftMap);
+                cachePage(new CachedPage(pageBase, offsetMap[n], shiftMap));
             }
             catch(MalformedInstanceIdException e) {
                 // this one is tricky, we have encountered an address region outside of current bounds,
@@ -235,16 +297,96 @@ class HeapOffsetMap {
         return page;
     }
 
-    private int[] getPage(int page) {
-        int cslot = page % cachePageId.length;
-        int cp = cachePageId[cslot];
-        if (cp == page) {
-            return cachePageData[cslot];
+    private int[] getPage(long pageBase, long floor, long offset) {
+        int cslot = (int) ((pageBase / pageSize) % pageCache.length);
+        CachedPage cp = pageCache[cslot];
+        if (cp != null && cp.pageBase == pageBase && cp.offset == offset) {
+            return cp.shiftMap;
         }
         else {
-            cachePageId[cslot] = page;
-            readPage((long)(page) * pageSize, offsetMap[page], cachePageData[cslot]);
-            return cachePageData[cslot];
+            int[] shiftMap = new int[pageSize];
+            readPage(new long[1], pageBase, floor, offset, shiftMap);
+            cachePage(new CachedPage(pageBase, offset, shiftMap));
+            return shiftMap;
+        }
+    }
+
+    private void cachePage(CachedPage page) {
+        // page is immutable, so racy publication is fine
+        pageCache[(int) ((page.pageBase / pageSize) % pageCache.length)] = page;
+    }
+
+    /**
+     * Scans remaining part of dump, so later lookups would not require scanning.
+     */
+    void completeScan() {
+        long stamp = lock.writeLock();
+        try {
+            doCompleteScan();
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void doCompleteScan() {
+        while(!scanComplete) {
+            int lastPage = maxPage;
+            try {
+                scanPage(maxPage + 1);
+            }
+            catch(IllegalArgumentException e) {
+                // end of heap reached
+            }
+            if (!scanComplete && maxPage <= lastPage) {
+                // no progress, rest of pages would be resolved lazily
+                break;
+            }
+        }
+    }
+
+    //---- Serialization support
+    void writeToStream(DataOutputStream out) throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            out.writeLong(cidOffset);
+            out.writeInt(maxPage);
+            out.writeBoolean(scanComplete);
+            int size = pageCount();
+            out.writeInt(size);
+            for(int i = 0; i != size; ++i) {
+                out.writeLong(pageOffset(i));
+            }
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Page table is served directly from mapped index file, mapping is held
+     * until map is garbage collected (it is never unmapped explicitly).
+     *
+     * @return position after page table
+     */
+    long readFromChannel(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = FastHeapIndex.read(channel, position, 17);
+        long stamp = lock.writeLock();
+        try {
+            cidOffset = buffer.getLong();
+            maxPage = buffer.getInt();
+            scanComplete = buffer.get() != 0;
+            int size = buffer.getInt();
+            if (size < 0 || position + 17 + 8l * size > channel.size()) {
+                throw new IOException("Offset map is truncated");
+            }
+            loadedMap = LongTable.map(channel, position + 17, size);
+            offsetMap = null;
+            Arrays.fill(pageCache, null);
+            return position + 17 + 8l * size;
+        }
+        finally {
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -266,10 +408,14 @@ class HeapOffsetMap {
         }
     }
 
-    private void readPage(long id, long offset, int[] cachePage) {
+    /**
+     * Reads offsets of instances with compressed IDs in [pageBase, pageBase + pageSize).
+     * On return, pointer is positioned at first record not belonging to the page.
+     */
+    private void readPage(long[] pointer, long pageBase, long floor, long offset, int[] shiftMap) {
         TagBounds bounds = heap.getAllInstanceDumpBounds();
         pointer[0] = offset;
-        Arrays.fill(cachePage, -1);
+        Arrays.fill(shiftMap, -1);
 
         while(pointer[0] < bounds.endOffset && pointer[0] >= 0) {
             long ptr = pointer[0];
@@ -279,15 +425,15 @@ class HeapOffsetMap {
                 || tag == HprofHeap.OBJECT_ARRAY_DUMP
                 || tag == HprofHeap.PRIMITIVE_ARRAY_DUMP
                 || tag == HprofHeap.CLASS_DUMP) {
-                long iid;
-                try {
-                    iid = compressID(dumpBuffer.getID(ptr + 1));
+                long iid = dumpBuffer.getID(ptr + 1);
+                if (iid % allignment != 0) {
+                    throw new IllegalInstanceIDException("ID is not alligned: " + iid);
                 }
-                catch(MalformedInstanceIdException e) {
+                if ((iid >>> allignmentBits) < floor) {
                     pointer[0] = ptr;
-                    throw e;
+                    throw new MalformedInstanceIdException("ID is below threshold (" + (floor << allignmentBits) + "): " + iid);
                 }
-                long rel = iid - id;
+                long rel = (iid >>> allignmentBits) - pageBase;
                 if (rel >= pageSize) {
                     // pointer to first object on next page
                     pointer[0] = ptr;
@@ -302,7 +448,7 @@ class HeapOffsetMap {
                 if (shift > Integer.MAX_VALUE) {
                     throw new RuntimeException("Address gap limit exceeded: " + shift);
                 }
-                cachePage[(int) rel] = (int) shift;
+                shiftMap[(int) rel] = (int) shift;
             }
         }
     }
@@ -333,6 +479,19 @@ class HeapOffsetMap {
         return (origId >>> allignmentBits) - cidOffset;
     }
 
+    private static class CachedPage {
+
+        final long pageBase;
+        final long offset;
+        final int[] shiftMap;
+
+        CachedPage(long pageBase, long offset, int[] shiftMap) {
+            this.pageBase = pageBase;
+            this.offset = offset;
+            this.shiftMap = shiftMap;
+        }
+    }
+
     public static class MalformedInstanceIdException extends IllegalArgumentException {
 
         private static final long serialVersionUID = 20140907L;
@@ -21,6 +21,8 @@ package org.netbeans.lib.profiler.heap;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.Date;
 import java.util.ResourceBundle;
 
@@ -41,6 +43,15 @@ public abstract class HprofByteBuffer {
     static final int JAVA_PROFILE_1_0_3 = 3;
     static final int MINIMAL_SIZE = 30;
     static final boolean DEBUG = false;
+    static final int BULK_CHUNK = 4 << 10;
+
+    // scratch chunk for bulk reads, large enough for BULK_CHUNK longs
+    private static final ThreadLocal<byte[]> BULK_SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8 * BULK_CHUNK];
+        }
+    };
 
     //~ Instance fields ----------------------------------------------------------------------------------------------------------
 
@@ -121,9 +132,84 @@ public abstract class HprofByteBuffer {
         return length;
     }
 
+    /**
+     * @return <code>true</code> if buffer may be read by several threads concurrently
+     */
+    boolean isConcurrentReadSafe() {
+        return false;
+    }
+
+    /**
+     * Releases file handles held by buffer, mapped regions are released by GC.
+     */
+    void close() throws IOException {
+        // nothing to release by default
+    }
+
     abstract byte get(long index);
 
-    abstract void get(long position, byte[] chars);
+    void get(long position, byte[] chars) {
+        get(position, chars, 0, chars.length);
+    }
+
+    /**
+     * Bulk read of <code>len</code> bytes. Implementations should copy
+     * data once per page instead of going through {@link #get(long)}.
+     */
+    abstract void get(long position, byte[] buffer, int off, int len);
+
+    /**
+     * Bulk read of big endian chars.
+     * Implementations should override bulk reads to avoid intermediate copy.
+     */
+    void getChars(long position, char[] buffer, int off, int len) {
+        byte[] chunk = BULK_SCRATCH.get();
+        while(len > 0) {
+            int n = Math.min(len, BULK_CHUNK);
+            get(position, chunk, 0, 2 * n);
+            ByteBuffer.wrap(chunk, 0, 2 * n).asCharBuffer().get(buffer, off, n);
+            position += 2 * n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Bulk read of big endian longs.
+     */
+    void getLongs(long position, long[] buffer, int off, int len) {
+        byte[] chunk = BULK_SCRATCH.get();
+        while(len > 0) {
+            int n = Math.min(len, BULK_CHUNK);
+            get(position, chunk, 0, 8 * n);
+            ByteBuffer.wrap(chunk, 0, 8 * n).asLongBuffer().get(buffer, off, n);
+            position += 8 * n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Bulk read of object IDs, 4 byte IDs are zero extended.
+     */
+    void getIDs(long position, long[] buffer, int off, int len) {
+        if (idSize == 8) {
+            getLongs(position, buffer, off, len);
+            return;
+        }
+        byte[] chunk = BULK_SCRATCH.get();
+        while(len > 0) {
+            int n = Math.min(len, BULK_CHUNK);
+            get(position, chunk, 0, 4 * n);
+            IntBuffer ib = ByteBuffer.wrap(chunk, 0, 4 * n).asIntBuffer();
+            for(int i = 0; i != n; ++i) {
+                buffer[off + i] = ((long) ib.get(i)) & 0xFFFFFFFFL;
+            }
+            position += 4 * n;
+            off += n;
+            len -= n;
+        }
+    }
 
     void readHeader() throws IOException {
         long[] offset = new long[1];
@@ -106,15 +106,15 @@ class HprofFileBuffer extends HprofByteBuffer {
         return dumpBuffer[i];
     }
 
-    synchronized void get(long position, byte[] chars) {
+    synchronized void get(long position, byte[] buffer, int off, int len) {
         int i = loadBufferIfNeeded(position);
 
-        if ((i + chars.length) < dumpBuffer.length) {
-            System.arraycopy(dumpBuffer, i, chars, 0, chars.length);
+        if ((i + len) < dumpBuffer.length) {
+            System.arraycopy(dumpBuffer, i, buffer, off, len);
         } else {
             try {
                 fis.seek(position);
-                fis.readFully(chars);
+                fis.readFully(buffer, off, len);
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
@@ -162,6 +162,11 @@ class HprofFileBuffer extends HprofByteBuffer {
         return (int) (index - bufferStartOffset);
     }
     
+    @Override
+    void close() throws IOException {
+        fis.close();
+    }
+
     public String toString() {
         return "Single buffer, random access strategy";
     }
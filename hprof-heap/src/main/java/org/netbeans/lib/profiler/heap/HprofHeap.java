@@ -122,6 +122,11 @@ class HprofHeap implements Heap {
     private final Object retainedSizeLock = new Object();
     private boolean retainedSizeByClassComputed;
     private final Object retainedSizeByClassLock = new Object();
+    private boolean dominatorIndexEnabled;
+    private volatile DominatorIndex dominatorIndex;
+    private boolean nearestGCRootIndexEnabled;
+    private volatile NearestGCRootIndex nearestGCRootIndex;
+    private final Object graphIndexLock = new Object();
     private int idMapSize;
     private int segment;
     private boolean writeable = false;
@@ -176,6 +181,14 @@ class HprofHeap implements Heap {
 
     //~ Methods ------------------------------------------------------------------------------------------------------------------
 
+    /**
+     * Closes dump file (and background threads of compressed dump reader).
+     * Heap should not be used afterwards.
+     */
+    public void close() throws IOException {
+        dumpBuffer.close();
+    }
+
     @Override
 	public List<JavaClass> getAllClasses() {
         ClassDumpSegment classDumpBounds;
@@ -207,6 +220,10 @@ class HprofHeap implements Heap {
 
     @Override
 	public List<Instance> getBiggestObjectsByRetainedSize(int number) {
+        DominatorIndex index = getDominatorIndex(false);
+        if (index != null) {
+            return index.getBiggestObjectsByRetainedSize(number);
+        }
         long[] ids;
         List<Instance> bigObjects = new ArrayList<Instance>(number);
 
@@ -269,6 +286,20 @@ class HprofHeap implements Heap {
         return getClassDumpSegment().getJavaClassesByRegExp(regexp);
     }
 
+    /**
+     * @return per class instance lists if available, <code>null</code> otherwise
+     */
+    ClassInstanceIndex getInstanceIndex() {
+        return null;
+    }
+
+    ClassNameIndex getClassNameIndex() {
+        if (heapDumpSegment == null) {
+            return null;
+        }
+        return getClassDumpSegment().getNameIndex();
+    }
+
     private class InstancesIterator implements Iterator<Instance> {
         private long[] offset;
         private Instance nextInstance;
@@ -347,11 +378,17 @@ class HprofHeap implements Heap {
 
     @Override
 	public boolean isRetainedSizeComputed() {
+        if (dominatorIndexEnabled) {
+            return dominatorIndex != null;
+        }
         return retainedSizeComputed;
     }
 
     @Override
 	public boolean isRetainedSizeByClassComputed() {
+        if (dominatorIndexEnabled) {
+            return dominatorIndex != null;
+        }
         return retainedSizeByClassComputed;
     }
 
@@ -454,6 +491,10 @@ class HprofHeap implements Heap {
     }
 
     long getRetainedSize(Instance instance) {
+        DominatorIndex index = getDominatorIndex(false);
+        if (index != null) {
+            return index.getRetainedSizeById(instance.getInstanceId());
+        }
         computeRetainedSize();
         return idToOffsetMap.get(instance.getInstanceId()).getRetainedSize();
     }
@@ -871,10 +912,101 @@ class HprofHeap implements Heap {
         }
     }
 
+    void enableDominatorIndex() {
+        dominatorIndexEnabled = true;
+    }
+
+    /**
+     * @param force compute index even if it is not enabled as retained size engine
+     * @return dominator index or <code>null</code> if it is not enabled
+     */
+    DominatorIndex getDominatorIndex(boolean force) {
+        if (!force && !dominatorIndexEnabled) {
+            return null;
+        }
+        DominatorIndex index = dominatorIndex;
+        if (index == null) {
+            computeGraphIndexes(true, false);
+            index = dominatorIndex;
+        }
+        return index;
+    }
+
+    void setDominatorIndex(DominatorIndex index) {
+        synchronized (graphIndexLock) {
+            dominatorIndex = index;
+        }
+        dominatorIndexEnabled = true;
+    }
+
+    void enableNearestGCRootIndex() {
+        nearestGCRootIndexEnabled = true;
+    }
+
+    /**
+     * @param force compute index even if it is not enabled as nearest GC root engine
+     * @return nearest GC root index or <code>null</code> if it is not enabled
+     */
+    NearestGCRootIndex getNearestGCRootIndex(boolean force) {
+        if (!force && !nearestGCRootIndexEnabled) {
+            return null;
+        }
+        NearestGCRootIndex index = nearestGCRootIndex;
+        if (index == null) {
+            computeGraphIndexes(false, true);
+            index = nearestGCRootIndex;
+        }
+        return index;
+    }
+
+    void setNearestGCRootIndex(NearestGCRootIndex index) {
+        synchronized (graphIndexLock) {
+            nearestGCRootIndex = index;
+        }
+        nearestGCRootIndexEnabled = true;
+    }
+
+    /**
+     * Computes requested and enabled indexes, which are not yet available,
+     * from single graph of strong references. Graph is dropped afterwards,
+     * indexes share its node table.
+     */
+    void computeGraphIndexes(boolean dominators, boolean pointers) {
+        synchronized (graphIndexLock) {
+            dominators = dominatorIndex == null && (dominators || dominatorIndexEnabled);
+            pointers = nearestGCRootIndex == null && (pointers || nearestGCRootIndexEnabled);
+            if (dominators || pointers) {
+                int parallelism = Runtime.getRuntime().availableProcessors();
+                HeapGraph graph = new HeapGraph(this, parallelism, true);
+                HeapNodeTable nodes = graph.getNodeTable();
+                int[] roots = graph.getRootOrdinals(getGCRoots());
+                if (pointers) {
+                    nearestGCRootIndex = new NearestGCRootIndex(graph, roots, parallelism, NearestGCRootIndex.AUTO, nodes);
+                }
+                if (dominators) {
+                    dominatorIndex = new DominatorIndex(graph, roots, nodes);
+                }
+            }
+        }
+    }
+
     Instance getNearestGCRootPointer(Instance instance) {
+        NearestGCRootIndex index = getNearestGCRootIndex(false);
+        if (index != null) {
+            return getNearestGCRootPointer(index, instance);
+        }
         return nearestGCRoot.getNearestGCRootPointer(instance);
     }
 
+    Instance getNearestGCRootPointer(NearestGCRootIndex index, Instance instance) {
+        if (getGCRoot(instance) != null) {
+            return instance;
+        }
+        int ordinal = index.getNodes().ordinalOf(instance.getInstanceId());
+        int pointer = ordinal < 0 ? NearestGCRootIndex.UNREACHABLE : index.getNearestGCRootPointer(ordinal);
+        return pointer < 0 ? null : index.getNodes().getInstance(pointer);
+    }
+
     int readDumpTag(long[] offset) {
         long position = offset[0];
         int dumpTag = dumpBuffer.get(position++) & 0xFF;
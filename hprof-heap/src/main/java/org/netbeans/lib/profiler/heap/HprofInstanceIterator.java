@@ -26,15 +26,23 @@ import java.util.NoSuchElementException;
 class HprofInstanceIterator implements Iterator<Instance> {
 
     private final HprofHeap heap;
-    private final TagBounds allInstanceDumpBounds;
+    private final long endOffset;
     private final long[] pointer;
     private final HprofByteBuffer dumpBuffer;
     private Instance nextInstance;
 
 
     public HprofInstanceIterator(HprofHeap heap, long start) {
+        this(heap, start, heap.getAllInstanceDumpBounds().endOffset);
+    }
+
+    /**
+     * Iterates instances within [start, end) range of dump.
+     * Both bounds should be aligned with heap dump records.
+     */
+    public HprofInstanceIterator(HprofHeap heap, long start, long end) {
         this.heap = heap;
-        allInstanceDumpBounds = heap.getAllInstanceDumpBounds();
+        endOffset = end;
         pointer = new long[]{start};
         dumpBuffer = heap.dumpBuffer;
         nextInstance = seek();
@@ -58,7 +66,7 @@ class HprofInstanceIterator implements Iterator<Instance> {
     }
 
     Instance seek() {
-        while(pointer[0] < allInstanceDumpBounds.endOffset) {
+        while(pointer[0] < endOffset) {
 
             long start = pointer[0];
             int classIdOffset = 0;
@@ -22,6 +22,7 @@ package org.netbeans.lib.profiler.heap;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
@@ -69,18 +70,27 @@ class HprofLongMappedByteBuffer extends HprofByteBuffer implements PatchableHpro
 
     @Override
     public void writePatch(long index, byte[] dataPatch) {
-    	for(int i = 0; i != dataPatch.length; ++i) {
-    		long addr = index + i;
-    		dumpBuffer[getBufferIndex(addr)].put(getBufferOffset(addr), dataPatch[i]);
+    	int off = 0;
+    	while(off < dataPatch.length) {
+    		long addr = index + off;
+    		ByteBuffer bb = dumpBuffer[getBufferIndex(addr)].duplicate();
+    		int bufferOffset = getBufferOffset(addr);
+    		int n = (int) Math.min(dataPatch.length - off, BUFFER_SIZE - bufferOffset);
+    		bb.position(bufferOffset);
+    		bb.put(dataPatch, off, n);
+    		off += n;
     	}
     }
 
     @Override
     public void readPatch(long index, byte[] dataPatch) {
-    	for(int i = 0; i != dataPatch.length; ++i) {
-    		long addr = index + i;
-    		dataPatch[i] = dumpBuffer[getBufferIndex(addr)].get(getBufferOffset(addr));
-    	}
+    	get(index, dataPatch, 0, dataPatch.length);
+    }
+
+    @Override
+    boolean isConcurrentReadSafe() {
+        // absolute reads from mapped buffer do not touch shared state
+        return true;
     }
 
     @Override
@@ -120,10 +130,18 @@ class HprofLongMappedByteBuffer extends HprofByteBuffer implements PatchableHpro
     }
 
     @Override
-	synchronized void get(long position, byte[] chars) {
-        MappedByteBuffer buffer = dumpBuffer[getBufferIndex(position)];
-        buffer.position(getBufferOffset(position));
-        buffer.get(chars);
+	void get(long position, byte[] buffer, int off, int len) {
+        while(len > 0) {
+            // duplicate keeps position private to the caller
+            ByteBuffer bb = dumpBuffer[getBufferIndex(position)].duplicate();
+            int bufferOffset = getBufferOffset(position);
+            int n = (int) Math.min(len, BUFFER_SIZE - bufferOffset);
+            bb.position(bufferOffset);
+            bb.get(buffer, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
     }
 
     private int getBufferIndex(long index) {
@@ -22,6 +22,7 @@ package org.netbeans.lib.profiler.heap;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
@@ -55,16 +56,20 @@ class HprofMappedByteBuffer extends HprofByteBuffer implements PatchableHprofByt
 
     @Override
     public void writePatch(long index, byte[] dataPatch) {
-    	for(int i = 0; i != dataPatch.length; ++i) {
-    		dumpBuffer.put((int)index + i, dataPatch[i]);
-    	}
+    	ByteBuffer bb = dumpBuffer.duplicate();
+    	bb.position((int)index);
+    	bb.put(dataPatch);
     }
 
     @Override
     public void readPatch(long index, byte[] dataPatch) {
-    	for(int i = 0; i != dataPatch.length; ++i) {
-    		dataPatch[i] = dumpBuffer.get((int)index + i);
-    	}
+    	get(index, dataPatch, 0, dataPatch.length);
+    }
+
+    @Override
+    boolean isConcurrentReadSafe() {
+        // absolute reads from mapped buffer do not touch shared state
+        return true;
     }
 
     @Override
@@ -104,9 +109,39 @@ class HprofMappedByteBuffer extends HprofByteBuffer implements PatchableHprofByt
     }
 
     @Override
-	synchronized void get(long position, byte[] chars) {
-        dumpBuffer.position((int) position);
-        dumpBuffer.get(chars);
+	void get(long position, byte[] buffer, int off, int len) {
+        // duplicate keeps position private to the caller
+        ByteBuffer bb = dumpBuffer.duplicate();
+        bb.position((int) position);
+        bb.get(buffer, off, len);
+    }
+
+    @Override
+    void getChars(long position, char[] buffer, int off, int len) {
+        int index = (int) position;
+        for(int i = 0; i != len; ++i) {
+            buffer[off + i] = dumpBuffer.getChar(index + 2 * i);
+        }
+    }
+
+    @Override
+    void getLongs(long position, long[] buffer, int off, int len) {
+        int index = (int) position;
+        for(int i = 0; i != len; ++i) {
+            buffer[off + i] = dumpBuffer.getLong(index + 8 * i);
+        }
+    }
+
+    @Override
+    void getIDs(long position, long[] buffer, int off, int len) {
+        if (getIDSize() == 8) {
+            getLongs(position, buffer, off, len);
+            return;
+        }
+        int index = (int) position;
+        for(int i = 0; i != len; ++i) {
+            buffer[off + i] = dumpBuffer.getInt(index + 4 * i) & 0xFFFFFFFFL;
+        }
     }
 
     @Override
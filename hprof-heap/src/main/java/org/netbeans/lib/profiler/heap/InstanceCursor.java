@@ -0,0 +1,267 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.util.List;
+
+/**
+ * Flyweight cursor over instance dump records.
+ * <br/>
+ * Unlike {@link Heap#getAllInstances()}, cursor does not create
+ * {@link Instance} or {@link FieldValue} objects, values are read
+ * from dump record cursor is positioned at. Cursor visits same records
+ * as {@link Heap#getAllInstances()}, in same order.
+ * <br/>
+ * Instance fields are addressed by index in {@link FieldLayout} of class
+ * (see {@link #getFieldIndex(JavaClass, String)}), so field lookup
+ * could be done once per class instead of once per instance.
+ * <br/>
+ * Cursor is not thread safe.
+ */
+public class InstanceCursor {
+
+    private final HprofHeap heap;
+    private final HprofByteBuffer dumpBuffer;
+    private final ClassDumpSegment classSegment;
+    private final List<JavaClass> classes;
+    private final ClassInstanceIndex.ClassTable classTable;
+    private final int idSize;
+    private final long endOffset;
+    private final long[] pointer;
+
+    // lazily resolved per class index
+    private final FieldLayout[] layouts;
+
+    private long offset = -1;
+    private int tag;
+    private int classIndex = -1;
+
+    public InstanceCursor(Heap heap) {
+        this(hprof(heap), hprof(heap).getAllInstanceDumpBounds().startOffset, hprof(heap).getAllInstanceDumpBounds().endOffset);
+    }
+
+    InstanceCursor(HprofHeap heap, long startOffset, long endOffset) {
+        this.heap = heap;
+        this.dumpBuffer = heap.dumpBuffer;
+        this.classSegment = heap.getClassDumpSegment();
+        this.classes = classSegment.createClassCollection();
+        this.classTable = new ClassInstanceIndex.ClassTable(classes);
+        this.idSize = dumpBuffer.getIDSize();
+        this.endOffset = endOffset;
+        this.pointer = new long[] { startOffset };
+        this.layouts = new FieldLayout[classes.size()];
+    }
+
+    private static HprofHeap hprof(Heap heap) {
+        if (!(heap instanceof HprofHeap)) {
+            throw new IllegalArgumentException("Unsupported heap implementation: " + heap.getClass().getName());
+        }
+        return (HprofHeap) heap;
+    }
+
+    /**
+     * Index of instance field in layout of class. Index is valid
+     * for all instances of this class, but not for its subclasses.
+     * <br/>
+     * If field name is shadowed, superclass field is chosen, same
+     * as {@link Instance#getValueOfField(String)}.
+     *
+     * @return field index or -1 if class has no such field
+     */
+    public static int getFieldIndex(JavaClass cls, String name) {
+        return ((ClassDump) cls).getFieldLayout().indexOf(name);
+    }
+
+    /**
+     * Moves cursor to next instance record.
+     *
+     * @return <code>false</code> if there are no more instances
+     */
+    public boolean next() {
+        while(pointer[0] < endOffset) {
+            long start = pointer[0];
+            int t = heap.readDumpTag(pointer);
+            long classId;
+            if (t == HprofHeap.INSTANCE_DUMP) {
+                classId = dumpBuffer.getID(start + 1 + idSize + 4);
+            } else if (t == HprofHeap.OBJECT_ARRAY_DUMP) {
+                classId = dumpBuffer.getID(start + 1 + idSize + 4 + 4);
+            } else if (t == HprofHeap.PRIMITIVE_ARRAY_DUMP) {
+                byte type = dumpBuffer.get(start + 1 + idSize + 4 + 4);
+                classId = classSegment.getPrimitiveArrayClass(type).getJavaClassId();
+            } else {
+                continue;
+            }
+            int ci = classTable.indexOf(classId);
+            if (ci < 0) {
+                // broken instance, skipped by instance iterator too
+                continue;
+            }
+            offset = start;
+            tag = t;
+            classIndex = ci;
+            return true;
+        }
+        offset = -1;
+        classIndex = -1;
+        return false;
+    }
+
+    /**
+     * @return offset of current record in dump file
+     */
+    public long getOffset() {
+        checkPosition();
+        return offset;
+    }
+
+    public boolean isObjectArray() {
+        checkPosition();
+        return tag == HprofHeap.OBJECT_ARRAY_DUMP;
+    }
+
+    public boolean isPrimitiveArray() {
+        checkPosition();
+        return tag == HprofHeap.PRIMITIVE_ARRAY_DUMP;
+    }
+
+    public long getInstanceId() {
+        checkPosition();
+        return dumpBuffer.getID(offset + 1);
+    }
+
+    public long getJavaClassId() {
+        return getJavaClass().getJavaClassId();
+    }
+
+    public JavaClass getJavaClass() {
+        checkPosition();
+        return classes.get(classIndex);
+    }
+
+    /**
+     * @return same value as {@link Instance#getSize()}
+     */
+    public long getSize() {
+        checkPosition();
+        if (tag == HprofHeap.INSTANCE_DUMP) {
+            return classes.get(classIndex).getInstanceSize();
+        }
+        long elementSize;
+        if (tag == HprofHeap.OBJECT_ARRAY_DUMP) {
+            elementSize = idSize;
+        } else {
+            elementSize = heap.getValueSize(dumpBuffer.get(offset + 1 + idSize + 4 + 4));
+        }
+        return classSegment.getMinimumInstanceSize() + ArrayDump.HPROF_ARRAY_OVERHEAD + (elementSize * getArrayLength());
+    }
+
+    /**
+     * Materializes current record as {@link Instance}.
+     */
+    public Instance toInstance() {
+        checkPosition();
+        ClassDump cls = (ClassDump) classes.get(classIndex);
+        return heap.getInstanceByOffset(new long[] { offset }, cls, cls.getJavaClassId());
+    }
+
+    public int getArrayLength() {
+        checkArray();
+        return dumpBuffer.getInt(offset + 1 + idSize + 4);
+    }
+
+    /**
+     * @return ID of object array element, 0 for <code>null</code>
+     */
+    public long getElementId(int index) {
+        if (tag != HprofHeap.OBJECT_ARRAY_DUMP) {
+            checkPosition();
+            throw new IllegalStateException("Not an object array");
+        }
+        if (index < 0 || index >= getArrayLength()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", length: " + getArrayLength());
+        }
+        return dumpBuffer.getID(offset + 1 + idSize + 4 + 4 + idSize + (long) index * idSize);
+    }
+
+    /**
+     * @return ID of referenced object, 0 for <code>null</code>
+     */
+    public long getObjectField(int field) {
+        return dumpBuffer.getID(fieldOffset(field, HprofHeap.OBJECT));
+    }
+
+    public boolean getBooleanField(int field) {
+        return dumpBuffer.get(fieldOffset(field, HprofHeap.BOOLEAN)) != 0;
+    }
+
+    public byte getByteField(int field) {
+        return dumpBuffer.get(fieldOffset(field, HprofHeap.BYTE));
+    }
+
+    public char getCharField(int field) {
+        return dumpBuffer.getChar(fieldOffset(field, HprofHeap.CHAR));
+    }
+
+    public short getShortField(int field) {
+        return dumpBuffer.getShort(fieldOffset(field, HprofHeap.SHORT));
+    }
+
+    public int getIntField(int field) {
+        return dumpBuffer.getInt(fieldOffset(field, HprofHeap.INT));
+    }
+
+    public long getLongField(int field) {
+        return dumpBuffer.getLong(fieldOffset(field, HprofHeap.LONG));
+    }
+
+    public float getFloatField(int field) {
+        return dumpBuffer.getFloat(fieldOffset(field, HprofHeap.FLOAT));
+    }
+
+    public double getDoubleField(int field) {
+        return dumpBuffer.getDouble(fieldOffset(field, HprofHeap.DOUBLE));
+    }
+
+    private long fieldOffset(int field, int type) {
+        if (tag != HprofHeap.INSTANCE_DUMP) {
+            checkPosition();
+            throw new IllegalStateException("Not an instance");
+        }
+        FieldLayout layout = layouts[classIndex];
+        if (layout == null) {
+            layout = layouts[classIndex] = ((ClassDump) classes.get(classIndex)).getFieldLayout();
+        }
+        if (field < 0 || field >= layout.getFieldCount()) {
+            throw new IndexOutOfBoundsException("No field #" + field + " in " + classes.get(classIndex).getName());
+        }
+        layout.checkType(field, type);
+        return offset + layout.getOffset(field);
+    }
+
+    private void checkArray() {
+        checkPosition();
+        if (tag == HprofHeap.INSTANCE_DUMP) {
+            throw new IllegalStateException("Not an array");
+        }
+    }
+
+    private void checkPosition() {
+        if (offset < 0) {
+            throw new IllegalStateException("Cursor is not positioned at instance");
+        }
+    }
+}
@@ -104,26 +104,14 @@ class InstanceDump extends HprofObject implements Instance {
     }
 
     public Object getValueOfField(String name) {
-        Iterator<FieldValue> fIt = getFieldValues().iterator();
-        FieldValue matchingFieldValue = null;
+        FieldLayout layout = dumpClass.getFieldLayout();
+        int index = layout.indexOf(name);
 
-        while (fIt.hasNext()) {
-            FieldValue fieldValue = (FieldValue) fIt.next();
-
-            if (fieldValue.getField().getName().equals(name)) {
-                matchingFieldValue = fieldValue;
-            }
-        }
-
-        if (matchingFieldValue == null) {
+        if (index < 0) {
             return null;
         }
 
-        if (matchingFieldValue instanceof HprofInstanceObjectValue) {
-            return ((HprofInstanceObjectValue) matchingFieldValue).getInstance();
-        } else {
-            return ((HprofInstanceValue) matchingFieldValue).getTypeValue();
-        }
+        return layout.getValue(this, index);
     }
 
     private int getInstanceFieldValuesOffset() {
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Indexed class and instance lookups, used to narrow down
+ * name pattern matching and scans of instances of few classes.
+ * <br/>
+ * If heap has no suitable index, it is scanned linearly.
+ */
+public class JavaClasses {
+
+    /**
+     * @return classes which name starts with given prefix, in {@link Heap#getAllClasses()} order
+     */
+    public static Collection<JavaClass> getClassesByPrefix(Heap heap, String prefix) {
+        ClassNameIndex index = nameIndex(heap);
+        if (index != null) {
+            return index.getClassesByPrefix(prefix);
+        }
+        List<JavaClass> result = new ArrayList<JavaClass>();
+        for(JavaClass jc: heap.getAllClasses()) {
+            if (jc.getName().startsWith(prefix)) {
+                result.add(jc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return classes with given name after package (e.g. <code>String</code> or <code>Map$Entry[]</code>),
+     *         in {@link Heap#getAllClasses()} order
+     */
+    public static Collection<JavaClass> getClassesBySimpleName(Heap heap, String simpleName) {
+        ClassNameIndex index = nameIndex(heap);
+        if (index != null) {
+            return index.getClassesBySimpleName(simpleName);
+        }
+        List<JavaClass> result = new ArrayList<JavaClass>();
+        for(JavaClass jc: heap.getAllClasses()) {
+            String name = jc.getName();
+            if (name.endsWith(simpleName) && (name.length() == simpleName.length() || name.charAt(name.length() - simpleName.length() - 1) == '.')) {
+                result.add(jc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return instances of given classes, class by class if heap has per class instance lists
+     *         (see {@link FastHprofHeap#enableInstanceIndex()}), in dump order otherwise
+     */
+    public static Iterator<Instance> getInstancesIterator(Heap heap, Collection<JavaClass> classes) {
+        if (heap instanceof HprofHeap && ((HprofHeap) heap).getInstanceIndex() != null) {
+            final Iterator<JavaClass> classIt = new ArrayList<JavaClass>(classes).iterator();
+            return new Iterator<Instance>() {
+
+                Iterator<Instance> it = Collections.<Instance>emptyList().iterator();
+
+                @Override
+                public boolean hasNext() {
+                    while(!it.hasNext() && classIt.hasNext()) {
+                        it = classIt.next().getInstancesIterator();
+                    }
+                    return it.hasNext();
+                }
+
+                @Override
+                public Instance next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return it.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+        else {
+            final Set<JavaClass> filter = new HashSet<JavaClass>(classes);
+            final Iterator<Instance> all = heap.getAllInstancesIterator();
+            return new Iterator<Instance>() {
+
+                Instance next;
+
+                @Override
+                public boolean hasNext() {
+                    while(next == null && all.hasNext()) {
+                        Instance i = all.next();
+                        if (filter.contains(i.getJavaClass())) {
+                            next = i;
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public Instance next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Instance i = next;
+                    next = null;
+                    return i;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    private static ClassNameIndex nameIndex(Heap heap) {
+        if (heap instanceof HprofHeap) {
+            return ((HprofHeap) heap).getClassNameIndex();
+        }
+        else {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only table of longs addressed by int index, e.g. by node ordinal.
+ * <br/>
+ * Table is either backed by array or by region of file mapped to memory.
+ * Mapped region is split into fixed size segments, so table is not limited
+ * by 2 GiB of single mapped buffer. Values in file are big endian.
+ */
+abstract class LongTable {
+
+    // 2^24 values per mapped segment
+    static final int SEGMENT_BITS = 24;
+
+    static LongTable wrap(final long[] array) {
+        return new LongTable() {
+
+            @Override
+            public int size() {
+                return array.length;
+            }
+
+            @Override
+            public long get(int n) {
+                return array[n];
+            }
+        };
+    }
+
+    static LongTable map(FileChannel channel, long position, int size) throws IOException {
+        return map(channel, position, size, SEGMENT_BITS);
+    }
+
+    static LongTable map(FileChannel channel, long position, int size, int segmentBits) throws IOException {
+        long segmentSize = 1l << segmentBits;
+        LongBuffer[] segments = new LongBuffer[(int) ((size + segmentSize - 1) >> segmentBits)];
+        for(int i = 0; i != segments.length; ++i) {
+            long from = i * segmentSize;
+            long len = Math.min(segmentSize, size - from);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + 8 * from, 8 * len).asLongBuffer();
+        }
+        return new Mapped(segments, size, segmentBits);
+    }
+
+    public abstract int size();
+
+    public abstract long get(int n);
+
+    private static class Mapped extends LongTable {
+
+        private final LongBuffer[] segments;
+        private final int size;
+        private final int segmentBits;
+        private final int segmentMask;
+
+        Mapped(LongBuffer[] segments, int size, int segmentBits) {
+            this.segments = segments;
+            this.size = size;
+            this.segmentBits = segmentBits;
+            this.segmentMask = ~(-1 << segmentBits);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long get(int n) {
+            return segments[n >>> segmentBits].get(n & segmentMask);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Nearest GC root pointers for all nodes of {@link HeapGraph}.
+ * <br/>
+ * Pointers are computed by parallel level synchronous breadth first search
+ * from GC roots. Each level is expanded either top down (edges of frontier
+ * nodes are followed) or bottom up (unvisited nodes look for a parent in
+ * frontier via inbound edges). Bottom up step is chosen when frontier
+ * has more edges than a fraction of unvisited part of graph, which is
+ * typical for a few middle levels of a heap graph.
+ * <br/>
+ * Result does not depend on thread scheduling or direction of traversal:
+ * if several nodes of previous level refer to a node, node with smallest
+ * ordinal is chosen as its pointer.
+ * <br/>
+ * Graph should be built with weak referents excluded, same as
+ * {@link Instance#getNearestGCRootPointer()} ignores them.
+ * <br/>
+ * Index keeps node table of graph, but not its edges.
+ * Index could be saved and loaded without graph using {@link DominatorIndexFile}.
+ */
+public class NearestGCRootIndex {
+
+    /** Pointer of GC root nodes */
+    public static final int ROOT = -1;
+
+    /** Pointer of nodes unreachable from GC roots */
+    public static final int UNREACHABLE = -2;
+
+    static final int AUTO = 0;
+    static final int TOP_DOWN = 1;
+    static final int BOTTOM_UP = 2;
+
+    // switch to bottom up if frontier edges > unexplored edges / ALPHA
+    private static final int ALPHA = 14;
+    // switch back to top down if frontier nodes < node count / BETA
+    private static final int BETA = 24;
+
+    private static final int FRONTIER_CHUNK = 4096;
+
+    private final HeapNodes nodes;
+    // only during computation, edges are not retained
+    private HeapGraph graph;
+    private final int parallelism;
+    private final int mode;
+
+    // by ordinal
+    private IntTable pointers;
+
+    private int reachableCount;
+    private int levelCount;
+    private int bottomUpLevels;
+
+    // encoded parents: 0 - not visited, 1 - root, ordinal + 2 otherwise
+    private AtomicIntegerArray parents;
+    private AtomicLongArray visited;
+    private AtomicLongArray frontierBits;
+    private AtomicLongArray nextBits;
+
+    public NearestGCRootIndex(Heap heap) {
+        this(new HeapGraph(heap, Runtime.getRuntime().availableProcessors(), true), heap.getGCRoots());
+    }
+
+    public NearestGCRootIndex(HeapGraph graph, Iterable<GCRoot> roots) {
+        this(graph, graph.getRootOrdinals(roots), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param roots ordinals of GC roots, duplicates are allowed
+     */
+    public NearestGCRootIndex(HeapGraph graph, int[] roots, int parallelism) {
+        this(graph, roots, parallelism, AUTO);
+    }
+
+    NearestGCRootIndex(HeapGraph graph, int[] roots, int parallelism, int mode) {
+        this(graph, roots, parallelism, mode, graph.getNodeTable());
+    }
+
+    /**
+     * @param nodes node table of graph, could be shared with other indexes
+     */
+    NearestGCRootIndex(HeapGraph graph, int[] roots, int parallelism, int mode, HeapNodes nodes) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism should be positive: " + parallelism);
+        }
+        this.nodes = nodes;
+        this.graph = graph;
+        this.parallelism = parallelism;
+        this.mode = mode;
+        compute(roots);
+        this.graph = null;
+    }
+
+    NearestGCRootIndex(HeapNodes nodes, IntTable pointers, int reachableCount, int levelCount) {
+        this.nodes = nodes;
+        this.parallelism = 1;
+        this.mode = AUTO;
+        this.pointers = pointers;
+        this.reachableCount = reachableCount;
+        this.levelCount = levelCount;
+    }
+
+    /**
+     * Enables index as source of {@link Instance#getNearestGCRootPointer()} for heap.
+     * Index is computed on first request. Works for both regular and fast heap.
+     */
+    public static void enable(Heap heap) {
+        hprof(heap).enableNearestGCRootIndex();
+    }
+
+    /**
+     * @return nearest GC root index of heap, it is computed if not yet available
+     */
+    public static NearestGCRootIndex of(Heap heap) {
+        return hprof(heap).getNearestGCRootIndex(true);
+    }
+
+    private static HprofHeap hprof(Heap heap) {
+        if (!(heap instanceof HprofHeap)) {
+            throw new IllegalArgumentException("Unsupported heap implementation: " + heap.getClass().getName());
+        }
+        return (HprofHeap) heap;
+    }
+
+    public HeapNodes getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return ordinal of next node on shortest path to GC root,
+     *         {@link #ROOT} for GC roots or {@link #UNREACHABLE}
+     */
+    public int getNearestGCRootPointer(int ordinal) {
+        return pointers.get(ordinal);
+    }
+
+    public boolean isReachable(int ordinal) {
+        return pointers.get(ordinal) != UNREACHABLE;
+    }
+
+    /**
+     * @return number of nodes reachable from GC roots
+     */
+    public int getReachableCount() {
+        return reachableCount;
+    }
+
+    /**
+     * @return length of longest shortest path from GC roots, in nodes
+     */
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * @return number of levels expanded bottom up
+     */
+    int getBottomUpLevels() {
+        return bottomUpLevels;
+    }
+
+    private void compute(int[] roots) {
+        int nodeCount = graph.getNodeCount();
+        int words = (nodeCount + 63) >> 6;
+        parents = new AtomicIntegerArray(nodeCount);
+        visited = new AtomicLongArray(words);
+        frontierBits = new AtomicLongArray(words);
+        nextBits = new AtomicLongArray(words);
+
+        int[] frontier = new int[roots.length];
+        int nf = 0;
+        for(int root: roots) {
+            if (setBit(frontierBits, root)) {
+                parents.set(root, 1);
+                frontier[nf++] = root;
+            }
+        }
+        frontier = Arrays.copyOf(frontier, nf);
+
+        long unexplored = graph.getInStart(nodeCount);
+        boolean topDown = mode != BOTTOM_UP;
+        while(frontier.length > 0) {
+            ++levelCount;
+            reachableCount += frontier.length;
+            long frontierEdges = 0;
+            for(int v: frontier) {
+                setBit(visited, v);
+                frontierEdges += graph.getOutDegree(v);
+                unexplored -= graph.getInDegree(v);
+            }
+            if (mode == AUTO) {
+                if (topDown) {
+                    topDown = frontierEdges <= unexplored / ALPHA;
+                }
+                else {
+                    topDown = frontier.length < nodeCount / BETA;
+                }
+            }
+
+            int[] next;
+            if (topDown) {
+                next = topDownStep(frontier);
+            }
+            else {
+                ++bottomUpLevels;
+                next = bottomUpStep();
+            }
+
+            for(int v: frontier) {
+                clearBit(frontierBits, v);
+            }
+            AtomicLongArray bits = frontierBits;
+            frontierBits = nextBits;
+            nextBits = bits;
+            frontier = next;
+        }
+
+        int[] result = new int[nodeCount];
+        for(int i = 0; i != nodeCount; ++i) {
+            int p = parents.get(i);
+            result[i] = p == 0 ? UNREACHABLE : p == 1 ? ROOT : p - 2;
+        }
+        pointers = IntTable.wrap(result);
+        parents = null;
+        visited = null;
+        frontierBits = null;
+        nextBits = null;
+    }
+
+    private int[] topDownStep(final int[] frontier) {
+        int tasks = (frontier.length + FRONTIER_CHUNK - 1) / FRONTIER_CHUNK;
+        final int[][] parts = new int[tasks][];
+        HeapGraph.runParallel(parallelism, tasks, new HeapGraph.Task() {
+            @Override
+            public void run(int n) {
+                int from = n * FRONTIER_CHUNK;
+                int to = Math.min(frontier.length, from + FRONTIER_CHUNK);
+                IntList local = new IntList();
+                for(int i = from; i != to; ++i) {
+                    int u = frontier[i];
+                    int end = graph.getOutStart(u + 1);
+                    for(int e = graph.getOutStart(u); e != end; ++e) {
+                        int v = graph.getOutEdge(e);
+                        if (getBit(visited, v)) {
+                            continue;
+                        }
+                        if (setBit(nextBits, v)) {
+                            local.add(v);
+                        }
+                        minParent(v, u);
+                    }
+                }
+                parts[n] = local.toArray();
+            }
+        });
+        return concat(parts);
+    }
+
+    private int[] bottomUpStep() {
+        final int nodeCount = graph.getNodeCount();
+        final int tasks = nodeCount < FRONTIER_CHUNK ? 1 : 8 * parallelism;
+        final int[][] parts = new int[tasks][];
+        HeapGraph.runParallel(parallelism, tasks, new HeapGraph.Task() {
+            @Override
+            public void run(int n) {
+                // ranges are aligned to bitmap words, so words are not shared
+                long words = (nodeCount + 63) >> 6;
+                int from = (int) Math.min(nodeCount, 64 * (words * n / tasks));
+                int to = (int) Math.min(nodeCount, 64 * (words * (n + 1) / tasks));
+                IntList local = new IntList();
+                for(int v = from; v < to; ++v) {
+                    if (getBit(visited, v)) {
+                        continue;
+                    }
+                    int parent = -1;
+                    int end = graph.getInStart(v + 1);
+                    for(int e = graph.getInStart(v); e != end; ++e) {
+                        int u = graph.getInEdge(e);
+                        if ((parent < 0 || u < parent) && getBit(frontierBits, u)) {
+                            parent = u;
+                        }
+                    }
+                    if (parent >= 0) {
+                        parents.set(v, parent + 2);
+                        setBit(nextBits, v);
+                        local.add(v);
+                    }
+                }
+                parts[n] = local.toArray();
+            }
+        });
+        return concat(parts);
+    }
+
+    private void minParent(int v, int u) {
+        int p = u + 2;
+        while(true) {
+            int c = parents.get(v);
+            if (c != 0 && c <= p) {
+                return;
+            }
+            if (parents.compareAndSet(v, c, p)) {
+                return;
+            }
+        }
+    }
+
+    private static int[] concat(int[][] parts) {
+        int size = 0;
+        for(int[] part: parts) {
+            size += part.length;
+        }
+        int[] result = new int[size];
+        int n = 0;
+        for(int[] part: parts) {
+            System.arraycopy(part, 0, result, n, part.length);
+            n += part.length;
+        }
+        return result;
+    }
+
+    private static boolean getBit(AtomicLongArray bits, int index) {
+        return (bits.get(index >> 6) & (1l << index)) != 0;
+    }
+
+    /**
+     * @return <code>true</code> if bit was not set before
+     */
+    private static boolean setBit(AtomicLongArray bits, int index) {
+        int word = index >> 6;
+        long mask = 1l << index;
+        while(true) {
+            long w = bits.get(word);
+            if ((w & mask) != 0) {
+                return false;
+            }
+            if (bits.compareAndSet(word, w, w | mask)) {
+                return true;
+            }
+        }
+    }
+
+    private static void clearBit(AtomicLongArray bits, int index) {
+        int word = index >> 6;
+        long mask = 1l << index;
+        while(true) {
+            long w = bits.get(word);
+            if (bits.compareAndSet(word, w, w & ~mask)) {
+                return;
+            }
+        }
+    }
+
+    private static class IntList {
+
+        private int[] data = new int[64];
+        private int size;
+
+        public void add(int v) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2 * size);
+            }
+            data[size++] = v;
+        }
+
+        public int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
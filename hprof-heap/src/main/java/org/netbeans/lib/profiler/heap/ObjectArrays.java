@@ -0,0 +1,61 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.util.List;
+
+/**
+ * Bulk access to object array elements.
+ * <br/>
+ * {@link ObjectArrayInstance#getValueIDs()} boxes each element ID,
+ * methods below read IDs from dump into <code>long[]</code> directly.
+ * Large arrays could be processed in chunks using a reusable buffer.
+ */
+public class ObjectArrays {
+
+    /**
+     * Reads IDs of elements <code>[from, from + len)</code> into buffer,
+     * <code>null</code> elements are reported as 0.
+     */
+    public static void getValueIDs(ObjectArrayInstance array, int from, long[] buffer, int off, int len) {
+        if (from < 0 || len < 0 || from + len > array.getLength()) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + (from + len) + ") is out of array bounds, length: " + array.getLength());
+        }
+        if (off < 0 || off + len > buffer.length) {
+            throw new IndexOutOfBoundsException("Buffer is too small");
+        }
+        if (array instanceof ObjectArrayDump) {
+            ObjectArrayDump dump = (ObjectArrayDump) array;
+            HprofByteBuffer dumpBuffer = dump.dumpClass.getHprofBuffer();
+            dumpBuffer.getIDs(dump.getOffset() + (long) from * dumpBuffer.getIDSize(), buffer, off, len);
+        }
+        else {
+            List<Long> ids = array.getValueIDs();
+            for(int i = 0; i != len; ++i) {
+                buffer[off + i] = ids.get(from + i);
+            }
+        }
+    }
+
+    /**
+     * @return IDs of all elements, 0 for <code>null</code> elements
+     */
+    public static long[] getValueIDs(ObjectArrayInstance array) {
+        long[] ids = new long[array.getLength()];
+        getValueIDs(array, 0, ids, 0, ids.length);
+        return ids;
+    }
+}
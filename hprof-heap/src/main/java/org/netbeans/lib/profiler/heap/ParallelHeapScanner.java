@@ -0,0 +1,258 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gridkit.jvmtool.heapdump.CursorCallback;
+import org.gridkit.jvmtool.heapdump.InstanceCallback;
+
+/**
+ * Multi threaded alternative to {@link Heap#getAllInstances()}.
+ * <p>
+ * Instance dump region is split into record aligned chunks
+ * which are processed by a pool of workers. Each worker feeds
+ * its own {@link InstanceCallback}, so callbacks are not required
+ * to be thread safe, but they should not depend on instance order.
+ * Callbacks are returned to caller to be merged.
+ * <p>
+ * Callbacks implementing {@link CursorCallback} are fed
+ * with {@link InstanceCursor}, so no {@link Instance}s are created.
+ * <p>
+ * Scan is parallel only for {@link FastHprofHeap} over dump buffer which could be
+ * read concurrently (mapped dump). Other heaps resolve instances through
+ * shared ID map which is not thread safe, compressed dumps are read
+ * through single page cache. For them scan is done in calling thread
+ * with single callback.
+ * <p>
+ * Workers run in pool provided by caller or in pool shared by parallel
+ * heap processing, no pool is created per scan.
+ */
+public class ParallelHeapScanner {
+
+    public static final long DEFAULT_CHUNK_SIZE = 16 << 20;
+
+    private final HprofHeap heap;
+    private final int parallelism;
+    /** <code>null</code> if shared pool is used */
+    private final ForkJoinPool pool;
+    private long chunkSize = DEFAULT_CHUNK_SIZE;
+    /** Chunk boundaries, cached between scans */
+    private long[] chunks;
+
+    public ParallelHeapScanner(Heap heap) {
+        this(heap, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelHeapScanner(Heap heap, int parallelism) {
+        this(heap, parallelism, null);
+    }
+
+    /**
+     * @param pool pool for workers, its parallelism limits number of workers, it is not shut down by scanner
+     */
+    public ParallelHeapScanner(Heap heap, ForkJoinPool pool) {
+        this(heap, pool.getParallelism(), pool);
+    }
+
+    private ParallelHeapScanner(Heap heap, int parallelism, ForkJoinPool pool) {
+        if (!(heap instanceof HprofHeap)) {
+            throw new IllegalArgumentException("Unsupported heap implementation: " + heap.getClass().getName());
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism should be positive: " + parallelism);
+        }
+        this.heap = (HprofHeap) heap;
+        this.parallelism = parallelism;
+        this.pool = pool;
+    }
+
+    public synchronized void setChunkSize(long chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size should be positive: " + chunkSize);
+        }
+        if (this.chunkSize != chunkSize) {
+            this.chunkSize = chunkSize;
+            chunks = null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if scan would use multiple threads
+     */
+    public boolean isParallel() {
+        return parallelism > 1 && heap instanceof FastHprofHeap && heap.dumpBuffer.isConcurrentReadSafe();
+    }
+
+    /**
+     * Feeds every heap instance to one of callbacks produced by factory.
+     *
+     * @return list of callbacks used by workers
+     */
+    public <T extends InstanceCallback> List<T> scan(CallbackFactory<T> factory) {
+        // make sure java classes are initialized before workers start
+        List<JavaClass> classes = heap.getAllClasses();
+        if (!isParallel() || classes.isEmpty()) {
+            T callback = factory.newCallback();
+            if (callback instanceof CursorCallback) {
+                TagBounds bounds = heap.getAllInstanceDumpBounds();
+                feed((CursorCallback) callback, bounds.startOffset, bounds.endOffset);
+            }
+            else {
+                for(Instance i: heap.getAllInstances()) {
+                    callback.feed(i);
+                }
+            }
+            return Collections.singletonList(callback);
+        }
+
+        // ID index should not be modified while workers are running
+        heap.computeInstances();
+        long[] bounds = getChunks();
+        int workers = Math.min(parallelism, bounds.length - 1);
+        AtomicInteger nextChunk = new AtomicInteger();
+        ForkJoinPool pool = this.pool != null ? this.pool : HeapGraph.getSharedPool(workers);
+        try {
+            List<Future<T>> tasks = new ArrayList<Future<T>>(workers);
+            for(int i = 0; i != workers; ++i) {
+                tasks.add(pool.submit(new ChunkWorker<T>(factory.newCallback(), bounds, nextChunk)));
+            }
+            List<T> result = new ArrayList<T>(workers);
+            for(Future<T> task: tasks) {
+                result.add(task.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Heap scan interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            else {
+                throw new RuntimeException(cause);
+            }
+        }
+        finally {
+            // stop remaining workers if scan has failed
+            nextChunk.set(Integer.MAX_VALUE);
+        }
+    }
+
+    private void feed(CursorCallback callback, long startOffset, long endOffset) {
+        InstanceCursor cursor = new InstanceCursor(heap, startOffset, endOffset);
+        while(cursor.next()) {
+            callback.feed(cursor);
+        }
+    }
+
+    synchronized long[] getChunks() {
+        if (chunks == null) {
+            chunks = splitInstanceDumps(heap, chunkSize);
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits instance dump region into chunks aligned to record boundaries.
+     * Dump records have no sync markers, so boundaries are found by
+     * skipping over record headers.
+     *
+     * @return array of N + 1 offsets for N chunks
+     */
+    static long[] splitInstanceDumps(HprofHeap heap, long chunkSize) {
+        TagBounds bounds = heap.getAllInstanceDumpBounds();
+        long[] pointer = new long[]{bounds.startOffset};
+        long[] result = new long[16];
+        int n = 0;
+        result[n++] = bounds.startOffset;
+        long limit = bounds.startOffset + chunkSize;
+        while(pointer[0] < bounds.endOffset) {
+            if (pointer[0] >= limit) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, 2 * n);
+                }
+                result[n++] = pointer[0];
+                limit = pointer[0] + chunkSize;
+            }
+            heap.readDumpTag(pointer);
+        }
+        if (n == result.length) {
+            result = Arrays.copyOf(result, n + 1);
+        }
+        result[n++] = bounds.endOffset;
+        return Arrays.copyOf(result, n);
+    }
+
+    public interface CallbackFactory<T extends InstanceCallback> {
+
+        public T newCallback();
+
+    }
+
+    private class ChunkWorker<T extends InstanceCallback> implements Callable<T> {
+
+        private final T callback;
+        private final long[] bounds;
+        private final AtomicInteger nextChunk;
+
+        public ChunkWorker(T callback, long[] bounds, AtomicInteger nextChunk) {
+            this.callback = callback;
+            this.bounds = bounds;
+            this.nextChunk = nextChunk;
+        }
+
+        @Override
+        public T call() {
+            while(true) {
+                int n = nextChunk.getAndIncrement();
+                if (n < 0 || n >= bounds.length - 1) {
+                    break;
+                }
+                try {
+                    if (callback instanceof CursorCallback) {
+                        feed((CursorCallback) callback, bounds[n], bounds[n + 1]);
+                    }
+                    else {
+                        Iterator<Instance> it = new HprofInstanceIterator(heap, bounds[n], bounds[n + 1]);
+                        while(it.hasNext()) {
+                            callback.feed(it.next());
+                        }
+                    }
+                }
+                catch(RuntimeException e) {
+                    // let other workers stop early
+                    nextChunk.set(Integer.MAX_VALUE);
+                    throw e;
+                }
+            }
+            return callback;
+        }
+    }
+}
@@ -34,9 +34,7 @@ public class PatchableCharArray extends PrimitiveArrayDump {
 
 	        byte[] bpatch = new byte[2 * patch.length];
 	        ByteBuffer bb = ByteBuffer.wrap(bpatch);
-	        for(char c: getContent()) {
-	        	bb.putChar(c);
-	        }
+	        bb.asCharBuffer().put(getContent());
 
 	        byte[] borig = new byte[2 * patch.length];
 	        ((PatchableHprofByteBuffer) dumpBuffer).readPatch(offset, borig);
@@ -44,10 +42,7 @@ public class PatchableCharArray extends PrimitiveArrayDump {
 	        	throw new RuntimeException("Patch verification failed");
 	        }
 
-	        bb.clear();
-	        for(char c: patch) {
-	        	bb.putChar(c);
-	        }
+	        bb.asCharBuffer().put(patch);
 	        ((PatchableHprofByteBuffer) dumpBuffer).writePatch(offset, bpatch);
 		}
 		else {
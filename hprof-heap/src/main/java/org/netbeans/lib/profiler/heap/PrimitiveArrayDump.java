@@ -19,6 +19,7 @@
 
 package org.netbeans.lib.profiler.heap;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 
@@ -77,9 +78,7 @@ class PrimitiveArrayDump extends ArrayDump implements PrimitiveArrayInstance {
         long offset = getArrayStartOffset() + ((long)start * (long)charSize);
         HprofByteBuffer dumpBuffer = dumpClass.getHprofBuffer();
 
-        for (int i = 0; i < length; i++) {
-            chars[i] = dumpBuffer.getChar(offset + (i * charSize));
-        }
+        dumpBuffer.getChars(offset, chars, 0, length);
 
         return chars;
     }
@@ -91,13 +90,78 @@ class PrimitiveArrayDump extends ArrayDump implements PrimitiveArrayInstance {
         long offset = getArrayStartOffset() + ((long)start);
         HprofByteBuffer dumpBuffer = dumpClass.getHprofBuffer();
 
-        for (int i = 0; i < length; i++) {
-            bytes[i] = dumpBuffer.get(offset+i);
-        }
+        dumpBuffer.get(offset, bytes, 0, length);
 
         return bytes;
     }
 
+    /**
+     * Decodes whole array using bulk reads.
+     *
+     * @return Java array of matching primitive type
+     */
+    Object toArray() {
+        int length = getLength();
+        HprofByteBuffer dumpBuffer = dumpClass.getHprofBuffer();
+        long offset = getArrayStartOffset();
+        byte type = getType();
+
+        switch (type) {
+            case HprofHeap.BOOLEAN: {
+                byte[] bytes = new byte[length];
+                dumpBuffer.get(offset, bytes, 0, length);
+                boolean[] array = new boolean[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = bytes[i] != 0;
+                }
+                return array;
+            }
+            case HprofHeap.BYTE: {
+                byte[] array = new byte[length];
+                dumpBuffer.get(offset, array, 0, length);
+                return array;
+            }
+            case HprofHeap.CHAR: {
+                char[] array = new char[length];
+                dumpBuffer.getChars(offset, array, 0, length);
+                return array;
+            }
+            case HprofHeap.LONG: {
+                long[] array = new long[length];
+                dumpBuffer.getLongs(offset, array, 0, length);
+                return array;
+            }
+            case HprofHeap.SHORT: {
+                short[] array = new short[length];
+                readBytes(dumpBuffer, offset, 2 * length).asShortBuffer().get(array);
+                return array;
+            }
+            case HprofHeap.INT: {
+                int[] array = new int[length];
+                readBytes(dumpBuffer, offset, 4 * length).asIntBuffer().get(array);
+                return array;
+            }
+            case HprofHeap.FLOAT: {
+                float[] array = new float[length];
+                readBytes(dumpBuffer, offset, 4 * length).asFloatBuffer().get(array);
+                return array;
+            }
+            case HprofHeap.DOUBLE: {
+                double[] array = new double[length];
+                readBytes(dumpBuffer, offset, 8 * length).asDoubleBuffer().get(array);
+                return array;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown array type " + type);
+        }
+    }
+
+    private static ByteBuffer readBytes(HprofByteBuffer dumpBuffer, long offset, int len) {
+        byte[] bytes = new byte[len];
+        dumpBuffer.get(offset, bytes, 0, len);
+        return ByteBuffer.wrap(bytes);
+    }
+
     long getArrayStartOffset() {
         int idSize = dumpClass.getHprofBuffer().getIDSize();
 
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+/**
+ * Bulk decoding of primitive arrays.
+ * <br/>
+ * {@link PrimitiveArrayInstance#getValues()} produces a string per element,
+ * methods below copy array content from dump directly.
+ */
+public class PrimitiveArrays {
+
+    /**
+     * @return content of array as Java array of matching type (e.g. <code>char[]</code>)
+     *         or <code>null</code> if instance is not backed by heap dump
+     */
+    public static Object toArray(PrimitiveArrayInstance array) {
+        if (array instanceof PrimitiveArrayDump) {
+            return ((PrimitiveArrayDump) array).toArray();
+        }
+        else {
+            return null;
+        }
+    }
+}
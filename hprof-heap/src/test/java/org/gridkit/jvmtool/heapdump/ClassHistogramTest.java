@@ -0,0 +1,122 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gridkit.jvmtool.heapdump.HeapHistogram.ClassRecord;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.netbeans.lib.profiler.heap.Heap;
+import org.netbeans.lib.profiler.heap.HeapFactory2;
+import org.netbeans.lib.profiler.heap.Instance;
+import org.netbeans.lib.profiler.heap.InstanceCursor;
+
+public class ClassHistogramTest {
+
+    Heap heap;
+    HeapHistogram expected;
+
+    @Before
+    public void initHeap() throws IOException, URISyntaxException {
+        // HeapHistogram requires instance numbers, which are not supported by fast heap
+        heap = HeapFactory2.createHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()), null);
+        expected = new HeapHistogram();
+        for(Instance i: heap.getAllInstances()) {
+            expected.accumulate(i);
+        }
+    }
+
+    @Test
+    public void verify_same_as_heap_histogram() {
+        ClassHistogram actual = new ClassHistogram(heap);
+        for(Instance i: heap.getAllInstances()) {
+            actual.accumulate(i);
+        }
+
+        assertSame(expected, actual);
+        Assert.assertEquals(sizes(expected.getTopInstances()), sizes(actual.getTopInstances()));
+    }
+
+    @Test
+    public void verify_merge() {
+        ClassHistogram actual = new ClassHistogram(heap);
+        ClassHistogram odd = new ClassHistogram(heap);
+        int n = 0;
+        for(Instance i: heap.getAllInstances()) {
+            if ((n++ & 1) == 0) {
+                actual.accumulate(i);
+            }
+            else {
+                odd.accumulate(i);
+            }
+        }
+        actual.merge(odd);
+
+        assertSame(expected, actual);
+        Assert.assertEquals(sizes(expected.getTopInstances()), sizes(actual.getTopInstances()));
+    }
+
+    @Test
+    public void verify_fast_heap() throws IOException, URISyntaxException {
+        Heap fastHeap = HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+        ClassHistogram actual = new ClassHistogram(fastHeap);
+        for(Instance i: fastHeap.getAllInstances()) {
+            actual.accumulate(i);
+        }
+
+        assertSame(expected, actual);
+        // instance numbers are not available, IDs are reported instead
+        Assert.assertEquals(expected.getTopInstances().size(), actual.getTopInstances().size());
+    }
+
+    @Test
+    public void verify_cursor() {
+        ClassHistogram actual = new ClassHistogram(heap);
+        InstanceCursor cursor = new InstanceCursor(heap);
+        while(cursor.next()) {
+            actual.accumulate(cursor);
+        }
+
+        assertSame(expected, actual);
+        Assert.assertEquals(sizes(expected.getTopInstances()), sizes(actual.getTopInstances()));
+    }
+
+    private void assertSame(HeapHistogram expected, ClassHistogram actual) {
+        Assert.assertEquals(expected.getTotalCount(), actual.getTotalCount());
+        Assert.assertEquals(expected.getTotalSize(), actual.getTotalSize());
+        Assert.assertEquals(expected.getHisto().size(), actual.getHisto().size());
+        for(ClassRecord cr: expected.getHisto()) {
+            ClassRecord ar = actual.getClassInfo(cr.getClassName());
+            Assert.assertNotNull(cr.getClassName(), ar);
+            Assert.assertEquals(cr.getClassName(), cr.getInstanceCount(), ar.getInstanceCount());
+            Assert.assertEquals(cr.getClassName(), cr.getTotalSize(), ar.getTotalSize());
+        }
+    }
+
+    private List<Long> sizes(Iterable<ClassRecord> records) {
+        List<Long> result = new ArrayList<Long>();
+        for(ClassRecord cr: records) {
+            result.add(cr.getTotalSize());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gridkit.jvmtool.util.LongIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentRefSetTest {
+
+    private static final int THREADS = 4;
+    private static final int COUNT = 200000;
+    private static final long BASE = 0x7c0000000l;
+
+    @Test
+    public void single_thread() {
+        ConcurrentRefSet set = new ConcurrentRefSet();
+        assertThat(set.isConcurrent()).isTrue();
+        assertThat(set.getAndSet(BASE, true)).isFalse();
+        assertThat(set.getAndSet(BASE, true)).isTrue();
+        assertThat(set.get(BASE)).isTrue();
+        assertThat(set.get(BASE + 8)).isFalse();
+        set.set(BASE + 800, true);
+        assertThat(set.seekOne(0)).isEqualTo(BASE);
+        assertThat(set.seekOne(BASE + 1)).isEqualTo(BASE + 800);
+        assertThat(set.seekOne(BASE + 1, BASE + 800)).isEqualTo(-1);
+        assertThat(set.countOnes()).isEqualTo(2);
+        assertThat(set.getAndSet(BASE, false)).isTrue();
+        assertThat(set.get(BASE)).isFalse();
+        set.clear();
+        assertThat(set.seekOne(0)).isEqualTo(-1);
+    }
+
+    @Test
+    public void concurrent_marking() throws Exception {
+        final ConcurrentRefSet set = new ConcurrentRefSet();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Long>> results = new ArrayList<Future<Long>>();
+            for(int t = 0; t != THREADS; ++t) {
+                final int shift = t;
+                results.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        long won = 0;
+                        // all threads mark same IDs in different order
+                        for(int i = 0; i != COUNT; ++i) {
+                            long id = BASE + 8l * ((i + shift * (COUNT / THREADS)) % COUNT) * 3;
+                            if (!set.getAndSet(id, true)) {
+                                ++won;
+                            }
+                        }
+                        return won;
+                    }
+                }));
+            }
+            long total = 0;
+            for(Future<Long> f: results) {
+                total += f.get();
+            }
+            Assert.assertEquals(COUNT, total);
+            Assert.assertEquals(COUNT, set.countOnes());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void split_ranges() {
+        ConcurrentRefSet set = new ConcurrentRefSet();
+        for(int i = 0; i != COUNT; ++i) {
+            set.set(BASE + 8l * i * (i % 5 + 1), true);
+        }
+        long[] bounds = set.splitRanges(THREADS);
+        Assert.assertEquals(THREADS + 1, bounds.length);
+        Assert.assertEquals(0, bounds[0]);
+        Assert.assertEquals(Long.MAX_VALUE, bounds[THREADS]);
+
+        long count = 0;
+        long last = -1;
+        for(int r = 0; r != THREADS; ++r) {
+            long rangeCount = 0;
+            long n = bounds[r];
+            while(true) {
+                long id = set.seekOne(n, bounds[r + 1]);
+                if (id < 0) {
+                    break;
+                }
+                Assert.assertTrue(id > last);
+                last = id;
+                ++rangeCount;
+                n = id + 8;
+            }
+            LongIterator it = set.onesIterator(bounds[r], bounds[r + 1]);
+            long iterated = 0;
+            while(it.hasNext()) {
+                Assert.assertTrue(set.get(it.next()));
+                ++iterated;
+            }
+            Assert.assertEquals(rangeCount, iterated);
+            // ranges are roughly balanced
+            assertThat(rangeCount).isGreaterThan(COUNT / THREADS / 2);
+            count += rangeCount;
+        }
+        Assert.assertEquals(set.countOnes(), count);
+    }
+}
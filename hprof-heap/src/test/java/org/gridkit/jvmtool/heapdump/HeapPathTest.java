@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.netbeans.lib.profiler.heap.Heap;
+import org.netbeans.lib.profiler.heap.HeapFactory2;
+import org.netbeans.lib.profiler.heap.Instance;
+
+public class HeapPathTest {
+
+    static String[] PATHS = {
+        "name",
+        "*",
+        "(java.lang.Thread).name",
+        "(+java.lang.Thread)",
+        "[priority=5]",
+        "[priority!=5].name",
+        "[priority=05]",
+        "[daemon=true]",
+        "[daemon=false].group",
+        "[name=main]",
+        "(java.lang.Thread)[group.name=main]",
+        "(java.util.HashMap).table[*].key",
+        "(java.util.HashMap).table[*][key!=null].value",
+        "(java.util.HashMap)?entrySet.key",
+        "(java.lang.Integer)[value=0]",
+        "(java.lang.Long)[value=1]",
+        "(java.lang.Float)[value=1.0]",
+        "(java.lang.Double)[value=1]",
+        "(java.lang.Character)[value=a]",
+        "(java.lang.Boolean)[value=true]",
+    };
+
+    static Heap heap;
+
+    @BeforeClass
+    public static void initHeap() throws IOException, URISyntaxException {
+        heap = HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+    }
+
+    @Test
+    public void verify_same_as_walker() {
+        HeapPath[] compiled = new HeapPath[PATHS.length];
+        PathStep[][] steps = new PathStep[PATHS.length][];
+        for(int i = 0; i != PATHS.length; ++i) {
+            compiled[i] = HeapPath.compile(PATHS[i]);
+            steps[i] = HeapPathParser.parsePath(PATHS[i], true);
+        }
+        int[] hits = new int[PATHS.length];
+        for(Instance i: heap.getAllInstances()) {
+            for(int n = 0; n != PATHS.length; ++n) {
+                Set<Instance> expected = HeapWalker.collect(i, steps[n]);
+                Set<Instance> actual = compiled[n].collect(i);
+                Assert.assertEquals(PATHS[n], ids(expected), ids(actual));
+                hits[n] += actual.size();
+            }
+        }
+        for(int n = 0; n != PATHS.length; ++n) {
+            // boxed values and non canonical numbers may have no matches
+            if (!PATHS[n].contains("[value=") && !PATHS[n].contains("=05")) {
+                Assert.assertTrue("No hits for " + PATHS[n], hits[n] > 0);
+            }
+        }
+    }
+
+    @Test
+    public void verify_parse_cache() {
+        PathStep[] a = HeapPathParser.parsePath("(java.lang.Thread).name", true);
+        PathStep[] b = HeapPathParser.parsePath("(java.lang.Thread).name", true);
+        Assert.assertNotSame(a, b);
+        Assert.assertSame(a[0], b[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verify_tailing_function() {
+        HeapPath.compile("name?simpleClassName").collect(heap.getAllInstances().iterator().next());
+    }
+
+    private Set<Long> ids(Set<Instance> instances) {
+        Set<Long> result = new HashSet<Long>();
+        for(Instance i: instances) {
+            result.add(i.getInstanceId());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.netbeans.lib.profiler.heap.FastHprofHeap;
+import org.netbeans.lib.profiler.heap.Heap;
+import org.netbeans.lib.profiler.heap.HeapFactory2;
+import org.netbeans.lib.profiler.heap.Instance;
+
+public class MultiPathWalkerTest {
+
+    static String[] PATHS = {
+        "(java.lang.Thread)",
+        "(java.lang.Thread).name",
+        "(java.util.ArrayList).elementData[*]",
+        "(java.util.HashMap).table[*].value",
+        "(+java.util.AbstractMap).size",
+        "(java.lang.String|java.lang.Integer)",
+        "[*]",
+        "name",
+        "*.name",
+    };
+
+    Heap heap;
+
+    @Before
+    public void initHeap() throws IOException, URISyntaxException {
+        heap = HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+    }
+
+    @Test
+    public void verify_same_as_heap_walker() {
+        MultiPathWalker walker = new MultiPathWalker(heap);
+        List<Set<Long>> actual = new ArrayList<Set<Long>>();
+        for(String path: PATHS) {
+            final Set<Long> ids = new HashSet<Long>();
+            actual.add(ids);
+            walker.addPath(path, new InstanceCallback() {
+                @Override
+                public void feed(Instance instance) {
+                    Assert.assertTrue("Duplicate match", ids.add(instance.getInstanceId()));
+                }
+            });
+        }
+        walker.walk();
+
+        for(int n = 0; n != PATHS.length; ++n) {
+            Set<Long> expected = new HashSet<Long>();
+            for(Instance i: HeapWalker.walk(heap, PATHS[n])) {
+                expected.add(i.getInstanceId());
+            }
+            Assert.assertEquals(PATHS[n], expected, actual.get(n));
+        }
+        for(int n = 0; n != 4; ++n) {
+            Assert.assertFalse(PATHS[n], actual.get(n).isEmpty());
+        }
+    }
+
+    @Test
+    public void verify_indexed_heap() throws IOException, URISyntaxException {
+        FastHprofHeap indexed = (FastHprofHeap) HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+        indexed.enableInstanceIndex();
+        String[] paths = {"(java.lang.Thread).name", "(java.util.HashMap).table[*].value", "(java.lang.Class)", "[*]"};
+        MultiPathWalker walker = new MultiPathWalker(indexed);
+        List<Set<Long>> actual = new ArrayList<Set<Long>>();
+        for(String path: paths) {
+            final Set<Long> ids = new HashSet<Long>();
+            actual.add(ids);
+            walker.addPath(path, new InstanceCallback() {
+                @Override
+                public void feed(Instance instance) {
+                    ids.add(instance.getInstanceId());
+                }
+            });
+        }
+        walker.walk();
+
+        for(int n = 0; n != paths.length; ++n) {
+            Set<Long> expected = new HashSet<Long>();
+            for(Instance i: HeapWalker.walk(heap, paths[n])) {
+                expected.add(i.getInstanceId());
+            }
+            Set<Long> walked = new HashSet<Long>();
+            for(Instance i: HeapWalker.walk(indexed, paths[n])) {
+                walked.add(i.getInstanceId());
+            }
+            Assert.assertEquals(paths[n], expected, actual.get(n));
+            Assert.assertEquals(paths[n], expected, walked);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void verify_no_paths_after_walk() {
+        MultiPathWalker walker = new MultiPathWalker(heap);
+        walker.addPath("(java.lang.Thread)", new InstanceCallback() {
+            @Override
+            public void feed(Instance instance) {
+            }
+        });
+        walker.walk();
+        walker.addPath("(java.lang.String)", null);
+    }
+}
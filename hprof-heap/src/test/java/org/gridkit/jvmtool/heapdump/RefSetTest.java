@@ -0,0 +1,80 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+import org.junit.Test;
+
+public class RefSetTest {
+
+    private static final int SETS = 8;
+
+    @Test
+    public void mapped_set_dispose() {
+        RefSet[] sets = new RefSet[SETS];
+        long fds = openFiles();
+        for(int i = 0; i != SETS; ++i) {
+            sets[i] = new RefSet((File) null);
+            for(long ref = 0; ref != 100000; ++ref) {
+                sets[i].set(0x7c0000000l + 8 * (3 * ref + i), true);
+            }
+            assertThat(sets[i].countOnes()).isEqualTo(100000);
+        }
+        if (fds >= 0) {
+            assertThat(openFiles()).isGreaterThanOrEqualTo(fds + SETS);
+        }
+        for(RefSet set: sets) {
+            set.dispose();
+            assertThat(set.seekOne(0)).isEqualTo(-1);
+            assertThat(set.countOnes()).isEqualTo(0);
+        }
+        if (fds >= 0) {
+            assertThat(openFiles()).isLessThanOrEqualTo(fds);
+        }
+
+        // disposed set is still usable
+        sets[0].set(0x7c0000000l, true);
+        assertThat(sets[0].get(0x7c0000000l)).isTrue();
+        sets[0].dispose();
+        assertThat(sets[0].get(0x7c0000000l)).isFalse();
+    }
+
+    @Test
+    public void dispose_heap_set() {
+        RefSet set = new RefSet();
+        set.set(0x7c0000000l, true);
+        set.dispose();
+        assertThat(set.countOnes()).isEqualTo(0);
+    }
+
+    private static long openFiles() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        try {
+            if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+                return ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+            }
+        }
+        catch(LinkageError e) {
+            // not a HotSpot JVM
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.netbeans.lib.profiler.heap.Heap;
+import org.netbeans.lib.profiler.heap.HeapFactory2;
+import org.netbeans.lib.profiler.heap.Instance;
+
+public class ScanSchedulerTest {
+
+    Heap heap;
+
+    @Before
+    public void initHeap() throws IOException, URISyntaxException {
+        heap = HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+    }
+
+    @Test
+    public void verify_passes_are_fused() {
+        StringCollector expectedStrings = new StringCollector();
+        expectedStrings.collect(heap);
+
+        ScanScheduler scheduler = new ScanScheduler(heap);
+        StringCollector strings = new StringCollector();
+        ClassHistogram histo = new ClassHistogram(heap);
+        Counter counter1 = new Counter();
+        Counter counter2 = new Counter();
+        scheduler.addParticipant(strings.asScanParticipant(heap));
+        scheduler.addCallback(0, histo);
+        scheduler.addCallback(1, counter1);
+        scheduler.addCallback(1, counter2);
+        scheduler.run();
+
+        Assert.assertEquals(2, scheduler.getPassCount());
+        Assert.assertEquals(2, scheduler.getScanCount());
+        Assert.assertEquals(expectedStrings.getInstanceCount(), strings.getInstanceCount());
+        Assert.assertEquals(expectedStrings.getTotalSize(), strings.getTotalSize());
+        Assert.assertEquals(histo.getTotalCount(), counter1.count);
+        Assert.assertEquals(histo.getTotalCount(), counter2.count);
+    }
+
+    @Test
+    public void verify_idle_passes_are_skipped() {
+        ScanScheduler scheduler = new ScanScheduler(heap);
+        Counter counter = new Counter();
+        scheduler.addCallback(2, counter);
+        scheduler.run();
+
+        Assert.assertEquals(3, scheduler.getPassCount());
+        Assert.assertEquals(1, scheduler.getScanCount());
+        Assert.assertTrue(counter.count > 0);
+    }
+
+    @Test
+    public void verify_multi_pass_participant() {
+        ScanScheduler scheduler = new ScanScheduler(heap);
+        final Counter counter = new Counter();
+        // requires 3 passes, second one is skipped
+        scheduler.addParticipant(new ScanParticipant() {
+
+            boolean active;
+
+            @Override
+            public boolean beginPass(int pass) {
+                active = pass != 1;
+                return active;
+            }
+
+            @Override
+            public void feed(Instance instance) {
+                Assert.assertTrue(active);
+                counter.feed(instance);
+            }
+
+            @Override
+            public boolean endPass(int pass) {
+                return pass < 2;
+            }
+        });
+        Counter other = new Counter();
+        scheduler.addCallback(0, other);
+        scheduler.run();
+
+        Assert.assertEquals(3, scheduler.getPassCount());
+        Assert.assertEquals(2, scheduler.getScanCount());
+        Assert.assertEquals(2 * other.count, counter.count);
+    }
+
+    private static class Counter implements InstanceCallback {
+
+        long count;
+
+        @Override
+        public void feed(Instance instance) {
+            ++count;
+        }
+    }
+}
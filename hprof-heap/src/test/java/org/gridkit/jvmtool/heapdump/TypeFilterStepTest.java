@@ -0,0 +1,66 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.jvmtool.heapdump;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.netbeans.lib.profiler.heap.Heap;
+import org.netbeans.lib.profiler.heap.HeapFactory2;
+
+public class TypeFilterStepTest {
+
+    static String[] FILTERS = {
+        "java.lang.String",
+        "**.String",
+        "**String",
+        "java.util.*Map",
+        "java.*.HashMap",
+        "java.**.*Map",
+        "java.util.**",
+        "**.HashMap$Node[]",
+        "java.util.HashMap$*",
+        "java.util.Hash?ap",
+        "int[]",
+        "*[]",
+        "**",
+        "+java.util.AbstractMap",
+        "java.lang.String|**.HashMap",
+        "no.such.**",
+    };
+
+    Heap heap;
+
+    @Before
+    public void initHeap() throws IOException, URISyntaxException {
+        heap = HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+    }
+
+    @Test
+    public void verify_indexed_filter() {
+        for(String f: FILTERS) {
+            TypeFilterStep step = new TypeFilterStep(f);
+            Assert.assertEquals(f, new HashSet<Object>(step.filter(heap.getAllClasses())), new HashSet<Object>(step.filter(heap)));
+        }
+        Assert.assertEquals(1, new TypeFilterStep("**.String").filter(heap).size());
+        Assert.assertFalse(new TypeFilterStep("java.util.*Map").filter(heap).isEmpty());
+    }
+}
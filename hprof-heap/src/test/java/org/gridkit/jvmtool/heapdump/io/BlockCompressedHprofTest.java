@@ -0,0 +1,79 @@
+package org.gridkit.jvmtool.heapdump.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.netbeans.lib.profiler.heap.Heap;
+import org.netbeans.lib.profiler.heap.HeapFactory2;
+import org.netbeans.lib.profiler.heap.Instance;
+
+public class BlockCompressedHprofTest {
+
+    private static File dump = new File("target/dump/block_test.hprof");
+    private static File gzdump = new File("target/dump/block_test.hprof.gz");
+
+    @BeforeClass
+    public static void copyDump() throws IOException {
+        dump.getParentFile().mkdirs();
+        copy(new FileOutputStream(dump));
+        copy(new GZIPOutputStream(new FileOutputStream(gzdump)));
+    }
+
+    private static void copy(OutputStream os) throws IOException {
+        InputStream is = Heap.class.getResourceAsStream("heap_dump.bin");
+        byte[] buf = new byte[64 << 10];
+        int n;
+        while((n = is.read(buf)) >= 0) {
+            os.write(buf, 0, n);
+        }
+        is.close();
+        os.close();
+    }
+
+    @Test
+    public void verify_plain_source() throws IOException {
+        // block smaller than page, page spans several blocks
+        verify(dump, new File("target/dump/block_test_64k.hpz"), 64 << 10);
+    }
+
+    @Test
+    public void verify_gzip_source() throws IOException {
+        // block larger than page, block is fetched as several pages
+        verify(gzdump, new File("target/dump/block_test_1m.hpz"), 1 << 20);
+    }
+
+    private void verify(File source, File target, int blockSize) throws IOException {
+        new BlockCompressedHprofWriter(blockSize, Deflater.BEST_SPEED).convert(source, target);
+
+        Assert.assertTrue(BlockCompressedHprofByteBuffer.isBlockCompressed(target));
+        Assert.assertFalse(BlockCompressedHprofByteBuffer.isBlockCompressed(dump));
+        Assert.assertTrue(HeapFactory2.isCompressed(target));
+        Assert.assertTrue(target.length() < dump.length());
+
+        Heap plain = HeapFactory2.createFastHeap(dump);
+        // small buffer to force page eviction
+        Heap packed = HeapFactory2.createFastHeap(target, 2 << 20);
+
+        long count = 0;
+        long size = 0;
+        for(Instance i: plain.getAllInstances()) {
+            ++count;
+            size += i.getSize();
+        }
+        for(Instance i: packed.getAllInstances()) {
+            --count;
+            size -= i.getSize();
+            Assert.assertEquals(plain.getInstanceByID(i.getInstanceId()).getJavaClass().getName(), i.getJavaClass().getName());
+        }
+        Assert.assertEquals(0, count);
+        Assert.assertEquals(0, size);
+    }
+}
@@ -0,0 +1,81 @@
+package org.gridkit.jvmtool.heapdump.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.gridkit.gzrand.RandomAccessFileInputStream;
+import org.gridkit.gzrand.RandomAccessGZipFile;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ReadAheadInflaterTest {
+
+    private static final int BLOCK = 256 << 10;
+    private static final int SIZE = (10 * BLOCK) + 12345;
+
+    private static File file = new File("target/gz/read_ahead_test.gz");
+    private static byte[] data;
+
+    @BeforeClass
+    public static void createFile() throws IOException {
+        data = new byte[SIZE];
+        Random rnd = new Random(1);
+        for(int i = 0; i != data.length; ++i) {
+            // compressible, but not trivial data
+            data[i] = (byte) (rnd.nextInt(16) + (i >> 12));
+        }
+        file.getParentFile().mkdirs();
+        GZIPOutputStream os = new GZIPOutputStream(new FileOutputStream(file));
+        os.write(data);
+        os.close();
+    }
+
+    @Test
+    public void sequentialRead() throws IOException {
+        ReadAheadInflater inflater = open();
+        byte[] buf = new byte[4096];
+        long offset = 0;
+        while(true) {
+            int n = inflater.read(offset, buf, 0, buf.length);
+            if (n < 0) {
+                break;
+            }
+            verify(offset, buf, n);
+            offset += n;
+        }
+        Assert.assertEquals(SIZE, offset);
+        inflater.close();
+    }
+
+    @Test
+    public void randomRead() throws IOException {
+        ReadAheadInflater inflater = open();
+        byte[] buf = new byte[1000];
+        Random rnd = new Random(2);
+        for(int i = 0; i != 200; ++i) {
+            long offset = rnd.nextInt(SIZE);
+            int n = inflater.read(offset, buf, 0, buf.length);
+            Assert.assertTrue(n > 0);
+            verify(offset, buf, n);
+        }
+    }
+
+    private ReadAheadInflater open() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        RandomAccessGZipFile gzip = new RandomAccessGZipFile(new RandomAccessFileInputStream(raf), BLOCK);
+        return ReadAheadInflater.create(raf.getChannel(), gzip, BLOCK, 3, 4 * BLOCK);
+    }
+
+    private void verify(long offset, byte[] buf, int len) {
+        for(int i = 0; i != len; ++i) {
+            if (data[(int) offset + i] != buf[i]) {
+                Assert.fail("Mismatch at " + (offset + i));
+            }
+        }
+    }
+}
@@ -17,6 +17,11 @@ package org.gridkit.jvmtool.util;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -106,4 +111,105 @@ public class BitMapTest {
         assertThat(pbm.get(60)).isFalse();
     }
 
+    @Test
+    public void primitive_iteration() {
+        verifyIteration(new PagedBitMap(false));
+        verifyIteration(new PagedBitMap(true));
+        verifyIteration(new PagedBitMap(false, true));
+        verifyIteration(new PagedBitMap((File) null));
+        verifyIteration(new PagedBitMap((File) null, false));
+    }
+
+    @Test
+    public void mapped_test() {
+        verifyMapped(new PagedBitMap((File) null), 1l << 50);
+    }
+
+    @Test
+    public void mapped_dense_test() {
+        verifyMapped(new PagedBitMap((File) null, false), 1l << 30);
+    }
+
+    private void verifyMapped(PagedBitMap pbm, long base) {
+        PagedBitMap ref = new PagedBitMap(true);
+        for(int n = 0; n != 2; ++n) {
+            // pages are spread over several mapped segments
+            for(long i = 0; i != 20000; ++i) {
+                long bit = (i * 7 + n) << 16 | ((i + n) & 0xFFFF) | base;
+                pbm.set(bit, true);
+                ref.set(bit, true);
+            }
+            pbm.set(100, true);
+            ref.set(100, true);
+            assertThat(pbm.countOnes()).isEqualTo(ref.countOnes());
+            long m = 0;
+            while(true) {
+                long a = ref.seekOne(m);
+                assertThat(pbm.seekOne(m)).isEqualTo(a);
+                if (a < 0) {
+                    break;
+                }
+                assertThat(pbm.get(a)).isTrue();
+                assertThat(pbm.get(a + 1)).isFalse();
+                m = a + 1;
+            }
+            // cleared pages are reused and should be empty
+            pbm.clear();
+            ref.clear();
+            assertThat(pbm.seekOne(0)).isEqualTo(-1);
+        }
+    }
+
+    private void verifyIteration(PagedBitMap pbm) {
+        final List<Long> expected = new ArrayList<Long>();
+        for(long i = 0; i != 100000; ++i) {
+            long n = i * i % 7919 + (i / 1000) * 1000000l;
+            pbm.set(n, true);
+        }
+        pbm.set(1l << 30, true);
+        long n = 0;
+        while((n = pbm.seekOne(n)) >= 0) {
+            expected.add(n++);
+        }
+
+        final List<Long> actual = new ArrayList<Long>();
+        pbm.forEachOne(new LongConsumer() {
+            @Override
+            public void accept(long value) {
+                actual.add(value);
+            }
+        });
+        assertThat(actual).isEqualTo(expected);
+
+        actual.clear();
+        LongIterator it = pbm.onesIterator();
+        while(it.hasNext()) {
+            actual.add(it.next());
+        }
+        assertThat(actual).isEqualTo(expected);
+
+        // bounded ranges
+        long start = expected.get(1000) - 1;
+        long end = expected.get(5000) + 1;
+        List<Long> range = expected.subList(1000, 5001);
+
+        actual.clear();
+        pbm.forEachOne(start, end, new LongConsumer() {
+            @Override
+            public void accept(long value) {
+                actual.add(value);
+            }
+        });
+        assertThat(actual).isEqualTo(range);
+
+        actual.clear();
+        it = pbm.onesIterator(start, end);
+        while(it.hasNext()) {
+            actual.add(it.next());
+        }
+        assertThat(actual).isEqualTo(range);
+
+        assertThat(pbm.onesIterator(end, start).hasNext()).isFalse();
+        assertThat(pbm.countOnes()).isEqualTo(expected.size());
+    }
 }
@@ -0,0 +1,214 @@
+package org.gridkit.jvmtool.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressedBitMapTest {
+
+    private static final int RANGE = 1 << 20;
+
+    @Test
+    public void simple_test() {
+        PagedBitMap pbm = new PagedBitMap(false, true);
+        int len = 1 << 20;
+        for(int i = 0; i != len; ++i) {
+            pbm.set(3 * i, true);
+        }
+        for(int i = 0; i != len; ++i) {
+            Assert.assertTrue(pbm.get(3 * i));
+            Assert.assertFalse(pbm.get(3 * i + 1));
+            Assert.assertFalse(pbm.get(3 * i + 2));
+        }
+        assertThat(pbm.countOnes()).isEqualTo(len);
+        assertThat(pbm.seekOne(1)).isEqualTo(3);
+        assertThat(pbm.seekOne(3l * len - 2)).isEqualTo(-1);
+
+        pbm.set(1000l * len, true);
+        assertThat(pbm.seekOne(3l * len - 2)).isEqualTo(1000l * len);
+        assertThat(pbm.get(1000l * len)).isTrue();
+    }
+
+    @Test
+    public void delete_test() {
+        PagedBitMap pbm = new PagedBitMap(true, true);
+        pbm.set(20, true);
+        pbm.set(40, true);
+        pbm.set(60, true);
+        pbm.set(80, true);
+        pbm.set(100, true);
+        pbm.set(40, false);
+        assertThat(pbm.get(40)).isFalse();
+        assertThat(pbm.seekOne(0)).isEqualTo(20);
+        assertThat(pbm.seekOne(21)).isEqualTo(60);
+        assertThat(pbm.seekOne(101)).isEqualTo(-1);
+
+        assertThat(pbm.getAndSet(60, false)).isTrue();
+        assertThat(pbm.getAndSet(40, true)).isFalse();
+        assertThat(pbm.get(40)).isTrue();
+        assertThat(pbm.get(60)).isFalse();
+    }
+
+    @Test
+    public void containers_conversion() {
+        PagedBitMap pbm = new PagedBitMap(false, true);
+        BitSet ref = new BitSet();
+        // grows array container into bitmap, then shrinks it back
+        for(int i = 0; i != 10000; ++i) {
+            pbm.set(2 * i, true);
+            ref.set(2 * i);
+        }
+        assertSame(ref, pbm);
+        for(int i = 0; i != 8000; ++i) {
+            pbm.set(2 * i, false);
+            ref.clear(2 * i);
+        }
+        assertSame(ref, pbm);
+
+        // long runs
+        for(int i = 100000; i != 300000; ++i) {
+            pbm.set(i, true);
+            ref.set(i);
+        }
+        pbm.optimize();
+        assertSame(ref, pbm);
+
+        // modification of run container
+        pbm.set(150000, false);
+        ref.clear(150000);
+        pbm.set(99999, true);
+        ref.set(99999);
+        assertSame(ref, pbm);
+    }
+
+    @Test
+    public void unordered_chunks() {
+        PagedBitMap pbm = new PagedBitMap(false, true);
+        BitSet ref = new BitSet();
+        Random rnd = new Random(3);
+        for(int n = 0; n != 20000; ++n) {
+            // few bits per chunk, so chunks are emptied often
+            int bit = (rnd.nextInt(1 << 10) << 16) | rnd.nextInt(4);
+            boolean value = rnd.nextBoolean();
+            pbm.set(bit, value);
+            ref.set(bit, value);
+            if (n % 1000 == 0) {
+                assertSame(ref, pbm);
+            }
+        }
+        assertSame(ref, pbm);
+    }
+
+    @Test
+    public void random_algebra() {
+        Random rnd = new Random(1);
+        for(int n = 0; n != 10; ++n) {
+            BitSet ra = randomSet(rnd);
+            BitSet rb = randomSet(rnd);
+
+            verifyAlgebra(ra, rb, true, true);
+            verifyAlgebra(ra, rb, true, false);
+            verifyAlgebra(ra, rb, false, true);
+        }
+    }
+
+    @Test
+    public void algebra_with_itself() {
+        BitSet ra = randomSet(new Random(2));
+        PagedBitMap a = toBitMap(ra, true);
+        a.add(a);
+        assertSame(ra, a);
+        a.mult(a);
+        assertSame(ra, a);
+        a.sub(a);
+        assertSame(new BitSet(), a);
+    }
+
+    private void verifyAlgebra(BitSet ra, BitSet rb, boolean compressedA, boolean compressedB) {
+        BitSet r;
+        PagedBitMap a;
+
+        a = toBitMap(ra, compressedA);
+        a.add(toBitMap(rb, compressedB));
+        r = (BitSet) ra.clone();
+        r.or(rb);
+        assertSame(r, a);
+
+        a = toBitMap(ra, compressedA);
+        a.sub(toBitMap(rb, compressedB));
+        r = (BitSet) ra.clone();
+        r.andNot(rb);
+        assertSame(r, a);
+
+        a = toBitMap(ra, compressedA);
+        a.mult(toBitMap(rb, compressedB));
+        r = (BitSet) ra.clone();
+        r.and(rb);
+        assertSame(r, a);
+
+        a = toBitMap(ra, compressedA);
+        a.optimize();
+        PagedBitMap o = toBitMap(new BitSet(), compressedB);
+        a.addWithOverflow(toBitMap(rb, compressedB), o);
+        r = (BitSet) ra.clone();
+        r.or(rb);
+        assertSame(r, a);
+        r = (BitSet) ra.clone();
+        r.and(rb);
+        assertSame(r, o);
+    }
+
+    /**
+     * Mix of sparse, dense and run chunks.
+     */
+    private BitSet randomSet(Random rnd) {
+        BitSet set = new BitSet();
+        for(int chunk = 0; chunk < RANGE; chunk += 1 << 16) {
+            switch(rnd.nextInt(4)) {
+            case 0:
+                break;
+            case 1:
+                for(int i = 0; i != 100; ++i) {
+                    set.set(chunk + rnd.nextInt(1 << 16));
+                }
+                break;
+            case 2:
+                for(int i = 0; i != 20000; ++i) {
+                    set.set(chunk + rnd.nextInt(1 << 16));
+                }
+                break;
+            default:
+                int s = rnd.nextInt(1 << 15);
+                set.set(chunk + s, chunk + s + rnd.nextInt(1 << 15));
+            }
+        }
+        return set;
+    }
+
+    private PagedBitMap toBitMap(BitSet set, boolean compressed) {
+        PagedBitMap pbm = new PagedBitMap(false, compressed);
+        for(int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            pbm.set(i, true);
+        }
+        return pbm;
+    }
+
+    private void assertSame(BitSet expected, PagedBitMap actual) {
+        Assert.assertEquals(expected.cardinality(), actual.countOnes());
+        long n = 0;
+        for(int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+            n = actual.seekOne(n);
+            Assert.assertEquals(i, n);
+            Assert.assertTrue(actual.get(i));
+            ++n;
+        }
+        Assert.assertEquals(-1, actual.seekOne(n));
+        for(int i = 0; i < RANGE; i += 7) {
+            Assert.assertEquals(expected.get(i), actual.get(i));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClassInstanceIndexTest {
+
+    File dump = new File("target/dump/instance_index_test.hprof");
+    File index = new File("target/dump/instance_index_test.hprof.idx");
+
+    @Before
+    public void copyDump() throws IOException {
+        dump.getParentFile().mkdirs();
+        index.delete();
+        InputStream is = getClass().getResourceAsStream("heap_dump.bin");
+        OutputStream os = new FileOutputStream(dump);
+        byte[] buf = new byte[64 << 10];
+        int n;
+        while((n = is.read(buf)) >= 0) {
+            os.write(buf, 0, n);
+        }
+        is.close();
+        os.close();
+    }
+
+    @Test
+    public void verify_instance_lists() throws IOException {
+        FastHprofHeap heap = (FastHprofHeap) HeapFactory2.createFastHeap(dump);
+        heap.enableInstanceIndex();
+        verify(heap);
+    }
+
+    @Test
+    public void verify_persisted_instance_lists() throws IOException {
+        // index without instance lists should be extended
+        HeapFactory2.createFastHeap(dump, HeapFactory2.DEFAULT_BUFFER, index);
+        FastHprofHeap heap = (FastHprofHeap) HeapFactory2.createFastHeap(dump, HeapFactory2.DEFAULT_BUFFER, index, true);
+        Assert.assertTrue(heap.hasInstanceIndex());
+
+        heap = new FastHprofHeap(FastHprofHeap.newFileBuffer(dump), 0);
+        Assert.assertTrue(FastHeapIndex.load(heap, dump, index));
+        Assert.assertTrue(heap.hasInstanceIndex());
+        verify(heap);
+    }
+
+    private void verify(Heap heap) throws IOException {
+        Map<JavaClass, List<Long>> expected = new HashMap<JavaClass, List<Long>>();
+        Heap plain = HeapFactory2.createFastHeap(dump);
+        for(Instance i: plain.getAllInstances()) {
+            JavaClass jc = heap.getJavaClassByID(i.getJavaClass().getJavaClassId());
+            List<Long> ids = expected.get(jc);
+            if (ids == null) {
+                ids = new ArrayList<Long>();
+                expected.put(jc, ids);
+            }
+            ids.add(i.getInstanceId());
+        }
+
+        int total = 0;
+        for(JavaClass jc: heap.getAllClasses()) {
+            List<Long> ids = expected.containsKey(jc) ? expected.get(jc) : new ArrayList<Long>();
+            Assert.assertEquals(jc.getName(), ids.size(), jc.getInstancesCount());
+            List<Long> actual = new ArrayList<Long>();
+            for(Instance i: jc.getInstances()) {
+                Assert.assertSame(jc, i.getJavaClass());
+                actual.add(i.getInstanceId());
+            }
+            Assert.assertEquals(jc.getName(), ids, actual);
+            actual.clear();
+            Iterator<Instance> it = jc.getInstancesIterator();
+            while(it.hasNext()) {
+                actual.add(it.next().getInstanceId());
+            }
+            Assert.assertEquals(jc.getName(), ids, actual);
+            total += ids.size();
+        }
+        Assert.assertTrue(total > 0);
+    }
+}
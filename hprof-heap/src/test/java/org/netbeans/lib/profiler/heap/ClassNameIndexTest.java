@@ -0,0 +1,114 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClassNameIndexTest {
+
+    Heap heap;
+
+    @Before
+    public void initHeap() throws IOException, URISyntaxException {
+        heap = HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+    }
+
+    @Test
+    public void verify_class_by_name() {
+        for(JavaClass jc: heap.getAllClasses()) {
+            JavaClass found = heap.getJavaClassByName(jc.getName());
+            Assert.assertEquals(jc.getName(), found.getName());
+            Assert.assertEquals(firstByName(jc.getName()), found);
+        }
+        Assert.assertNull(heap.getJavaClassByName("no.such.Class"));
+        Assert.assertNull(heap.getJavaClassByName("java.lang"));
+    }
+
+    @Test
+    public void verify_class_by_regexp() {
+        String[] patterns = {
+            "java\\.util\\..*Map",
+            "java.util.*Map",
+            "java\\.lang\\.String",
+            "java\\.lang\\.Strin?",
+            "java\\.lang\\.String\\[\\]",
+            "java\\.lan[gx]\\..*",
+            "java\\.util\\.HashMap\\$.*",
+            "javax?\\..*",
+            "int\\[\\]",
+            ".*\\[\\]",
+            "(?i)JAVA\\.LANG\\.OBJECT",
+            "no\\.such\\..*",
+            "sun\\.misc\\.Unsafe|java\\.lang\\.Object",
+        };
+        for(String p: patterns) {
+            Assert.assertEquals(p, scan(p), new ArrayList<JavaClass>(heap.getJavaClassesByRegExp(p)));
+        }
+        Assert.assertFalse(heap.getJavaClassesByRegExp("java\\.util\\..*Map").isEmpty());
+    }
+
+    @Test
+    public void verify_regexp_prefix() {
+        Assert.assertEquals("java.util.", ClassNameIndex.regExpPrefix("java\\.util\\..*Map"));
+        Assert.assertEquals("java", ClassNameIndex.regExpPrefix("java.util.*Map"));
+        Assert.assertEquals("java.lang.Stri", ClassNameIndex.regExpPrefix("java\\.lang\\.Strin?"));
+        Assert.assertEquals("java.util.HashMap$", ClassNameIndex.regExpPrefix("java\\.util\\.HashMap\\$.*"));
+        Assert.assertEquals("", ClassNameIndex.regExpPrefix("(?i)java"));
+        Assert.assertEquals("", ClassNameIndex.regExpPrefix("a|b"));
+    }
+
+    @Test
+    public void verify_simple_name() {
+        List<JavaClass> expected = new ArrayList<JavaClass>();
+        for(JavaClass jc: heap.getAllClasses()) {
+            if (jc.getName().equals("java.util.HashMap$Node") || jc.getName().endsWith(".HashMap$Node")) {
+                expected.add(jc);
+            }
+        }
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, new ArrayList<JavaClass>(JavaClasses.getClassesBySimpleName(heap, "HashMap$Node")));
+        Assert.assertEquals(1, JavaClasses.getClassesBySimpleName(heap, "int[]").size());
+    }
+
+    private JavaClass firstByName(String name) {
+        for(JavaClass jc: heap.getAllClasses()) {
+            if (name.equals(jc.getName())) {
+                return jc;
+            }
+        }
+        return null;
+    }
+
+    private List<JavaClass> scan(String regexp) {
+        Pattern pattern = Pattern.compile(regexp);
+        List<JavaClass> result = new ArrayList<JavaClass>();
+        for(JavaClass jc: heap.getAllClasses()) {
+            if (pattern.matcher(jc.getName()).matches()) {
+                result.add(jc);
+            }
+        }
+        return result;
+    }
+}
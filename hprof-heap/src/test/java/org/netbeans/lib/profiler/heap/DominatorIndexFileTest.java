@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DominatorIndexFileTest {
+
+    File indexFile = new File("target/dump/heap_dump.dom");
+
+    Heap source;
+
+    @Before
+    public void saveIndex() throws IOException, URISyntaxException {
+        indexFile.getParentFile().mkdirs();
+        indexFile.delete();
+        source = HeapFactory2.createFastHeap(dumpFile());
+        DominatorIndex.enable(source);
+        NearestGCRootIndex.enable(source);
+        DominatorIndexFile.save(source, indexFile);
+        Assert.assertTrue(indexFile.isFile());
+    }
+
+    private File dumpFile() throws URISyntaxException {
+        return new File(Heap.class.getResource("heap_dump.bin").toURI());
+    }
+
+    @Test
+    public void verify_fast_heap_load() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(dumpFile());
+        Assert.assertTrue(DominatorIndexFile.load(heap, indexFile));
+        assertSame(source, heap);
+    }
+
+    @Test
+    public void verify_regular_heap_load() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createHeap(dumpFile(), null);
+        Assert.assertTrue(DominatorIndexFile.load(heap, indexFile));
+        assertSame(source, heap);
+    }
+
+    @Test
+    public void verify_version_check() throws IOException, URISyntaxException {
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        raf.seek(4);
+        raf.writeInt(-1);
+        raf.close();
+        Heap heap = HeapFactory2.createFastHeap(dumpFile());
+        Assert.assertFalse(DominatorIndexFile.load(heap, indexFile));
+        Assert.assertFalse(DominatorIndexFile.load(heap, new File("target/dump/no_such_file.dom")));
+    }
+
+    @Test(expected = IOException.class)
+    public void verify_truncated_file() throws IOException, URISyntaxException {
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        raf.setLength(raf.length() - 8);
+        raf.close();
+        DominatorIndexFile.load(HeapFactory2.createFastHeap(dumpFile()), indexFile);
+    }
+
+    @Test
+    public void verify_segmented_tables() throws IOException {
+        File file = new File("target/dump/segments.bin");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        for(int i = 0; i != 100; ++i) {
+            out.writeLong(i * 0x100000001l);
+        }
+        for(int i = 0; i != 100; ++i) {
+            out.writeInt(-i);
+        }
+        out.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // 8 values per segment
+            LongTable longs = LongTable.map(raf.getChannel(), 0, 100, 3);
+            IntTable ints = IntTable.map(raf.getChannel(), 800, 100, 3);
+            Assert.assertEquals(100, longs.size());
+            Assert.assertEquals(100, ints.size());
+            for(int i = 0; i != 100; ++i) {
+                Assert.assertEquals(i * 0x100000001l, longs.get(i));
+                Assert.assertEquals(-i, ints.get(i));
+            }
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private void assertSame(Heap expected, Heap actual) {
+        DominatorIndex ed = DominatorIndex.of(expected);
+        DominatorIndex ad = DominatorIndex.of(actual);
+        NearestGCRootIndex ep = NearestGCRootIndex.of(expected);
+        NearestGCRootIndex ap = NearestGCRootIndex.of(actual);
+        Assert.assertFalse(ad.getNodes() instanceof HeapGraph);
+        Assert.assertEquals(ed.getNodes().getNodeCount(), ad.getNodes().getNodeCount());
+        Assert.assertEquals(ed.getReachableCount(), ad.getReachableCount());
+        Assert.assertEquals(ep.getLevelCount(), ap.getLevelCount());
+        Assert.assertTrue(actual.isRetainedSizeComputed());
+        Assert.assertArrayEquals(ed.getTopLevelDominators(), ad.getTopLevelDominators());
+        Assert.assertArrayEquals(ed.getRetainedSizeByClass(), ad.getRetainedSizeByClass());
+
+        for(int i = 0; i != ed.getNodes().getNodeCount(); ++i) {
+            long id = ed.getNodes().getId(i);
+            Assert.assertEquals(id, ad.getNodes().getId(i));
+            Assert.assertEquals(i, ad.getNodes().ordinalOf(id));
+            Assert.assertEquals(ed.getIdom(i), ad.getIdom(i));
+            Assert.assertEquals(ed.getRetainedSize(i), ad.getRetainedSize(i));
+            Assert.assertEquals(ep.getNearestGCRootPointer(i), ap.getNearestGCRootPointer(i));
+        }
+
+        List<Instance> et = expected.getBiggestObjectsByRetainedSize(20);
+        List<Instance> at = actual.getBiggestObjectsByRetainedSize(20);
+        for(int i = 0; i != et.size(); ++i) {
+            Assert.assertEquals(et.get(i).getRetainedSize(), at.get(i).getRetainedSize());
+        }
+
+        int n = 0;
+        for(Instance i: actual.getAllInstances()) {
+            Instance e = expected.getInstanceByID(i.getInstanceId());
+            Assert.assertEquals(e.getRetainedSize(), i.getRetainedSize());
+            Instance ptr = i.getNearestGCRootPointer();
+            Instance eptr = e.getNearestGCRootPointer();
+            Assert.assertEquals(eptr == null ? 0 : eptr.getInstanceId(), ptr == null ? 0 : ptr.getInstanceId());
+            if (++n == 1000) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DominatorIndexTest {
+
+    private File dumpFile() throws URISyntaxException {
+        return new File(Heap.class.getResource("heap_dump.bin").toURI());
+    }
+
+    @Test
+    public void verify_same_as_iterative_dominators() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(dumpFile());
+        HeapGraph graph = new HeapGraph(heap, 2, true);
+        DominatorIndex index = new DominatorIndex(graph, heap.getGCRoots());
+
+        int[] expected = iterativeDominators(graph, roots(graph, heap));
+        int reachable = 0;
+        for(int i = 0; i != graph.getNodeCount(); ++i) {
+            Assert.assertEquals("Node " + i, expected[i], index.getIdom(i));
+            if (index.isReachable(i)) {
+                ++reachable;
+            }
+        }
+        Assert.assertTrue(reachable > 0);
+        Assert.assertEquals(reachable, index.getReachableCount());
+    }
+
+    @Test
+    public void verify_retained_sizes() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(dumpFile());
+        HeapGraph graph = new HeapGraph(heap, 2, true);
+        DominatorIndex index = new DominatorIndex(graph, heap.getGCRoots());
+
+        long[] expected = new long[graph.getNodeCount()];
+        long reachableSize = 0;
+        long topLevelSize = 0;
+        for(int i = 0; i != graph.getNodeCount(); ++i) {
+            if (index.isReachable(i)) {
+                reachableSize += graph.getSize(i);
+                // walk dominator chain, slow but obvious
+                for(int d = i; d != DominatorIndex.ROOT; d = index.getIdom(d)) {
+                    expected[d] += graph.getSize(i);
+                }
+            }
+            else {
+                expected[i] = graph.getSize(i);
+            }
+            if (index.getIdom(i) == DominatorIndex.ROOT) {
+                topLevelSize += index.getRetainedSize(i);
+            }
+        }
+        Assert.assertEquals(reachableSize, topLevelSize);
+        for(int i = 0; i != graph.getNodeCount(); ++i) {
+            Assert.assertEquals("Node " + i, expected[i], index.getRetainedSize(i));
+        }
+    }
+
+    @Test
+    public void verify_weak_referents_excluded() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(dumpFile());
+        HeapGraph full = new HeapGraph(heap, 1);
+        HeapGraph strong = new HeapGraph(heap, 1, true);
+        JavaClass weakRef = heap.getJavaClassByName("java.lang.ref.WeakReference");
+        int checked = 0;
+        for(Instance i: heap.getAllInstances()) {
+            if (!isSubclass(i.getJavaClass(), weakRef)) {
+                continue;
+            }
+            Instance referent = (Instance) i.getValueOfField("referent");
+            if (referent == null) {
+                continue;
+            }
+            int n = full.ordinalOf(i.getInstanceId());
+            int r = full.ordinalOf(referent.getInstanceId());
+            if (r < 0) {
+                continue;
+            }
+            Assert.assertEquals(count(full, n, r) - 1, count(strong, n, r));
+            Assert.assertEquals(full.getOutDegree(n) - 1, strong.getOutDegree(n));
+            ++checked;
+        }
+        Assert.assertTrue("No weak references in dump", checked > 0);
+    }
+
+    @Test
+    public void verify_fast_heap_engine() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(dumpFile());
+        DominatorIndex.enable(heap);
+        Assert.assertFalse(heap.isRetainedSizeComputed());
+        List<Instance> top = heap.getBiggestObjectsByRetainedSize(20);
+        Assert.assertTrue(heap.isRetainedSizeComputed());
+        Assert.assertEquals(20, top.size());
+
+        DominatorIndex index = DominatorIndex.of(heap);
+        long last = Long.MAX_VALUE;
+        for(Instance i: top) {
+            Assert.assertTrue(i.getRetainedSize() <= last);
+            Assert.assertTrue(i.getRetainedSize() >= i.getSize());
+            last = i.getRetainedSize();
+        }
+        long[] sizes = new long[index.getNodes().getInstanceCount()];
+        for(int i = 0; i != sizes.length; ++i) {
+            sizes[i] = index.getRetainedSize(i);
+        }
+        Arrays.sort(sizes);
+        Assert.assertEquals(sizes[sizes.length - 1], top.get(0).getRetainedSize());
+        Assert.assertEquals(sizes[sizes.length - 20], last);
+
+        long[] byClass = index.getRetainedSizeByClass();
+        List<JavaClass> classes = heap.getAllClasses();
+        Assert.assertTrue(heap.isRetainedSizeByClassComputed());
+        for(int i = 0; i != classes.size(); ++i) {
+            Assert.assertEquals(byClass[i], classes.get(i).getRetainedSizeByClass());
+        }
+    }
+
+    @Test
+    public void verify_regular_heap_engine() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createHeap(dumpFile(), null);
+        DominatorIndex.enable(heap);
+        DominatorIndex index = DominatorIndex.of(heap);
+        for(Instance i: heap.getBiggestObjectsByRetainedSize(10)) {
+            Assert.assertEquals(index.getRetainedSizeById(i.getInstanceId()), i.getRetainedSize());
+        }
+        long[] byClass = index.getRetainedSizeByClass();
+        List<JavaClass> classes = heap.getAllClasses();
+        for(int i = 0; i != classes.size(); ++i) {
+            Assert.assertEquals(byClass[i], classes.get(i).getRetainedSizeByClass());
+        }
+    }
+
+    @Test
+    public void verify_dominator_tree() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(dumpFile());
+        DominatorIndex index = new DominatorIndex(new HeapGraph(heap, 2, true), heap.getGCRoots());
+        int nodeCount = index.getNodes().getNodeCount();
+
+        int[] top = index.getTopLevelDominators();
+        assertChildren(index, DominatorIndex.ROOT, top);
+        int total = top.length;
+        for(int i = 0; i != nodeCount; ++i) {
+            int[] children = index.getChildren(i);
+            Assert.assertEquals(children.length, index.getChildCount(i));
+            assertChildren(index, i, children);
+            total += children.length;
+        }
+        Assert.assertEquals(index.getReachableCount(), total);
+
+        List<Instance> instances = index.toInstances(top, 5);
+        Assert.assertEquals(Math.min(5, top.length), instances.size());
+        for(int i = 0; i != instances.size(); ++i) {
+            Assert.assertEquals(index.getNodes().getId(top[i]), instances.get(i).getInstanceId());
+        }
+    }
+
+    @Test
+    public void verify_retained_size_by_class() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(dumpFile());
+        DominatorIndex index = new DominatorIndex(new HeapGraph(heap, 2, true), heap.getGCRoots());
+        HeapNodes nodes = index.getNodes();
+
+        long[] expected = new long[heap.getAllClasses().size()];
+        for(int i = 0; i != nodes.getInstanceCount(); ++i) {
+            Assert.assertEquals(heap.getAllClasses().get(nodes.getClassIndex(i)), nodes.getInstance(i).getJavaClass());
+            if (!index.isReachable(i)) {
+                continue;
+            }
+            int ci = nodes.getClassIndex(i);
+            boolean nested = false;
+            for(int d = index.getIdom(i); d != DominatorIndex.ROOT; d = index.getIdom(d)) {
+                if (nodes.getClassIndex(d) == ci) {
+                    nested = true;
+                    break;
+                }
+            }
+            if (!nested) {
+                expected[ci] += index.getRetainedSize(i);
+            }
+        }
+        Assert.assertEquals(-1, nodes.getClassIndex(nodes.getInstanceCount()));
+        Assert.assertArrayEquals(expected, index.getRetainedSizeByClass());
+    }
+
+    private void assertChildren(DominatorIndex index, int parent, int[] children) {
+        for(int i = 0; i != children.length; ++i) {
+            Assert.assertEquals(parent, index.getIdom(children[i]));
+            if (i > 0) {
+                Assert.assertTrue(index.getRetainedSize(children[i - 1]) >= index.getRetainedSize(children[i]));
+            }
+        }
+    }
+
+    private static int count(HeapGraph graph, int node, int target) {
+        int n = 0;
+        for(int e = graph.getOutStart(node); e != graph.getOutStart(node + 1); ++e) {
+            if (graph.getOutEdge(e) == target) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    private static boolean isSubclass(JavaClass jc, JavaClass parent) {
+        for(; jc != null; jc = jc.getSuperClass()) {
+            if (jc.equals(parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] roots(HeapGraph graph, Heap heap) {
+        int[] roots = new int[heap.getGCRoots().size()];
+        int n = 0;
+        for(GCRoot root: heap.getGCRoots()) {
+            int ordinal = graph.ordinalOf(((HprofGCRoot) root).getInstanceId());
+            if (ordinal >= 0) {
+                roots[n++] = ordinal;
+            }
+        }
+        return Arrays.copyOf(roots, n);
+    }
+
+    /**
+     * Cooper, Harvey, Kennedy fix-point algorithm, virtual root is <code>nodeCount</code>.
+     */
+    private static int[] iterativeDominators(HeapGraph graph, int[] roots) {
+        int nodeCount = graph.getNodeCount();
+        int root = nodeCount;
+        boolean[] isRoot = new boolean[nodeCount];
+        for(int r: roots) {
+            isRoot[r] = true;
+        }
+
+        // postorder
+        int[] postNum = new int[nodeCount + 1];
+        Arrays.fill(postNum, -1);
+        int[] order = new int[nodeCount + 1];
+        int count = 0;
+        boolean[] seen = new boolean[nodeCount + 1];
+        int[] stackNode = new int[nodeCount + 2];
+        int[] stackEdge = new int[nodeCount + 2];
+        int sp = 0;
+        stackNode[0] = root;
+        stackEdge[0] = 0;
+        seen[root] = true;
+        while(sp >= 0) {
+            int v = stackNode[sp];
+            int e = stackEdge[sp];
+            int next = -1;
+            if (v == root) {
+                if (e < roots.length) {
+                    next = roots[e];
+                }
+            }
+            else if (e < graph.getOutDegree(v)) {
+                next = graph.getOutEdge(graph.getOutStart(v) + e);
+            }
+            if (next < 0 && (v == root ? e >= roots.length : e >= graph.getOutDegree(v))) {
+                postNum[v] = count;
+                order[count++] = v;
+                --sp;
+                continue;
+            }
+            stackEdge[sp] = e + 1;
+            if (!seen[next]) {
+                seen[next] = true;
+                ++sp;
+                stackNode[sp] = next;
+                stackEdge[sp] = 0;
+            }
+        }
+
+        int[] doms = new int[nodeCount + 1];
+        Arrays.fill(doms, -1);
+        doms[root] = root;
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(int i = count - 2; i >= 0; --i) {
+                int v = order[i];
+                int newIdom = -1;
+                if (isRoot[v]) {
+                    newIdom = root;
+                }
+                for(int e = graph.getInStart(v); e != graph.getInStart(v + 1); ++e) {
+                    int p = graph.getInEdge(e);
+                    if (doms[p] < 0) {
+                        continue;
+                    }
+                    newIdom = newIdom < 0 ? p : intersect(doms, postNum, p, newIdom);
+                }
+                if (doms[v] != newIdom) {
+                    doms[v] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        int[] result = new int[nodeCount];
+        for(int i = 0; i != nodeCount; ++i) {
+            result[i] = doms[i] < 0 ? DominatorIndex.UNREACHABLE : doms[i] == root ? DominatorIndex.ROOT : doms[i];
+        }
+        return result;
+    }
+
+    private static int intersect(int[] doms, int[] postNum, int a, int b) {
+        while(a != b) {
+            while(postNum[a] < postNum[b]) {
+                a = doms[a];
+            }
+            while(postNum[b] < postNum[a]) {
+                b = doms[b];
+            }
+        }
+        return a;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FastHeapIndexTest {
+
+    File dump = new File("target/dump/index_test.hprof");
+    File index = new File("target/dump/index_test.hprof.idx");
+
+    @Before
+    public void copyDump() throws IOException {
+        dump.getParentFile().mkdirs();
+        index.delete();
+        InputStream is = getClass().getResourceAsStream("heap_dump.bin");
+        OutputStream os = new FileOutputStream(dump);
+        byte[] buf = new byte[64 << 10];
+        int n;
+        while((n = is.read(buf)) >= 0) {
+            os.write(buf, 0, n);
+        }
+        is.close();
+        os.close();
+    }
+
+    @Test
+    public void verify_index_reload() throws IOException {
+        Heap heap1 = HeapFactory2.createFastHeap(dump, HeapFactory2.DEFAULT_BUFFER, index);
+        Assert.assertTrue(index.isFile());
+
+        FastHprofHeap heap2 = new FastHprofHeap(FastHprofHeap.newFileBuffer(dump), 0);
+        Assert.assertTrue(FastHeapIndex.load(heap2, dump, index));
+
+        Assert.assertEquals(heap1.getAllClasses().size(), heap2.getAllClasses().size());
+        for(int i = 0; i != heap1.getAllClasses().size(); ++i) {
+            JavaClass c1 = heap1.getAllClasses().get(i);
+            JavaClass c2 = heap2.getAllClasses().get(i);
+            Assert.assertEquals(c1.getJavaClassId(), c2.getJavaClassId());
+            Assert.assertEquals(c1.getName(), c2.getName());
+        }
+
+        List<Long> ids = new ArrayList<Long>();
+        for(Instance i: heap1.getAllInstances()) {
+            ids.add(i.getInstanceId());
+        }
+        for(long id: ids) {
+            Assert.assertEquals(((HprofHeap)heap1).idToDumpOffset(id), heap2.idToDumpOffset(id));
+        }
+    }
+
+    @Test
+    public void verify_stale_index_is_ignored() throws IOException {
+        HeapFactory2.createFastHeap(dump, HeapFactory2.DEFAULT_BUFFER, index);
+        Assert.assertTrue(dump.setLastModified(dump.lastModified() - 60000));
+
+        FastHprofHeap heap = new FastHprofHeap(FastHprofHeap.newFileBuffer(dump), 0);
+        Assert.assertFalse(FastHeapIndex.load(heap, dump, index));
+
+        // index should be rebuilt
+        HeapFactory2.createFastHeap(dump, HeapFactory2.DEFAULT_BUFFER, index);
+        heap = new FastHprofHeap(FastHprofHeap.newFileBuffer(dump), 0);
+        Assert.assertTrue(FastHeapIndex.load(heap, dump, index));
+    }
+
+    @Test
+    public void verify_corrupted_index_is_rejected() throws IOException {
+        HeapFactory2.createFastHeap(dump, HeapFactory2.DEFAULT_BUFFER, index);
+        RandomAccessFile raf = new RandomAccessFile(index, "rw");
+        long pos = raf.length() / 2;
+        raf.seek(pos);
+        int b = raf.read();
+        raf.seek(pos);
+        raf.write(b ^ 0x5A);
+        raf.close();
+
+        FastHprofHeap heap = new FastHprofHeap(FastHprofHeap.newFileBuffer(dump), 0);
+        try {
+            FastHeapIndex.load(heap, dump, index);
+            Assert.fail("Corrupted index should be rejected");
+        }
+        catch(IOException e) {
+            // expected
+        }
+
+        // index should be rebuilt
+        HeapFactory2.createFastHeap(dump, HeapFactory2.DEFAULT_BUFFER, index);
+        heap = new FastHprofHeap(FastHprofHeap.newFileBuffer(dump), 0);
+        Assert.assertTrue(FastHeapIndex.load(heap, dump, index));
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FieldLayoutTest {
+
+    @Test
+    public void verify_same_as_field_values() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+        int n = 0;
+        for(Instance i: heap.getAllInstances()) {
+            FieldLayout layout = FieldLayout.of(i);
+            if (i instanceof ArrayDump) {
+                Assert.assertNull(layout);
+                continue;
+            }
+            Assert.assertSame(layout, FieldLayout.of(i.getJavaClass()));
+            List<FieldValue> values = i.getFieldValues();
+            Assert.assertEquals(values.size(), layout.getFieldCount());
+            for(int f = 0; f != values.size(); ++f) {
+                FieldValue fv = values.get(f);
+                Assert.assertEquals(fv.getField(), layout.getField(f));
+                Assert.assertEquals(fv.getField().getName(), layout.getFieldName(f));
+                if (fv instanceof HprofInstanceObjectValue) {
+                    Assert.assertTrue(layout.isObjectField(f));
+                    Assert.assertEquals(((HprofInstanceObjectValue) fv).getInstanceId(), layout.getObjectId(i, f));
+                }
+                else {
+                    Assert.assertFalse(layout.isObjectField(f));
+                    Assert.assertEquals(((HprofInstanceValue) fv).getTypeValue(), layout.getValue(i, f));
+                }
+                Assert.assertEquals(lastIndexOf(values, fv.getField().getName()), layout.indexOf(fv.getField().getName()));
+            }
+            ++n;
+        }
+        Assert.assertTrue(n > 0);
+    }
+
+    @Test
+    public void verify_typed_access() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+        JavaClass threadClass = heap.getJavaClassByName("java.lang.Thread");
+        FieldLayout layout = FieldLayout.of(threadClass);
+        int priority = layout.indexOf("priority");
+        int name = layout.indexOf("name");
+        Assert.assertEquals(-1, layout.indexOf("noSuchField"));
+        Assert.assertEquals(0, layout.indexesOf("noSuchField").length);
+        for(Instance i: threadClass.getInstances()) {
+            Assert.assertEquals(i.getValueOfField("priority"), layout.getInt(i, priority));
+            Assert.assertEquals(i.getValueOfField("name"), layout.getInstance(i, name));
+            try {
+                layout.getLong(i, priority);
+                Assert.fail("Type mismatch expected");
+            }
+            catch(IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private int lastIndexOf(List<FieldValue> values, String name) {
+        int index = -1;
+        for(int i = 0; i != values.size(); ++i) {
+            if (name.equals(values.get(i).getField().getName())) {
+                index = i;
+            }
+        }
+        return index;
+    }
+}
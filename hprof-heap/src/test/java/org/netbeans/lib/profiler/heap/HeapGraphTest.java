@@ -0,0 +1,151 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeapGraphTest {
+
+    private Heap fastHeap() throws IOException, URISyntaxException {
+        return HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+    }
+
+    @Test
+    public void verify_nodes() throws IOException, URISyntaxException {
+        Heap heap = fastHeap();
+        HeapGraph graph = new HeapGraph(heap);
+        int n = 0;
+        for(Instance i: heap.getAllInstances()) {
+            Assert.assertEquals(i.getInstanceId(), graph.getId(n));
+            Assert.assertEquals(n, graph.ordinalOf(i.getInstanceId()));
+            Assert.assertEquals(i.getSize(), graph.getSize(n));
+            Assert.assertEquals(i.getInstanceId(), graph.getInstance(n).getInstanceId());
+            Assert.assertFalse(graph.isClass(n));
+            ++n;
+        }
+        Assert.assertEquals(n, graph.getInstanceCount());
+        Assert.assertEquals(n + heap.getAllClasses().size(), graph.getNodeCount());
+        for(JavaClass jc: heap.getAllClasses()) {
+            int c = graph.ordinalOf(jc.getJavaClassId());
+            Assert.assertTrue(graph.isClass(c));
+            Assert.assertEquals(jc.getJavaClassId(), graph.getId(c));
+        }
+        Assert.assertEquals(-1, graph.ordinalOf(1));
+    }
+
+    @Test
+    public void verify_out_edges() throws IOException, URISyntaxException {
+        Heap heap = fastHeap();
+        HeapGraph graph = new HeapGraph(heap);
+        int n = 0;
+        for(Instance i: heap.getAllInstances()) {
+            List<Long> expected = new ArrayList<Long>();
+            if (i instanceof ObjectArrayInstance) {
+                for(long id: ObjectArrays.getValueIDs((ObjectArrayInstance) i)) {
+                    addIfPresent(graph, expected, id);
+                }
+            }
+            else if (!(i instanceof PrimitiveArrayInstance)) {
+                for(FieldValue fv: i.getFieldValues()) {
+                    if (fv instanceof ObjectFieldValue) {
+                        addIfPresent(graph, expected, ((ObjectFieldValue) fv).getInstanceId());
+                    }
+                }
+            }
+            List<Long> actual = new ArrayList<Long>();
+            for(int e = graph.getOutStart(n); e != graph.getOutStart(n + 1); ++e) {
+                actual.add(graph.getId(graph.getOutEdge(e)));
+            }
+            Assert.assertEquals(expected, actual);
+            ++n;
+        }
+        Assert.assertEquals(graph.getEdgeCount(), graph.getOutStart(graph.getNodeCount()));
+        Assert.assertEquals(graph.getEdgeCount(), graph.getInStart(graph.getNodeCount()));
+    }
+
+    @Test
+    public void verify_in_edges() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()), null);
+        HeapGraph graph = new HeapGraph(heap);
+        int n = 0;
+        for(Instance i: heap.getAllInstances()) {
+            if (n++ % 20 != 0) {
+                continue;
+            }
+            Set<Long> expected = new HashSet<Long>();
+            for(Value v: i.getReferences()) {
+                expected.add(v.getDefiningInstance().getInstanceId());
+            }
+            Set<Long> actual = new HashSet<Long>();
+            int o = graph.ordinalOf(i.getInstanceId());
+            for(int e = graph.getInStart(o); e != graph.getInStart(o + 1); ++e) {
+                actual.add(graph.getId(graph.getInEdge(e)));
+            }
+            Assert.assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void verify_parallel_build() throws IOException, URISyntaxException {
+        Heap heap = fastHeap();
+        HeapGraph single = new HeapGraph(heap, 1);
+        HeapGraph parallel = new HeapGraph(heap, 4);
+        Assert.assertEquals(single.getNodeCount(), parallel.getNodeCount());
+        Assert.assertEquals(single.getEdgeCount(), parallel.getEdgeCount());
+        for(int i = 0; i <= single.getNodeCount(); ++i) {
+            Assert.assertEquals(single.getOutStart(i), parallel.getOutStart(i));
+            Assert.assertEquals(single.getInStart(i), parallel.getInStart(i));
+        }
+        for(int i = 0; i != single.getEdgeCount(); ++i) {
+            Assert.assertEquals(single.getOutEdge(i), parallel.getOutEdge(i));
+            Assert.assertEquals(single.getInEdge(i), parallel.getInEdge(i));
+        }
+    }
+
+    @Test
+    public void verify_sort() {
+        Random rnd = new Random(1);
+        long[] keys = new long[10000];
+        int[] values = new int[keys.length];
+        for(int i = 0; i != keys.length; ++i) {
+            keys[i] = rnd.nextInt(5000);
+            values[i] = (int) keys[i] * 3;
+        }
+        HeapGraph.sort(keys, values, 0, keys.length);
+        for(int i = 0; i != keys.length; ++i) {
+            if (i > 0) {
+                Assert.assertTrue(keys[i - 1] <= keys[i]);
+            }
+            Assert.assertEquals(keys[i] * 3, values[i]);
+        }
+    }
+
+    private void addIfPresent(HeapGraph graph, List<Long> ids, long id) {
+        if (id != 0 && graph.ordinalOf(id) >= 0) {
+            ids.add(id);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InstanceCursorTest {
+
+    @Test
+    public void verify_fast_heap() throws IOException, URISyntaxException {
+        verify(HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI())));
+    }
+
+    @Test
+    public void verify_heap() throws IOException, URISyntaxException {
+        verify(HeapFactory2.createHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()), null));
+    }
+
+    @Test
+    public void verify_field_index() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+        JavaClass threadClass = heap.getJavaClassByName("java.lang.Thread");
+        int nameField = InstanceCursor.getFieldIndex(threadClass, "name");
+        int priorityField = InstanceCursor.getFieldIndex(threadClass, "priority");
+        Assert.assertTrue(nameField >= 0);
+        Assert.assertTrue(priorityField >= 0);
+        Assert.assertEquals(-1, InstanceCursor.getFieldIndex(threadClass, "noSuchField"));
+
+        InstanceCursor cursor = new InstanceCursor(heap);
+        int threads = 0;
+        while(cursor.next()) {
+            if (cursor.getJavaClass() == threadClass) {
+                Instance i = cursor.toInstance();
+                Assert.assertEquals(i.getValueOfField("priority"), cursor.getIntField(priorityField));
+                Instance name = (Instance) i.getValueOfField("name");
+                Assert.assertEquals(name == null ? 0 : name.getInstanceId(), cursor.getObjectField(nameField));
+                try {
+                    cursor.getLongField(priorityField);
+                    Assert.fail("Type mismatch expected");
+                }
+                catch(IllegalArgumentException e) {
+                    // expected
+                }
+                ++threads;
+            }
+        }
+        Assert.assertTrue(threads > 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void verify_unpositioned_cursor() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(new File(Heap.class.getResource("heap_dump.bin").toURI()));
+        new InstanceCursor(heap).getInstanceId();
+    }
+
+    private void verify(Heap heap) {
+        InstanceCursor cursor = new InstanceCursor(heap);
+        Iterator<Instance> it = heap.getAllInstances().iterator();
+        int n = 0;
+        while(it.hasNext()) {
+            Instance i = it.next();
+            Assert.assertTrue(cursor.next());
+            Assert.assertEquals(i.getInstanceId(), cursor.getInstanceId());
+            Assert.assertSame(i.getJavaClass(), cursor.getJavaClass());
+            Assert.assertEquals(i.getJavaClass().getJavaClassId(), cursor.getJavaClassId());
+            Assert.assertEquals(i.getSize(), cursor.getSize());
+            Assert.assertEquals(i.getInstanceId(), cursor.toInstance().getInstanceId());
+            if (i instanceof ObjectArrayInstance) {
+                Assert.assertTrue(cursor.isObjectArray());
+                List<Instance> values = ((ObjectArrayInstance) i).getValues();
+                Assert.assertEquals(values.size(), cursor.getArrayLength());
+                for(int e = 0; e != values.size(); ++e) {
+                    Instance v = values.get(e);
+                    Assert.assertEquals(v == null ? 0 : v.getInstanceId(), cursor.getElementId(e));
+                }
+            }
+            else if (i instanceof PrimitiveArrayInstance) {
+                Assert.assertTrue(cursor.isPrimitiveArray());
+                Assert.assertEquals(((PrimitiveArrayInstance) i).getLength(), cursor.getArrayLength());
+            }
+            else {
+                verifyFields(i, cursor);
+            }
+            ++n;
+        }
+        Assert.assertFalse(cursor.next());
+        Assert.assertTrue(n > 0);
+    }
+
+    private void verifyFields(Instance i, InstanceCursor cursor) {
+        List<FieldValue> values = i.getFieldValues();
+        for(int f = 0; f != values.size(); ++f) {
+            FieldValue fv = values.get(f);
+            if (fv instanceof HprofInstanceObjectValue) {
+                Assert.assertEquals(((HprofInstanceObjectValue) fv).getInstanceId(), cursor.getObjectField(f));
+            }
+            else {
+                Object expected = ((HprofInstanceValue) fv).getTypeValue();
+                Assert.assertEquals(expected, readField(cursor, f, fv.getField().getType().getName()));
+            }
+        }
+    }
+
+    private Object readField(InstanceCursor cursor, int field, String type) {
+        if ("boolean".equals(type)) {
+            return cursor.getBooleanField(field);
+        } else if ("byte".equals(type)) {
+            return cursor.getByteField(field);
+        } else if ("char".equals(type)) {
+            return cursor.getCharField(field);
+        } else if ("short".equals(type)) {
+            return cursor.getShortField(field);
+        } else if ("int".equals(type)) {
+            return cursor.getIntField(field);
+        } else if ("long".equals(type)) {
+            return cursor.getLongField(field);
+        } else if ("float".equals(type)) {
+            return cursor.getFloatField(field);
+        } else if ("double".equals(type)) {
+            return cursor.getDoubleField(field);
+        } else {
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+}
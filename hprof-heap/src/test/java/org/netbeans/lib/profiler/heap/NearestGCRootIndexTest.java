@@ -0,0 +1,199 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NearestGCRootIndexTest {
+
+    private File dumpFile() throws URISyntaxException {
+        return new File(Heap.class.getResource("heap_dump.bin").toURI());
+    }
+
+    @Test
+    public void verify_same_as_sequential_bfs() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(dumpFile());
+        HeapGraph graph = new HeapGraph(heap, 2, true);
+        int[] roots = graph.getRootOrdinals(heap.getGCRoots());
+        int[] expected = sequentialBfs(graph, roots);
+
+        int[] modes = {NearestGCRootIndex.AUTO, NearestGCRootIndex.TOP_DOWN, NearestGCRootIndex.BOTTOM_UP};
+        for(int mode: modes) {
+            for(int parallelism: new int[] {1, 4}) {
+                NearestGCRootIndex index = new NearestGCRootIndex(graph, roots, parallelism, mode);
+                int reachable = 0;
+                for(int i = 0; i != graph.getNodeCount(); ++i) {
+                    Assert.assertEquals("Node " + i + ", mode " + mode, expected[i], index.getNearestGCRootPointer(i));
+                    if (index.isReachable(i)) {
+                        ++reachable;
+                    }
+                }
+                Assert.assertEquals(reachable, index.getReachableCount());
+                if (mode == NearestGCRootIndex.TOP_DOWN) {
+                    Assert.assertEquals(0, index.getBottomUpLevels());
+                }
+                if (mode == NearestGCRootIndex.BOTTOM_UP) {
+                    Assert.assertEquals(index.getLevelCount(), index.getBottomUpLevels());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void verify_fast_heap_engine() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(dumpFile());
+        NearestGCRootIndex.enable(heap);
+        NearestGCRootIndex index = NearestGCRootIndex.of(heap);
+        verifyPaths(heap, index);
+    }
+
+    @Test
+    public void verify_regular_heap_engine() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createHeap(dumpFile(), null);
+        NearestGCRootIndex.enable(heap);
+        NearestGCRootIndex index = NearestGCRootIndex.of(heap);
+        verifyPaths(heap, index);
+    }
+
+    @Test
+    public void verify_same_path_length_as_netbeans_engine() throws IOException, URISyntaxException {
+        Heap indexed = HeapFactory2.createHeap(dumpFile(), null);
+        NearestGCRootIndex.enable(indexed);
+        NearestGCRootIndex index = NearestGCRootIndex.of(indexed);
+        HeapNodes graph = index.getNodes();
+
+        // nearest GC root pointers of this heap are computed by NetBeans engine
+        Heap heap = HeapFactory2.createHeap(dumpFile(), null);
+        int reachable = 0;
+        for(Instance i: heap.getAllInstances()) {
+            int ordinal = graph.ordinalOf(i.getInstanceId());
+            int expected = pathLength(i);
+            int actual = ordinal >= 0 && index.isReachable(ordinal) ? indexPathLength(index, ordinal) : -1;
+            Assert.assertEquals("Path length of " + i.getJavaClass().getName() + "#" + i.getInstanceNumber(), expected, actual);
+            if (actual >= 0) {
+                ++reachable;
+            }
+        }
+        Assert.assertTrue(reachable > 0);
+    }
+
+    /**
+     * @return number of steps to GC root or -1 if instance is unreachable
+     */
+    private static int pathLength(Instance i) {
+        if (i.getNearestGCRootPointer() == null) {
+            return -1;
+        }
+        int steps = 0;
+        while(!i.isGCRoot()) {
+            i = i.getNearestGCRootPointer();
+            ++steps;
+        }
+        return steps;
+    }
+
+    private static int indexPathLength(NearestGCRootIndex index, int ordinal) {
+        int steps = 0;
+        while(true) {
+            int p = index.getNearestGCRootPointer(ordinal);
+            if (p == NearestGCRootIndex.ROOT) {
+                return steps;
+            }
+            ordinal = p;
+            ++steps;
+        }
+    }
+
+    private void verifyPaths(Heap heap, NearestGCRootIndex index) {
+        HeapNodes graph = index.getNodes();
+        int checked = 0;
+        for(Instance i: heap.getAllInstances()) {
+            int ordinal = graph.ordinalOf(i.getInstanceId());
+            if (!index.isReachable(ordinal)) {
+                Assert.assertNull(i.getNearestGCRootPointer());
+                continue;
+            }
+            Instance p = i;
+            int steps = 0;
+            while(!p.isGCRoot()) {
+                Instance next = p.getNearestGCRootPointer();
+                Assert.assertEquals(graph.getId(index.getNearestGCRootPointer(graph.ordinalOf(p.getInstanceId()))), next.getInstanceId());
+                p = next;
+                ++steps;
+                Assert.assertTrue("Path is too long", steps < index.getLevelCount());
+            }
+            Assert.assertEquals(p.getInstanceId(), p.getNearestGCRootPointer().getInstanceId());
+            if (++checked == 500) {
+                break;
+            }
+        }
+        Assert.assertTrue(checked > 0);
+    }
+
+    /**
+     * Plain BFS, pointer is reachable predecessor with smallest ordinal on previous level.
+     */
+    private static int[] sequentialBfs(HeapGraph graph, int[] roots) {
+        int nodeCount = graph.getNodeCount();
+        int[] level = new int[nodeCount];
+        Arrays.fill(level, -1);
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        for(int r: roots) {
+            if (level[r] < 0) {
+                level[r] = 0;
+                queue[tail++] = r;
+            }
+        }
+        while(head < tail) {
+            int u = queue[head++];
+            for(int e = graph.getOutStart(u); e != graph.getOutStart(u + 1); ++e) {
+                int v = graph.getOutEdge(e);
+                if (level[v] < 0) {
+                    level[v] = level[u] + 1;
+                    queue[tail++] = v;
+                }
+            }
+        }
+        int[] result = new int[nodeCount];
+        for(int v = 0; v != nodeCount; ++v) {
+            if (level[v] < 0) {
+                result[v] = NearestGCRootIndex.UNREACHABLE;
+            }
+            else if (level[v] == 0) {
+                result[v] = NearestGCRootIndex.ROOT;
+            }
+            else {
+                int p = Integer.MAX_VALUE;
+                for(int e = graph.getInStart(v); e != graph.getInStart(v + 1); ++e) {
+                    int u = graph.getInEdge(e);
+                    if (level[u] == level[v] - 1 && u < p) {
+                        p = u;
+                    }
+                }
+                result[v] = p;
+            }
+        }
+        return result;
+    }
+}
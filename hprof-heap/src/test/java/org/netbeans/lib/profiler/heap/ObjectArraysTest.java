@@ -0,0 +1,83 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import org.gridkit.jvmtool.heapdump.io.ByteBufferPageManager;
+import org.gridkit.jvmtool.heapdump.io.PagedFileHprofByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ObjectArraysTest {
+
+    private File dump() throws URISyntaxException {
+        return new File(Heap.class.getResource("heap_dump.bin").toURI());
+    }
+
+    @Test
+    public void verify_mapped_buffer() throws IOException, URISyntaxException {
+        verify(new FastHprofHeap(HprofByteBuffer.createHprofByteBuffer(dump()), 0));
+    }
+
+    @Test
+    public void verify_paged_buffer() throws IOException, URISyntaxException {
+        // small pages, so arrays cross page boundaries
+        PagedFileHprofByteBuffer buffer = new PagedFileHprofByteBuffer(new RandomAccessFile(dump(), "r"), new ByteBufferPageManager(4 << 10, 1 << 20));
+        verify(new FastHprofHeap(buffer, 0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void verify_range_check() throws IOException, URISyntaxException {
+        Heap heap = HeapFactory2.createFastHeap(dump());
+        for(Instance i: heap.getAllInstances()) {
+            if (i instanceof ObjectArrayInstance) {
+                ObjectArrayInstance array = (ObjectArrayInstance) i;
+                ObjectArrays.getValueIDs(array, 1, new long[array.getLength()], 0, array.getLength());
+            }
+        }
+    }
+
+    private void verify(Heap heap) {
+        int arrays = 0;
+        long[] chunk = new long[3];
+        for(Instance i: heap.getAllInstances()) {
+            if (i instanceof ObjectArrayInstance) {
+                ObjectArrayInstance array = (ObjectArrayInstance) i;
+                List<Long> expected = array.getValueIDs();
+                long[] ids = ObjectArrays.getValueIDs(array);
+                Assert.assertEquals(expected.size(), ids.length);
+                for(int n = 0; n != ids.length; ++n) {
+                    Assert.assertEquals(expected.get(n).longValue(), ids[n]);
+                }
+                // read by small chunks, with offset in buffer
+                for(int base = 0; base < ids.length; base += 2) {
+                    int len = Math.min(2, ids.length - base);
+                    ObjectArrays.getValueIDs(array, base, chunk, 1, len);
+                    for(int n = 0; n != len; ++n) {
+                        Assert.assertEquals(ids[base + n], chunk[1 + n]);
+                    }
+                }
+                ++arrays;
+            }
+        }
+        Assert.assertTrue(arrays > 0);
+    }
+}
@@ -17,9 +17,17 @@ package org.netbeans.lib.profiler.heap;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Assert;
 
@@ -71,6 +79,51 @@ public class OffsetMapperTest {
         System.out.println("Heap instances: " + instances.size());
     }
 
+    @Test
+    public void verify_heap_offsets_concurrent() throws Exception {
+        final List<Long> instances = new ArrayList<Long>();
+        for(Instance i: heap.getAllInstances()) {
+            instances.add(i.getInstanceId());
+        }
+        final List<Long> expected = new ArrayList<Long>();
+        HeapOffsetMap refMap = new HeapOffsetMap((HprofHeap)heap);
+        for(long id: instances) {
+            expected.add(refMap.offset(id));
+        }
+
+        final HeapOffsetMap map = new HeapOffsetMap((HprofHeap)heap);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for(int t = 0; t != 8; ++t) {
+                final int seed = t;
+                results.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        List<Integer> order = new ArrayList<Integer>();
+                        for(int i = 0; i != instances.size(); ++i) {
+                            order.add(i);
+                        }
+                        Collections.shuffle(order, new Random(seed));
+                        int mismatches = 0;
+                        for(int n: order) {
+                            if (map.offset(instances.get(n)) != expected.get(n)) {
+                                ++mismatches;
+                            }
+                        }
+                        return mismatches;
+                    }
+                }));
+            }
+            for(Future<Integer> f: results) {
+                Assert.assertEquals(Integer.valueOf(0), f.get());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
 //    @Test
 //    public void verify_heap_offsets_for_classes() {
 //        Set<Long> instances = new TreeSet<Long>();
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.gridkit.jvmtool.heapdump.HeapHistogram;
+import org.gridkit.jvmtool.heapdump.HeapHistogram.ClassRecord;
+import org.gridkit.jvmtool.heapdump.InstanceCallback;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelHeapScannerTest {
+
+    Heap heap;
+
+    @Before
+    public void initHeap() throws IOException, URISyntaxException {
+        heap = HeapFactory2.createFastHeap(new File(getClass().getResource("heap_dump.bin").toURI()));
+    }
+
+    @Test
+    public void verify_chunks_are_record_aligned() {
+        HprofHeap hh = (HprofHeap) heap;
+        hh.getAllClasses();
+        long[] chunks = ParallelHeapScanner.splitInstanceDumps(hh, 4 << 10);
+        Assert.assertTrue(chunks.length > 2);
+        Assert.assertEquals(hh.getAllInstanceDumpBounds().startOffset, chunks[0]);
+        Assert.assertEquals(hh.getAllInstanceDumpBounds().endOffset, chunks[chunks.length - 1]);
+
+        Set<Long> recordStarts = new HashSet<Long>();
+        long[] pointer = new long[]{chunks[0]};
+        while(pointer[0] < chunks[chunks.length - 1]) {
+            recordStarts.add(pointer[0]);
+            hh.readDumpTag(pointer);
+        }
+        for(int i = 0; i != chunks.length - 1; ++i) {
+            Assert.assertTrue("Chunk " + i + " is not aligned", recordStarts.contains(chunks[i]));
+        }
+    }
+
+    @Test
+    public void verify_parallel_scan_visits_every_instance_once() {
+        Set<Long> expected = new HashSet<Long>();
+        for(Instance i: heap.getAllInstances()) {
+            expected.add(i.getInstanceId());
+        }
+
+        ParallelHeapScanner scanner = new ParallelHeapScanner(heap, 4);
+        scanner.setChunkSize(4 << 10);
+        Assert.assertTrue(scanner.isParallel());
+
+        List<IdCollector> result = scanner.scan(new ParallelHeapScanner.CallbackFactory<IdCollector>() {
+            @Override
+            public IdCollector newCallback() {
+                return new IdCollector();
+            }
+        });
+
+        Set<Long> actual = new HashSet<Long>();
+        long count = 0;
+        for(IdCollector c: result) {
+            actual.addAll(c.ids);
+            count += c.ids.size();
+        }
+
+        Assert.assertEquals(expected.size(), count);
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void verify_caller_pool_is_reused() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ParallelHeapScanner scanner = new ParallelHeapScanner(heap, pool);
+            scanner.setChunkSize(4 << 10);
+            Assert.assertTrue(scanner.isParallel());
+            for(int n = 0; n != 2; ++n) {
+                long count = 0;
+                for(IdCollector c: scanner.scan(new ParallelHeapScanner.CallbackFactory<IdCollector>() {
+                    @Override
+                    public IdCollector newCallback() {
+                        return new IdCollector();
+                    }
+                })) {
+                    count += c.ids.size();
+                }
+                Assert.assertTrue(count > 0);
+                Assert.assertFalse(pool.isShutdown());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void verify_merged_histogram() throws IOException, URISyntaxException {
+        // histogram requires instance numbers, which are not supported by fast heap
+        heap = HeapFactory2.createHeap(new File(getClass().getResource("heap_dump.bin").toURI()), null);
+        HeapHistogram expected = new HeapHistogram();
+        for(Instance i: heap.getAllInstances()) {
+            expected.accumulate(i);
+        }
+
+        ParallelHeapScanner scanner = new ParallelHeapScanner(heap, 3);
+        scanner.setChunkSize(16 << 10);
+        // ID map of regular heap is not thread safe
+        Assert.assertFalse(scanner.isParallel());
+        HeapHistogram actual = new HeapHistogram();
+        for(HeapHistogram h: scanner.scan(new ParallelHeapScanner.CallbackFactory<HeapHistogram>() {
+            @Override
+            public HeapHistogram newCallback() {
+                return new HeapHistogram();
+            }
+        })) {
+            actual.merge(h);
+        }
+
+        Assert.assertEquals(expected.getTotalCount(), actual.getTotalCount());
+        Assert.assertEquals(expected.getTotalSize(), actual.getTotalSize());
+        for(ClassRecord cr: expected.getHisto()) {
+            ClassRecord ar = actual.getClassInfo(cr.getClassName());
+            Assert.assertNotNull(cr.getClassName(), ar);
+            Assert.assertEquals(cr.getClassName(), cr.getInstanceCount(), ar.getInstanceCount());
+            Assert.assertEquals(cr.getClassName(), cr.getTotalSize(), ar.getTotalSize());
+        }
+    }
+
+    private static class IdCollector implements InstanceCallback {
+
+        Set<Long> ids = new HashSet<Long>();
+
+        @Override
+        public void feed(Instance instance) {
+            ids.add(instance.getInstanceId());
+        }
+    }
+}
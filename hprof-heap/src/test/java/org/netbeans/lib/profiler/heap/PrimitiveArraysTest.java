@@ -0,0 +1,84 @@
+/**
+ * Copyright 2014 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.netbeans.lib.profiler.heap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.util.List;
+
+import org.gridkit.jvmtool.heapdump.io.ByteBufferPageManager;
+import org.gridkit.jvmtool.heapdump.io.PagedFileHprofByteBuffer;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PrimitiveArraysTest {
+
+    static File dump = new File("target/dump/arrays_test.hprof");
+
+    @BeforeClass
+    public static void copyDump() throws IOException {
+        dump.getParentFile().mkdirs();
+        InputStream is = PrimitiveArraysTest.class.getResourceAsStream("heap_dump.bin");
+        OutputStream os = new FileOutputStream(dump);
+        byte[] buf = new byte[64 << 10];
+        int n;
+        while((n = is.read(buf)) >= 0) {
+            os.write(buf, 0, n);
+        }
+        is.close();
+        os.close();
+    }
+
+    @Test
+    public void verify_mapped_buffer() throws IOException {
+        verify(new FastHprofHeap(HprofByteBuffer.createHprofByteBuffer(dump), 0));
+    }
+
+    @Test
+    public void verify_file_buffer() throws IOException {
+        verify(new FastHprofHeap(new HprofFileBuffer(dump), 0));
+    }
+
+    @Test
+    public void verify_paged_buffer() throws IOException {
+        // small pages, so arrays cross page boundaries
+        PagedFileHprofByteBuffer buffer = new PagedFileHprofByteBuffer(new RandomAccessFile(dump, "r"), new ByteBufferPageManager(4 << 10, 1 << 20));
+        verify(new FastHprofHeap(buffer, 0));
+    }
+
+    private void verify(Heap heap) {
+        int arrays = 0;
+        for(Instance i: heap.getAllInstances()) {
+            if (i instanceof PrimitiveArrayInstance) {
+                PrimitiveArrayInstance pa = (PrimitiveArrayInstance) i;
+                Object array = PrimitiveArrays.toArray(pa);
+                List<Object> values = pa.getValues();
+                Assert.assertEquals(values.size(), Array.getLength(array));
+                for(int n = 0; n != values.size(); ++n) {
+                    Assert.assertEquals(values.get(n), String.valueOf(Array.get(array, n)));
+                }
+                ++arrays;
+            }
+        }
+        Assert.assertTrue(arrays > 0);
+    }
+}